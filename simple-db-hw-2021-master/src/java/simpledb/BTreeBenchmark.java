@@ -0,0 +1,137 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeBulkLoader;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures insert and lookup throughput of a BTreeFile with several threads,
+ * with and without lock coupling on searches (see
+ * {@link BTreeFile#setLockCoupling}).
+ * <p>
+ * Usage: java -jar dist/simpledb.jar btreebench rows ops threads...
+ * <p>
+ * For every thread count and mode a table of the given number of rows is
+ * bulk loaded with pages 70% full, then the threads run the given number of
+ * operations in total, each in its own transaction: first single tuple
+ * inserts of random keys, then equality lookups of random keys, then an even
+ * mix of both, where lookups contend with the inserts for the same pages.
+ * Transactions aborted to break a deadlock are retried and counted.
+ */
+public class BTreeBenchmark {
+    private static final int KEYS = 1000000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: btreebench rows ops threads...");
+            return;
+        }
+        int rows = Integer.parseInt(args[0]);
+        int ops = Integer.parseInt(args[1]);
+
+        System.out.println("mode\tthreads\top\tops\taborts\tms\tops/s");
+        for (int i = 2; i < args.length; i++) {
+            int threads = Integer.parseInt(args[i]);
+            run(rows, ops, threads, false);
+            run(rows, ops, threads, true);
+        }
+        BTreeFile.setLockCoupling(true);
+    }
+
+    private static void run(int rows, int ops, int threads, boolean coupling) throws Exception {
+        BTreeFile.setLockCoupling(coupling);
+        Database.resetBufferPool(Math.max(1000, rows / 50));
+        File f = File.createTempFile("btreebench", ".dat");
+        f.deleteOnExit();
+        BTreeFile table = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+        int[] keys = new Random(rows).ints(rows, 0, KEYS).sorted().toArray();
+        BTreeBulkLoader loader = new BTreeBulkLoader(table, 0.7);
+        for (int i = 0; i < rows; i++)
+            loader.add(BTreeUtility.getBTreeTuple(new int[] { keys[i], i }));
+        loader.finish();
+        String mode = coupling ? "coupling" : "2pl";
+
+        Operation insert = (tid, rand) ->
+                Database.getBufferPool().insertTuple(tid, table.getId(),
+                        BTreeUtility.getBTreeTuple(new int[] { rand.nextInt(KEYS), rand.nextInt(KEYS) }));
+        Operation lookup = (tid, rand) -> {
+            DbFileIterator it = table.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(rand.nextInt(KEYS))));
+            it.open();
+            while (it.hasNext())
+                it.next();
+            it.close();
+        };
+        report(mode, threads, "insert", ops, runThreads(threads, ops, insert));
+        report(mode, threads, "lookup", ops, runThreads(threads, ops, lookup));
+        report(mode, threads, "mixed", ops, runThreads(threads, ops, (tid, rand) -> {
+            if (rand.nextBoolean())
+                insert.run(tid, rand);
+            else
+                lookup.run(tid, rand);
+        }));
+        Database.getCatalog().clear();
+    }
+
+    private interface Operation {
+        void run(TransactionId tid, Random rand) throws Exception;
+    }
+
+    /** @return the elapsed time in ms and the number of aborts */
+    private static long[] runThreads(int threads, int ops, Operation op) throws Exception {
+        AtomicLong remaining = new AtomicLong(ops);
+        AtomicLong aborts = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        List<Exception> errors = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Random rand = new Random(6830 + t);
+            workers.add(new Thread(() -> {
+                try {
+                    while (remaining.getAndDecrement() > 0) {
+                        while (true) {
+                            TransactionId tid = new TransactionId();
+                            try {
+                                op.run(tid, rand);
+                                Database.getBufferPool().transactionComplete(tid);
+                                break;
+                            } catch (TransactionAbortedException e) {
+                                Database.getBufferPool().transactionComplete(tid, false);
+                                aborts.incrementAndGet();
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+        long ms = Math.max(1, (System.nanoTime() - start) / 1000000);
+        if (!errors.isEmpty())
+            throw errors.get(0);
+        return new long[] { ms, aborts.get() };
+    }
+
+    private static void report(String mode, int threads, String op, int ops, long[] result) {
+        System.out.println(mode + "\t" + threads + "\t" + op + "\t" + ops + "\t" + result[1] + "\t"
+                + result[0] + "\t" + (ops * 1000L / result[0]));
+    }
+}
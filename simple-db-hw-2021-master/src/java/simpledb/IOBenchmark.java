@@ -0,0 +1,75 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DirectIO;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Compares buffered and direct I/O (see {@link DirectIO}) by reading random
+ * pages of a table through BufferPools of several sizes.
+ * <p>
+ * Usage: java -jar dist/simpledb.jar iobench dataDir pages reads poolSize...
+ * <p>
+ * A table of the given number of pages is created in dataDir (which should be
+ * on the disk under test, not on tmpfs), then for every pool size and for
+ * both modes the given number of uniformly random page reads is timed. With
+ * buffered I/O, pages evicted from the BufferPool are usually found again in
+ * the OS page cache; with direct I/O every miss goes to the disk, so the
+ * buffered numbers are only comparable when the table is much larger than the
+ * memory of the machine.
+ */
+public class IOBenchmark {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("Usage: iobench dataDir pages reads poolSize...");
+            return;
+        }
+        File dir = new File(args[0]);
+        int pages = Integer.parseInt(args[1]);
+        int reads = Integer.parseInt(args[2]);
+        if (!DirectIO.isSupported())
+            System.out.println("direct I/O is not supported by this JDK, only buffered I/O is measured");
+
+        File f = File.createTempFile("iobench", ".dat", dir);
+        f.deleteOnExit();
+        f.delete();
+        BTreeFile table = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0, pages);
+
+        System.out.println("mode\tpoolPages\treads\tmisses\tms\treads/s");
+        for (int i = 3; i < args.length; i++) {
+            int poolSize = Integer.parseInt(args[i]);
+            run(table, pages, reads, poolSize, false);
+            if (DirectIO.isSupported())
+                run(table, pages, reads, poolSize, true);
+        }
+        DirectIO.setEnabled(false);
+    }
+
+    private static void run(BTreeFile table, int pages, int reads, int poolSize, boolean direct)
+            throws Exception {
+        DirectIO.setEnabled(direct);
+        BufferPool bp = Database.resetBufferPool(poolSize);
+        Random rand = new Random(6830);
+        TransactionId tid = new TransactionId();
+        int misses = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            BTreePageId pid = new BTreePageId(table.getId(), 1 + rand.nextInt(pages), BTreePageId.LEAF);
+            if (!bp.isCached(pid))
+                misses++;
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+        }
+        long ms = Math.max(1, (System.nanoTime() - start) / 1000000);
+        bp.transactionComplete(tid);
+        System.out.println((direct ? "direct" : "buffered") + "\t" + poolSize + "\t" + reads + "\t"
+                + misses + "\t" + ms + "\t" + (reads * 1000L / ms));
+    }
+}
@@ -0,0 +1,102 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.index.LsmFile;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
+import simpledb.storage.Page;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the insert throughput and the write amplification of an LsmFile
+ * and a BTreeFile.
+ * <p>
+ * Usage: java -jar dist/simpledb.jar lsmbench rows batch memtable
+ * <p>
+ * Both tables start empty and get the given number of tuples of two random
+ * ints, in transactions of batch inserts each. The LsmFile writes out its
+ * memtable every memtable tuples and merges its runs in the background; its
+ * runs are merged once more at the end and the merge is timed too. Write
+ * amplification is the number of bytes written to disk per byte of tuples
+ * inserted; for the B+ tree only the pages it writes through writePage are
+ * counted, not the empty pages it appends to its file.
+ */
+public class LsmBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: lsmbench rows batch memtable");
+            return;
+        }
+        int rows = Integer.parseInt(args[0]);
+        int batch = Integer.parseInt(args[1]);
+        int memtable = Integer.parseInt(args[2]);
+        TupleDesc td = Utility.getTupleDesc(2);
+
+        System.out.println("engine\trows\tms\tinserts/s\tMB written\twrite amp");
+        Database.resetBufferPool(1000);
+        File lf = File.createTempFile("lsmbench", ".dat");
+        lf.deleteOnExit();
+        LsmFile lsm = new LsmFile(lf, 0, td);
+        lsm.setMemtableLimit(memtable);
+        Database.getCatalog().addTable(lsm, "lsmbench");
+        lsm.startCompactor(100);
+        long start = System.nanoTime();
+        insert(lsm, rows, batch);
+        lsm.stopCompactor();
+        TransactionId tid = new TransactionId();
+        lsm.flush(tid);
+        lsm.compact(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        report("lsm", rows, td, start, lsm.getBytesWritten());
+        // the runs and the manifest are named after the log
+        File[] files = lf.getParentFile().listFiles((dir, name) -> name.startsWith(lf.getName() + "."));
+        if (files != null)
+            for (File r : files)
+                r.delete();
+
+        Database.resetBufferPool(1000);
+        File bf = File.createTempFile("lsmbench", ".dat");
+        bf.deleteOnExit();
+        BTreeUtility.createEmptyBTreeFile(bf.getAbsolutePath(), 2, 0);
+        AtomicLong btreeBytes = new AtomicLong();
+        BTreeFile btree = new BTreeFile(bf, 0, td) {
+            @Override
+            public void writePage(Page page) throws IOException {
+                btreeBytes.addAndGet(BufferPool.getPageSize());
+                super.writePage(page);
+            }
+        };
+        Database.getCatalog().addTable(btree, "btreebench");
+        start = System.nanoTime();
+        insert(btree, rows, batch);
+        report("btree", rows, td, start, btreeBytes.get());
+        Database.getCatalog().clear();
+    }
+
+    private static void insert(DbFile table, int rows, int batch) throws Exception {
+        Random rand = new Random(6830);
+        for (int done = 0; done < rows; ) {
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < batch && done < rows; i++, done++)
+                Database.getBufferPool().insertTuple(tid, table.getId(),
+                        BTreeUtility.getBTreeTuple(new int[] { rand.nextInt(), rand.nextInt() }));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    private static void report(String engine, int rows, TupleDesc td, long start, long bytes) {
+        long ms = Math.max(1, (System.nanoTime() - start) / 1000000);
+        System.out.printf("%s\t%d\t%d\t%d\t%.1f\t%.2f%n", engine, rows, ms, rows * 1000L / ms,
+                bytes / 1048576.0, bytes / ((double) rows * td.getSize()));
+    }
+}
@@ -571,7 +571,7 @@ public class Parser {
 
     public static void main(String[] argv) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 6) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -581,13 +581,28 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile] [-pagelist pageListFile]";
     static final int SLEEP_TIME = 1000;
+    /** How often the buffer pool page list is saved, in milliseconds */
+    static final int PAGE_LIST_SAVE_INTERVAL = 60 * 1000;
+    /** Number of threads prefetching the saved page list at startup */
+    static final int PAGE_LIST_PREFETCH_THREADS = 4;
 
     protected void shutdown() {
+        if (pageList != null) {
+            Database.getBufferPool().stopPageListSaver();
+            try {
+                Database.getBufferPool().savePageList(pageList);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         System.out.println("Bye");
     }
 
+    /** The file the buffer pool page list is saved to, or null */
+    protected File pageList = null;
+
     protected boolean interactive = true;
 
     protected void start(String[] argv) throws IOException {
@@ -611,6 +626,17 @@ public class Parser {
                     }
                     queryFile = argv[i];
 
+                } else if (argv[i].equals("-pagelist")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected file name after -pagelist\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    pageList = new File(argv[i]);
+                    if (pageList.exists()) {
+                        Database.getBufferPool().warmUp(pageList, PAGE_LIST_PREFETCH_THREADS);
+                    }
+                    Database.getBufferPool().startPageListSaver(pageList, PAGE_LIST_SAVE_INTERVAL);
                 } else {
                     System.out.println("Unknown argument " + argv[i] + "\n "
                             + usage);
@@ -94,6 +94,33 @@ public class SimpleDb {
                     e.printStackTrace();
                 }
 
+                break;
+            case "iobench":
+                try {
+                    String[] benchargs = new String[args.length - 1];
+                    System.arraycopy(args, 1, benchargs, 0, args.length - 1);
+                    IOBenchmark.main(benchargs);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                break;
+            case "btreebench":
+                try {
+                    String[] benchargs = new String[args.length - 1];
+                    System.arraycopy(args, 1, benchargs, 0, args.length - 1);
+                    BTreeBenchmark.main(benchargs);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                break;
+            case "lsmbench":
+                try {
+                    String[] benchargs = new String[args.length - 1];
+                    System.arraycopy(args, 1, benchargs, 0, args.length - 1);
+                    LsmBenchmark.main(benchargs);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
                 break;
             default:
                 System.err.println("Unknown command: " + args[0]);
@@ -2,6 +2,10 @@ package simpledb.common;
 
 import com.sun.xml.internal.ws.api.model.wsdl.WSDLOutput;
 import simpledb.common.Type;
+import simpledb.index.BTreeFile;
+import simpledb.index.BitmapIndex;
+import simpledb.index.SecondaryIndex;
+import simpledb.index.TrigramIndex;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
@@ -12,6 +16,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -49,6 +54,24 @@ public class Catalog {
          */
         private Map<String, Integer> nameToId;
 
+        /**
+         * key:table id
+         * value:secondary indexes of the table
+         */
+        private Map<Integer, List<SecondaryIndex>> indexes;
+
+        /**
+         * key:table id
+         * value:bitmap indexes of the table
+         */
+        private Map<Integer, List<BitmapIndex>> bitmapIndexes;
+
+        /**
+         * key:table id
+         * value:trigram indexes of the table
+         */
+        private Map<Integer, List<TrigramIndex>> trigramIndexes;
+
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -57,6 +80,9 @@ public class Catalog {
             // done
             tables = new ConcurrentHashMap<>();
             nameToId = new ConcurrentHashMap<>();
+            indexes = new ConcurrentHashMap<>();
+            bitmapIndexes = new ConcurrentHashMap<>();
+            trigramIndexes = new ConcurrentHashMap<>();
         }
 
     /**
@@ -90,6 +116,67 @@ public class Catalog {
     }
     //随机字符串作为name参数
 
+    /**
+     * Add a secondary index of a table to the catalog. The index file is
+     * added as a table under the name of the index, so the BufferPool can
+     * read its pages; the index must already contain the tuples of the table
+     * (see {@link SecondaryIndex#build}).
+     * @param index the index to add; its table must already be in the catalog
+     */
+    public void addIndex(SecondaryIndex index) {
+        addTable(index.getFile(), index.getName());
+        indexes.computeIfAbsent(index.getTableId(), k -> new CopyOnWriteArrayList<>()).add(index);
+    }
+
+    /**
+     * Returns the secondary indexes of the specified table, in the order they
+     * were added; empty if it has none.
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        List<SecondaryIndex> list = indexes.get(tableid);
+        return list == null ? Collections.emptyList() : Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Add a bitmap index of a table to the catalog. The index must already
+     * hold the tuples of the table (see {@link BitmapIndex#build} and
+     * {@link BitmapIndex#load}).
+     * @param index the index to add; its table must already be in the catalog
+     */
+    public void addBitmapIndex(BitmapIndex index) {
+        bitmapIndexes.computeIfAbsent(index.getTableId(), k -> new CopyOnWriteArrayList<>()).add(index);
+    }
+
+    /**
+     * Returns the bitmap indexes of the specified table, in the order they
+     * were added; empty if it has none.
+     */
+    public List<BitmapIndex> getBitmapIndexes(int tableid) {
+        List<BitmapIndex> list = bitmapIndexes.get(tableid);
+        return list == null ? Collections.emptyList() : Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Add a trigram index of a table to the catalog. The index file is added
+     * as a table under the name of the index, so the BufferPool can read its
+     * pages; the index must already contain the tuples of the table (see
+     * {@link TrigramIndex#build}).
+     * @param index the index to add; its table must already be in the catalog
+     */
+    public void addTrigramIndex(TrigramIndex index) {
+        addTable(index.getFile(), index.getName());
+        trigramIndexes.computeIfAbsent(index.getTableId(), k -> new CopyOnWriteArrayList<>()).add(index);
+    }
+
+    /**
+     * Returns the trigram indexes of the specified table, in the order they
+     * were added; empty if it has none.
+     */
+    public List<TrigramIndex> getTrigramIndexes(int tableid) {
+        List<TrigramIndex> list = trigramIndexes.get(tableid);
+        return list == null ? Collections.emptyList() : Collections.unmodifiableList(list);
+    }
+
     /**
      * Return the id of the table with a specified name,
      * @throws NoSuchElementException if the table doesn't exist
@@ -158,6 +245,9 @@ public class Catalog {
     public void clear() {
         // done
         this.tables.clear();
+        this.indexes.clear();
+        this.bitmapIndexes.clear();
+        this.trigramIndexes.clear();
     }
     
     /**
@@ -171,7 +261,9 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(catalogFile));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [storage]
+                //where storage is heap (the default) or btree, for a table organized as a
+                //B+ tree on its primary key
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -202,9 +294,25 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
-                addTable(tabHf,name,primaryKey);
-                System.out.println("Added table : " + name + " with schema " + t);
+                String storage = line.substring(line.indexOf(")") + 1).trim();
+                File tableFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabFile;
+                if (storage.isEmpty() || storage.equalsIgnoreCase("heap")) {
+                    tabFile = new HeapFile(tableFile, t);
+                } else if (storage.equalsIgnoreCase("btree")) {
+                    if (primaryKey.isEmpty()) {
+                        System.out.println("Table " + name + " is stored as a btree but has no pk field");
+                        System.exit(0);
+                    }
+                    tabFile = new BTreeFile(tableFile, names.indexOf(primaryKey), t);
+                } else {
+                    System.out.println("Unknown storage " + storage);
+                    System.exit(0);
+                    return;
+                }
+                addTable(tabFile,name,primaryKey);
+                System.out.println("Added table : " + name + " with schema " + t
+                        + (tabFile instanceof BTreeFile ? " organized as a B+ tree on " + primaryKey : ""));
             }
         } catch (IOException e) {
             e.printStackTrace();
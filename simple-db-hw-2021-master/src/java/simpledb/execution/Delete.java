@@ -13,6 +13,7 @@ import simpledb.transaction.TransactionId;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * The delete operator. Delete reads tuples from its child operator and removes
@@ -48,9 +49,13 @@ public class Delete extends Operator {
     public void open() throws DbException, TransactionAbortedException {
         // done
         child.open();
-        int count=0;
+        //先读完再删：B+树删除时会合并、重分布叶子，边扫边删会漏掉或重复读到元组
+        List<Tuple> doomed = new ArrayList<>();
         while(child.hasNext()){
-            Tuple next = child.next();
+            doomed.add(child.next());
+        }
+        int count=0;
+        for(Tuple next : doomed){
             count++;
             try{
                 Database.getBufferPool().deleteTuple(transactionId,next);
@@ -89,7 +94,7 @@ public class Delete extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // done
-        if(iterator!=null || iterator.hasNext())
+        if(iterator!=null && iterator.hasNext())
             return iterator.next();
         else
             return null;
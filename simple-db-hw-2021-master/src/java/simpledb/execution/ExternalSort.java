@@ -0,0 +1,330 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * ExternalSort is an operator that sorts its child like {@link OrderBy}, but
+ * never holds more than a fixed number of tuples in memory. The child is read
+ * in runs of at most runSize tuples; each run is sorted in memory and written
+ * to a temporary file, and the runs are then merged while tuples are fetched.
+ * Input that fits in a single run is sorted in memory only.
+ * <p>
+ * At most fanIn runs are merged at once, each read through a buffer of its
+ * own. If there are more runs, open merges fanIn of them at a time into a
+ * longer run on disk until fanIn runs are left. The run files are deleted
+ * by close, or by open if writing or merging them fails.
+ */
+public class ExternalSort extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    /** the number of runs merged at once if the constructor is not given one */
+    public static final int DEFAULT_FAN_IN = 64;
+
+    private OpIterator child;
+    private final TupleDesc td;
+    private final int orderByField;
+    private final boolean asc;
+    private final int runSize;
+    private final int fanIn;
+
+    /** the sorted input if it fit in one run, otherwise null */
+    private List<Tuple> memoryRun;
+    /** the sorted runs spilled to disk */
+    private final List<File> runFiles = new ArrayList<>();
+
+    private Iterator<Tuple> memoryIt;
+    private PriorityQueue<RunReader> merge;
+
+    /**
+     * Creates a new ExternalSort node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param runSize
+     *            the maximum number of tuples sorted in memory at once.
+     */
+    public ExternalSort(int orderbyField, boolean asc, OpIterator child, int runSize) {
+        this(orderbyField, asc, child, runSize, DEFAULT_FAN_IN);
+    }
+
+    /**
+     * Creates a new ExternalSort node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param runSize
+     *            the maximum number of tuples sorted in memory at once.
+     * @param fanIn
+     *            the maximum number of runs merged at once, at least 2.
+     */
+    public ExternalSort(int orderbyField, boolean asc, OpIterator child, int runSize, int fanIn) {
+        if (runSize <= 0)
+            throw new IllegalArgumentException("run size must be positive");
+        if (fanIn < 2)
+            throw new IllegalArgumentException("fan-in must be at least 2");
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByField = orderbyField;
+        this.asc = asc;
+        this.runSize = runSize;
+        this.fanIn = fanIn;
+    }
+
+    public int getOrderByField() {
+        return this.orderByField;
+    }
+
+    public boolean isASC() {
+        return this.asc;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        // drop the runs of an earlier open and the tuple Operator read ahead of them
+        close();
+
+        child.open();
+        TupleComparator cmp = new TupleComparator(orderByField, asc);
+        List<Tuple> run = new ArrayList<>();
+        try {
+            while (child.hasNext()) {
+                run.add(child.next());
+                if (run.size() == runSize) {
+                    run.sort(cmp);
+                    spill(run);
+                    run.clear();
+                }
+            }
+            run.sort(cmp);
+            if (runFiles.isEmpty()) {
+                memoryRun = run;
+            } else if (!run.isEmpty()) {
+                spill(run);
+            }
+        } catch (IOException e) {
+            deleteRuns();
+            throw new DbException("unable to write sort run: " + e.getMessage());
+        } finally {
+            child.close();
+        }
+        try {
+            mergeRuns();
+        } catch (IOException e) {
+            deleteRuns();
+            throw new DbException("unable to merge sort runs: " + e.getMessage());
+        }
+        startMerge();
+        super.open();
+    }
+
+    /** Writes a sorted run to a temporary file. */
+    private void spill(List<Tuple> run) throws IOException {
+        try (DataOutputStream dos = newRun()) {
+            for (Tuple t : run) {
+                write(dos, t);
+            }
+        }
+    }
+
+    /** Creates the temporary file of a new run and opens it for writing. */
+    private DataOutputStream newRun() throws IOException {
+        File f = File.createTempFile("sortrun", ".tmp");
+        runFiles.add(f);
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+    }
+
+    private void write(DataOutputStream dos, Tuple t) throws IOException {
+        for (int i = 0; i < td.numFields(); i++) {
+            t.getField(i).serialize(dos);
+        }
+    }
+
+    /**
+     * Merges the oldest fanIn runs into a new run until at most fanIn runs are
+     * left, so that every run is merged about as often as the others.
+     */
+    private void mergeRuns() throws IOException {
+        while (runFiles.size() > fanIn) {
+            List<File> group = new ArrayList<>(runFiles.subList(0, fanIn));
+            PriorityQueue<RunReader> readers = openRuns(group);
+            try (DataOutputStream dos = newRun()) {
+                while (!readers.isEmpty()) {
+                    RunReader r = readers.poll();
+                    write(dos, r.head);
+                    if (r.advance())
+                        readers.add(r);
+                    else
+                        r.close();
+                }
+            } finally {
+                for (RunReader r : readers)
+                    r.close();
+            }
+            for (File f : group)
+                f.delete();
+            runFiles.subList(0, fanIn).clear();
+        }
+    }
+
+    /**
+     * Opens the specified runs and reads the first tuple of each. If a run
+     * cannot be read, the runs opened so far are closed again.
+     *
+     * @return the runs that are not empty, ordered by their first tuples
+     */
+    private PriorityQueue<RunReader> openRuns(List<File> runs) throws IOException {
+        TupleComparator cmp = new TupleComparator(orderByField, asc);
+        PriorityQueue<RunReader> readers = new PriorityQueue<>(Math.max(1, runs.size()),
+                (a, b) -> cmp.compare(a.head, b.head));
+        try {
+            for (File f : runs) {
+                RunReader r = new RunReader(f);
+                boolean nonEmpty;
+                try {
+                    nonEmpty = r.advance();
+                } catch (IOException | RuntimeException e) {
+                    r.close();
+                    throw e;
+                }
+                if (nonEmpty)
+                    readers.add(r);
+                else
+                    r.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            for (RunReader r : readers)
+                r.close();
+            throw e;
+        }
+        return readers;
+    }
+
+    private void startMerge() throws DbException {
+        closeMerge();
+        if (memoryRun != null) {
+            memoryIt = memoryRun.iterator();
+            return;
+        }
+        try {
+            merge = openRuns(runFiles);
+        } catch (IOException e) {
+            throw new DbException("unable to read sort run: " + e.getMessage());
+        }
+    }
+
+    private void closeMerge() {
+        memoryIt = null;
+        if (merge != null) {
+            for (RunReader r : merge)
+                r.close();
+            merge = null;
+        }
+    }
+
+    private void deleteRuns() {
+        for (File f : runFiles)
+            f.delete();
+        runFiles.clear();
+    }
+
+    public void close() {
+        super.close();
+        closeMerge();
+        deleteRuns();
+        memoryRun = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        startMerge();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns tuples from the child operator
+     * in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws DbException, NoSuchElementException {
+        if (memoryIt != null)
+            return memoryIt.hasNext() ? memoryIt.next() : null;
+        if (merge == null || merge.isEmpty())
+            return null;
+        RunReader r = merge.poll();
+        Tuple t = r.head;
+        try {
+            if (r.advance())
+                merge.add(r);
+            else
+                r.close();
+        } catch (IOException e) {
+            throw new DbException("unable to read sort run: " + e.getMessage());
+        }
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+    /** Reads the tuples of one sorted run back from its file. */
+    private class RunReader {
+        final DataInputStream dis;
+        Tuple head;
+
+        RunReader(File f) throws IOException {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        }
+
+        /** @return false at the end of the run */
+        boolean advance() throws IOException {
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    Field f = td.getFieldType(i).parse(dis);
+                    t.setField(i, f);
+                }
+            } catch (ParseException e) {
+                // parse wraps the EOFException at the end of the run
+                head = null;
+                return false;
+            }
+            head = t;
+            return true;
+        }
+
+        void close() {
+            try {
+                dis.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
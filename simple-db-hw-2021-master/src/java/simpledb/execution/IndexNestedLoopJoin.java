@@ -0,0 +1,133 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * The IndexNestedLoopJoin operator implements an equality join by looking up
+ * the join field of each outer tuple in an index of the inner relation, so
+ * the inner relation is never scanned as a whole. It pays off when the outer
+ * relation is small compared to the inner one.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator outer;
+    private IndexOpIterator inner;
+    private final int outerField;
+    private final int innerField;
+    private Tuple outerTuple;
+    private boolean innerOpen = false;
+
+    /**
+     * Constructor.
+     *
+     * @param outer
+     *            Iterator for the left(outer) relation to join
+     * @param outerField
+     *            The field of the outer tuples to look up
+     * @param inner
+     *            Index access method for the right(inner) relation, whose
+     *            key is the join field
+     * @param innerField
+     *            The field of the inner tuples the index is keyed on
+     */
+    public IndexNestedLoopJoin(OpIterator outer, int outerField, IndexOpIterator inner, int innerField) {
+        this.outer = outer;
+        this.outerField = outerField;
+        this.inner = inner;
+        this.innerField = innerField;
+    }
+
+    /**
+     * @return the field of the outer tuples that is looked up in the index
+     */
+    public int getOuterField() {
+        return outerField;
+    }
+
+    /**
+     * @return the name of the join field of the outer relation
+     */
+    public String getJoinField1Name() {
+        return outer.getTupleDesc().getFieldName(outerField);
+    }
+
+    /**
+     * @return the name of the join field of the inner relation
+     */
+    public String getJoinField2Name() {
+        return inner.getTupleDesc().getFieldName(innerField);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(outer.getTupleDesc(), inner.getTupleDesc());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        outer.open();
+        outerTuple = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        outer.close();
+        if (innerOpen)
+            inner.close();
+        innerOpen = false;
+        outerTuple = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        outer.rewind();
+        outerTuple = null;
+    }
+
+    /**
+     * Returns the next outer tuple concatenated with one of the inner tuples
+     * whose key equals its join field, or null if there are no more.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outerTuple != null && inner.hasNext()) {
+                Tuple innerTuple = inner.next();
+                Tuple ans = new Tuple(getTupleDesc());
+                int n1 = outerTuple.getTupleDesc().numFields();
+                for (int i = 0; i < n1; i++)
+                    ans.setField(i, outerTuple.getField(i));
+                for (int i = 0; i < innerTuple.getTupleDesc().numFields(); i++)
+                    ans.setField(n1 + i, innerTuple.getField(i));
+                return ans;
+            }
+            if (!outer.hasNext())
+                return null;
+            outerTuple = outer.next();
+            //每个外表元组查一次索引
+            IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, outerTuple.getField(outerField));
+            if (innerOpen) {
+                inner.rewind(ipred);
+            } else {
+                inner.open(ipred);
+                innerOpen = true;
+            }
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{outer, inner};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        outer = children[0];
+        inner = (IndexOpIterator) children[1];
+    }
+
+}
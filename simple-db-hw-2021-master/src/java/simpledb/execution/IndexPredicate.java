@@ -1,11 +1,19 @@
 package simpledb.execution;
 
+import simpledb.storage.CompositeField;
 import simpledb.storage.Field;
 
 import java.io.Serializable;
 
 /**
  * IndexPredicate compares a field which has index on it against a given value
+ * <p>
+ * For an index keyed on several fields, the value may be a {@link CompositeField}
+ * of the first k fields of the key: the first k-1 fields of the key must equal
+ * those of the value, and the k-th field is compared using the operator. So an
+ * EQUALS predicate looks up a prefix of the key, and any other operator looks up
+ * a range of the last field of the prefix. A value that is not a CompositeField
+ * compares the first field of the key.
  * @see IndexOpIterator
  */
 public class IndexPredicate implements Serializable {
@@ -37,6 +45,59 @@ public class IndexPredicate implements Serializable {
         return op;
     }
 
+    /**
+     * @param key the key of a tuple
+     * @return true if the key satisfies this predicate
+     */
+    public boolean matches(Field key) {
+        Field[] kf = CompositeField.fieldsOf(key);
+        Field[] vf = CompositeField.fieldsOf(fieldvalue);
+        int last = vf.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (!kf[i].compare(Predicate.Op.EQUALS, vf[i]))
+                return false;
+        }
+        return kf[last].compare(op, vf[last]);
+    }
+
+    /**
+     * @param key the key of a tuple
+     * @return true if no key greater than or equal to the specified key can
+     *         satisfy this predicate, so a search in key order can stop
+     */
+    public boolean isPast(Field key) {
+        Field[] kf = CompositeField.fieldsOf(key);
+        Field[] vf = CompositeField.fieldsOf(fieldvalue);
+        int last = vf.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (!kf[i].compare(Predicate.Op.EQUALS, vf[i]))
+                return kf[i].compare(Predicate.Op.GREATER_THAN, vf[i]);
+        }
+        switch (op) {
+        case EQUALS:
+            return kf[last].compare(Predicate.Op.GREATER_THAN, vf[last]);
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            return !kf[last].compare(op, vf[last]);
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return the smallest key a search in key order has to start from (keys
+     *         equal to it included, unless the operator is GREATER_THAN), or null
+     *         if the search starts from the smallest key
+     */
+    public Field getLowerBound() {
+        if (op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ)
+            return fieldvalue;
+        if (fieldvalue instanceof CompositeField && ((CompositeField) fieldvalue).numFields() > 1)
+            return ((CompositeField) fieldvalue).prefix(((CompositeField) fieldvalue).numFields() - 1);
+        return null;
+    }
+
     /** Return true if the fieldvalue in the supplied predicate
         is satisfied by this predicate's fieldvalue and
         operator.
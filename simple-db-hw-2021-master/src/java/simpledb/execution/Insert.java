@@ -10,6 +10,7 @@ import simpledb.common.Type;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * Inserts tuples read from the child operator into the tableId specified in the
@@ -18,6 +19,8 @@ import java.util.Iterator;
 public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
+    /** The number of tuples passed to BufferPool.insertTuples at once */
+    private static final int BATCH_SIZE = 1024;
     private TransactionId transactionId;
     private OpIterator child;
     private int tableId;
@@ -55,13 +58,18 @@ public class Insert extends Operator {
         // done
         child.open();
         int count=0;
+        //攒一批再插入，B+树可以按键排序后顺着叶子批量插入
+        List<Tuple> batch = new ArrayList<>();
         while(child.hasNext()){
-            Tuple next = child.next();
+            batch.add(child.next());
             count++;
-            try{
-                Database.getBufferPool().insertTuple(transactionId,tableId,next);//负责实际的插入操作
-            }catch(IOException e){
-                e.printStackTrace();
+            if(batch.size() == BATCH_SIZE || !child.hasNext()){
+                try{
+                    Database.getBufferPool().insertTuples(transactionId,tableId,batch);//负责实际的插入操作
+                }catch(IOException e){
+                    e.printStackTrace();
+                }
+                batch.clear();
             }
         }
         Tuple tuple = new Tuple(getTupleDesc());
@@ -94,7 +102,7 @@ public class Insert extends Operator {
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
      * @see Database#getBufferPool
-     * @see BufferPool#insertTuple
+     * @see BufferPool#insertTuples
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // done
@@ -0,0 +1,302 @@
+package simpledb.index;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BTreeBulkLoader builds a BTreeFile bottom-up from a stream of tuples sorted
+ * on the key field, without going through BTreeFile.insertTuple and without
+ * holding the input in memory (unlike BTreeFileEncoder). Use
+ * {@link simpledb.execution.ExternalSort} to produce the stream from unsorted
+ * input that does not fit in memory.
+ * <p>
+ * Leaf pages are packed to the fill factor, and each level of internal pages
+ * is built from the level below it as its pages complete, so memory use is
+ * about one and a half pages per level of the tree. To keep every page
+ * except the root at least half full, each level holds back enough items
+ * that the last one or two pages of the level can be balanced when the input
+ * ends.
+ * <p>
+ * Page numbers are assigned in the order pages complete, and pages are
+ * written straight to the file in roughly that order; a page is written as
+ * soon as its parent and right sibling are known.
+ */
+public class BTreeBulkLoader {
+	private final BTreeFile bf;
+	private final int tableid;
+	private final int keyField;
+	private final int[] keyFields;
+	private final int npagebytes;
+	private final int numFields;
+	private final Type[] typeAr;
+	private final Type[] keyTypes;
+
+	private final int maxTuples;
+	private final int leafTarget;
+	private final int leafMin;
+	private final int maxChildren;
+	private final int childTarget;
+	private final int childMin;
+	private final int keyArea; // the bytes an internal page has for front coded keys, or 0
+
+	private RandomAccessFile raf;
+	private int lastPageNo = 0;
+	private Field lastKey = null;
+	private final List<Tuple> leafBuffer = new ArrayList<>();
+	private PendingPage lastLeaf = null;
+	/**
+	 * levels.get(i) holds the completed pages of height i (0 is the leaves)
+	 * waiting for their parent page to complete
+	 */
+	private final List<List<PendingPage>> levels = new ArrayList<>();
+
+	/**
+	 * A completed page whose parent, and for a leaf whose right sibling, may
+	 * not be known yet, so it has not been written.
+	 */
+	private static class PendingPage {
+		final BTreePageId pid;
+		final Field lowKey; // the smallest key in the subtree of this page
+		final Field highKey; // the largest key in the subtree of this page
+		final byte[] data;
+
+		PendingPage(BTreePageId pid, Field lowKey, Field highKey, byte[] data) {
+			this.pid = pid;
+			this.lowKey = lowKey;
+			this.highKey = highKey;
+			this.data = data;
+		}
+
+		void setPointer(int offset, BTreePageId id) {
+			ByteBuffer.wrap(data).putInt(offset, id == null ? 0 : id.getPageNumber());
+		}
+	}
+
+	/**
+	 * Creates a loader for an empty BTreeFile.
+	 *
+	 * @param bf - the BTreeFile to load, whose file must be empty
+	 * @param fillFactor - the fraction of each page to fill, between 0 and 1; values below
+	 * the minimum occupancy of a B+ tree page are raised to it
+	 * @throws DbException if the file is not empty
+	 */
+	public BTreeBulkLoader(BTreeFile bf, double fillFactor) throws DbException {
+		if (fillFactor <= 0 || fillFactor > 1)
+			throw new IllegalArgumentException("fill factor must be in (0, 1]");
+		if (bf.getFile().length() > 0)
+			throw new DbException("bulk loading requires an empty BTreeFile");
+		this.bf = bf;
+		this.tableid = bf.getId();
+		this.keyField = bf.keyField();
+		this.keyFields = bf.keyFields();
+		this.npagebytes = BufferPool.getPageSize();
+		TupleDesc td = bf.getTupleDesc();
+		this.numFields = td.numFields();
+		this.typeAr = new Type[numFields];
+		for (int i = 0; i < numFields; i++) {
+			typeAr[i] = td.getFieldType(i);
+		}
+		this.keyTypes = new Type[keyFields.length];
+		for (int i = 0; i < keyFields.length; i++) {
+			keyTypes[i] = typeAr[keyFields[i]];
+		}
+
+		// same page geometry as BTreeFileEncoder
+		int leafpointerbytes = 3 * BTreePage.INDEX_SIZE;
+		this.maxTuples = (npagebytes * 8 - leafpointerbytes * 8) / (td.getSize() * 8 + 1);
+		this.leafMin = maxTuples / 2;
+		this.leafTarget = Math.max(Math.max(1, leafMin), (int) (maxTuples * fillFactor));
+
+		int maxEntries = BTreeInternalPage.getMaxEntries(keyTypes, npagebytes);
+		this.maxChildren = maxEntries + 1;
+		this.childMin = maxEntries / 2 + 1;
+		this.childTarget = Math.max(Math.max(2, childMin), (int) (maxEntries * fillFactor) + 1);
+		this.keyArea = BTreeInternalPage.isFrontCoded(keyTypes) ? BTreeInternalPage.getKeyAreaSize(keyTypes, maxEntries) : 0;
+	}
+
+	/**
+	 * Loads all tuples of an iterator, sorted on the key field of bf, into bf.
+	 *
+	 * @param bf - the BTreeFile to load, whose file must be empty
+	 * @param sorted - the tuples in key order
+	 * @param fillFactor - the fraction of each page to fill
+	 * @return the number of tuples loaded
+	 */
+	public static int load(BTreeFile bf, OpIterator sorted, double fillFactor)
+			throws DbException, IOException, TransactionAbortedException {
+		BTreeBulkLoader loader = new BTreeBulkLoader(bf, fillFactor);
+		int count = 0;
+		sorted.open();
+		try {
+			while (sorted.hasNext()) {
+				loader.add(sorted.next());
+				count++;
+			}
+		} finally {
+			sorted.close();
+		}
+		loader.finish();
+		return count;
+	}
+
+	/**
+	 * Adds the next tuple.
+	 *
+	 * @throws DbException if its key is smaller than the key of the previous tuple
+	 */
+	public void add(Tuple t) throws DbException, IOException {
+		Field key = bf.getKey(t);
+		if (lastKey != null && key.compare(Op.LESS_THAN, lastKey))
+			throw new DbException("tuples are not sorted on the key field");
+		lastKey = key;
+		if (raf == null)
+			raf = new RandomAccessFile(bf.getFile(), "rw");
+
+		leafBuffer.add(t);
+		// only complete a leaf once the tuples after it can fill a page to the minimum
+		if (leafBuffer.size() >= leafTarget + leafMin) {
+			List<Tuple> page = leafBuffer.subList(0, leafTarget);
+			emitLeaf(new ArrayList<>(page));
+			page.clear();
+		}
+	}
+
+	/**
+	 * Writes out the remaining pages and the root pointer. The BTreeFile is
+	 * complete afterwards; no more tuples may be added.
+	 */
+	public void finish() throws IOException {
+		if (raf == null)
+			return; // no tuples: leave the file empty, BTreeFile creates the root on first use
+		try {
+			// the remaining tuples fill one page, or two pages at least half full
+			int r = leafBuffer.size();
+			if (r > maxTuples) {
+				emitLeaf(new ArrayList<>(leafBuffer.subList(0, r / 2)));
+				emitLeaf(new ArrayList<>(leafBuffer.subList(r / 2, r)));
+			} else if (r > 0) {
+				emitLeaf(new ArrayList<>(leafBuffer));
+			}
+			leafBuffer.clear();
+
+			for (int level = 0; ; level++) {
+				List<PendingPage> children = levels.get(level);
+				if (children.size() == 1 && levels.size() == level + 1) {
+					// the only page of the top level is the root
+					PendingPage root = children.get(0);
+					writePage(root, null);
+					raf.seek(0);
+					raf.write(BTreeFileEncoder.convertToRootPtrPage(root.pid.getPageNumber(), root.pid.pgcateg(), 0));
+					break;
+				}
+				// the remaining children fill one page, or two pages at least half full,
+				// unless their keys are too long for that
+				List<PendingPage> rest = new ArrayList<>(children);
+				while (fittingChildren(rest, maxChildren) < rest.size()) {
+					int c = rest.size();
+					int n = fittingChildren(rest, maxChildren);
+					if (n >= c / 2 && fittingChildren(rest.subList(c / 2, c), maxChildren) == c - c / 2) {
+						n = c / 2;
+					} else if (n == c - 1) {
+						n--; // leave at least two children for the last page
+					}
+					emitInternal(level, new ArrayList<>(rest.subList(0, n)));
+					rest = new ArrayList<>(rest.subList(n, c));
+				}
+				emitInternal(level, rest);
+				children.clear();
+			}
+		} finally {
+			raf.close();
+			raf = null;
+		}
+	}
+
+	private void emitLeaf(List<Tuple> tuples) throws IOException {
+		BTreePageId pid = new BTreePageId(tableid, ++lastPageNo, BTreePageId.LEAF);
+		// the tuples are in key order already, and the encoder's sort on the first key field is stable
+		byte[] data = BTreeFileEncoder.convertToLeafPage(tuples, npagebytes, numFields, typeAr, keyField);
+		PendingPage page = new PendingPage(pid, bf.getKey(tuples.get(0)),
+				bf.getKey(tuples.get(tuples.size() - 1)), data);
+		// pointers: parent, left sibling, right sibling
+		if (lastLeaf != null) {
+			page.setPointer(BTreePage.INDEX_SIZE, lastLeaf.pid);
+			lastLeaf.setPointer(2 * BTreePage.INDEX_SIZE, pid);
+		}
+		lastLeaf = page;
+		addChild(0, page);
+	}
+
+	private void addChild(int level, PendingPage page) throws IOException {
+		while (levels.size() <= level) {
+			levels.add(new ArrayList<>());
+		}
+		List<PendingPage> children = levels.get(level);
+		children.add(page);
+		// only complete a parent once the children after it can fill a page to the minimum
+		int n = fittingChildren(children, childTarget);
+		if (children.size() >= n + childMin) {
+			List<PendingPage> first = children.subList(0, n);
+			emitInternal(level, new ArrayList<>(first));
+			first.clear();
+		}
+	}
+
+	/**
+	 * @return the number of the first children, at most limit, whose separators fit on
+	 * one internal page; long STRING_TYPE keys may fill a page before its slots do
+	 */
+	private int fittingChildren(List<PendingPage> children, int limit) {
+		int n = Math.min(limit, children.size());
+		if (keyArea == 0)
+			return n;
+		int bytes = 0;
+		Field prev = null;
+		for (int i = 1; i < n; i++) {
+			Field key = BTreeInternalPage.separatorKey(children.get(i - 1).highKey, children.get(i).lowKey);
+			bytes += BTreeInternalPage.getKeyBytes(prev, key);
+			if (bytes > keyArea)
+				return i;
+			prev = key;
+		}
+		return n;
+	}
+
+	/**
+	 * Completes an internal page over the specified children, which are then
+	 * written since their parent is known.
+	 */
+	private void emitInternal(int level, List<PendingPage> children) throws IOException {
+		BTreePageId pid = new BTreePageId(tableid, ++lastPageNo, BTreePageId.INTERNAL);
+		List<BTreeEntry> entries = new ArrayList<>();
+		for (int i = 1; i < children.size(); i++) {
+			Field key = BTreeInternalPage.separatorKey(children.get(i - 1).highKey, children.get(i).lowKey);
+			entries.add(new BTreeEntry(key, children.get(i - 1).pid, children.get(i).pid));
+		}
+		int childCategory = (level == 0 ? BTreePageId.LEAF : BTreePageId.INTERNAL);
+		byte[] data = BTreeFileEncoder.convertToInternalPage(entries, npagebytes, keyTypes, childCategory);
+		for (PendingPage child : children) {
+			writePage(child, pid);
+		}
+		addChild(level + 1, new PendingPage(pid, children.get(0).lowKey, children.get(children.size() - 1).highKey, data));
+	}
+
+	private void writePage(PendingPage page, BTreePageId parent) throws IOException {
+		// the parent pointer comes first on both leaf and internal pages;
+		// 0 is the root pointer page
+		page.setPointer(0, parent);
+		raf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.pid.getPageNumber() - 1) * npagebytes);
+		raf.write(page.data);
+	}
+}
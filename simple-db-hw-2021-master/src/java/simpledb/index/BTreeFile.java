@@ -1,7 +1,14 @@
 package simpledb.index;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javafx.scene.control.cell.CheckBoxTreeTableCell;
 import javafx.scene.web.WebHistory;
@@ -34,6 +41,32 @@ public class BTreeFile implements DbFile {
     private final TupleDesc td;
     private final int tableid ;
     private final int keyField;
+    private final int[] keyFields;
+
+    private static volatile boolean lockCoupling = true;
+
+    // the root page id last read from a clean root pointer page by the buffer pool cachedRootPool,
+    // or null; rootVersion is incremented whenever a transaction may change the root pointer
+    private volatile BTreePageId cachedRootId = null;
+    private volatile BufferPool cachedRootPool = null;
+    private final AtomicLong rootVersion = new AtomicLong();
+    private static final long NO_ROOT_CHECK = -1;
+
+    private final BTreeFreePageMap freePages = new BTreeFreePageMap();
+    private volatile int extentPages = 1;
+
+    private volatile int pinnedLevels = 0;
+    private volatile int prefetchLeaves = 0;
+    private final Set<BTreePageId> pinnedPages = ConcurrentHashMap.newKeySet();
+
+    private volatile double mergeThreshold = 0.5;
+    private ScheduledExecutorService compactor;
+
+    // the optional filter of the keys in the file, see enableBloomFilter; bloomChanged is set
+    // when keys were added since the filter was last saved
+    private volatile BloomFilter bloom = null;
+    private volatile boolean bloomChanged = false;
+    private final BloomFilter.Stats bloomStats = new BloomFilter.Stats();
 
     /**
      * Constructs a B+ tree file backed by the specified file.
@@ -44,9 +77,26 @@ public class BTreeFile implements DbFile {
      * @param td - the tuple descriptor of tuples in the file
      */
     public BTreeFile(File f, int key, TupleDesc td) {
+        this(f, new int[]{key}, td);
+    }
+
+    /**
+     * Constructs a B+ tree file keyed on several fields. Tuples are ordered by
+     * the values of the key fields compared lexicographically, and searches take
+     * an {@link IndexPredicate} on a prefix of the key (see {@link CompositeField}).
+     *
+     * @param f - the file that stores the on-disk backing store for this B+ tree
+     *            file.
+     * @param keys - the fields which index is keyed on, most significant first
+     * @param td - the tuple descriptor of tuples in the file
+     */
+    public BTreeFile(File f, int[] keys, TupleDesc td) {
+        if(keys.length == 0)
+            throw new IllegalArgumentException("a B+ tree needs at least one key field");
         this.f = f;
         this.tableid = f.getAbsoluteFile().hashCode();
-        this.keyField = key;
+        this.keyField = keys[0];
+        this.keyFields = keys.clone();
         this.td = td;
     }
 
@@ -89,6 +139,8 @@ public class BTreeFile implements DbFile {
     public Page readPage(PageId pid) {
         BTreePageId id = (BTreePageId) pid;
 
+        if (DirectIO.isEnabled())
+            return readPageDirect(id);
         try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
                 byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
@@ -119,9 +171,9 @@ public class BTreeFile implements DbFile {
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
                 if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
+                    return new BTreeInternalPage(id, pageBuf, keyFields);
                 } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
+                    return new BTreeLeafPage(id, pageBuf, keyFields);
                 } else { // id.pgcateg() == BTreePageId.HEADER
                     return new BTreeHeaderPage(id, pageBuf);
                 }
@@ -133,6 +185,58 @@ public class BTreeFile implements DbFile {
         // Ignore failures closing the file
     }
 
+    /**
+     * Read a page from disk with O_DIRECT, bypassing the OS page cache.
+     *
+     * @see DirectIO
+     */
+    private Page readPageDirect(BTreePageId id) {
+        try {
+            byte[] pageBuf;
+            if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+                pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
+            } else {
+                pageBuf = new byte[BufferPool.getPageSize()];
+            }
+            int retval = DirectIO.read(f, pageOffset(id), pageBuf);
+            if (retval == -1) {
+                throw new IllegalArgumentException("Read past end of table");
+            }
+            if (retval < pageBuf.length) {
+                throw new IllegalArgumentException("Unable to read "
+                        + pageBuf.length + " bytes from BTreeFile");
+            }
+            Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+            return pageFromData(id, pageBuf);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page pageFromData(PageId pid, byte[] data) throws IOException {
+        BTreePageId id = (BTreePageId) pid;
+        switch (id.pgcateg()) {
+            case BTreePageId.ROOT_PTR:
+                return new BTreeRootPtrPage(id, data);
+            case BTreePageId.INTERNAL:
+                return new BTreeInternalPage(id, data, keyFields);
+            case BTreePageId.LEAF:
+                return new BTreeLeafPage(id, data, keyFields);
+            default: // BTreePageId.HEADER
+                return new BTreeHeaderPage(id, data);
+        }
+    }
+
+    /**
+     * @return the offset of the specified page in the file
+     */
+    private static long pageOffset(BTreePageId id) {
+        if (id.pgcateg() == BTreePageId.ROOT_PTR)
+            return 0;
+        return BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize();
+    }
+
     /**
      * Write a page to disk.  This should not be called directly but should
      * be called from the BufferPool when pages are flushed to disk
@@ -143,6 +247,10 @@ public class BTreeFile implements DbFile {
         BTreePageId id = (BTreePageId) page.getId();
 
         byte[] data = page.getPageData();
+        if (DirectIO.isEnabled()) {
+            DirectIO.write(f, pageOffset(id), data);
+            return;
+        }
         RandomAccessFile rf = new RandomAccessFile(f, "rw");
         if(id.pgcateg() == BTreePageId.ROOT_PTR) {
             rf.write(data);
@@ -169,6 +277,21 @@ public class BTreeFile implements DbFile {
         return keyField;
     }
 
+    /**
+     * Returns the fields of the tuples the index is keyed on, most significant first
+     */
+    public int[] keyFields() {
+        return keyFields.clone();
+    }
+
+    /**
+     * Returns the key of a tuple of this file: the key field, or a
+     * {@link CompositeField} of the key fields
+     */
+    public Field getKey(Tuple t) {
+        return CompositeField.of(t, keyFields);
+    }
+
     /**
      * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
      * the left-most page possibly containing the key field f. It locks all internal
@@ -177,37 +300,326 @@ public class BTreeFile implements DbFile {
      *
      * If f is null, it finds the left-most leaf page -- used for the iterator
      *
+     * With lock coupling (see {@link #setLockCoupling}) the lock on each internal page
+     * is released as soon as the child on the path is locked, unless this transaction
+     * already held it before the search. Internal pages hold no tuples, so their locks
+     * only protect the path and are not needed for the rest of the transaction; a leaf
+     * stays locked until commit, and the leaf's parent pointer is enough to find the
+     * parent again when the leaf has to split or merge, since the pointer cannot change
+     * while the leaf is locked. Without lock coupling every insert would keep the root
+     * locked until commit and writers could not split any page below it concurrently.
+     *
      * @param tid - the transaction id
      * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
      * @param pid - the current page being searched
      * @param perm - the permissions with which to lock the leaf page
      * @param f - the field to search for
+     * @param release - the page through which pid was reached, whose lock is released once pid
+     *                  is locked, or null to keep it
      * @return the left-most leaf page possibly containing the key field f
      *
      */
     private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
-                                       Field f)
+                                       Field f, PageId release)
     //* If f is null, it finds the left-most leaf page -- used for the iterator
             throws DbException, TransactionAbortedException {
         // done
-        if(pid.pgcateg() == BTreePageId.LEAF)
-            return (BTreeLeafPage) getPage(tid,dirtypages,pid,perm);
-        BTreeInternalPage internalPage = (BTreeInternalPage) getPage(tid, dirtypages, pid, perm);
-        Iterator<BTreeEntry> iterator = internalPage.iterator();
-        if(f == null){
-            if(iterator.hasNext()){
-                return findLeafPage(tid,dirtypages,iterator.next().getLeftChild(), perm,f);
+        return findLeafPage(tid, dirtypages, pid, perm, f, release, 0, NO_ROOT_CHECK);
+    }
+
+    /**
+     * The recursive search of {@link #findLeafPage(TransactionId, Map, BTreePageId, Permissions, Field, PageId)},
+     * which pins the pages of the upper levels of the tree (see {@link #setPinnedLevels}).
+     *
+     * @param depth - the level of pid, 0 for the root
+     * @param version - the root version at which pid was read from the root cache, or NO_ROOT_CHECK
+     *                  if pid was read from the root pointer page
+     * @return the left-most leaf page possibly containing the key field f, or null if pid came from
+     * the root cache and turned out not to be the root any more once it was locked
+     */
+    private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
+                                       Field f, PageId release, int depth, long version)
+            throws DbException, TransactionAbortedException {
+        // the lock on a page that turns out not to be the root any more is not needed
+        PageId stale = version == NO_ROOT_CHECK || dirtypages.containsKey(pid)
+                || Database.getBufferPool().holdsLock(tid, pid) ? null : pid;
+        if(pid.pgcateg() == BTreePageId.LEAF) {
+            BTreeLeafPage leafPage = (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+            if(version != NO_ROOT_CHECK && !isRoot(leafPage, version)) {
+                if(stale != null)
+                    dirtypages.remove(pid);
+                releaseSearchLock(tid, stale);
+                return null;
             }
+            releaseSearchLock(tid, release);
+            pin(pid, depth);
+            return leafPage;
         }
-        BTreeEntry next = null;
-        while(iterator.hasNext()){//遍历entry，直到找到一个entry的key小于等于f
-            next = iterator.next();
-            Field key = next.getKey();
-            if(f.compare(Op.LESS_THAN_OR_EQ,key))
-                return findLeafPage(tid,dirtypages,next.getLeftChild(),perm,f);
+        //内部页只用来找路，按READ_ONLY加锁；锁住孩子后就可以放掉
+        PageId next = releasable(tid, dirtypages, pid);
+        BTreeInternalPage internalPage = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+        if(version != NO_ROOT_CHECK && !isRoot(internalPage, version)) {
+            releaseSearchLock(tid, stale);
+            return null;
         }
-        return findLeafPage(tid,dirtypages,next.getRightChild(),perm,f);
+        releaseSearchLock(tid, release);
+        pin(pid, depth);
+        //在页内二分查找第一个key大于等于f的entry，不用逐个构造BTreeEntry
+        return findLeafPage(tid,dirtypages,internalPage.findChildId(f),perm,f,next,depth+1,NO_ROOT_CHECK);
+
+    }
 
+    private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
+                                       Field f)
+            throws DbException, TransactionAbortedException {
+        return findLeafPage(tid, dirtypages, pid, perm, f, null);
+    }
+
+    /**
+     * Searches for the leaf page from the cached root page id, skipping the root pointer page.
+     *
+     * @return the left-most leaf page possibly containing the key field f, or null if no root
+     * page id is cached or the cached one is not the root any more
+     */
+    private BTreeLeafPage findLeafPageFromCachedRoot(TransactionId tid, Map<PageId, Page> dirtypages,
+                                                     Permissions perm, Field f)
+            throws DbException, TransactionAbortedException {
+        long version = rootVersion.get();
+        BTreePageId rootId = getCachedRootId();
+        if(rootId == null)
+            return null;
+        BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, perm, f, null, 0, version);
+        if(leafPage == null)
+            invalidateRoot();
+        return leafPage;
+    }
+
+    /**
+     * @return true if the locked page is still the root of the tree: no transaction has been
+     * allowed to change the root pointer since version, and the page's parent is the root pointer
+     */
+    private boolean isRoot(BTreePage page, long version) {
+        if(rootVersion.get() != version || page.getParentId().pgcateg() != BTreePageId.ROOT_PTR)
+            return false;
+        // a root that was merged away is left empty
+        return !(page instanceof BTreeInternalPage) || ((BTreeInternalPage) page).getNumEntries() > 0;
+    }
+
+    /**
+     * Caches the root page id of a root pointer page read at the specified version, unless the
+     * page has uncommitted changes or the root pointer may have changed since.
+     */
+    private void cacheRoot(BTreeRootPtrPage rootPtr, long version) {
+        if(rootPtr.isDirty() != null || rootPtr.getRootId() == null)
+            return;
+        synchronized(rootVersion) {
+            if(rootVersion.get() == version) {
+                cachedRootId = rootPtr.getRootId();
+                cachedRootPool = Database.getBufferPool();
+            }
+        }
+    }
+
+    /**
+     * Forgets the cached root page id; called whenever a transaction locks the root pointer
+     * page for writing, i.e. before a root split or merge.
+     */
+    private void invalidateRoot() {
+        synchronized(rootVersion) {
+            rootVersion.incrementAndGet();
+            cachedRootId = null;
+        }
+    }
+
+    /**
+     * @return the cached root page id, or null if the root pointer page has to be read, which is
+     * also the case after the buffer pool has been replaced
+     */
+    public BTreePageId getCachedRootId() {
+        return cachedRootPool == Database.getBufferPool() ? cachedRootId : null;
+    }
+
+    /**
+     * Keeps the pages of the upper levels of this B+ tree pinned in the buffer pool once they
+     * have been read, so that searches only read the lower levels and the leaves from disk.
+     * The root and the first internal levels change rarely and are read by every search.
+     * Pages of a tree with many levels are not pinned beyond the requested levels, and pages
+     * that move down when the root splits stay pinned.
+     *
+     * @param levels - the number of levels to pin, 1 for the root only, or 0 to pin nothing
+     */
+    public void setPinnedLevels(int levels) {
+        if(levels < 0)
+            throw new IllegalArgumentException("the number of pinned levels must not be negative");
+        pinnedLevels = levels;
+        for(BTreePageId pid : pinnedPages)
+            Database.getBufferPool().unpinPage(pid);
+        pinnedPages.clear();
+    }
+
+    /**
+     * @return the number of upper levels of this B+ tree pinned in the buffer pool
+     */
+    public int getPinnedLevels() {
+        return pinnedLevels;
+    }
+
+    /**
+     * Sets how many leaf pages the iterators of this B+ tree read ahead of the one they are on.
+     * The leaves are found from the child pointers of their parent and read in the background,
+     * so that a long range scan does not wait for the disk at every leaf.
+     *
+     * @param leaves - the number of leaves to read ahead, or 0 to read none
+     * @see BufferPool#prefetch
+     */
+    public void setPrefetchLeaves(int leaves) {
+        if(leaves < 0)
+            throw new IllegalArgumentException("the number of leaves to read ahead must not be negative");
+        prefetchLeaves = leaves;
+    }
+
+    /**
+     * @return the number of leaf pages the iterators of this B+ tree read ahead
+     */
+    public int getPrefetchLeaves() {
+        return prefetchLeaves;
+    }
+
+    /**
+     * Reads the ids of the leaves to the right of a leaf under the same parent, which an
+     * iterator is going to visit next. Like a search, this locks the parent page only
+     * while reading it if lock coupling is on.
+     *
+     * @param tid - the transaction id
+     * @param leafPage - the leaf page the iterator is on
+     * @param ipred - the predicate the iterator stops at, or null if it reads to the end
+     * @return the ids of the leaves in key order, up to the first one whose keys cannot
+     * satisfy ipred; empty if the leaf is the root or is not a child of its parent any more
+     */
+    List<BTreePageId> rightSiblingsOf(TransactionId tid, BTreeLeafPage leafPage, IndexPredicate ipred)
+            throws DbException, TransactionAbortedException {
+        BTreePageId parentId = leafPage.getParentId();
+        List<BTreePageId> siblings = new ArrayList<>();
+        if(parentId.pgcateg() != BTreePageId.INTERNAL)
+            return siblings;
+        PageId release = releasable(tid, new HashMap<>(), parentId);
+        BTreeInternalPage parent = (BTreeInternalPage) Database.getBufferPool().getPage(tid, parentId, Permissions.READ_ONLY);
+        boolean found = false;
+        Iterator<BTreeEntry> it = parent.iterator();
+        while(it.hasNext()) {
+            BTreeEntry e = it.next();
+            if(found) {
+                if(ipred != null && ipred.isPast(e.getKey()))
+                    break;
+                siblings.add(e.getRightChild());
+            } else if(e.getLeftChild().equals(leafPage.getId())) {
+                found = true;
+                if(ipred != null && ipred.isPast(e.getKey()))
+                    break;
+                siblings.add(e.getRightChild());
+            } else {
+                found = e.getRightChild().equals(leafPage.getId());
+            }
+        }
+        releaseSearchLock(tid, release);
+        return siblings;
+    }
+
+    /**
+     * Splits the keys of this B+ tree that may satisfy a predicate into disjoint ranges, so
+     * that the ranges can be scanned in parallel. The ranges are bounded by the keys of the
+     * highest internal level with enough of them, so they hold about as many leaves each.
+     * Like a search, this locks each internal page only while reading it if lock coupling
+     * is on.
+     *
+     * @param tid - the transaction id
+     * @param ipred - the predicate, or null for every key
+     * @param partitions - the number of ranges wanted
+     * @return the keys separating the ranges in ascending order, at most partitions - 1 of
+     * them: the i-th range holds the keys from the (i-1)-th separator, inclusive, up to the
+     * i-th one, exclusive
+     * @see ParallelBTreeScan
+     */
+    public List<Field> partitionKeys(TransactionId tid, IndexPredicate ipred, int partitions)
+            throws DbException, TransactionAbortedException {
+        Map<PageId, Page> dirtypages = new HashMap<>();
+        BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+        PageId release = releasable(tid, dirtypages, rootPtrId);
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_ONLY);
+        List<BTreePageId> level = new ArrayList<>();
+        if(rootPtr.getRootId() != null)
+            level.add(rootPtr.getRootId());
+        releaseSearchLock(tid, release);
+
+        Field lower = ipred == null ? null : ipred.getLowerBound();
+        List<Field> keys = new ArrayList<>();
+        // go down one level at a time until there are enough keys in the range
+        while(!level.isEmpty() && level.get(0).pgcateg() == BTreePageId.INTERNAL && keys.size() < partitions - 1) {
+            keys.clear();
+            List<BTreePageId> children = new ArrayList<>();
+            for(BTreePageId pid : level) {
+                release = releasable(tid, dirtypages, pid);
+                BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+                Iterator<BTreeEntry> it = page.iterator();
+                while(it.hasNext()) {
+                    BTreeEntry e = it.next();
+                    if(children.isEmpty() || !children.get(children.size() - 1).equals(e.getLeftChild()))
+                        children.add(e.getLeftChild());
+                    children.add(e.getRightChild());
+                    Field key = e.getKey();
+                    if((lower == null || key.compare(Op.GREATER_THAN, lower)) && (ipred == null || !ipred.isPast(key)))
+                        keys.add(key);
+                }
+                releaseSearchLock(tid, release);
+            }
+            level = children;
+        }
+
+        // the pages were not locked all at once, so keys may have moved between them meanwhile
+        keys.sort((k1, k2) -> k1.compare(Op.LESS_THAN, k2) ? -1 : k1.compare(Op.EQUALS, k2) ? 0 : 1);
+        List<Field> separators = new ArrayList<>();
+        for(int i = 1; i < partitions && !keys.isEmpty(); i++) {
+            Field key = keys.get(i * keys.size() / partitions);
+            if(separators.isEmpty() || key.compare(Op.GREATER_THAN, separators.get(separators.size() - 1)))
+                separators.add(key);
+        }
+        return separators;
+    }
+
+    private void pin(BTreePageId pid, int depth) {
+        if(depth < pinnedLevels) {
+            pinnedPages.add(pid);
+            Database.getBufferPool().pinPage(pid);
+        }
+    }
+
+    /**
+     * @return pid if the search may release its lock on the page after passing it: lock
+     * coupling is on, and the transaction neither holds the page already nor may dirty it;
+     * otherwise null
+     */
+    private PageId releasable(TransactionId tid, Map<PageId, Page> dirtypages, PageId pid) {
+        if(!lockCoupling || dirtypages.containsKey(pid) || Database.getBufferPool().holdsLock(tid, pid))
+            return null;
+        return pid;
+    }
+
+    private void releaseSearchLock(TransactionId tid, PageId pid) {
+        if(pid != null)
+            Database.getBufferPool().unsafeReleasePage(tid, pid);
+    }
+
+    /**
+     * Turns lock coupling on searches from the root on or off for all BTreeFiles. It is
+     * on by default; turning it off keeps every page on the path locked until commit.
+     * @see #findLeafPage(TransactionId, Map, BTreePageId, Permissions, Field, PageId)
+     */
+    public static void setLockCoupling(boolean enabled) {
+        lockCoupling = enabled;
+    }
+
+    public static boolean isLockCoupling() {
+        return lockCoupling;
     }
 
     /**
@@ -227,6 +639,29 @@ public class BTreeFile implements DbFile {
         return findLeafPage(tid, new HashMap<>(), pid, Permissions.READ_ONLY, f);
     }
 
+    /**
+     * Convenience method to find a leaf page from the root pointer page, which is locked
+     * and, with lock coupling, released again once the root page is locked.
+     * Used by the BTreeFile iterators.
+     *
+     * @param tid - the transaction id
+     * @param f - the field to search for
+     * @return the left-most leaf page possibly containing the key field f
+     */
+    BTreeLeafPage findLeafPage(TransactionId tid, Field f)
+            throws DbException, TransactionAbortedException {
+        Map<PageId, Page> dirtypages = new HashMap<>();
+        BTreeLeafPage leafPage = findLeafPageFromCachedRoot(tid, dirtypages, Permissions.READ_ONLY, f);
+        if(leafPage != null)
+            return leafPage;
+        BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+        long version = rootVersion.get();
+        PageId release = releasable(tid, dirtypages, rootPtrId);
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_ONLY);
+        cacheRoot(rootPtr, version);
+        return findLeafPage(tid, dirtypages, rootPtr.getRootId(), Permissions.READ_ONLY, f, release);
+    }
+
     /**
      * Split a leaf page to make room for new tuples and recursively split the parent node
      * as needed to accommodate a new entry. The new entry should have a key matching the key field
@@ -270,7 +705,9 @@ public class BTreeFile implements DbFile {
         Tuple upper = iterator.next();
         BTreeInternalPage parentPage = getParentWithEmptySlots(tid,dirtypages,page.getParentId(),field);
         //调用这个函数，意味着：1.parentPage是还有空槽的 2.parentPage若非根结点，没什么特殊的 ，若为根节点，它有一个子结点为老根节点，等下加一个新的子结点
-        BTreeEntry insertEntry = new BTreeEntry(upper.getField(keyField),page.getId(),newPage.getId());
+        //分隔键取能分开左右两页的最短前缀（字符串键的后缀截断）
+        Field separator = BTreeInternalPage.separatorKey(getKey(upper), getKey(newPage.iterator().next()));
+        BTreeEntry insertEntry = new BTreeEntry(separator,page.getId(),newPage.getId());
         parentPage.insertEntry(insertEntry);
         if(page.getRightSiblingId() != null){
             BTreeLeafPage right = (BTreeLeafPage) getPage(tid,dirtypages,page.getRightSiblingId(),Permissions.READ_WRITE
@@ -288,7 +725,7 @@ public class BTreeFile implements DbFile {
         dirtypages.put(parentPage.getId(), parentPage);
         dirtypages.put(page.getId(),page);
         dirtypages.put(newPage.getId(),newPage);
-        if(field.compare(Op.GREATER_THAN_OR_EQ,upper.getField(keyField)))
+        if(field.compare(Op.GREATER_THAN_OR_EQ,separator))
             return newPage;
         return page;
     }
@@ -329,7 +766,7 @@ public class BTreeFile implements DbFile {
         // should be inserted.
         BTreeInternalPage internalPage = (BTreeInternalPage) getEmptyPage(tid,dirtypages, BTreePageId.INTERNAL);
         Iterator<BTreeEntry> entryIterator = page.reverseIterator();
-        int half= page.getNumEntries() /2;
+        int half= page.getSplitSize();
         while(half>0){
             BTreeEntry entry = entryIterator.next();
             page.deleteKeyAndRightChild(entry);
@@ -483,6 +920,9 @@ public class BTreeFile implements DbFile {
             Page p = Database.getBufferPool().getPage(tid, pid, perm);//没有就去缓存池拿
             if(perm == Permissions.READ_WRITE) {//如果是写锁，加入dirtypages
                 dirtypages.put(pid, p);
+                //要改根指针了，缓存的根不再可信
+                if(pid.pgcateg() == BTreePageId.ROOT_PTR)
+                    invalidateRoot();
             }
             return p;
         }
@@ -502,27 +942,137 @@ public class BTreeFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         Map<PageId, Page> dirtypages = new HashMap<>();
 
+        BTreeLeafPage leafPage = findLeafPageForInsert(tid, dirtypages, getKey(t));
+
+        // split the leaf page if there are no more slots available
+        if(leafPage.getNumEmptySlots() == 0) {
+            leafPage = splitLeafPage(tid, dirtypages, leafPage, getKey(t));
+        }
+
+        // insert the tuple into the leaf page
+        leafPage.insertTuple(t);
+        addToBloomFilter(t);
+
+        return new ArrayList<>(dirtypages.values());//return a list of all pages that were dirtied by this operation
+    }
+
+    /**
+     * Insert several tuples into this BTreeFile. The tuples are sorted by key first, so that
+     * consecutive tuples mostly belong on the same leaf page: the tree is only searched again
+     * from the root for a tuple whose key is past the keys of the current leaf, and a leaf is
+     * split once each time it fills up rather than searched for and checked once per tuple.
+     * All the tuples are inserted as one operation, sharing one map of dirty pages.
+     *
+     * @param tid - the transaction id
+     * @param tuples - the tuples to insert, in any order
+     * @return a list of all pages that were dirtied by this operation
+     * @see #insertTuple(TransactionId, Tuple)
+     */
+    public List<Page> insertTuples(TransactionId tid, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        List<Tuple> sorted = new ArrayList<>(tuples);
+        sorted.sort((t1, t2) -> {
+            Field k1 = getKey(t1), k2 = getKey(t2);
+            return k1.compare(Op.LESS_THAN, k2) ? -1 : k1.compare(Op.EQUALS, k2) ? 0 : 1;
+        });
+
+        Map<PageId, Page> dirtypages = new HashMap<>();
+        BTreeLeafPage leafPage = null;
+        Field upperBound = null;
+        int marked = 0;
+        for(Tuple t : sorted) {
+            Field key = getKey(t);
+            //键超出了当前叶子的范围才从根重新查找
+            if(leafPage == null || (upperBound != null && key.compare(Op.GREATER_THAN, upperBound))) {
+                leafPage = findLeafPageForInsert(tid, dirtypages, key);
+                upperBound = leafUpperBound(tid, dirtypages, leafPage, key);
+            }
+            if(leafPage.getNumEmptySlots() == 0) {
+                leafPage = splitLeafPage(tid, dirtypages, leafPage, key);
+                upperBound = leafUpperBound(tid, dirtypages, leafPage, key);
+            }
+            leafPage.insertTuple(t);
+            addToBloomFilter(t);
+            //整批插完之前改过的页一直在dirtypages里，先标脏，免得缓冲池把它们当干净页换出去
+            if(dirtypages.size() != marked) {
+                for(Page p : dirtypages.values())
+                    p.markDirty(true, tid);
+                marked = dirtypages.size();
+            }
+        }
+        return new ArrayList<>(dirtypages.values());
+    }
+
+    /**
+     * Finds and locks with READ_WRITE permission the left-most leaf page corresponding to a key,
+     * from the cached root if it is still the root, and creates the root page of an empty tree.
+     *
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param key - the key of the tuple to insert
+     * @return the leaf page the tuple belongs on
+     */
+    private BTreeLeafPage findLeafPageForInsert(TransactionId tid, Map<PageId, Page> dirtypages, Field key)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeLeafPage leafPage = findLeafPageFromCachedRoot(tid, dirtypages, Permissions.READ_WRITE, key);
+        if(leafPage != null)
+            return leafPage;
+
         // get a read lock on the root pointer page and use it to locate the root page
+        long version = rootVersion.get();
+        PageId release = releasable(tid, dirtypages, BTreeRootPtrPage.getId(tableid));
         BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
+        cacheRoot(rootPtr, version);
         BTreePageId rootId = rootPtr.getRootId();
 
         if(rootId == null) { // the root has just been created, so set the root pointer to point to it
             rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
             rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
             rootPtr.setRootId(rootId);
+            release = null;
         }
+        return findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, key, release);
+    }
 
-        // find and lock the left-most leaf page corresponding to the key field,
-        // and split the leaf page if there are no more slots available
-        BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
-        if(leafPage.getNumEmptySlots() == 0) {
-            leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+    /**
+     * Finds a key up to which tuples belong on a leaf page, to tell whether the next tuples of
+     * a sorted batch can be inserted on the same leaf. It is the key of the parent entry to the
+     * right of the leaf, which cannot change while the leaf is locked but by a split of the leaf
+     * itself. If the leaf is the last child of its parent, the largest key known to belong on
+     * the leaf is used instead.
+     *
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param leafPage - the leaf page, locked with READ_WRITE permission
+     * @param key - a key which belongs on the leaf
+     * @return the largest key known to belong on the leaf, or null if every larger key does too
+     */
+    private Field leafUpperBound(TransactionId tid, Map<PageId, Page> dirtypages, BTreeLeafPage leafPage, Field key)
+            throws DbException, TransactionAbortedException {
+        if(leafPage.getRightSiblingId() == null)
+            return null;
+        BTreePageId parentId = leafPage.getParentId();
+        PageId release = releasable(tid, dirtypages, parentId);
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages, parentId, Permissions.READ_ONLY);
+        Field bound = null;
+        Iterator<BTreeEntry> it = parent.iterator();
+        while(it.hasNext()) {
+            BTreeEntry e = it.next();
+            if(e.getLeftChild().equals(leafPage.getId())) {
+                bound = e.getKey();
+                break;
+            }
         }
-
-        // insert the tuple into the leaf page
-        leafPage.insertTuple(t);
-
-        return new ArrayList<>(dirtypages.values());//return a list of all pages that were dirtied by this operation
+        releaseSearchLock(tid, release);
+        if(bound != null)
+            return bound;
+        Iterator<Tuple> last = leafPage.reverseIterator();
+        if(last.hasNext()) {
+            Field lastKey = getKey(last.next());
+            if(lastKey.compare(Op.GREATER_THAN, key))
+                return lastKey;
+        }
+        return key;
     }
 
     /**
@@ -600,18 +1150,19 @@ public class BTreeFile implements DbFile {
         int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
         if(leftSiblingId != null) {
             BTreeLeafPage leftSibling = (BTreeLeafPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
-            // if the left sibling is at minimum occupancy, merge with it. Otherwise
-            // steal some tuples from it
-            if(leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+            // if the left sibling is at minimum occupancy, or too few tuples are left to make
+            // both pages half full (a leaf deletes left under-full, see setMergeThreshold),
+            // merge with it. Otherwise steal some tuples from it
+            if(leftSibling.getNumEmptySlots() >= maxEmptySlots || !canHalfFill(page, leftSibling)) {
                 mergeLeafPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
             } else {
                 stealFromLeafPage(page, leftSibling, parent, leftEntry, false);
             }
         } else if(rightSiblingId != null) {
             BTreeLeafPage rightSibling = (BTreeLeafPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
-            // if the right sibling is at minimum occupancy, merge with it. Otherwise
-            // steal some tuples from it
-            if(rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+            // if the right sibling is at minimum occupancy, or too few tuples are left to
+            // make both pages half full, merge with it. Otherwise steal some tuples from it
+            if(rightSibling.getNumEmptySlots() >= maxEmptySlots || !canHalfFill(page, rightSibling)) {
                 mergeLeafPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
             } else {
                 stealFromLeafPage(page, rightSibling, parent, rightEntry, true);
@@ -619,6 +1170,14 @@ public class BTreeFile implements DbFile {
         }
     }
 
+    /**
+     * @return whether two leaf pages hold enough tuples for both to be at least half full
+     * after stealFromLeafPage, which always holds for a leaf that just fell below half full
+     */
+    private static boolean canHalfFill(BTreeLeafPage page, BTreeLeafPage sibling) {
+        return page.getNumTuples() + sibling.getNumTuples() >= 2 * (page.getMaxTuples() / 2);
+    }
+
     /**
      * Steal tuples from a sibling and copy them to the given page so that both pages are at least
      * half full.  Update the parent's entry so that the key matches the key field of the first
@@ -639,7 +1198,7 @@ public class BTreeFile implements DbFile {
         // Move some of the tuples from the sibling to the page so
         // that the tuples are evenly distributed. Be sure to update
         // the corresponding parent entry.
-        int stealNum = (page.getNumTuples()+sibling.getMaxTuples())/2-page.getNumTuples();
+        int stealNum = (page.getNumTuples()+sibling.getNumTuples())/2-page.getNumTuples();
         if(stealNum<0) return ;
         Iterator<Tuple> iterator;
         if(isRightSibling){
@@ -655,9 +1214,9 @@ public class BTreeFile implements DbFile {
             stealNum--;
         }
         if(isRightSibling)
-            entry.setKey(iterator.next().getField(keyField));
+            entry.setKey(getKey(iterator.next()));
         else
-            entry.setKey(next.getField(keyField));
+            entry.setKey(getKey(next));
         parent.updateEntry(entry);
     }
 
@@ -980,18 +1539,324 @@ public class BTreeFile implements DbFile {
         BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().getPageNumber(),
                 BTreePageId.LEAF);
         BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
+        if(!holdsTuple(page, t)) {
+            //元组在读出之后被合并或重分布挪到了别的叶子上，按键重新找
+            page = findTupleForDelete(tid, dirtypages, t);
+        }
         page.deleteTuple(t);
 
-        // if the page is below minimum occupancy, get some tuples from its siblings
-        // or merge with one of the siblings
-        int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
-        if(page.getNumEmptySlots() > maxEmptySlots) {
+        // if the page is below the occupancy set by setMergeThreshold, get some tuples from
+        // its siblings or merge with one of the siblings
+        if(page.getNumTuples() < (int) (page.getMaxTuples() * mergeThreshold)) {
             handleMinOccupancyPage(tid, dirtypages, page);
+            splitOverfullPages(tid, dirtypages);
         }
 
         return new ArrayList<>(dirtypages.values());
     }
 
+    /**
+     * Splits the internal pages whose keys no longer fit on them. Merging pages, moving
+     * entries between siblings and updating a parent key with a longer separator all keep
+     * the number of entries within the slots of a page, but with long STRING_TYPE keys the
+     * keys may take more room than the page has for them.
+     *
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @see BTreeInternalPage#getNumEmptySlots()
+     */
+    private void splitOverfullPages(TransactionId tid, Map<PageId, Page> dirtypages)
+            throws DbException, IOException, TransactionAbortedException {
+        boolean split = true;
+        while(split) {
+            split = false;
+            for(Page p : new ArrayList<>(dirtypages.values())) {
+                if(p instanceof BTreeInternalPage && ((BTreeInternalPage) p).isOverfull()) {
+                    BTreeInternalPage page = (BTreeInternalPage) p;
+                    splitInternalPage(tid, dirtypages, page, page.iterator().next().getKey());
+                    split = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether the slot named by the RecordId of a tuple holds the tuple on a leaf page
+     */
+    private static boolean holdsTuple(BTreeLeafPage page, Tuple t) {
+        Tuple stored;
+        try {
+            stored = page.getTuple(t.getRecordId().getTupleNumber());
+        } catch(NoSuchElementException e) {
+            return false;
+        }
+        return stored != null && sameFields(stored, t);
+    }
+
+    private static boolean sameFields(Tuple t1, Tuple t2) {
+        for(int i = 0; i < t1.getTupleDesc().numFields(); i++) {
+            if(!t1.getField(i).equals(t2.getField(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finds a tuple whose RecordId is out of date, because merges or redistributions of
+     * leaves moved it after it was read, e.g. by a Delete operator which reads all tuples
+     * to delete before it deletes them. Searches the leaves from the left-most one which
+     * may contain its key, and points the RecordId of the tuple to the slot holding an
+     * equal tuple.
+     *
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param t - the tuple to delete
+     * @return the leaf page holding the tuple, locked with READ_WRITE permission
+     * @throws DbException if no tuple of the file equals t
+     */
+    private BTreeLeafPage findTupleForDelete(TransactionId tid, Map<PageId, Page> dirtypages, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Field key = getKey(t);
+        BTreeLeafPage page = findLeafPageForInsert(tid, dirtypages, key);
+        while(page != null) {
+            Iterator<Tuple> it = page.iterator(page.findSlot(key, true));
+            while(it.hasNext()) {
+                Tuple stored = it.next();
+                if(getKey(stored).compare(Op.GREATER_THAN, key))
+                    throw new DbException("tried to delete tuple that is not in the file");
+                if(sameFields(stored, t)) {
+                    t.setRecordId(stored.getRecordId());
+                    return page;
+                }
+            }
+            BTreePageId right = page.getRightSiblingId();
+            page = right == null ? null : (BTreeLeafPage) getPage(tid, dirtypages, right, Permissions.READ_WRITE);
+        }
+        throw new DbException("tried to delete tuple that is not in the file");
+    }
+
+    /**
+     * Sets how empty a leaf page may become through deletes before deleteTuple merges it
+     * with a sibling or moves tuples into it. The default of 0.5 keeps every leaf at least
+     * half full; a lower threshold saves the merges of workloads that delete and insert
+     * around the same keys, and leaves the under-full leaves to {@link #compact}. With 0
+     * deletes never rebalance leaves, not even empty ones. Internal pages are always
+     * rebalanced as soon as they are less than half full.
+     *
+     * @param fraction - the fraction of a leaf's tuple slots below which it is rebalanced,
+     *                   between 0 and 0.5
+     */
+    public void setMergeThreshold(double fraction) {
+        if(fraction < 0 || fraction > 0.5)
+            throw new IllegalArgumentException("the merge threshold must be between 0 and 0.5");
+        mergeThreshold = fraction;
+    }
+
+    /**
+     * @return the fraction of a leaf's tuple slots below which deletes rebalance it
+     */
+    public double getMergeThreshold() {
+        return mergeThreshold;
+    }
+
+    /**
+     * Rebalances every leaf page which is less than half full, as deleteTuple does with the
+     * default merge threshold: the leaf is merged with a sibling, or takes tuples from one.
+     * The leaves are walked from left to right with READ_ONLY locks, which are released again
+     * (with lock coupling) when the leaf does not have to change. Unlike deleteTuple, this
+     * marks the pages it dirties itself, one leaf at a time, so that a pass over a large tree
+     * does not keep them all in a local map; the caller completes the transaction.
+     *
+     * @param tid - the transaction id
+     * @return the number of leaf pages that were rebalanced
+     * @see #setMergeThreshold
+     */
+    public int compact(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        int rebalanced = 0;
+        BTreeLeafPage page = findLeafPage(tid, (Field) null);
+        PageId release = null;
+        while(true) {
+            if(page.getParentId().pgcateg() != BTreePageId.ROOT_PTR
+                    && page.getNumTuples() < page.getMaxTuples() / 2) {
+                Map<PageId, Page> dirtypages = new HashMap<>();
+                page = (BTreeLeafPage) getPage(tid, dirtypages, page.getId(), Permissions.READ_WRITE);
+                handleMinOccupancyPage(tid, dirtypages, page);
+                splitOverfullPages(tid, dirtypages);
+                for(Page p : dirtypages.values())
+                    p.markDirty(true, tid);
+                release = null;
+                rebalanced++;
+            }
+            // merged into its left sibling or not, the page still points to the next leaf to check
+            BTreePageId nextId = page.getRightSiblingId();
+            if(nextId == null) {
+                releaseSearchLock(tid, release);
+                return rebalanced;
+            }
+            //锁住右兄弟之后再放掉当前叶子，这样右兄弟不会被别的事务合并掉
+            PageId next = releasable(tid, Collections.emptyMap(), nextId);
+            page = (BTreeLeafPage) Database.getBufferPool().getPage(tid, nextId, Permissions.READ_ONLY);
+            releaseSearchLock(tid, release);
+            release = next;
+        }
+    }
+
+    /**
+     * Starts a background thread which calls {@link #compact} every periodMillis
+     * milliseconds, each time in a transaction of its own. A pass which is aborted, e.g.
+     * to break a deadlock with a query, is simply retried at the next period. Replaces any
+     * compactor started before.
+     *
+     * @param periodMillis the time between two passes
+     */
+    public synchronized void startCompactor(long periodMillis) {
+        stopCompactor();
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "btree-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            TransactionId tid = new TransactionId();
+            boolean commit = false;
+            try {
+                compact(tid);
+                commit = true;
+            } catch (TransactionAbortedException e) {
+                // tried again at the next period
+            } catch (DbException | IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+            Database.getBufferPool().transactionComplete(tid, commit);
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops the thread started by {@link #startCompactor}, if any. */
+    public synchronized void stopCompactor() {
+        if(compactor != null) {
+            compactor.shutdownNow();
+            compactor = null;
+        }
+    }
+
+    /**
+     * Turns on a Bloom filter of the keys in this file, which lets an equality search on the
+     * whole key return without reading any page when the key is definitely absent. The filter
+     * is read from the file next to this one (named after it, ending in ".bloom") if it was
+     * saved when this file last changed; otherwise it is built by scanning the tree on behalf
+     * of tid, with room for twice as many keys as the file holds. From then on keys are added
+     * by insertTuple and insertTuples, and the filter is saved again when a transaction which
+     * added keys commits. Deleted keys and keys of aborted inserts stay in the filter, which
+     * only makes it let more absent keys through; disable and enable it again to rebuild it.
+     * Pages written without insertTuple, e.g. by {@link BTreeUtility}'s bulk loader, must be
+     * written before the filter is enabled.
+     *
+     * @param tid - the transaction which scans the tree if the filter has to be built
+     * @param bitsPerKey - the size of the filter in bits per key; 10 bits give a false
+     *                     positive rate of about 1%
+     */
+    public void enableBloomFilter(TransactionId tid, int bitsPerKey)
+            throws DbException, IOException, TransactionAbortedException {
+        BloomFilter bf = readBloomFilter();
+        if(bf == null) {
+            List<Field> keys = new ArrayList<>();
+            DbFileIterator it = iterator(tid);
+            it.open();
+            while(it.hasNext())
+                keys.add(getKey(it.next()));
+            it.close();
+            bf = new BloomFilter(Math.max(1024, 2 * keys.size()), bitsPerKey);
+            for(Field key : keys)
+                bf.add(key);
+            bloomChanged = true;
+        }
+        bloom = bf;
+    }
+
+    /**
+     * Turns off the Bloom filter of this file and deletes the saved filter.
+     */
+    public void disableBloomFilter() {
+        bloom = null;
+        bloomChanged = false;
+        bloomFile().delete();
+    }
+
+    /**
+     * @return true if this file has a Bloom filter, see {@link #enableBloomFilter}
+     */
+    public boolean hasBloomFilter() {
+        return bloom != null;
+    }
+
+    /**
+     * @return the outcomes of the equality searches which used the Bloom filter
+     */
+    public BloomFilter.Stats getBloomStats() {
+        return bloomStats;
+    }
+
+    private File bloomFile() {
+        return new File(f.getPath() + ".bloom");
+    }
+
+    private void addToBloomFilter(Tuple t) {
+        BloomFilter bf = bloom;
+        if(bf != null) {
+            bf.add(getKey(t));
+            bloomChanged = true;
+        }
+    }
+
+    /**
+     * @return the saved Bloom filter, or null if there is none or this file changed after
+     *         it was saved
+     */
+    private BloomFilter readBloomFilter() {
+        File bf = bloomFile();
+        if(!bf.exists())
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(bf)))) {
+            if(in.readLong() != f.length() || in.readLong() != f.lastModified())
+                return null;
+            return BloomFilter.read(in);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Saves the Bloom filter with the length and the modification time of this file, which
+     * tell whether the filter still covers all of its keys when it is read again.
+     */
+    private synchronized void writeBloomFilter(BloomFilter bf) throws IOException {
+        File tmp = new File(bloomFile().getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeLong(f.length());
+            out.writeLong(f.lastModified());
+            bf.serialize(out);
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), bloomFile().toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Saves the Bloom filter if keys were added to it, once the pages of a committed
+     * transaction are written.
+     */
+    @Override
+    public void transactionComplete(TransactionId tid, boolean commit) throws IOException {
+        BloomFilter bf = bloom;
+        if(commit && bf != null && bloomChanged) {
+            bloomChanged = false;
+            writeBloomFilter(bf);
+        }
+    }
+
     /**
      * Get a read lock on the root pointer page. Create the root pointer page and root page
      * if necessary.
@@ -1035,16 +1900,29 @@ public class BTreeFile implements DbFile {
      */
     public int getEmptyPageNo(TransactionId tid, Map<PageId, Page> dirtypages)
             throws DbException, IOException, TransactionAbortedException {
-        // get a read lock on the root pointer page and use it to locate the first header page
-        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-        BTreePageId headerId = rootPtr.getHeaderId();
+        BTreePageId headerId = null;
+        int headerPageCount = 0;
+        if(!freePages.allFull()) {
+            // start from the first header page that may have an empty slot, or from the last
+            // known one if they are all full; the header pages before it are not read
+            headerPageCount = freePages.firstFreeHeader();
+            headerId = freePages.getHeaderId(headerPageCount);
+            if(headerId == null && headerPageCount > 0)
+                headerId = freePages.getHeaderId(--headerPageCount);
+            if(headerId == null) {
+                // get a read lock on the root pointer page and use it to locate the first header page
+                BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
+                headerId = rootPtr.getHeaderId();
+                if(headerId != null && isCommitted(dirtypages, rootPtr))
+                    freePages.setFirstHeader(headerId);
+            }
+        }
         int emptyPageNo = 0;
 
         if(headerId != null) {
             BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
-            int headerPageCount = 0;
             // try to find a header page with an empty slot
-            while(headerPage != null && headerPage.getEmptySlot() == -1) {
+            while(headerPage != null && !headerRead(dirtypages, headerPageCount, headerPage)) {
                 headerId = headerPage.getNextPageId();
                 if(headerId != null) {
                     headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
@@ -1067,19 +1945,58 @@ public class BTreeFile implements DbFile {
         // or there are no free slots
         if(headerId == null) {
             synchronized(this) {
-                // create the new page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
-                byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-                bw.write(emptyData);
-                bw.close();
-                emptyPageNo = numPages();
+                emptyPageNo = freePages.takeExtentPage();
+                if(emptyPageNo == -1) {
+                    // append a whole extent of new pages, and hand out the rest of it later
+                    int pages = extentPages;
+                    BufferedOutputStream bw = new BufferedOutputStream(
+                            new FileOutputStream(f, true));
+                    bw.write(new byte[pages * BufferPool.getPageSize()]);
+                    bw.close();
+                    emptyPageNo = numPages() - pages + 1;
+                    freePages.addExtent(emptyPageNo + 1, numPages() + 1);
+                }
             }
         }
 
         return emptyPageNo;
     }
 
+    /**
+     * Records what the n-th header page says in the free page map, unless it may
+     * have uncommitted changes.
+     *
+     * @return true if the header page has an empty slot
+     */
+    private boolean headerRead(Map<PageId, Page> dirtypages, int n, BTreeHeaderPage headerPage) {
+        boolean hasEmptySlot = headerPage.getEmptySlot() != -1;
+        if(isCommitted(dirtypages, headerPage))
+            freePages.headerRead(n, headerPage, hasEmptySlot);
+        return hasEmptySlot;
+    }
+
+    /**
+     * @return true if the page has no changes that may be rolled back: it is neither dirty
+     * nor about to be marked dirty at the end of the current operation
+     */
+    private static boolean isCommitted(Map<PageId, Page> dirtypages, Page page) {
+        return page.isDirty() == null && !dirtypages.containsKey(page.getId());
+    }
+
+    /**
+     * Sets the number of pages appended to this BTreeFile at once when no page is
+     * empty. The pages of an extent are handed out to the following page allocations
+     * without reading any header page; the ones not handed out before the file is
+     * closed are left unused, like the pages of aborted transactions.
+     *
+     * @param pages - the number of pages per extent, 1 to append one page at a time
+     */
+    public void setExtentPages(int pages) {
+        if(pages < 1)
+            throw new IllegalArgumentException("an extent needs at least one page");
+        extentPages = pages;
+    }
+
     /**
      * Method to encapsulate the process of creating a new page.  It reuses old pages if possible,
      * and creates a new page if none are available.  It wipes the page on disk and in the cache and
@@ -1102,13 +2019,21 @@ public class BTreeFile implements DbFile {
         int emptyPageNo = getEmptyPageNo(tid, dirtypages);
         BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
-        // write empty page to disk
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-        rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-        rf.write(BTreePage.createEmptyPageData());
-        rf.close();
+        // write empty page to disk, holding the page's latch so that a page read ahead
+        // of a scan is either read before and inserted before the write, or read after it
+        PageLatches latches = Database.getBufferPool().getLatches();
+        long stamp = latches.writeLock(newPageId);
+        try {
+            RandomAccessFile rf = new RandomAccessFile(f, "rw");
+            rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
+            rf.write(BTreePage.createEmptyPageData());
+            rf.close();
+        } finally {
+            latches.unlockWrite(newPageId, stamp);
+        }
 
-        // make sure the page is not in the buffer pool	or in the local cache
+        // make sure the page is not in the buffer pool	or in the local cache. Not under
+        // the latch: discardPage takes the monitor of the buffer pool
         Database.getBufferPool().discardPage(newPageId);
         dirtypages.remove(newPageId);
 //因为删除页是逻辑删除。所以物理上的内容在创建新页之后，记得把新页替代可能存在的老页
@@ -1151,6 +2076,16 @@ public class BTreeFile implements DbFile {
 //			}
 //		}
 
+        // the header page is known, so the chain does not have to be read
+        int headerNo = emptyPageNo / BTreeHeaderPage.getNumSlots();
+        BTreePageId knownId = freePages.getHeaderId(headerNo);
+        if(knownId != null) {
+            BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, knownId, Permissions.READ_WRITE);
+            headerPage.markSlotUsed(emptyPageNo - headerNo * BTreeHeaderPage.getNumSlots(), false);
+            freePages.slotFreed(headerNo);
+            return;
+        }
+
         // otherwise, get a read lock on the root pointer page and use it to locate
         // the first header page
         BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
@@ -1169,29 +2104,23 @@ public class BTreeFile implements DbFile {
             rootPtr.setHeaderId(headerId);
         }
 
-        // iterate through all the existing header pages to find the one containing the slot
-        // corresponding to emptyPageNo
-        while(headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
+        // iterate through the header pages to find the one containing the slot corresponding
+        // to emptyPageNo, adding header pages after the last one until there is one
+        while((headerPageCount + 1) * BTreeHeaderPage.getNumSlots() <= emptyPageNo) {
             BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
             prevId = headerId;
             headerId = headerPage.getNextPageId();
             headerPageCount++;
-        }
 
-        // at this point headerId should either be null or set with
-        // the headerPage containing the slot corresponding to emptyPageNo.
-        // Add header pages until we have one with a slot corresponding to emptyPageNo
-        while((headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
-            BTreeHeaderPage prevPage = (BTreeHeaderPage) getPage(tid, dirtypages, prevId, Permissions.READ_WRITE);
-
-            BTreeHeaderPage headerPage = (BTreeHeaderPage) getEmptyPage(tid, dirtypages, BTreePageId.HEADER);
-            headerId = headerPage.getId();
-            headerPage.init();
-            headerPage.setPrevPageId(prevId);
-            prevPage.setNextPageId(headerId);
+            if(headerId == null) {
+                BTreeHeaderPage prevPage = (BTreeHeaderPage) getPage(tid, dirtypages, prevId, Permissions.READ_WRITE);
 
-            headerPageCount++;
-            prevId = headerId;
+                headerPage = (BTreeHeaderPage) getEmptyPage(tid, dirtypages, BTreePageId.HEADER);
+                headerId = headerPage.getId();
+                headerPage.init();
+                headerPage.setPrevPageId(prevId);
+                prevPage.setNextPageId(headerId);
+            }
         }
 
         // now headerId should be set with the headerPage containing the slot corresponding to
@@ -1199,6 +2128,7 @@ public class BTreeFile implements DbFile {
         BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
         int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots();
         headerPage.markSlotUsed(emptySlot, false);
+        freePages.slotFreed(headerPageCount);
     }
 
     /**
@@ -1212,6 +2142,16 @@ public class BTreeFile implements DbFile {
      * @return an iterator for the filtered tuples
      */
     public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        BloomFilter bf = bloom;
+        if(bf != null && ipred.getOp() == Op.EQUALS
+                && CompositeField.fieldsOf(ipred.getField()).length == keyFields.length) {
+            if(!bf.mightContain(ipred.getField())) {
+                // the key is definitely absent, so no page has to be read
+                bloomStats.negative();
+                return new BTreeBloomLookupIterator(null, null);
+            }
+            return new BTreeBloomLookupIterator(new BTreeSearchIterator(this, tid, ipred), bloomStats);
+        }
         return new BTreeSearchIterator(this, tid, ipred);
     }
 
@@ -1236,6 +2176,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
     Iterator<Tuple> it = null;
     BTreeLeafPage curp = null;
+    BTreeReadAhead readAhead = null;
 
     final TransactionId tid;
     final BTreeFile f;
@@ -1254,11 +2195,10 @@ class BTreeFileIterator extends AbstractDbFileIterator {
      * Open this iterator by getting an iterator on the first leaf page
      */
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-                tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = rootPtr.getRootId();
-        curp = f.findLeafPage(tid, root, null);
+        curp = f.findLeafPage(tid, null);
         it = curp.iterator();
+        readAhead = new BTreeReadAhead(f, tid, null);
+        readAhead.visit(curp);
     }
 
     /**
@@ -1279,6 +2219,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
             } else {
                 curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
                         nextp, Permissions.READ_ONLY);
+                readAhead.visit(curp);
                 it = curp.iterator();
                 if (!it.hasNext())
                     it = null;
@@ -1316,6 +2257,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
     Iterator<Tuple> it = null;
     BTreeLeafPage curp = null;
+    BTreeReadAhead readAhead = null;
 
     final TransactionId tid;
     final BTreeFile f;
@@ -1338,16 +2280,16 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
      * for the given predicate operation
      */
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-                tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = rootPtr.getRootId();
-        if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
-                || ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-            curp = f.findLeafPage(tid, root, ipred.getField());
+        Field lower = ipred.getLowerBound();
+        curp = f.findLeafPage(tid, lower);
+        if(lower == null) {
+            it = curp.iterator();
         } else {
-            curp = f.findLeafPage(tid, root, null);
+            // skip the tuples of the first leaf that are below the search key
+            it = curp.iterator(curp.findSlot(lower, ipred.getOp() != Op.GREATER_THAN));
         }
-        it = curp.iterator();
+        readAhead = new BTreeReadAhead(f, tid, ipred);
+        readAhead.visit(curp);
     }
 
     /**
@@ -1363,16 +2305,12 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
             while (it.hasNext()) {
                 Tuple t = it.next();
-                if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
+                Field key = f.getKey(t);
+                if (ipred.matches(key)) {
                     return t;
-                } else if(ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
-                    // if the predicate was not satisfied and the operation is less than, we have
-                    // hit the end
-                    return null;
-                } else if(ipred.getOp() == Op.EQUALS &&
-                        t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
-                    // if the tuple is now greater than the field passed in and the operation
-                    // is equals, we have reached the end
+                } else if(ipred.isPast(key)) {
+                    // the keys are sorted, so no later tuple can satisfy the predicate
+                    // (e.g. less than, or equals once the key is greater)
                     return null;
                 }
             }
@@ -1384,6 +2322,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
             } else {
                 curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
                         nextp, Permissions.READ_ONLY);
+                readAhead.visit(curp);
                 it = curp.iterator();
             }
         }
@@ -1407,3 +2346,53 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
         it = null;
     }
 }
+
+/**
+ * Helper class that wraps the iterator of an equality search on a BTreeFile which the file's
+ * Bloom filter let through, and records whether the search found the key. Without an iterator
+ * it is the empty result of a search the filter answered.
+ */
+class BTreeBloomLookupIterator extends AbstractDbFileIterator {
+
+    final DbFileIterator it;
+    final BloomFilter.Stats stats;
+    boolean recorded = false;
+
+    /**
+     * Constructor for this iterator
+     * @param it - the iterator of the search, or null if there is nothing to read
+     * @param stats - the statistics to record the outcome of the search in
+     */
+    public BTreeBloomLookupIterator(DbFileIterator it, BloomFilter.Stats stats) {
+        this.it = it;
+        this.stats = stats;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (it != null)
+            it.open();
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        if (it == null)
+            return null;
+        Tuple t = it.hasNext() ? it.next() : null;
+        if (!recorded) {
+            stats.positive(t != null);
+            recorded = true;
+        }
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        if (it != null)
+            it.close();
+    }
+}
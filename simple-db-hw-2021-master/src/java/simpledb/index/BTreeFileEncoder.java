@@ -230,10 +230,7 @@ public class BTreeFileEncoder {
 		int leafpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE; 
 		int nrecords = (npagebytes * 8 - leafpointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
 
-		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
-		// pointerbytes: one extra child pointer, parent pointer, child page category
-		int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
-		int nentries = (npagebytes * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
+		int nentries = BTreeInternalPage.getMaxEntries(keyType, npagebytes);
 
 		List<List<BTreeEntry>> entries = new ArrayList<>();
 
@@ -616,15 +613,32 @@ public class BTreeFileEncoder {
 	 * @param keyType - the type of the key field
 	 * @param childPageCategory - the category of the child pages (either internal or leaf)
 	 * @return a byte array which can be passed to the BTreeInternalPage constructor
-	 * @throws IOException
+	 * @throws IOException if the keys take more room than an internal page has for them
 	 */
 	public static byte[] convertToInternalPage(List<BTreeEntry> entries, int npagebytes,
 			Type keyType, int childPageCategory)
 					throws IOException {
-		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
-		// pointerbytes: one extra child pointer, parent pointer, child page category
-		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
-		int nentries = (npagebytes * 8 - pointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
+		return convertToInternalPage(entries, npagebytes, new Type[] { keyType }, childPageCategory);
+	}
+
+	/**
+	 * Convert a set of entries to a byte array in the format of a BTreeInternalPage
+	 * of a B+ tree keyed on one or more fields
+	 * 
+	 * @param entries - the set of entries; for more than one key field, their keys are CompositeFields
+	 * @param npagebytes - number of bytes per page
+	 * @param keyTypes - the types of the key fields
+	 * @param childPageCategory - the category of the child pages (either internal or leaf)
+	 * @return a byte array which can be passed to the BTreeInternalPage constructor
+	 * @throws IOException if the keys take more room than an internal page has for them
+	 */
+	public static byte[] convertToInternalPage(List<BTreeEntry> entries, int npagebytes,
+			Type[] keyTypes, int childPageCategory)
+					throws IOException {
+		int nentrybytes = BTreeInternalPage.getKeySize(keyTypes) + BTreeInternalPage.INDEX_SIZE;
+		// pointerbytes: one extra child pointer, parent pointer, child page category, room for one more key
+		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1 + BTreeInternalPage.getSpareKeySize(keyTypes);
+		int nentries = BTreeInternalPage.getMaxEntries(keyTypes, npagebytes);
 
 		//  per entry, we need one bit; there are nentries per page, so we need
 		// nentries bits, plus 1 for the extra child pointer.
@@ -665,15 +679,11 @@ public class BTreeFileEncoder {
 			dos.writeByte(headerbyte);
 
 		entries.sort(new EntryComparator());
+		Field[] keys = new Field[nentries + 1];
 		for(int e = 0; e < entrycount; e++) {
-			entries.get(e).getKey().serialize(dos);
-		}
-
-		for(int e = entrycount; e < nentries; e++) {
-			for (int j=0; j<keyType.getLen(); j++) {
-				dos.writeByte(0);
-			}
+			keys[e + 1] = entries.get(e).getKey();
 		}
+		BTreeInternalPage.writeKeys(dos, keys, keyTypes);
 
 		dos.writeInt(entries.get(0).getLeftChild().getPageNumber());
 		for(int e = 0; e < entrycount; e++) {
@@ -0,0 +1,106 @@
+package simpledb.index;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * What a BTreeFile knows about its header pages without reading them: the ids
+ * of the header pages in the order of the chain, which of them had no empty
+ * slot, and the pages appended to the file that have not been handed out yet.
+ * <p>
+ * Only committed header pages are recorded: a header page read with changes
+ * that may still be rolled back is not. A header page is never removed from the
+ * chain, so the recorded ids stay valid. A recorded full header page is
+ * forgotten as soon as a transaction marks one of its slots empty, even if the
+ * transaction aborts later, so an empty slot is never skipped.
+ *
+ * @see BTreeFile#getEmptyPageNo
+ * @see BTreeFile#setEmptyPage
+ */
+class BTreeFreePageMap {
+
+	private final List<BTreePageId> headerIds = new ArrayList<>();
+	private final BitSet full = new BitSet();
+	// whether the last recorded header page had no next page
+	private boolean chainEnd = false;
+
+	// the pages [extentNext, extentEnd) were appended to the file but not handed out
+	private int extentNext = 0;
+	private int extentEnd = 0;
+
+	/**
+	 * @return the id of the n-th header page, or null if it is not known
+	 */
+	synchronized BTreePageId getHeaderId(int n) {
+		return n < headerIds.size() ? headerIds.get(n) : null;
+	}
+
+	/**
+	 * @return the number of the first header page that may have an empty slot;
+	 *         its id is known unless all known header pages are full
+	 */
+	synchronized int firstFreeHeader() {
+		return full.nextClearBit(0);
+	}
+
+	/**
+	 * @return true if all header pages are known and full, so that a new page
+	 *         has to be appended to the file
+	 */
+	synchronized boolean allFull() {
+		return chainEnd && full.nextClearBit(0) == headerIds.size();
+	}
+
+	/**
+	 * Records the id of the first header page, read from a committed root pointer page.
+	 */
+	synchronized void setFirstHeader(BTreePageId headerId) {
+		if(headerIds.isEmpty())
+			headerIds.add(headerId);
+	}
+
+	/**
+	 * Records what a committed header page says.
+	 *
+	 * @param n - the number of the header page in the chain
+	 * @param page - the header page
+	 * @param hasEmptySlot - whether the page has an empty slot
+	 */
+	synchronized void headerRead(int n, BTreeHeaderPage page, boolean hasEmptySlot) {
+		if(n >= headerIds.size() || !headerIds.get(n).equals(page.getId()))
+			return;
+		full.set(n, !hasEmptySlot);
+		BTreePageId next = page.getNextPageId();
+		if(n == headerIds.size() - 1) {
+			if(next != null)
+				headerIds.add(next);
+			chainEnd = next == null;
+		}
+	}
+
+	/**
+	 * Records that a transaction marked a slot of the n-th header page empty,
+	 * or added header pages to the chain.
+	 */
+	synchronized void slotFreed(int n) {
+		full.clear(n);
+		chainEnd = false;
+	}
+
+	/**
+	 * @return a page appended by an earlier extent that has not been handed
+	 *         out yet, or -1 if there is none
+	 */
+	synchronized int takeExtentPage() {
+		return extentNext < extentEnd ? extentNext++ : -1;
+	}
+
+	/**
+	 * Records that the pages [from, to) were appended to the file and are not used.
+	 */
+	synchronized void addExtent(int from, int to) {
+		extentNext = from;
+		extentEnd = to;
+	}
+}
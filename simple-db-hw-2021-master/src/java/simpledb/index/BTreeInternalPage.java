@@ -10,9 +10,11 @@ import simpledb.execution.Predicate.Op;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.storage.BufferPool;
+import simpledb.storage.CompositeField;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.RecordId;
+import simpledb.storage.StringField;
 
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
@@ -23,6 +25,23 @@ import simpledb.storage.RecordId;
  *
  */
 public class BTreeInternalPage extends BTreePage {
+	/**
+	 * The number of bytes an internal page sets aside for each STRING_TYPE key,
+	 * besides one length byte. Keys are stored whole but front coded: each key
+	 * stores only the bytes after the prefix it shares with the key before it,
+	 * which for the separators of neighbouring children is usually a few bytes.
+	 * A page of longer keys is full before all of its slots are used.
+	 * @see #getNumEmptySlots()
+	 */
+	public static final int SEPARATOR_LEN = 32;
+
+	/**
+	 * The most bytes a front coded STRING_TYPE key takes: one byte for the length
+	 * of the prefix shared with the previous key, one for the length of the rest,
+	 * and the rest. An internal page always keeps room for one more such key.
+	 */
+	static final int MAX_KEY_BYTES = 2 + Type.STRING_LEN;
+
 	private final byte[] header;
 	private final Field[] keys;
 	private final int[] children;
@@ -43,7 +62,7 @@ public class BTreeInternalPage extends BTreePage {
 
         assert null == upperBound || null == prev || (prev.compare(Op.LESS_THAN_OR_EQ, upperBound));
 
-        assert !checkOccupancy || depth <= 0 || (getNumEntries() >= getMaxEntries() / 2);
+        assert !checkOccupancy || depth <= 0 || (getMaxEntries() - getNumEmptySlots() >= getMaxEntries() / 2);
 	}
 	
 	/**
@@ -62,6 +81,14 @@ public class BTreeInternalPage extends BTreePage {
 	 * <p>
 	 *      ceiling((no. entry slots + 1) / 8)
 	 * <p>
+	 * STRING_TYPE keys are stored front coded instead of in slots of their full
+	 * size: the keys of the used slots follow each other, each as the length of
+	 * the prefix it shares with the previous key, the length of the rest of the
+	 * key and the rest. The page has room for MAX_KEY_BYTES plus SEPARATOR_LEN + 1
+	 * bytes per slot for them.
+	 * <p>
+	 * Keys of several fields (see {@link CompositeField}) are stored as the
+	 * values of the fields one after the other, with no prefix.
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -71,7 +98,19 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
-		super(id, key);
+		this(id, data, new int[] { key });
+	}
+
+	/**
+	 * Create a BTreeInternalPage of an index keyed on several fields from a set
+	 * of bytes of data read from disk.
+	 *
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 * @param keyFields - the fields which the index is keyed on, most significant first
+	 */
+	public BTreeInternalPage(BTreePageId id, byte[] data, int[] keyFields) throws IOException {
+		super(id, keyFields);
 		this.numSlots = getMaxEntries() + 1;
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -97,8 +136,12 @@ public class BTreeInternalPage extends BTreePage {
 			// start from 1 because the first key slot is not used
 			// since a node with m keys has m+1 pointers
 			keys[0] = null;
-			for (int i=1; i<keys.length; i++)
-				keys[i] = readNextKey(dis,i);//key的index从1到m
+			if (isFrontCoded(getKeyTypes())) {
+				readFrontCodedKeys(dis);
+			} else {
+				for (int i=1; i<keys.length; i++)
+					keys[i] = readNextKey(dis,i);//key的index从1到m
+			}
 		}catch(NoSuchElementException e){
 			e.printStackTrace();
 		}
@@ -120,12 +163,79 @@ public class BTreeInternalPage extends BTreePage {
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
  	 */
 	public int getMaxEntries() {        
-		int keySize = td.getFieldType(keyField).getLen();
-		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
+		return getMaxEntries(getKeyTypes(), BufferPool.getPageSize());
+	}
+
+	/**
+	 * Retrieve the maximum number of entries an internal page of the specified size
+	 * can hold for keys of the specified type.
+	 */
+	public static int getMaxEntries(Type keyType, int pageSize) {
+		return getMaxEntries(new Type[] { keyType }, pageSize);
+	}
+
+	/**
+	 * Retrieve the maximum number of entries an internal page of the specified size
+	 * can hold for keys of the specified field types.
+	 */
+	public static int getMaxEntries(Type[] keyTypes, int pageSize) {
+		int bitsPerEntryIncludingHeader = getKeySize(keyTypes) * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
-		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
-		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1;
-        return (BufferPool.getPageSize()*8 - extraBits) / bitsPerEntryIncludingHeader;
+		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header,
+		// and the room kept for one more key of full length
+		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1 + getSpareKeySize(keyTypes) * 8;
+		return (pageSize*8 - extraBits) / bitsPerEntryIncludingHeader;
+	}
+
+	/**
+	 * @return the number of bytes of a key slot for keys of the specified type; for
+	 * front coded keys, the number of bytes set aside per slot
+	 */
+	static int getKeySize(Type keyType) {
+		return keyType == Type.STRING_TYPE ? 1 + SEPARATOR_LEN : keyType.getLen();
+	}
+
+	/**
+	 * @return the number of bytes of a key slot for keys of the specified field types
+	 */
+	static int getKeySize(Type[] keyTypes) {
+		if (keyTypes.length == 1)
+			return getKeySize(keyTypes[0]);
+		int size = 0;
+		for (Type t : keyTypes)
+			size += t.getLen();
+		return size;
+	}
+
+	/**
+	 * @return the number of bytes besides the key slots kept for one more key of full
+	 * length, for keys of the specified type
+	 */
+	static int getSpareKeySize(Type keyType) {
+		return keyType == Type.STRING_TYPE ? MAX_KEY_BYTES : 0;
+	}
+
+	/**
+	 * @return the number of bytes besides the key slots kept for one more key of full
+	 * length, for keys of the specified field types
+	 */
+	static int getSpareKeySize(Type[] keyTypes) {
+		return keyTypes.length == 1 ? getSpareKeySize(keyTypes[0]) : 0;
+	}
+
+	/**
+	 * @return the number of bytes for the keys of an internal page with the specified
+	 * number of key slots, for keys of the specified field types
+	 */
+	static int getKeyAreaSize(Type[] keyTypes, int maxEntries) {
+		return getSpareKeySize(keyTypes) + getKeySize(keyTypes) * maxEntries;
+	}
+
+	/**
+	 * @return whether keys of the specified field types are front coded on internal pages
+	 */
+	static boolean isFrontCoded(Type[] keyTypes) {
+		return keyTypes.length == 1 && keyTypes[0] == Type.STRING_TYPE;
 	}
 
 	/**
@@ -149,7 +259,7 @@ public class BTreeInternalPage extends BTreePage {
 			{
 				oldDataRef = oldData;
 			}
-			return new BTreeInternalPage(pid,oldDataRef,keyField);
+			return new BTreeInternalPage(pid,oldDataRef,keyFields);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -172,7 +282,7 @@ public class BTreeInternalPage extends BTreePage {
 		// if associated bit is not set, read forward to the next key, and
 		// return null.
 		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getFieldType(keyField).getLen(); i++) {
+			for (int i=0; i<getKeySize(getKeyTypes()); i++) {
 				try {
 					dis.readByte();
 				} catch (IOException e) {
@@ -185,7 +295,15 @@ public class BTreeInternalPage extends BTreePage {
 		// read the key field
 		Field f = null;
 		try {
-			f = td.getFieldType(keyField).parse(dis);
+			Type[] keyTypes = getKeyTypes();
+			if (keyTypes.length > 1) {
+				Field[] fs = new Field[keyTypes.length];
+				for (int i=0; i<fs.length; i++)
+					fs[i] = keyTypes[i].parse(dis);
+				f = new CompositeField(fs);
+			} else {
+				f = td.getFieldType(keyField).parse(dis);
+			}
 		} catch (java.text.ParseException e) {
 			e.printStackTrace();
 			throw new NoSuchElementException("parsing error!");
@@ -194,6 +312,25 @@ public class BTreeInternalPage extends BTreePage {
 		return f;
 	}
 
+	/**
+	 * Read the front coded STRING_TYPE keys of the used slots from the source file.
+	 */
+	private void readFrontCodedKeys(DataInputStream dis) throws IOException {
+		byte[] area = new byte[getKeyAreaSize(getKeyTypes(), numSlots - 1)];
+		dis.readFully(area);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(area));
+		String prev = "";
+		for (int i=1; i<keys.length; i++) {
+			if (!isSlotUsed(i))
+				continue;
+			int shared = in.readUnsignedByte();
+			byte[] bs = new byte[in.readUnsignedByte()];
+			in.readFully(bs);
+			prev = prev.substring(0, shared) + new String(bs);
+			keys[i] = new StringField(prev, Type.STRING_LEN);
+		}
+	}
+
 	/**
 	 * Read child pointers from the source file.
 	 */
@@ -269,28 +406,11 @@ public class BTreeInternalPage extends BTreePage {
 		// create the keys
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
-		for (int i=1; i<keys.length; i++) {
-
-			// empty slot
-			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getFieldType(keyField).getLen(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
-				continue;
-			}
-
-			// non-empty slot
-			try {
-				keys[i].serialize(dos);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-
+		try {
+			writeKeys(dos, usedKeys(), getKeyTypes());
+		} catch (IOException e) {
+			// BTreeFile splits a page before its keys outgrow it
+			throw new IllegalStateException(e);
 		}
 
 		// create the child pointers
@@ -319,8 +439,9 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
+		Type[] keyType = getKeyTypes();
+		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length +
+				getKeyAreaSize(keyType, keys.length - 1) + INDEX_SIZE * children.length);
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -337,6 +458,110 @@ public class BTreeInternalPage extends BTreePage {
 		return baos.toByteArray();
 	}
 
+	/**
+	 * Writes the key slots of an internal page, or its front coded keys for
+	 * STRING_TYPE keys.
+	 *
+	 * @param keys - the keys by slot; keys[0] is not used, and null keys are empty slots
+	 * @param keyType - the type of the keys
+	 */
+	static void writeKeys(DataOutputStream dos, Field[] keys, Type keyType) throws IOException {
+		writeKeys(dos, keys, new Type[] { keyType });
+	}
+
+	/**
+	 * Writes the key slots of an internal page of an index keyed on the fields of
+	 * the specified types.
+	 *
+	 * @param keys - the keys by slot; keys[0] is not used, and null keys are empty slots
+	 * @param keyTypes - the types of the key fields
+	 * @throws IOException if the keys take more room than the page has for them
+	 */
+	static void writeKeys(DataOutputStream dos, Field[] keys, Type[] keyTypes) throws IOException {
+		if (keyTypes.length > 1 || keyTypes[0] != Type.STRING_TYPE) {
+			for (int i=1; i<keys.length; i++) {
+				if (keys[i] == null)
+					dos.write(new byte[getKeySize(keyTypes)]);
+				else
+					keys[i].serialize(dos);
+			}
+			return;
+		}
+
+		int area = getKeyAreaSize(keyTypes, keys.length - 1);
+		int used = getKeyBytes(keys);
+		if (used > area)
+			throw new IOException("the keys of an internal page take " + used + " bytes, but it only has " + area);
+		String prev = "";
+		for (int i=1; i<keys.length; i++) {
+			if (keys[i] == null)
+				continue;
+			String key = ((StringField) keys[i]).getValue();
+			int shared = sharedLength(prev, key);
+			dos.writeByte(shared);
+			dos.writeByte(key.length() - shared);
+			dos.writeBytes(key.substring(shared));
+			prev = key;
+		}
+		dos.write(new byte[area - used]);
+	}
+
+	/**
+	 * Returns the number of bytes front coded STRING_TYPE keys take.
+	 *
+	 * @param keys - the keys in order; null keys are empty slots and take no room
+	 */
+	static int getKeyBytes(Field[] keys) {
+		int bytes = 0;
+		Field prev = null;
+		for (Field k : keys) {
+			if (k == null)
+				continue;
+			bytes += getKeyBytes(prev, k);
+			prev = k;
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return the number of bytes a front coded STRING_TYPE key takes after the
+	 * specified key, or as the first key of a page if prev is null
+	 */
+	static int getKeyBytes(Field prev, Field key) {
+		String k = ((StringField) key).getValue();
+		return 2 + k.length() - (prev == null ? 0 : sharedLength(((StringField) prev).getValue(), k));
+	}
+
+	private static int sharedLength(String a, String b) {
+		int n = 0;
+		while (n < a.length() && n < b.length() && a.charAt(n) == b.charAt(n))
+			n++;
+		return n;
+	}
+
+	/**
+	 * Returns the shortest key that separates two adjacent leaf pages: it is
+	 * greater than the largest key of the left page, unless that equals the
+	 * smallest key of the right page, and at most the smallest key of the right
+	 * page. For STRING_TYPE keys this is usually much shorter than the keys
+	 * themselves (suffix truncation), so it takes little room on an internal page.
+	 *
+	 * @param leftMax - the largest key of the left page
+	 * @param rightMin - the smallest key of the right page
+	 */
+	public static Field separatorKey(Field leftMax, Field rightMin) {
+		if (!(rightMin instanceof StringField) || leftMax == null)
+			return rightMin;
+		String l = ((StringField) leftMax).getValue();
+		String r = ((StringField) rightMin).getValue();
+		int n = 0;
+		while (n < l.length() && n < r.length() && l.charAt(n) == r.charAt(n))
+			n++;
+		if (n >= r.length())
+			return rightMin; // the keys are equal
+		return new StringField(r.substring(0, n + 1), Type.STRING_LEN);
+	}
+
 	/**
 	 * Delete the specified entry (key + 1 child pointer) from the page. The recordId
 	 * is used to find the specified entry, so it must not be null. After deletion, the 
@@ -455,7 +680,7 @@ public class BTreeInternalPage extends BTreePage {
 	//在插入操作的过程中，会遍历该BTreeInternalPage节点的键值和子节点，找到合适的位置插入新的BTreeEntry。
 	//插入后，该BTreeInternalPage对象的children数组将变为：[Child1, Child2, ChildA, ChildB, Child3, Child4]
 	public void insertEntry(BTreeEntry e) throws DbException {
-		if (!e.getKey().getType().equals(td.getFieldType(keyField)))
+		if (!isKey(e.getKey()))
 			throw new DbException("key field type mismatch, in insertEntry");
 
 		if(e.getLeftChild().getTableId() != pid.getTableId() || e.getRightChild().getTableId() != pid.getTableId())
@@ -471,7 +696,7 @@ public class BTreeInternalPage extends BTreePage {
 			throw new DbException("child page category mismatch in insertEntry");
 
 		// if this is the first entry, add it and return
-		if(getNumEmptySlots() == getMaxEntries()) {
+		if(getNumEntries() == 0) {
 			children[0] = e.getLeftChild().getPageNumber();
 			children[1] = e.getRightChild().getPageNumber();
 			keys[1] = e.getKey();
@@ -586,21 +811,92 @@ public class BTreeInternalPage extends BTreePage {
 	 * Returns the number of entries (keys) currently stored on this page
 	 */
 	public int getNumEntries() {
-		return numSlots - getNumEmptySlots() - 1;
-	}
-	
-	/**
-	 * Returns the number of empty slots on this page.
-	 */
-	public int getNumEmptySlots() {
 		int cnt = 0;
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
 		for(int i=1; i<numSlots; i++)
-			if(!isSlotUsed(i))
+			if(isSlotUsed(i))
 				cnt++;
 		return cnt;
 	}
+	
+	/**
+	 * Returns the number of empty slots on this page. For front coded keys this
+	 * is less than the number of unused slots when the keys take more than
+	 * SEPARATOR_LEN + 1 bytes each on average, and 0 when the page has no room
+	 * left for one more key of full length.
+	 */
+	public int getNumEmptySlots() {
+		if (!isFrontCoded(getKeyTypes()))
+			return numSlots - 1 - getNumEntries();
+		return getNumEmptySlots(getNumEntries(), getKeyBytes(usedKeys()));
+	}
+
+	/**
+	 * @return the number of empty slots of a page with front coded keys which holds
+	 * the specified number of entries, whose keys take the specified number of bytes
+	 */
+	private int getNumEmptySlots(int entries, int keyBytes) {
+		int free = getKeyAreaSize(getKeyTypes(), numSlots - 1) - keyBytes;
+		if (free < MAX_KEY_BYTES)
+			return 0;
+		return Math.min(numSlots - 1 - entries, (free - MAX_KEY_BYTES) / getKeySize(getKeyTypes()) + 1);
+	}
+
+	/**
+	 * @return whether the keys of this page take more room than it has for them. Only
+	 * changes that move keys between pages leave a page overfull, and BTreeFile splits
+	 * the page before the change is complete.
+	 */
+	boolean isOverfull() {
+		return isFrontCoded(getKeyTypes())
+				&& getKeyBytes(usedKeys()) > getKeyAreaSize(getKeyTypes(), numSlots - 1);
+	}
+
+	/**
+	 * Returns the number of entries at the end of this page which a split moves to a
+	 * new page: half of them, or for front coded keys as many as it takes for both
+	 * pages to have about as many empty slots, which for long keys may be fewer or
+	 * more than half.
+	 */
+	int getSplitSize() {
+		int n = getNumEntries();
+		if (!isFrontCoded(getKeyTypes()) || n < 3)
+			return n / 2;
+		String[] ks = new String[n];
+		int j = 0;
+		for (int i=1; i<numSlots; i++) {
+			if (isSlotUsed(i))
+				ks[j++] = ((StringField) keys[i]).getValue();
+		}
+		// bytes[i] is the room of keys 0 to i-1
+		int[] bytes = new int[n + 1];
+		for (int i=0; i<n; i++)
+			bytes[i + 1] = bytes[i] + 2 + ks[i].length() - (i == 0 ? 0 : sharedLength(ks[i - 1], ks[i]));
+		// the last moved keys move away, the one before them goes up to the parent,
+		// and the first of them is no longer front coded against the key before it
+		int moved = 1;
+		for (; moved < n - 2; moved++) {
+			int first = n - moved;
+			int rightBytes = bytes[n] - bytes[first + 1] + 2 + ks[first].length();
+			int leftBytes = bytes[first - 1];
+			if (getNumEmptySlots(moved, rightBytes) <= getNumEmptySlots(first - 1, leftBytes))
+				break;
+		}
+		return moved;
+	}
+
+	/**
+	 * @return the keys of the used slots by slot, with null for the unused ones
+	 */
+	private Field[] usedKeys() {
+		Field[] used = new Field[numSlots];
+		for (int i=1; i<numSlots; i++) {
+			if (isSlotUsed(i))
+				used[i] = keys[i];
+		}
+		return used;
+	}
 
 	/**
 	 * Returns true if associated slot on this page is filled.
@@ -633,6 +929,46 @@ public class BTreeInternalPage extends BTreePage {
 		return new BTreeInternalPageIterator(this);
 	}
 	
+	/**
+	 * Finds the child to descend into when searching for key f, by a binary search over
+	 * the keys of this page, in place and without creating BTreeEntry objects. Keys in
+	 * used slots are in sorted order, but empty slots may be interspersed between them;
+	 * an empty slot probed by the search is skipped by moving right to the next used slot.
+	 *
+	 * @param f - the key to search for, or null for the left-most child
+	 * @return the left child of the first entry whose key is greater than or equal to f,
+	 * or the right child of the last entry if there is none; null if the page is empty
+	 */
+	public BTreePageId findChildId(Field f) {
+		if (!isSlotUsed(0))
+			return null;
+		int child = 0;
+		if (f != null) {
+			int lo = 1;
+			int hi = numSlots - 1;
+			int found = numSlots;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				int slot = mid;
+				while (slot <= hi && !isSlotUsed(slot))
+					slot++;
+				if (slot > hi) {
+					hi = mid - 1;
+				} else if (keys[slot].compare(Op.GREATER_THAN_OR_EQ, f)) {
+					found = slot;
+					hi = mid - 1;
+				} else {
+					lo = slot + 1;
+				}
+			}
+			// the left child of an entry is the right child of the previous used slot
+			child = found - 1;
+			while (child > 0 && !isSlotUsed(child))
+				child--;
+		}
+		return new BTreePageId(pid.getTableId(), children[child], childCategory);
+	}
+
 	/**
 	 * @return a reverse iterator over all entries on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return entries in empty slots!)
@@ -785,8 +1121,17 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 			while (true) {
 				int entry = curEntry--;
 				Field key = p.getKey(entry);
-				BTreePageId childId = p.getChildId(entry - 1);
-				if(key != null && childId != null) {
+				if(key == null) {
+					continue;
+				}
+				// the left child is in the nearest used slot, which an overfull page being
+				// split may have left a gap before
+				int left = entry - 1;
+				while(left > 0 && !p.isSlotUsed(left)) {
+					--left;
+				}
+				BTreePageId childId = p.getChildId(left);
+				if(childId != null) {
 					nextToReturn = new BTreeEntry(key, childId, nextChildId);
 					nextToReturn.setRecordId(new RecordId(p.pid, entry));
 					nextChildId = childId;
@@ -66,7 +66,20 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
-		super(id, key);
+		this(id, data, new int[] { key });
+	}
+
+	/**
+	 * Create a BTreeLeafPage of an index keyed on several fields from a set of
+	 * bytes of data read from disk. The tuples are sorted by their key fields
+	 * lexicographically.
+	 *
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 * @param keyFields - the fields which the index is keyed on, most significant first
+	 */
+	public BTreeLeafPage(BTreePageId id, byte[] data, int[] keyFields) throws IOException {
+		super(id, keyFields);
 		this.numSlots = getMaxTuples();
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -140,7 +153,7 @@ public class BTreeLeafPage extends BTreePage {
 			{
 				oldDataRef = oldData;
 			}
-			return new BTreeLeafPage(pid,oldDataRef,keyField);
+			return new BTreeLeafPage(pid,oldDataRef,keyFields);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -327,17 +340,11 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("called addTuple on page with no empty slots.");
 
 		// find the last key less than or equal to the key being inserted
-		//找到最后一个小于等于t，一旦大于就break
-		int lessOrEqKey = -1;
-		Field key = t.getField(keyField);
-		for (int i=0; i<numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
-					lessOrEqKey = i;
-				else
-					break;	
-			}
-		}
+		//二分找到第一个大于t的key，它前面的已用slot就是最后一个小于等于t的
+		Field key = getKey(t);
+		int lessOrEqKey = findSlot(key, false) - 1;
+		while (lessOrEqKey >= 0 && !isSlotUsed(lessOrEqKey))
+			lessOrEqKey--;
 
 		// shift records back or forward to fill empty slot and make room for new record
 		// while keeping records in sorted order
@@ -488,6 +495,46 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageIterator(this);
 	}
 
+	/**
+	 * @param fromSlot - the slot to start from, e.g. as returned by {@link #findSlot}
+	 * @return an iterator over the tuples on this page in slots fromSlot and above
+	 */
+	public Iterator<Tuple> iterator(int fromSlot) {
+		return new BTreeLeafPageIterator(this, fromSlot);
+	}
+
+	/**
+	 * Binary search over the keys of this page, in place. Keys in used slots are in
+	 * sorted order, but empty slots may be interspersed between them; an empty slot
+	 * probed by the search is skipped by moving right to the next used slot.
+	 *
+	 * @param key - the key to search for
+	 * @param inclusive - whether a tuple whose key equals key matches
+	 * @return the first used slot whose key is greater than (or equal to, if inclusive)
+	 * key, or the number of slots if there is none
+	 */
+	public int findSlot(Field key, boolean inclusive) {
+		Predicate.Op op = inclusive ? Predicate.Op.GREATER_THAN_OR_EQ : Predicate.Op.GREATER_THAN;
+		int lo = 0;
+		int hi = numSlots - 1;
+		int found = numSlots;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int slot = mid;
+			while (slot <= hi && !isSlotUsed(slot))
+				slot++;
+			if (slot > hi) {
+				hi = mid - 1;
+			} else if (getKey(tuples[slot]).compare(op, key)) {
+				found = slot;
+				hi = mid - 1;
+			} else {
+				lo = slot + 1;
+			}
+		}
+		return found;
+	}
+
 	/**
 	 * @return a reverse iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return tuples in empty slots!)
@@ -534,6 +581,11 @@ class BTreeLeafPageIterator implements Iterator<Tuple> {
 		this.p = p;
 	}
 
+	public BTreeLeafPageIterator(BTreeLeafPage p, int fromSlot) {
+		this.p = p;
+		this.curTuple = fromSlot;
+	}
+
 	public boolean hasNext() {
 		if (nextToReturn != null)
 			return true;
@@ -5,7 +5,10 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.BufferPool;
+import simpledb.storage.CompositeField;
+import simpledb.storage.Field;
 import simpledb.storage.Page;
+import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionId;
 
@@ -26,6 +29,7 @@ public abstract class BTreePage implements Page {
 	protected final BTreePageId pid;
 	protected final TupleDesc td;
 	protected final int keyField;
+	protected final int[] keyFields;
 
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
@@ -55,11 +59,56 @@ public abstract class BTreePage implements Page {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreePage(BTreePageId id, int key) {
+		this(id, new int[] { key });
+	}
+
+	/**
+	 * Create a BTreePage of an index keyed on several fields.
+	 *
+	 * @param id - the id of this page
+	 * @param keys - the fields which the index is keyed on, most significant first
+	 * @see CompositeField
+	 */
+	public BTreePage(BTreePageId id, int[] keys) {
 		this.pid = id;
-		this.keyField = key;
+		this.keyField = keys[0];
+		this.keyFields = keys.clone();
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
 	}
 
+	/**
+	 * @return the key of the specified tuple: the key field, or a CompositeField
+	 * of the key fields if the index is keyed on several fields
+	 */
+	public Field getKey(Tuple t) {
+		return CompositeField.of(t, keyFields);
+	}
+
+	/**
+	 * @return true if the specified field has as many values as the index has key
+	 * fields, of the same types
+	 */
+	protected boolean isKey(Field key) {
+		Field[] fs = CompositeField.fieldsOf(key);
+		if (fs.length != keyFields.length)
+			return false;
+		for (int i = 0; i < fs.length; i++) {
+			if (!fs[i].getType().equals(td.getFieldType(keyFields[i])))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the types of the key fields
+	 */
+	protected Type[] getKeyTypes() {
+		Type[] types = new Type[keyFields.length];
+		for (int i = 0; i < types.length; i++)
+			types[i] = td.getFieldType(keyFields[i]);
+		return types;
+	}
+
 	/**
 	 * @return the PageId associated with this page.
 	 */
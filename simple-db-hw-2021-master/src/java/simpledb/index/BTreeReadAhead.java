@@ -0,0 +1,72 @@
+package simpledb.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.IndexPredicate;
+import simpledb.storage.PageId;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Reads the leaf pages a B+ tree iterator is about to visit ahead of it. The
+ * leaves to the right of the current one are taken from the child pointers of
+ * their parent, so the whole window can be requested at once instead of one
+ * right sibling pointer at a time. They are only hints: the iterator still
+ * follows the right sibling pointers, and the window is rebuilt whenever the
+ * iterator reaches a leaf it did not expect, e.g. the first leaf under the
+ * next parent.
+ *
+ * @see BTreeFile#setPrefetchLeaves
+ * @see simpledb.storage.BufferPool#prefetch
+ */
+class BTreeReadAhead {
+
+	private final BTreeFile f;
+	private final TransactionId tid;
+	private final IndexPredicate ipred;
+	private final int depth;
+
+	// the leaves expected after the last visited one, and how many of them were visited or requested
+	private List<BTreePageId> ahead = Collections.emptyList();
+	private int visited = 0;
+	private int requested = 0;
+
+	/**
+	 * @param f - the BTreeFile being iterated
+	 * @param tid - the transaction id
+	 * @param ipred - the predicate the iterator stops at, or null if it reads to the end
+	 */
+	BTreeReadAhead(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
+		this.f = f;
+		this.tid = tid;
+		this.ipred = ipred;
+		this.depth = f.getPrefetchLeaves();
+	}
+
+	/**
+	 * Called whenever the iterator moves to a leaf page. Requests the next leaves
+	 * once fewer than half of the window is left.
+	 */
+	void visit(BTreeLeafPage page) throws DbException, TransactionAbortedException {
+		if (depth == 0)
+			return;
+		if (visited < ahead.size() && ahead.get(visited).equals(page.getId())) {
+			visited++;
+		} else {
+			ahead = f.rightSiblingsOf(tid, page, ipred);
+			visited = 0;
+			requested = 0;
+		}
+
+		if (requested - visited <= depth / 2 && requested < ahead.size()) {
+			int to = Math.min(ahead.size(), visited + depth);
+			List<PageId> pids = new ArrayList<>(ahead.subList(Math.max(requested, visited), to));
+			requested = to;
+			Database.getBufferPool().prefetch(pids);
+		}
+	}
+}
@@ -3,8 +3,8 @@ package simpledb.index;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.execution.IndexOpIterator;
 import simpledb.execution.IndexPredicate;
-import simpledb.execution.OpIterator;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -15,9 +15,10 @@ import java.util.*;
 
 /**
  * BTreeScan is an operator which reads tuples in sorted order 
- * according to a predicate
+ * according to a predicate. It can be reopened with another predicate, e.g.
+ * as the inner side of an index nested-loop join on the key.
  */
-public class BTreeScan implements OpIterator {
+public class BTreeScan implements IndexOpIterator {
 
 	private static final long serialVersionUID = 1L;
 
@@ -28,6 +29,7 @@ public class BTreeScan implements OpIterator {
 	private transient DbFileIterator it;
 	private String tablename;
 	private String alias;
+	private int tableid;
 
 	/**
 	 * Creates a B+ tree scan over the specified table as a part of the
@@ -71,6 +73,13 @@ public class BTreeScan implements OpIterator {
 		return this.alias;
 	}
 
+	/**
+	 * @return the predicate on the key, or null if every tuple is scanned
+	 */
+	public IndexPredicate getIndexPredicate() {
+		return ipred;
+	}
+
 	/**
 	 * Reset the tableid, and tableAlias of this operator.
 	 * @param tableid
@@ -85,6 +94,7 @@ public class BTreeScan implements OpIterator {
 	 */
 	public void reset(int tableid, String tableAlias) {
 		this.isOpen=false;
+		this.tableid = tableid;
 		this.alias = tableAlias;
 		this.tablename = Database.getCatalog().getTableName(tableid);
 		if(ipred == null) {
@@ -155,4 +165,14 @@ public class BTreeScan implements OpIterator {
 		close();
 		open();
 	}
+	public void open(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+		this.ipred = ipred;
+		reset(tableid, alias);
+		open();
+	}
+
+	public void rewind(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+		close();
+		open(ipred);
+	}
 }
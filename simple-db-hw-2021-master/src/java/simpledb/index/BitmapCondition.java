@@ -0,0 +1,148 @@
+package simpledb.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import simpledb.common.Database;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+
+/**
+ * A condition on the tuples of a table which its bitmap indexes can answer: a
+ * comparison of an indexed field with a constant, or the AND or the OR of
+ * other conditions on the same table. {@link #evaluate} combines the bitmaps
+ * of the comparisons into the positions of the tuples which may match, and
+ * {@link #matches} checks a tuple read from one of those positions.
+ */
+public abstract class BitmapCondition {
+
+	/**
+	 * @return the condition that the field of an index compares to a value with op
+	 */
+	public static BitmapCondition of(BitmapIndex index, Op op, Field value) {
+		return new Compare(index, op, value);
+	}
+
+	/**
+	 * @return the condition that all of the conditions hold
+	 */
+	public static BitmapCondition and(BitmapCondition... conditions) {
+		return new Combine(true, conditions);
+	}
+
+	/**
+	 * @return the condition that any of the conditions holds
+	 */
+	public static BitmapCondition or(BitmapCondition... conditions) {
+		return new Combine(false, conditions);
+	}
+
+	/**
+	 * @return the id of the table the condition is on
+	 */
+	public abstract int getTableId();
+
+	/**
+	 * @return the indexes of the comparisons of the condition
+	 */
+	public abstract List<BitmapIndex> getIndexes();
+
+	/**
+	 * @return a new bitmap of the positions of the tuples which may match
+	 */
+	public abstract RoaringBitmap evaluate();
+
+	/**
+	 * @return true if a tuple of the table matches the condition
+	 */
+	public abstract boolean matches(Tuple t);
+
+	private static class Compare extends BitmapCondition {
+		private final BitmapIndex index;
+		private final Op op;
+		private final Field value;
+
+		Compare(BitmapIndex index, Op op, Field value) {
+			this.index = index;
+			this.op = op;
+			this.value = value;
+		}
+
+		public int getTableId() {
+			return index.getTableId();
+		}
+
+		public List<BitmapIndex> getIndexes() {
+			return List.of(index);
+		}
+
+		public RoaringBitmap evaluate() {
+			return index.lookup(op, value);
+		}
+
+		public boolean matches(Tuple t) {
+			return t.getField(index.getField()).compare(op, value);
+		}
+
+		public String toString() {
+			return Database.getCatalog().getTupleDesc(index.getTableId()).getFieldName(index.getField())
+					+ " " + op + " " + value;
+		}
+	}
+
+	private static class Combine extends BitmapCondition {
+		private final boolean and;
+		private final BitmapCondition[] conditions;
+
+		Combine(boolean and, BitmapCondition[] conditions) {
+			if (conditions.length == 0)
+				throw new IllegalArgumentException("no conditions to combine");
+			for (BitmapCondition c : conditions) {
+				if (c.getTableId() != conditions[0].getTableId())
+					throw new IllegalArgumentException("conditions on different tables");
+			}
+			this.and = and;
+			this.conditions = conditions.clone();
+		}
+
+		public int getTableId() {
+			return conditions[0].getTableId();
+		}
+
+		public List<BitmapIndex> getIndexes() {
+			List<BitmapIndex> indexes = new ArrayList<>();
+			for (BitmapCondition c : conditions)
+				indexes.addAll(c.getIndexes());
+			return indexes;
+		}
+
+		public RoaringBitmap evaluate() {
+			RoaringBitmap r = conditions[0].evaluate();
+			for (int i = 1; i < conditions.length && !(and && r.isEmpty()); i++) {
+				RoaringBitmap b = conditions[i].evaluate();
+				r = and ? RoaringBitmap.and(r, b) : RoaringBitmap.or(r, b);
+			}
+			return r;
+		}
+
+		public boolean matches(Tuple t) {
+			for (BitmapCondition c : conditions) {
+				if (c.matches(t) != and)
+					return !and;
+			}
+			return and;
+		}
+
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for (BitmapCondition c : conditions) {
+				if (sb.length() > 0)
+					sb.append(and ? " AND " : " OR ");
+				sb.append(c instanceof Combine ? "(" + c + ")" : c.toString());
+			}
+			return sb.toString();
+		}
+	}
+}
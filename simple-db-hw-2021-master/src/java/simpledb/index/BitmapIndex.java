@@ -0,0 +1,285 @@
+package simpledb.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.util.*;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * BitmapIndex is an index over a field of a HeapFile table with few distinct
+ * values, such as a status or a region. For each value it keeps a
+ * {@link RoaringBitmap} of the positions of the tuples with that value; the
+ * position of a tuple is its page number times the number of slots of a page,
+ * plus its slot. The bitmaps of several indexes of a table are combined with
+ * AND and OR (see {@link BitmapCondition}) to find the tuples which match
+ * several predicates before any page of the table is read, and
+ * {@link BitmapIndexScan} then reads just those tuples.
+ * <p>
+ * The bitmaps are kept in memory and saved to a file when a transaction that
+ * changed them commits. Indexes are registered with
+ * {@link simpledb.common.Catalog#addBitmapIndex}, and the BufferPool keeps them
+ * up to date: an insert sets the bit of the new tuple at once, and clears it
+ * again if the transaction aborts; a delete clears the bit of the tuple when
+ * the transaction commits. So a bitmap may also hold the positions of tuples
+ * which are deleted or being deleted, and scans check every tuple they read.
+ */
+public class BitmapIndex {
+	private final String name;
+	private final int tableid;
+	private final int field;
+	private final File f;
+	private final int slotsPerPage;
+	private final Map<Field, RoaringBitmap> bitmaps = new HashMap<>();
+	//每个事务按顺序做的改动：提交时依次重放，回滚时倒序撤销
+	private final Map<TransactionId, List<Change>> pending = new HashMap<>();
+
+	/** An insert or a delete of a tuple by a transaction which has not completed */
+	private static class Change {
+		final Field value;
+		final int position;
+		final boolean insert;
+
+		Change(Field value, int position, boolean insert) {
+			this.value = value;
+			this.position = position;
+			this.insert = insert;
+		}
+	}
+
+	/**
+	 * Creates an index over a table. The index is empty until {@link #build}
+	 * or {@link #load} is called.
+	 *
+	 * @param name - the name of the index
+	 * @param tableid - the table to index, which must be a HeapFile
+	 * @param field - the field of the table to index on
+	 * @param f - the file to save the index in
+	 */
+	public BitmapIndex(String name, int tableid, int field, File f) {
+		if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile))
+			throw new IllegalArgumentException("a bitmap index needs a table stored in a HeapFile");
+		this.name = name;
+		this.tableid = tableid;
+		this.field = field;
+		this.f = f;
+		this.slotsPerPage = HeapPage.numSlots(Database.getCatalog().getTupleDesc(tableid));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the id of the indexed table
+	 */
+	public int getTableId() {
+		return tableid;
+	}
+
+	/**
+	 * @return the field of the table the index is on
+	 */
+	public int getField() {
+		return field;
+	}
+
+	/**
+	 * @return the file the index is saved in
+	 */
+	public File getFile() {
+		return f;
+	}
+
+	/**
+	 * @return the position of the tuple of the table with the given RecordId
+	 */
+	public int position(RecordId rid) {
+		return rid.getPageId().getPageNumber() * slotsPerPage + rid.getTupleNumber();
+	}
+
+	/**
+	 * @return the RecordId of the tuple of the table at a position
+	 */
+	public RecordId recordId(int position) {
+		return new RecordId(new HeapPageId(tableid, position / slotsPerPage), position % slotsPerPage);
+	}
+
+	/**
+	 * @return the number of distinct values of the field with a bitmap
+	 */
+	public synchronized int numValues() {
+		return bitmaps.size();
+	}
+
+	/**
+	 * Returns the positions of the tuples whose field compares to a value with
+	 * an operator, as the OR of the bitmaps of all the values which do.
+	 *
+	 * @return a new bitmap, which the caller may change
+	 */
+	public synchronized RoaringBitmap lookup(Op op, Field value) {
+		RoaringBitmap r = new RoaringBitmap();
+		for (Map.Entry<Field, RoaringBitmap> e : bitmaps.entrySet()) {
+			if (e.getKey().compare(op, value))
+				r = RoaringBitmap.or(r, e.getValue());
+		}
+		return r;
+	}
+
+	/**
+	 * Fills the index with the current contents of the table, replacing what
+	 * it held, and saves it. The table is read page by page, so the positions
+	 * of each value come in ascending order and are appended to the last
+	 * container of its bitmap.
+	 *
+	 * @param tid - the transaction reading the table
+	 * @return the number of tuples indexed
+	 */
+	public int build(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+		Map<Field, RoaringBitmap> built = new HashMap<>();
+		int n = 0;
+		DbFileIterator it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+		it.open();
+		try {
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				built.computeIfAbsent(t.getField(field), k -> new RoaringBitmap()).add(position(t.getRecordId()));
+				n++;
+			}
+		} finally {
+			it.close();
+		}
+		synchronized (this) {
+			bitmaps.clear();
+			bitmaps.putAll(built);
+			save();
+		}
+		return n;
+	}
+
+	/**
+	 * Reads the index saved in its file, if the table was not changed since.
+	 * The file records the length and the modification time of the table's
+	 * file when it was saved; if they differ, the index has to be built.
+	 *
+	 * @return true if the index was read
+	 */
+	public synchronized boolean load() {
+		if (!f.exists())
+			return false;
+		File table = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid)).getFile();
+		Type type = Database.getCatalog().getTupleDesc(tableid).getFieldType(field);
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+			if (in.readLong() != table.length() || in.readLong() != table.lastModified()
+					|| in.readInt() != slotsPerPage)
+				return false;
+			Map<Field, RoaringBitmap> read = new HashMap<>();
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				Field value = type.parse(in);
+				read.put(value, RoaringBitmap.read(in));
+			}
+			bitmaps.clear();
+			bitmaps.putAll(read);
+			return true;
+		} catch (IOException | ParseException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the bitmaps to a new file which replaces the old one, with the
+	 * length and the modification time of the table's file.
+	 */
+	private void save() throws IOException {
+		File table = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid)).getFile();
+		File tmp = new File(f.getPath() + ".tmp");
+		try (FileOutputStream fos = new FileOutputStream(tmp)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+			out.writeLong(table.length());
+			out.writeLong(table.lastModified());
+			out.writeInt(slotsPerPage);
+			out.writeInt(bitmaps.size());
+			for (Map.Entry<Field, RoaringBitmap> e : bitmaps.entrySet()) {
+				e.getKey().serialize(out);
+				e.getValue().serialize(out);
+			}
+			out.flush();
+			fos.getFD().sync();
+		}
+		Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Sets the bit of a tuple that was inserted into the table, which must
+	 * have its RecordId set.
+	 */
+	public synchronized void insert(TransactionId tid, Tuple t) {
+		Field value = t.getField(field);
+		int position = position(t.getRecordId());
+		bitmaps.computeIfAbsent(value, k -> new RoaringBitmap()).add(position);
+		pending.computeIfAbsent(tid, k -> new ArrayList<>()).add(new Change(value, position, true));
+	}
+
+	/**
+	 * Records that a tuple was deleted from the table; its bit is cleared
+	 * when the transaction commits.
+	 */
+	public synchronized void delete(TransactionId tid, Tuple t) {
+		pending.computeIfAbsent(tid, k -> new ArrayList<>())
+				.add(new Change(t.getField(field), position(t.getRecordId()), false));
+	}
+
+	/**
+	 * Applies the changes of a completed transaction to the bitmaps, and saves
+	 * the index if the transaction committed. A commit replays the changes in
+	 * order, so that a slot freed and filled again by the transaction keeps the
+	 * bit of its new tuple; an abort undoes them in reverse order, clearing the
+	 * bits of inserted tuples and keeping those of the tuples it restores.
+	 * Called by the BufferPool after the pages of the transaction are written
+	 * or discarded, and before its locks are released.
+	 */
+	public synchronized void transactionComplete(TransactionId tid, boolean commit) throws IOException {
+		List<Change> changes = pending.remove(tid);
+		if (changes == null)
+			return;
+		if (!commit)
+			Collections.reverse(changes);
+		for (Change c : changes) {
+			if (c.insert != commit) {
+				RoaringBitmap bitmap = bitmaps.get(c.value);
+				if (bitmap == null)
+					continue;
+				bitmap.remove(c.position);
+				if (bitmap.isEmpty())
+					bitmaps.remove(c.value);
+			} else {
+				bitmaps.computeIfAbsent(c.value, k -> new RoaringBitmap()).add(c.position);
+			}
+		}
+		if (commit)
+			save();
+	}
+}
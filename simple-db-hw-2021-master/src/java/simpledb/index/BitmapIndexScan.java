@@ -0,0 +1,151 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.OpIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+/**
+ * BitmapIndexScan is an operator which reads the tuples of a HeapFile table
+ * that match a {@link BitmapCondition}: it combines the bitmaps of the
+ * condition into the positions of the tuples which may match, and reads only
+ * those tuples, in the order of their pages. Each tuple read is checked
+ * against the condition, since the bitmaps may still hold tuples that were
+ * deleted. Tuples have all the fields of the table, named after the table
+ * alias like a scan of the table.
+ */
+public class BitmapIndexScan implements OpIterator {
+
+	private static final long serialVersionUID = 1L;
+
+	private boolean isOpen = false;
+	private final TransactionId tid;
+	private final BitmapCondition condition;
+	private final HeapFile file;
+	private final int slotsPerPage;
+	private final TupleDesc myTd;
+	private final String alias;
+	private transient PrimitiveIterator.OfInt positions;
+	private transient HeapPage page;
+	private Tuple next = null;
+
+	/**
+	 * Creates a scan of a table through its bitmap indexes as a part of the
+	 * specified transaction.
+	 *
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param condition
+	 *            the condition on the table the tuples have to match
+	 * @param tableAlias
+	 *            the alias of the table; the returned tupleDesc has fields
+	 *            with name tableAlias.fieldName.
+	 */
+	public BitmapIndexScan(TransactionId tid, BitmapCondition condition, String tableAlias) {
+		this.tid = tid;
+		this.condition = condition;
+		this.file = (HeapFile) Database.getCatalog().getDatabaseFile(condition.getTableId());
+		this.alias = tableAlias;
+
+		TupleDesc td = file.getTupleDesc();
+		this.slotsPerPage = HeapPage.numSlots(td);
+		String[] newNames = new String[td.numFields()];
+		Type[] newTypes = new Type[td.numFields()];
+		for (int i = 0; i < td.numFields(); i++) {
+			newNames[i] = tableAlias + "." + td.getFieldName(i);
+			newTypes[i] = td.getFieldType(i);
+		}
+		myTd = new TupleDesc(newTypes, newNames);
+	}
+
+	/**
+	 * @return the name of the table in the catalog
+	 */
+	public String getTableName() {
+		return Database.getCatalog().getTableName(file.getId());
+	}
+
+	/**
+	 * @return the alias of the table this operator scans
+	 */
+	public String getAlias() {
+		return alias;
+	}
+
+	public BitmapCondition getCondition() {
+		return condition;
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		if (isOpen)
+			throw new DbException("double open on one OpIterator.");
+		positions = condition.evaluate().iterator();
+		page = null;
+		next = null;
+		isOpen = true;
+	}
+
+	public TupleDesc getTupleDesc() {
+		return myTd;
+	}
+
+	public boolean hasNext() throws TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+		if (next == null)
+			next = fetchNext();
+		return next != null;
+	}
+
+	public Tuple next() throws NoSuchElementException,
+	TransactionAbortedException, DbException {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		Tuple result = next;
+		next = null;
+		return result;
+	}
+
+	/**
+	 * Reads the tuple at the next position which matches the condition.
+	 */
+	private Tuple fetchNext() throws TransactionAbortedException, DbException {
+		while (positions.hasNext()) {
+			int position = positions.nextInt();
+			int pgNo = position / slotsPerPage;
+			if (pgNo >= file.numPages())
+				continue;
+			//位置按升序排列，同一页上的元组是连着读的
+			if (page == null || page.getId().getPageNumber() != pgNo)
+				page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(file.getId(), pgNo),
+						Permissions.READ_ONLY);
+			Tuple t = page.getTuple(position % slotsPerPage);
+			if (t != null && condition.matches(t))
+				return t;
+		}
+		return null;
+	}
+
+	public void close() {
+		positions = null;
+		page = null;
+		next = null;
+		isOpen = false;
+	}
+
+	public void rewind() throws DbException, NoSuchElementException,
+	TransactionAbortedException {
+		close();
+		open();
+	}
+}
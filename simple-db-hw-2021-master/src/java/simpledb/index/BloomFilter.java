@@ -0,0 +1,169 @@
+package simpledb.index;
+
+import simpledb.storage.Field;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter over the keys of a file or of a part of it. A lookup of a key
+ * the filter says is absent can skip reading any page; a key the filter says
+ * may be present still has to be looked up, and is a false positive if it is
+ * not found. Keys can be added, but not removed, so deleted keys stay in the
+ * filter until it is rebuilt.
+ * <p>
+ * Keys are hashed with double hashing of a mix of their hashCode, so equal
+ * fields always set the same bits. Adds and lookups may run concurrently.
+ */
+public class BloomFilter {
+
+	private final int numBits;
+	private final int numHashes;
+	private final AtomicLongArray bits;
+
+	/**
+	 * Creates an empty filter sized for a number of keys.
+	 *
+	 * @param expectedKeys - the number of keys the filter is sized for
+	 * @param bitsPerKey - the number of bits per key; 10 bits give a false
+	 *                     positive rate of about 1% at the expected number of keys
+	 */
+	public BloomFilter(int expectedKeys, int bitsPerKey) {
+		if (bitsPerKey < 1)
+			throw new IllegalArgumentException("a Bloom filter needs at least one bit per key");
+		long n = Math.max(64L, (long) Math.max(1, expectedKeys) * bitsPerKey);
+		this.numBits = (int) Math.min(n, Integer.MAX_VALUE - 63);
+		// k = ln 2 * bits per key minimizes the false positive rate
+		this.numHashes = Math.max(1, Math.min(30, (int) Math.round(bitsPerKey * Math.log(2))));
+		this.bits = new AtomicLongArray((numBits + 63) / 64);
+	}
+
+	private BloomFilter(int numBits, int numHashes, AtomicLongArray bits) {
+		this.numBits = numBits;
+		this.numHashes = numHashes;
+		this.bits = bits;
+	}
+
+	/** @return a 64 bit hash of a key, whose halves are the two hashes of double hashing */
+	private static long hash(Field key) {
+		long h = key.hashCode() * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		return h ^ (h >>> 33);
+	}
+
+	/**
+	 * Adds a key to the filter.
+	 */
+	public void add(Field key) {
+		long h = hash(key);
+		int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+		for (int i = 0; i < numHashes; i++) {
+			int bit = Math.floorMod(h1 + i * h2, numBits);
+			long mask = 1L << bit;
+			int word = bit >>> 6;
+			long old;
+			do {
+				old = bits.get(word);
+			} while ((old & mask) == 0 && !bits.compareAndSet(word, old, old | mask));
+		}
+	}
+
+	/**
+	 * @return false if the key was never added to the filter; true if it may have been
+	 */
+	public boolean mightContain(Field key) {
+		long h = hash(key);
+		int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+		for (int i = 0; i < numHashes; i++) {
+			int bit = Math.floorMod(h1 + i * h2, numBits);
+			if ((bits.get(bit >>> 6) & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the filter to a stream, as the number of bits, the number of
+	 * hashes and the words of the bit array.
+	 */
+	public void serialize(DataOutputStream out) throws IOException {
+		out.writeInt(numBits);
+		out.writeInt(numHashes);
+		for (int i = 0; i < bits.length(); i++)
+			out.writeLong(bits.get(i));
+	}
+
+	/**
+	 * Reads a filter written by {@link #serialize}.
+	 */
+	public static BloomFilter read(DataInputStream in) throws IOException {
+		int numBits = in.readInt();
+		int numHashes = in.readInt();
+		if (numBits < 1 || numHashes < 1)
+			throw new IOException("invalid Bloom filter");
+		AtomicLongArray bits = new AtomicLongArray((numBits + 63) / 64);
+		for (int i = 0; i < bits.length(); i++)
+			bits.set(i, in.readLong());
+		return new BloomFilter(numBits, numHashes, bits);
+	}
+
+	/**
+	 * Counts the outcomes of the lookups of a file which used its Bloom
+	 * filters, to measure how much I/O they save and how often they fail to.
+	 */
+	public static class Stats {
+		private final AtomicLong negatives = new AtomicLong();
+		private final AtomicLong falsePositives = new AtomicLong();
+		private final AtomicLong truePositives = new AtomicLong();
+
+		/** Records a lookup the filter answered: the key is absent and no page was read. */
+		public void negative() {
+			negatives.incrementAndGet();
+		}
+
+		/** Records a lookup the filter let through, and whether the key was found. */
+		public void positive(boolean found) {
+			(found ? truePositives : falsePositives).incrementAndGet();
+		}
+
+		public long getNegatives() {
+			return negatives.get();
+		}
+
+		public long getFalsePositives() {
+			return falsePositives.get();
+		}
+
+		public long getTruePositives() {
+			return truePositives.get();
+		}
+
+		/**
+		 * @return the fraction of the lookups of absent keys which the filter let
+		 * through, or 0 if there were none
+		 */
+		public double getFalsePositiveRate() {
+			long fp = falsePositives.get();
+			long absent = fp + negatives.get();
+			return absent == 0 ? 0 : (double) fp / absent;
+		}
+
+		public void reset() {
+			negatives.set(0);
+			falsePositives.set(0);
+			truePositives.set(0);
+		}
+
+		public String toString() {
+			return "negatives: " + negatives.get() + ", false positives: " + falsePositives.get()
+					+ ", true positives: " + truePositives.get()
+					+ ", false positive rate: " + String.format("%.4f", getFalsePositiveRate());
+		}
+	}
+}
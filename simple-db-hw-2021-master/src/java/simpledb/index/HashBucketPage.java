@@ -0,0 +1,262 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.Page;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * Each instance of HashBucketPage stores the tuples of one page of a bucket
+ * of a HashFile: the primary page of the bucket or one of its overflow pages,
+ * which are chained from the primary page. Pages on the free list of the file
+ * are also HashBucketPages, chained the same way. It implements the Page
+ * interface that is used by BufferPool.
+ *
+ * @see HashFile
+ * @see BufferPool
+ */
+public class HashBucketPage implements Page {
+	private final static int POINTER_SIZE = 4;
+
+	private volatile boolean dirty = false;
+	private volatile TransactionId dirtier = null;
+
+	private final HashPageId pid;
+	private final TupleDesc td;
+	private final int numSlots;
+
+	private int nextPage;
+	private final byte[] header;
+	private final Tuple[] tuples;
+
+	private byte[] oldData;
+
+	/**
+	 * Create a HashBucketPage from a set of bytes of data read from disk.
+	 * The format of a HashBucketPage is an integer for the page number of the
+	 * next page in the chain (0 if none), followed by a set of header bytes
+	 * indicating the slots of the page that are in use and the tuple slots.
+	 * The number of tuple slots is
+	 * <p>
+	 *          floor((BufferPool.getPageSize()*8 - 32) / (tuple size * 8 + 1))
+	 * <p>
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 */
+	public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+		this.pid = id;
+		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.numSlots = getMaxTuples(td);
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+
+		nextPage = dis.readInt();
+		header = new byte[(numSlots + 7) / 8];
+		dis.readFully(header);
+		tuples = new Tuple[numSlots];
+		for (int i = 0; i < numSlots; i++) {
+			if (!isSlotUsed(i)) {
+				dis.skipBytes(td.getSize());
+				continue;
+			}
+			Tuple t = new Tuple(td);
+			t.setRecordId(new RecordId(pid, i));
+			try {
+				for (int j = 0; j < td.numFields(); j++) {
+					t.setField(j, td.getFieldType(j).parse(dis));
+				}
+			} catch (ParseException e) {
+				throw new IOException("parsing error in hash bucket page", e);
+			}
+			tuples[i] = t;
+		}
+		dis.close();
+
+		setBeforeImage();
+	}
+
+	/**
+	 * @return the number of tuples a bucket page of tuples described by td can hold
+	 */
+	public static int getMaxTuples(TupleDesc td) {
+		return (BufferPool.getPageSize() * 8 - POINTER_SIZE * 8) / (td.getSize() * 8 + 1);
+	}
+
+	public void setBeforeImage() {
+		oldData = getPageData().clone();
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HashPageId getId() {
+		return pid;
+	}
+
+	public byte[] getPageData() {
+		int len = BufferPool.getPageSize();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeInt(nextPage);
+			dos.write(header);
+			byte[] empty = new byte[td.getSize()];
+			for (int i = 0; i < numSlots; i++) {
+				if (!isSlotUsed(i)) {
+					dos.write(empty);
+					continue;
+				}
+				for (int j = 0; j < td.numFields(); j++) {
+					tuples[i].getField(j).serialize(dos);
+				}
+			}
+			dos.write(new byte[len - dos.size()]);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Static method to generate a byte array corresponding to an empty
+	 * HashBucketPage.
+	 *
+	 * @return The returned ByteArray.
+	 */
+	public static byte[] createEmptyPageData() {
+		return new byte[BufferPool.getPageSize()]; //all 0
+	}
+
+	public void markDirty(boolean dirty, TransactionId tid) {
+		this.dirty = dirty;
+		if (dirty) this.dirtier = tid;
+	}
+
+	public TransactionId isDirty() {
+		if (this.dirty)
+			return this.dirtier;
+		else
+			return null;
+	}
+
+	/** Return a view of this page before it was modified
+        -- used by recovery */
+	public HashBucketPage getBeforeImage() {
+		try {
+			return new HashBucketPage(pid, oldData);
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the id of the next page in the chain, or null if this is the last one
+	 */
+	public HashPageId getNextPageId() {
+		if (nextPage == 0)
+			return null;
+		return new HashPageId(pid.getTableId(), nextPage, HashPageId.BUCKET);
+	}
+
+	public void setNextPageId(HashPageId id) {
+		nextPage = id == null ? 0 : id.getPageNumber();
+	}
+
+	/**
+	 * @return the number of empty slots on this page
+	 */
+	public int getNumEmptySlots() {
+		int n = 0;
+		for (int i = 0; i < numSlots; i++) {
+			if (!isSlotUsed(i))
+				n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Adds a tuple to the first empty slot of the page, and sets its RecordId.
+	 * @throws DbException if the page is full or the tuple does not match the page
+	 */
+	public void insertTuple(Tuple t) throws DbException {
+		if (!t.getTupleDesc().equals(td))
+			throw new DbException("type mismatch, in addTuple");
+		for (int i = 0; i < numSlots; i++) {
+			if (!isSlotUsed(i)) {
+				markSlotUsed(i, true);
+				t.setRecordId(new RecordId(pid, i));
+				tuples[i] = t;
+				return;
+			}
+		}
+		throw new DbException("called addTuple on page with no empty slots.");
+	}
+
+	/**
+	 * Deletes a tuple from the page.
+	 * @throws DbException if the tuple is not on this page
+	 */
+	public void deleteTuple(Tuple t) throws DbException {
+		RecordId rid = t.getRecordId();
+		if (rid == null || !pid.equals(rid.getPageId()))
+			throw new DbException("tried to delete tuple on invalid page or table");
+		int slot = rid.getTupleNumber();
+		if (slot < 0 || slot >= numSlots || !isSlotUsed(slot))
+			throw new DbException("tried to delete null tuple.");
+		markSlotUsed(slot, false);
+		tuples[slot] = null;
+		t.setRecordId(null);
+	}
+
+	/**
+	 * Removes every tuple from the page, returning them.
+	 */
+	public List<Tuple> clear() {
+		List<Tuple> removed = new ArrayList<>();
+		for (int i = 0; i < numSlots; i++) {
+			if (isSlotUsed(i)) {
+				removed.add(tuples[i]);
+				markSlotUsed(i, false);
+				tuples[i] = null;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * @return an iterator over the tuples on this page whose key field equals
+	 * key, or over all tuples if key is null
+	 */
+	public Iterator<Tuple> iterator(int keyField, Field key) {
+		List<Tuple> list = new ArrayList<>();
+		for (int i = 0; i < numSlots; i++) {
+			if (isSlotUsed(i) && (key == null || tuples[i].getField(keyField).equals(key)))
+				list.add(tuples[i]);
+		}
+		return list.iterator();
+	}
+
+	private boolean isSlotUsed(int i) {
+		return (header[i / 8] & (1 << (i % 8))) != 0;
+	}
+
+	private void markSlotUsed(int i, boolean value) {
+		if (value)
+			header[i / 8] |= (byte) (1 << (i % 8));
+		else
+			header[i / 8] &= (byte) ~(1 << (i % 8));
+	}
+
+}
@@ -0,0 +1,542 @@
+package simpledb.index;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * HashFile is an implementation of a DbFile that stores tuples hashed on a
+ * key field with linear hashing, so an equality search reads one bucket: its
+ * primary page and, if the bucket overflowed, the overflow pages chained from
+ * it.
+ * <p>
+ * Page 0 is a {@link HashMetaPage} with the directory of the primary pages of
+ * the buckets; every other page is a {@link HashBucketPage}. A new file has
+ * {@link #INITIAL_BUCKETS} buckets. Whenever an insert has to add an overflow
+ * page to a bucket, the next bucket in split order is split into itself and
+ * a new bucket, so the number of buckets grows with the file one bucket at a
+ * time. Once the directory of the meta page is full buckets only grow
+ * overflow chains. Overflow pages emptied by a split go on a free list and
+ * are reused before the file is extended.
+ * <p>
+ * All pages are read through the BufferPool with the usual page locks. A
+ * search locks the meta page only until it has locked the primary page of its
+ * bucket (unless the transaction already held or dirtied the meta page), and
+ * the primary page stays locked until commit; splitting a bucket takes a
+ * write lock on the meta page and on every page of the bucket.
+ */
+public class HashFile implements DbFile {
+
+	/** the number of buckets of a new HashFile */
+	public static final int INITIAL_BUCKETS = 4;
+
+	private final File f;
+	private final TupleDesc td;
+	private final int tableid;
+	private final int keyField;
+
+	/**
+	 * Constructs a hash file backed by the specified file.
+	 *
+	 * @param f - the file that stores the on-disk backing store for this hash file.
+	 * @param key - the field which the file is hashed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 */
+	public HashFile(File f, int key, TupleDesc td) {
+		this.f = f;
+		this.tableid = f.getAbsoluteFile().hashCode();
+		this.keyField = key;
+		this.td = td;
+	}
+
+	/**
+	 * Returns the File backing this HashFile on disk.
+	 */
+	public File getFile() {
+		return f;
+	}
+
+	/**
+	 * Returns an ID uniquely identifying this HashFile, the hash code of the
+	 * absolute file name.
+	 */
+	public int getId() {
+		return tableid;
+	}
+
+	public TupleDesc getTupleDesc() {
+		return td;
+	}
+
+	/**
+	 * Returns the index of the field that this file is hashed on
+	 */
+	public int keyField() {
+		return keyField;
+	}
+
+	/**
+	 * Returns the number of pages in this HashFile, including the meta page.
+	 */
+	public int numPages() {
+		return (int) (f.length() / BufferPool.getPageSize());
+	}
+
+	/**
+	 * Read a page from the file on disk. This should not be called directly
+	 * but should be called from the BufferPool via getPage()
+	 */
+	public Page readPage(PageId pid) {
+		HashPageId id = (HashPageId) pid;
+		byte[] pageBuf = new byte[BufferPool.getPageSize()];
+		long offset = (long) id.getPageNumber() * BufferPool.getPageSize();
+		try {
+			int retval;
+			if (DirectIO.isEnabled()) {
+				retval = DirectIO.read(f, offset, pageBuf);
+			} else {
+				try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+					raf.seek(offset);
+					retval = raf.read(pageBuf);
+				}
+			}
+			if (retval == -1) {
+				throw new IllegalArgumentException("Read past end of table");
+			}
+			if (retval < pageBuf.length) {
+				throw new IllegalArgumentException("Unable to read "
+						+ pageBuf.length + " bytes from HashFile");
+			}
+			return pageFromData(id, pageBuf);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	// see DbFile.java for javadocs
+	public Page pageFromData(PageId pid, byte[] data) throws IOException {
+		HashPageId id = (HashPageId) pid;
+		if (id.pgcateg() == HashPageId.META)
+			return new HashMetaPage(id, data);
+		return new HashBucketPage(id, data);
+	}
+
+	/**
+	 * Write a page to disk.  This should not be called directly but should
+	 * be called from the BufferPool when pages are flushed to disk
+	 */
+	public void writePage(Page page) throws IOException {
+		long offset = (long) page.getId().getPageNumber() * BufferPool.getPageSize();
+		byte[] data = page.getPageData();
+		if (DirectIO.isEnabled()) {
+			DirectIO.write(f, offset, data);
+			return;
+		}
+		try (RandomAccessFile rf = new RandomAccessFile(f, "rw")) {
+			rf.seek(offset);
+			rf.write(data);
+		}
+	}
+
+	/**
+	 * @return the hash of a key, spread over all bits and never negative
+	 */
+	static int hash(Field key) {
+		int h = key.hashCode() * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & Integer.MAX_VALUE;
+	}
+
+	/**
+	 * @return the bucket of a key under the current level and split pointer
+	 */
+	private static int bucketOf(HashMetaPage meta, Field key) {
+		int h = hash(key);
+		int bucket = h % (INITIAL_BUCKETS << meta.getLevel());
+		if (bucket < meta.getNext())
+			bucket = h % (INITIAL_BUCKETS << (meta.getLevel() + 1));
+		return bucket;
+	}
+
+	/**
+	 * Method to encapsulate the process of locking/fetching a page, like
+	 * BTreeFile.getPage: pages locked with READ_WRITE are remembered in
+	 * dirtypages and returned from there on later calls.
+	 */
+	private Page getPage(TransactionId tid, Map<PageId, Page> dirtypages, HashPageId pid, Permissions perm)
+			throws DbException, TransactionAbortedException {
+		if (dirtypages.containsKey(pid))
+			return dirtypages.get(pid);
+		Page p = Database.getBufferPool().getPage(tid, pid, perm);
+		if (perm == Permissions.READ_WRITE)
+			dirtypages.put(pid, p);
+		return p;
+	}
+
+	/**
+	 * Creates the meta page and the initial buckets if the file is empty, then
+	 * locks and returns the meta page.
+	 */
+	HashMetaPage getMetaPage(TransactionId tid, Map<PageId, Page> dirtypages, Permissions perm)
+			throws DbException, IOException, TransactionAbortedException {
+		synchronized (this) {
+			if (f.length() == 0) {
+				try (BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f, true))) {
+					bw.write(HashMetaPage.createInitialPageData(INITIAL_BUCKETS));
+					for (int i = 0; i < INITIAL_BUCKETS; i++) {
+						bw.write(HashBucketPage.createEmptyPageData());
+					}
+				}
+			}
+		}
+		return (HashMetaPage) getPage(tid, dirtypages, HashMetaPage.getId(tableid), perm);
+	}
+
+	/**
+	 * Locks the meta page for a search of one bucket.
+	 *
+	 * @return the primary page of the bucket of key, locked with perm
+	 */
+	private HashBucketPage findBucket(TransactionId tid, Map<PageId, Page> dirtypages, Field key, Permissions perm)
+			throws DbException, IOException, TransactionAbortedException {
+		HashPageId metaId = HashMetaPage.getId(tableid);
+		// the meta page only guards the directory: once the primary page is locked
+		// no split can move the tuples of the bucket
+		boolean release = !dirtypages.containsKey(metaId) && !Database.getBufferPool().holdsLock(tid, metaId);
+		HashMetaPage meta = getMetaPage(tid, dirtypages, Permissions.READ_ONLY);
+		HashBucketPage primary = (HashBucketPage) getPage(tid, dirtypages, meta.getBucketId(bucketOf(meta, key)), perm);
+		if (release)
+			Database.getBufferPool().unsafeReleasePage(tid, metaId);
+		return primary;
+	}
+
+	/**
+	 * Insert a tuple into the bucket of its key. If every page of the bucket
+	 * is full an overflow page is added to it, and the next bucket in split
+	 * order is split.
+	 *
+	 * @return a list of all pages that were dirtied by this operation
+	 */
+	public List<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		Field key = t.getField(keyField);
+		HashPageId metaId = HashMetaPage.getId(tableid);
+		boolean release = !Database.getBufferPool().holdsLock(tid, metaId);
+		HashMetaPage meta = getMetaPage(tid, dirtypages, Permissions.READ_ONLY);
+
+		HashPageId primary = meta.getBucketId(bucketOf(meta, key));
+		HashBucketPage page = pageWithRoom(tid, dirtypages, primary);
+		if (page == null) {
+			meta = getMetaPage(tid, dirtypages, Permissions.READ_WRITE);
+			page = appendOverflowPage(tid, dirtypages, meta, primary);
+			page.insertTuple(t);
+			split(tid, dirtypages, meta);
+		} else {
+			page.insertTuple(t);
+			if (release)
+				Database.getBufferPool().unsafeReleasePage(tid, metaId);
+		}
+		return markDirty(tid, dirtypages);
+	}
+
+	/**
+	 * Delete a tuple from the page its RecordId points to. Pages are not
+	 * merged; an emptied overflow page stays in its bucket.
+	 *
+	 * @return a list of all pages that were dirtied by this operation
+	 */
+	public List<Page> deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		if (rid == null || !(rid.getPageId() instanceof HashPageId) || rid.getPageId().getTableId() != tableid)
+			throw new DbException("tried to delete tuple with invalid record id");
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		HashBucketPage page = (HashBucketPage) getPage(tid, dirtypages, (HashPageId) rid.getPageId(),
+				Permissions.READ_WRITE);
+		page.deleteTuple(t);
+		return markDirty(tid, dirtypages);
+	}
+
+	private static List<Page> markDirty(TransactionId tid, Map<PageId, Page> dirtypages) {
+		for (Page p : dirtypages.values())
+			p.markDirty(true, tid);
+		return new ArrayList<>(dirtypages.values());
+	}
+
+	/**
+	 * @return the first page of the bucket starting at primary with an empty
+	 * slot, locked with READ_WRITE, or null if all of them are full
+	 */
+	private HashBucketPage pageWithRoom(TransactionId tid, Map<PageId, Page> dirtypages, HashPageId primary)
+			throws DbException, TransactionAbortedException {
+		for (HashPageId id = primary; id != null; ) {
+			HashBucketPage page = (HashBucketPage) getPage(tid, dirtypages, id, Permissions.READ_WRITE);
+			if (page.getNumEmptySlots() > 0)
+				return page;
+			id = page.getNextPageId();
+		}
+		return null;
+	}
+
+	/**
+	 * Adds an empty page to the end of the bucket starting at primary.
+	 * The meta page must be locked with READ_WRITE.
+	 */
+	private HashBucketPage appendOverflowPage(TransactionId tid, Map<PageId, Page> dirtypages,
+			HashMetaPage meta, HashPageId primary) throws DbException, IOException, TransactionAbortedException {
+		HashBucketPage last = (HashBucketPage) getPage(tid, dirtypages, primary, Permissions.READ_WRITE);
+		while (last.getNextPageId() != null)
+			last = (HashBucketPage) getPage(tid, dirtypages, last.getNextPageId(), Permissions.READ_WRITE);
+		HashBucketPage page = allocatePage(tid, dirtypages, meta);
+		last.setNextPageId(page.getId());
+		return page;
+	}
+
+	/**
+	 * Takes a page off the free list, or extends the file by one page if the
+	 * list is empty. The meta page must be locked with READ_WRITE.
+	 *
+	 * @return the new empty page, locked with READ_WRITE
+	 */
+	private HashBucketPage allocatePage(TransactionId tid, Map<PageId, Page> dirtypages, HashMetaPage meta)
+			throws DbException, IOException, TransactionAbortedException {
+		HashPageId free = meta.getFreeHead();
+		if (free != null) {
+			HashBucketPage page = (HashBucketPage) getPage(tid, dirtypages, free, Permissions.READ_WRITE);
+			meta.setFreeHead(page.getNextPageId());
+			page.setNextPageId(null);
+			return page;
+		}
+		int pgNo = meta.getLastPage() + 1;
+		meta.setLastPage(pgNo);
+		HashPageId pid = new HashPageId(tableid, pgNo, HashPageId.BUCKET);
+		// write the empty page before locking it, so the BufferPool can read it;
+		// the page number belongs to this transaction as long as it holds the meta page
+		writePage(new HashBucketPage(pid, HashBucketPage.createEmptyPageData()));
+		Database.getBufferPool().discardPage(pid);
+		return (HashBucketPage) getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+	}
+
+	/**
+	 * Splits the next bucket in split order: its tuples are divided between it
+	 * and a new bucket by the hash function of the next level, and its
+	 * overflow pages that are no longer needed go on the free list. The meta
+	 * page must be locked with READ_WRITE.
+	 */
+	private void split(TransactionId tid, Map<PageId, Page> dirtypages, HashMetaPage meta)
+			throws DbException, IOException, TransactionAbortedException {
+		int bucket = meta.getNext();
+		int newBucket = meta.getNumBuckets(INITIAL_BUCKETS);
+		if (newBucket >= HashMetaPage.getMaxBuckets())
+			return;
+
+		HashPageId primary = meta.getBucketId(bucket);
+		List<HashBucketPage> chain = new ArrayList<>();
+		List<Tuple> tuples = new ArrayList<>();
+		for (HashPageId id = primary; id != null; ) {
+			HashBucketPage page = (HashBucketPage) getPage(tid, dirtypages, id, Permissions.READ_WRITE);
+			chain.add(page);
+			tuples.addAll(page.clear());
+			id = page.getNextPageId();
+		}
+
+		HashBucketPage newPrimary = allocatePage(tid, dirtypages, meta);
+		meta.setBucketId(newBucket, newPrimary.getId());
+		meta.advanceSplit(INITIAL_BUCKETS);
+
+		int used = 0; // pages of the old chain holding tuples
+		HashBucketPage newLast = newPrimary;
+		for (Tuple t : tuples) {
+			if (bucketOf(meta, t.getField(keyField)) == bucket) {
+				while (chain.get(used).getNumEmptySlots() == 0)
+					used++;
+				chain.get(used).insertTuple(t);
+			} else {
+				if (newLast.getNumEmptySlots() == 0) {
+					HashBucketPage page = allocatePage(tid, dirtypages, meta);
+					newLast.setNextPageId(page.getId());
+					newLast = page;
+				}
+				newLast.insertTuple(t);
+			}
+		}
+
+		// free the tail of the old chain
+		HashBucketPage last = chain.get(used);
+		for (int i = used + 1; i < chain.size(); i++) {
+			HashBucketPage page = chain.get(i);
+			page.setNextPageId(meta.getFreeHead());
+			meta.setFreeHead(page.getId());
+		}
+		last.setNextPageId(null);
+	}
+
+	/**
+	 * Get a read lock on the bucket of the key of ipred, and return an
+	 * iterator over the tuples of the bucket whose key equals it. Other
+	 * predicates cannot use the hash function, so they scan the whole file.
+	 *
+	 * @param tid - the transaction id
+	 * @param ipred - the index predicate value to filter on
+	 * @return an iterator for the filtered tuples
+	 */
+	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+		if (ipred.getOp() == Op.EQUALS)
+			return new HashSearchIterator(this, tid, ipred.getField());
+		return new HashFileIterator(this, tid, ipred);
+	}
+
+	/**
+	 * Get an iterator for all tuples in this file, bucket by bucket. This
+	 * method keeps a read lock on the meta page, so no bucket is split under
+	 * the scan.
+	 */
+	public DbFileIterator iterator(TransactionId tid) {
+		return new HashFileIterator(this, tid, null);
+	}
+
+	/**
+	 * Locks the primary page of the bucket of key with READ_ONLY.
+	 */
+	HashBucketPage findBucket(TransactionId tid, Field key)
+			throws DbException, TransactionAbortedException {
+		try {
+			return findBucket(tid, new HashMap<>(), key, Permissions.READ_ONLY);
+		} catch (IOException e) {
+			throw new DbException(e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the primary pages of all buckets, with a read lock on the meta page
+	 */
+	List<HashPageId> bucketIds(TransactionId tid) throws DbException, TransactionAbortedException {
+		HashMetaPage meta;
+		try {
+			meta = getMetaPage(tid, new HashMap<>(), Permissions.READ_ONLY);
+		} catch (IOException e) {
+			throw new DbException(e.getMessage());
+		}
+		List<HashPageId> ids = new ArrayList<>();
+		for (int b = 0; b < meta.getNumBuckets(INITIAL_BUCKETS); b++)
+			ids.add(meta.getBucketId(b));
+		return ids;
+	}
+
+}
+
+/**
+ * Helper class that iterates over the tuples of a HashFile bucket by bucket,
+ * optionally filtered by a predicate on the key
+ */
+class HashFileIterator extends AbstractDbFileIterator {
+
+	private final HashFile f;
+	private final TransactionId tid;
+	private final IndexPredicate ipred;
+	private Iterator<HashPageId> buckets = null;
+	private HashBucketPage curp = null;
+	private Iterator<Tuple> it = null;
+
+	public HashFileIterator(HashFile f, TransactionId tid, IndexPredicate ipred) {
+		this.f = f;
+		this.tid = tid;
+		this.ipred = ipred;
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		buckets = f.bucketIds(tid).iterator();
+	}
+
+	@Override
+	protected Tuple readNext() throws DbException, TransactionAbortedException {
+		if (buckets == null)
+			return null;
+		while (true) {
+			while (it != null && it.hasNext()) {
+				Tuple t = it.next();
+				if (ipred == null || t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField()))
+					return t;
+			}
+			HashPageId nextp = curp == null ? null : curp.getNextPageId();
+			if (nextp == null) {
+				if (!buckets.hasNext())
+					return null;
+				nextp = buckets.next();
+			}
+			curp = (HashBucketPage) Database.getBufferPool().getPage(tid, nextp, Permissions.READ_ONLY);
+			it = curp.iterator(f.keyField(), null);
+		}
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	public void close() {
+		super.close();
+		buckets = null;
+		curp = null;
+		it = null;
+	}
+}
+
+/**
+ * Helper class that iterates over the tuples of one bucket of a HashFile
+ * whose key equals a search key
+ */
+class HashSearchIterator extends AbstractDbFileIterator {
+
+	private final HashFile f;
+	private final TransactionId tid;
+	private final Field key;
+	private HashBucketPage curp = null;
+	private Iterator<Tuple> it = null;
+
+	public HashSearchIterator(HashFile f, TransactionId tid, Field key) {
+		this.f = f;
+		this.tid = tid;
+		this.key = key;
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		curp = f.findBucket(tid, key);
+		it = curp.iterator(f.keyField(), key);
+	}
+
+	@Override
+	protected Tuple readNext() throws DbException, TransactionAbortedException {
+		while (it != null) {
+			if (it.hasNext())
+				return it.next();
+			HashPageId nextp = curp.getNextPageId();
+			if (nextp == null) {
+				it = null;
+			} else {
+				curp = (HashBucketPage) Database.getBufferPool().getPage(tid, nextp, Permissions.READ_ONLY);
+				it = curp.iterator(f.keyField(), key);
+			}
+		}
+		return null;
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	public void close() {
+		super.close();
+		curp = null;
+		it = null;
+	}
+}
@@ -0,0 +1,133 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.IndexOpIterator;
+import simpledb.execution.IndexPredicate;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+/**
+ * HashIndexScan is an operator which reads the tuples of a {@link HashFile}
+ * matching an index predicate. An equality predicate on the key reads only
+ * the bucket of the key; any other predicate, or none, scans every bucket.
+ * Tuples are not returned in any particular order.
+ */
+public class HashIndexScan implements IndexOpIterator {
+
+	private static final long serialVersionUID = 1L;
+
+	private boolean isOpen = false;
+	private final TransactionId tid;
+	private final HashFile file;
+	private IndexPredicate ipred;
+	private final TupleDesc myTd;
+	private final String alias;
+	private transient DbFileIterator it;
+
+	/**
+	 * Creates a scan of a hash file as a part of the specified transaction.
+	 *
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param tableid
+	 *            the table to scan, which must be stored in a HashFile.
+	 * @param tableAlias
+	 *            the alias of this table; the returned tupleDesc has fields
+	 *            with name tableAlias.fieldName.
+	 * @param ipred
+	 * 			  The index predicate to match. If null, the scan will return all
+	 *            tuples
+	 */
+	public HashIndexScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred) {
+		this.tid = tid;
+		this.file = (HashFile) Database.getCatalog().getDatabaseFile(tableid);
+		this.alias = tableAlias;
+		this.ipred = ipred;
+
+		TupleDesc td = file.getTupleDesc();
+		String[] newNames = new String[td.numFields()];
+		Type[] newTypes = new Type[td.numFields()];
+		for (int i = 0; i < td.numFields(); i++) {
+			newNames[i] = tableAlias + "." + td.getFieldName(i);
+			newTypes[i] = td.getFieldType(i);
+		}
+		myTd = new TupleDesc(newTypes, newNames);
+	}
+
+	/**
+	 * @return the name of the table in the catalog
+	 */
+	public String getTableName() {
+		return Database.getCatalog().getTableName(file.getId());
+	}
+
+	/**
+	 * @return the alias of the table this operator scans
+	 */
+	public String getAlias() {
+		return alias;
+	}
+
+	/**
+	 * @return the predicate the scan matches, or null if it returns all tuples
+	 */
+	public IndexPredicate getIndexPredicate() {
+		return ipred;
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		if (isOpen)
+			throw new DbException("double open on one OpIterator.");
+
+		it = ipred == null ? file.iterator(tid) : file.indexIterator(tid, ipred);
+		it.open();
+		isOpen = true;
+	}
+
+	public void open(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+		this.ipred = ipred;
+		open();
+	}
+
+	public TupleDesc getTupleDesc() {
+		return myTd;
+	}
+
+	public boolean hasNext() throws TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+		return it.hasNext();
+	}
+
+	public Tuple next() throws NoSuchElementException,
+	TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+
+		return it.next();
+	}
+
+	public void close() {
+		if (it != null)
+			it.close();
+		isOpen = false;
+	}
+
+	public void rewind() throws DbException, NoSuchElementException,
+	TransactionAbortedException {
+		close();
+		open();
+	}
+
+	public void rewind(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+		close();
+		open(ipred);
+	}
+}
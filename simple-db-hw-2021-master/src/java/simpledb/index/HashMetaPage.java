@@ -0,0 +1,219 @@
+package simpledb.index;
+
+import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Page;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * HashMetaPage is page 0 of a HashFile. It holds the state of the linear
+ * hashing scheme (the level and the next bucket to split), the last page
+ * number allocated, the head of the list of free pages, and the directory
+ * mapping each bucket to its primary page. It implements the Page interface
+ * that is used by BufferPool.
+ *
+ * @see HashFile
+ * @see BufferPool
+ */
+public class HashMetaPage implements Page {
+	private final static int HEADER_SIZE = 4 * 4;
+
+	private volatile boolean dirty = false;
+	private volatile TransactionId dirtier = null;
+
+	private final HashPageId pid;
+
+	private int level;
+	private int next;
+	private int lastPage;
+	private int freeHead;
+	private final int[] directory;
+
+	private byte[] oldData;
+
+	/**
+	 * Constructor.
+	 * Construct the HashMetaPage from a set of bytes of data read from disk.
+	 * The format of a HashMetaPage is four integers (the level, the next
+	 * bucket to split, the last page number allocated and the first free
+	 * page), followed by the primary page number of each bucket.
+	 */
+	public HashMetaPage(HashPageId id, byte[] data) throws IOException {
+		this.pid = id;
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		level = dis.readInt();
+		next = dis.readInt();
+		lastPage = dis.readInt();
+		freeHead = dis.readInt();
+		directory = new int[getMaxBuckets()];
+		for (int i = 0; i < directory.length; i++) {
+			directory[i] = dis.readInt();
+		}
+		setBeforeImage();
+	}
+
+	/**
+	 * @return the number of buckets the directory of a meta page can hold
+	 */
+	public static int getMaxBuckets() {
+		return (BufferPool.getPageSize() - HEADER_SIZE) / 4;
+	}
+
+	public void setBeforeImage() {
+		oldData = getPageData().clone();
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HashPageId getId() {
+		return pid;
+	}
+
+	/**
+	 * There is only one meta page per HashFile.
+	 * @param tableid - the tableid of this table
+	 * @return the meta page id for the given table
+	 */
+	public static HashPageId getId(int tableid) {
+		return new HashPageId(tableid, 0, HashPageId.META);
+	}
+
+	public byte[] getPageData() {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeInt(level);
+			dos.writeInt(next);
+			dos.writeInt(lastPage);
+			dos.writeInt(freeHead);
+			for (int p : directory) {
+				dos.writeInt(p);
+			}
+			dos.write(new byte[BufferPool.getPageSize() - HEADER_SIZE - 4 * directory.length]);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Static method to generate a byte array corresponding to the meta page of
+	 * a new HashFile, whose initial buckets are pages 1 to initialBuckets.
+	 *
+	 * @return The returned ByteArray.
+	 */
+	public static byte[] createInitialPageData(int initialBuckets) {
+		byte[] data = new byte[BufferPool.getPageSize()];
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		buf.putInt(8, initialBuckets);
+		for (int i = 0; i < initialBuckets; i++) {
+			buf.putInt(HEADER_SIZE + 4 * i, i + 1);
+		}
+		return data;
+	}
+
+	public void markDirty(boolean dirty, TransactionId tid) {
+		this.dirty = dirty;
+		if (dirty) this.dirtier = tid;
+	}
+
+	public TransactionId isDirty() {
+		if (this.dirty)
+			return this.dirtier;
+		else
+			return null;
+	}
+
+	/** Return a view of this page before it was modified
+        -- used by recovery */
+	public HashMetaPage getBeforeImage() {
+		try {
+			return new HashMetaPage(pid, oldData);
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the number of times the initial buckets have been doubled
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return the next bucket to split in this level
+	 */
+	public int getNext() {
+		return next;
+	}
+
+	/**
+	 * Records that bucket getNext() was split, moving on to the next level
+	 * once every bucket of this level has been.
+	 */
+	public void advanceSplit(int initialBuckets) {
+		next++;
+		if (next == (initialBuckets << level)) {
+			level++;
+			next = 0;
+		}
+	}
+
+	/**
+	 * @return the number of buckets of the file
+	 */
+	public int getNumBuckets(int initialBuckets) {
+		return (initialBuckets << level) + next;
+	}
+
+	/**
+	 * @return the primary page of a bucket
+	 */
+	public HashPageId getBucketId(int bucket) {
+		return new HashPageId(pid.getTableId(), directory[bucket], HashPageId.BUCKET);
+	}
+
+	/**
+	 * Set the primary page of a bucket
+	 * @throws DbException if the bucket does not fit in the directory
+	 */
+	public void setBucketId(int bucket, HashPageId id) throws DbException {
+		if (bucket >= directory.length)
+			throw new DbException("hash directory is full");
+		directory[bucket] = id.getPageNumber();
+	}
+
+	/**
+	 * @return the number of the last page allocated in the file
+	 */
+	public int getLastPage() {
+		return lastPage;
+	}
+
+	public void setLastPage(int lastPage) {
+		this.lastPage = lastPage;
+	}
+
+	/**
+	 * @return the first page of the list of free pages, or null if it is empty
+	 */
+	public HashPageId getFreeHead() {
+		if (freeHead == 0)
+			return null;
+		return new HashPageId(pid.getTableId(), freeHead, HashPageId.BUCKET);
+	}
+
+	public void setFreeHead(HashPageId id) {
+		freeHead = id == null ? 0 : id.getPageNumber();
+	}
+
+}
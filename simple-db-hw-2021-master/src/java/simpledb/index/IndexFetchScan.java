@@ -0,0 +1,167 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexOpIterator;
+import simpledb.execution.IndexPredicate;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapPage;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+/**
+ * IndexFetchScan is an operator which reads the tuples of a HeapFile table
+ * whose key matches an index predicate: it searches a secondary index of the
+ * table for the RecordIds of the matching tuples, and reads each tuple from
+ * its page. Tuples are returned in key order, with all the fields of the
+ * table, named after the table alias like a scan of the table.
+ */
+public class IndexFetchScan implements IndexOpIterator {
+
+	private static final long serialVersionUID = 1L;
+
+	private boolean isOpen = false;
+	private final TransactionId tid;
+	private final SecondaryIndex index;
+	private IndexPredicate ipred;
+	private final TupleDesc myTd;
+	private final String alias;
+	private transient DbFileIterator it;
+	private Tuple next = null;
+
+	/**
+	 * Creates a scan of a table through one of its secondary indexes as a
+	 * part of the specified transaction.
+	 *
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param index
+	 *            the index to search, which must store RecordIds.
+	 * @param tableAlias
+	 *            the alias of the indexed table; the returned tupleDesc
+	 *            has fields with name tableAlias.fieldName.
+	 * @param ipred
+	 * 			  The predicate on the key of the index to match. If null, the
+	 *            scan will return all tuples of the table in key order
+	 */
+	public IndexFetchScan(TransactionId tid, SecondaryIndex index, String tableAlias, IndexPredicate ipred) {
+		if (!index.hasRecordIds())
+			throw new IllegalArgumentException("index " + index.getName() + " does not store record ids");
+		this.tid = tid;
+		this.index = index;
+		this.alias = tableAlias;
+		this.ipred = ipred;
+
+		TupleDesc td = Database.getCatalog().getTupleDesc(index.getTableId());
+		String[] newNames = new String[td.numFields()];
+		Type[] newTypes = new Type[td.numFields()];
+		for (int i = 0; i < td.numFields(); i++) {
+			newNames[i] = tableAlias + "." + td.getFieldName(i);
+			newTypes[i] = td.getFieldType(i);
+		}
+		myTd = new TupleDesc(newTypes, newNames);
+	}
+
+	/**
+	 * @return the name of the indexed table in the catalog
+	 */
+	public String getTableName() {
+		return Database.getCatalog().getTableName(index.getTableId());
+	}
+
+	/**
+	 * @return the alias of the indexed table
+	 */
+	public String getAlias() {
+		return alias;
+	}
+
+	public SecondaryIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the predicate on the key, or null if every tuple is fetched
+	 */
+	public IndexPredicate getIndexPredicate() {
+		return ipred;
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		if (isOpen)
+			throw new DbException("double open on one OpIterator.");
+
+		if (ipred == null)
+			it = index.getFile().iterator(tid);
+		else
+			it = index.getFile().indexIterator(tid, ipred);
+		it.open();
+		next = null;
+		isOpen = true;
+	}
+
+	public void open(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+		this.ipred = ipred;
+		open();
+	}
+
+	public TupleDesc getTupleDesc() {
+		return myTd;
+	}
+
+	public boolean hasNext() throws TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+		if (next == null)
+			next = fetchNext();
+		return next != null;
+	}
+
+	public Tuple next() throws NoSuchElementException,
+	TransactionAbortedException, DbException {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		Tuple result = next;
+		next = null;
+		return result;
+	}
+
+	/**
+	 * Reads the tuple the next index tuple points to.
+	 */
+	private Tuple fetchNext() throws TransactionAbortedException, DbException {
+		while (it.hasNext()) {
+			RecordId rid = index.getRecordId(it.next());
+			HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+			Tuple t = page.getTuple(rid.getTupleNumber());
+			if (t != null)
+				return t;
+		}
+		return null;
+	}
+
+	public void close() {
+		if (it != null)
+			it.close();
+		next = null;
+		isOpen = false;
+	}
+
+	public void rewind() throws DbException, NoSuchElementException,
+	TransactionAbortedException {
+		close();
+		open();
+	}
+
+	public void rewind(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+		close();
+		open(ipred);
+	}
+}
@@ -0,0 +1,138 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+/**
+ * IndexOnlyScan is an operator which answers a scan of a table from one of
+ * its covering secondary indexes, without reading the table. It returns the
+ * fields of the table stored in the index (the key and the included fields),
+ * in key order, named after the table alias like a scan of the table.
+ */
+public class IndexOnlyScan implements OpIterator {
+
+	private static final long serialVersionUID = 1L;
+
+	private boolean isOpen = false;
+	private final TransactionId tid;
+	private final SecondaryIndex index;
+	private final IndexPredicate ipred;
+	private final TupleDesc myTd;
+	private final String alias;
+	private transient DbFileIterator it;
+
+	/**
+	 * Creates an index-only scan as a part of the specified transaction.
+	 *
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param index
+	 *            the index to scan.
+	 * @param tableAlias
+	 *            the alias of the indexed table; the returned tupleDesc
+	 *            has fields with name tableAlias.fieldName.
+	 * @param ipred
+	 * 			  The predicate on the key of the index to match. If null, the
+	 *            scan will return all tuples of the index in sorted order
+	 */
+	public IndexOnlyScan(TransactionId tid, SecondaryIndex index, String tableAlias, IndexPredicate ipred) {
+		this.tid = tid;
+		this.index = index;
+		this.alias = tableAlias;
+		this.ipred = ipred;
+		if (ipred == null)
+			this.it = index.getFile().iterator(tid);
+		else
+			this.it = index.getFile().indexIterator(tid, ipred);
+
+		TupleDesc td = index.getTupleDesc();
+		int n = index.getColumns().length;
+		String[] newNames = new String[n];
+		Type[] newTypes = new Type[n];
+		for (int i = 0; i < n; i++) {
+			newNames[i] = tableAlias + "." + td.getFieldName(i);
+			newTypes[i] = td.getFieldType(i);
+		}
+		myTd = new TupleDesc(newTypes, newNames);
+	}
+
+	/**
+	 * @return the name of the indexed table in the catalog
+	 */
+	public String getTableName() {
+		return Database.getCatalog().getTableName(index.getTableId());
+	}
+
+	/**
+	 * @return the alias of the indexed table
+	 */
+	public String getAlias() {
+		return alias;
+	}
+
+	public SecondaryIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the predicate on the key, or null if the whole index is scanned
+	 */
+	public IndexPredicate getIndexPredicate() {
+		return ipred;
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		if (isOpen)
+			throw new DbException("double open on one OpIterator.");
+
+		it.open();
+		isOpen = true;
+	}
+
+	public TupleDesc getTupleDesc() {
+		return myTd;
+	}
+
+	public boolean hasNext() throws TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+		return it.hasNext();
+	}
+
+	public Tuple next() throws NoSuchElementException,
+	TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+
+		Tuple t = it.next();
+		if (!index.hasRecordIds())
+			return t;
+		// leave out the record id fields
+		Tuple out = new Tuple(myTd);
+		for (int i = 0; i < myTd.numFields(); i++) {
+			out.setField(i, t.getField(i));
+		}
+		return out;
+	}
+
+	public void close() {
+		it.close();
+		isOpen = false;
+	}
+
+	public void rewind() throws DbException, NoSuchElementException,
+	TransactionAbortedException {
+		close();
+		open();
+	}
+}
@@ -0,0 +1,998 @@
+package simpledb.index;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * LsmFile is an implementation of a DbFile that stores a log-structured merge
+ * tree, for tables that take many more inserts than reads. An insert or a
+ * delete appends an entry to the log of the file and to an in-memory sorted
+ * table of the changes of its transaction; deletes are tombstones which cancel
+ * one copy of an equal tuple. Tuples are ordered on the key field first, then
+ * on the other fields, and a table entry counts the copies of a tuple, negative
+ * for tombstones, so equal tuples are one entry.
+ * <p>
+ * When a transaction commits its changes go into the memtable. Once the
+ * memtable holds {@link #setMemtableLimit} tuples it is written out as an
+ * immutable sorted run in a file of its own, with a sparse index of the first
+ * key of each page and a Bloom filter over its keys, and the log starts over. Runs are merged by size tiers:
+ * the {@link #RUNS_PER_LEVEL} runs of a level are merged into one run of the
+ * next level by {@link #compact}, which can run in the background (see
+ * {@link #startCompactor}). A read merges the memtable, the changes of its own
+ * transaction and every run in key order.
+ * <p>
+ * The log is the file of the table itself: a sequence of {@link LsmPage}s
+ * read and written through the BufferPool, so the pages of a transaction are
+ * forced to disk at commit and logged in the LogFile like the pages of any
+ * other file. The runs are files next to it and a manifest file lists them.
+ * <p>
+ * The first page of the log locks the table: writers lock it with
+ * READ_WRITE and readers with READ_ONLY until they complete, so commits and
+ * the swapping of merged runs never happen under a reader. Writers of one
+ * table therefore run one at a time, each taking no other lock than the one
+ * on the last page of the log.
+ */
+public class LsmFile implements DbFile {
+
+	/** the number of runs of a level which are merged into one run of the next level */
+	public static final int RUNS_PER_LEVEL = 4;
+
+	private final File f;
+	private final File manifest;
+	private final TupleDesc td;
+	private final int tableid;
+	private final int keyField;
+	private final Comparator<Tuple> order = this::compareTuples;
+
+	// the committed changes that are not in a run yet, changed only by transactions
+	// holding the first log page with READ_WRITE
+	private final TreeMap<Tuple, Integer> memtable = new TreeMap<>(order);
+	private final Map<TransactionId, TreeMap<Tuple, Integer>> pending = new ConcurrentHashMap<>();
+	private volatile List<Run> runs = new ArrayList<>();
+	private int nextRun = 1;
+	private volatile boolean loaded = false;
+
+	private volatile int memtableLimit = 10000;
+	private volatile int bloomBitsPerKey = 10;
+	private final BloomFilter.Stats bloomStats = new BloomFilter.Stats();
+	private final AtomicBoolean compacting = new AtomicBoolean();
+	private final AtomicLong bytesWritten = new AtomicLong();
+	private ScheduledExecutorService compactor;
+
+	/**
+	 * Constructs an LSM file backed by the specified file, which holds its log.
+	 * The runs and the manifest are files named after it.
+	 *
+	 * @param f - the file that stores the log of this LSM file
+	 * @param key - the field which the tuples are sorted on
+	 * @param td - the tuple descriptor of tuples in the file
+	 */
+	public LsmFile(File f, int key, TupleDesc td) {
+		this.f = f;
+		this.manifest = new File(f.getPath() + ".manifest");
+		this.tableid = f.getAbsoluteFile().hashCode();
+		this.keyField = key;
+		this.td = td;
+	}
+
+	/**
+	 * Returns the File backing the log of this LsmFile on disk.
+	 */
+	public File getFile() {
+		return f;
+	}
+
+	/**
+	 * Returns an ID uniquely identifying this LsmFile, the hash code of the
+	 * absolute file name.
+	 */
+	public int getId() {
+		return tableid;
+	}
+
+	public TupleDesc getTupleDesc() {
+		return td;
+	}
+
+	/**
+	 * Returns the index of the field that this file is sorted on
+	 */
+	public int keyField() {
+		return keyField;
+	}
+
+	/**
+	 * Returns the number of pages in the log of this LsmFile.
+	 */
+	public int numLogPages() {
+		return (int) (f.length() / BufferPool.getPageSize());
+	}
+
+	/**
+	 * Sets the number of distinct tuples the memtable holds before a commit
+	 * writes it out as a run.
+	 */
+	public void setMemtableLimit(int tuples) {
+		if (tuples < 1)
+			throw new IllegalArgumentException("the memtable must hold at least one tuple");
+		memtableLimit = tuples;
+	}
+
+	public int getMemtableLimit() {
+		return memtableLimit;
+	}
+
+	/**
+	 * Sets the size of the Bloom filter over the keys of each run written from
+	 * now on, which lets equality lookups skip the runs that do not hold the
+	 * key. With 0 runs are written without a filter.
+	 */
+	public void setBloomBitsPerKey(int bits) {
+		if (bits < 0)
+			throw new IllegalArgumentException("the number of bits per key cannot be negative");
+		bloomBitsPerKey = bits;
+	}
+
+	public int getBloomBitsPerKey() {
+		return bloomBitsPerKey;
+	}
+
+	/**
+	 * @return the outcomes of the equality lookups of runs with a Bloom filter
+	 */
+	public BloomFilter.Stats getBloomStats() {
+		return bloomStats;
+	}
+
+	/**
+	 * @return the number of runs of each level, from level 0 on
+	 */
+	public List<Integer> getRunsPerLevel() {
+		List<Integer> counts = new ArrayList<>();
+		for (Run r : runs) {
+			while (counts.size() <= r.level)
+				counts.add(0);
+			counts.set(r.level, counts.get(r.level) + 1);
+		}
+		return counts;
+	}
+
+	/**
+	 * @return the number of bytes this file has written to disk, in pages of the
+	 * log and in runs, to measure its write amplification
+	 */
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	private File runFile(int run) {
+		return new File(f.getPath() + "." + run + ".run");
+	}
+
+	private LsmPageId logLock() {
+		return new LsmPageId(tableid, LsmPageId.LOG, 0);
+	}
+
+	/**
+	 * Read a page from the file on disk. This should not be called directly
+	 * but should be called from the BufferPool via getPage()
+	 */
+	public Page readPage(PageId pid) {
+		LsmPageId id = (LsmPageId) pid;
+		File file = id.getRun() == LsmPageId.LOG ? f : runFile(id.getRun());
+		byte[] pageBuf = new byte[BufferPool.getPageSize()];
+		long offset = (long) id.getPageNumber() * BufferPool.getPageSize();
+		try {
+			int retval;
+			if (DirectIO.isEnabled()) {
+				retval = DirectIO.read(file, offset, pageBuf);
+			} else {
+				try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+					raf.seek(offset);
+					retval = raf.read(pageBuf);
+				}
+			}
+			if (retval == -1) {
+				throw new IllegalArgumentException("Read past end of table");
+			}
+			if (retval < pageBuf.length) {
+				throw new IllegalArgumentException("Unable to read "
+						+ pageBuf.length + " bytes from LsmFile");
+			}
+			return pageFromData(id, pageBuf);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	// see DbFile.java for javadocs
+	public Page pageFromData(PageId pid, byte[] data) throws IOException {
+		return new LsmPage((LsmPageId) pid, data);
+	}
+
+	/**
+	 * Write a page to disk.  This should not be called directly but should
+	 * be called from the BufferPool when pages are flushed to disk; only the
+	 * pages of the log change.
+	 */
+	public void writePage(Page page) throws IOException {
+		LsmPageId id = (LsmPageId) page.getId();
+		File file = id.getRun() == LsmPageId.LOG ? f : runFile(id.getRun());
+		long offset = (long) id.getPageNumber() * BufferPool.getPageSize();
+		byte[] data = page.getPageData();
+		bytesWritten.addAndGet(data.length);
+		if (DirectIO.isEnabled()) {
+			DirectIO.write(file, offset, data);
+			return;
+		}
+		try (RandomAccessFile rf = new RandomAccessFile(file, "rw")) {
+			rf.seek(offset);
+			rf.write(data);
+		}
+	}
+
+	/**
+	 * Orders tuples on the key field, then on the other fields; an unset field
+	 * comes before any value, so a tuple with only the key set comes before all
+	 * tuples with that key.
+	 */
+	private int compareTuples(Tuple t1, Tuple t2) {
+		int c = compareFields(t1.getField(keyField), t2.getField(keyField));
+		for (int i = 0; c == 0 && i < td.numFields(); i++) {
+			if (i != keyField)
+				c = compareFields(t1.getField(i), t2.getField(i));
+		}
+		return c;
+	}
+
+	private static int compareFields(Field f1, Field f2) {
+		if (f1 == null || f2 == null)
+			return f1 == null ? (f2 == null ? 0 : -1) : 1;
+		return f1.compare(Op.LESS_THAN, f2) ? -1 : f1.compare(Op.GREATER_THAN, f2) ? 1 : 0;
+	}
+
+	/** @return a tuple which comes before all tuples whose key is at least key */
+	private Tuple probe(Field key) {
+		Tuple t = new Tuple(td);
+		t.setField(keyField, key);
+		return t;
+	}
+
+	/**
+	 * Adds n copies of a tuple to a table of changes, or removes -n of them,
+	 * dropping the tuple once none is left.
+	 */
+	private void add(TreeMap<Tuple, Integer> changes, Tuple t, int n) {
+		Tuple copy = new Tuple(td);
+		for (int j = 0; j < td.numFields(); j++)
+			copy.setField(j, t.getField(j));
+		// the RecordId of a tuple of the memtable only names the table, see deleteTuple
+		copy.setRecordId(new RecordId(logLock(), 0));
+		changes.merge(copy, n, (n1, n2) -> n1 + n2 == 0 ? null : n1 + n2);
+	}
+
+	/**
+	 * Reads the manifest and the committed changes in the log, once the file
+	 * is in the catalog and used for the first time.
+	 */
+	private void load() throws IOException {
+		if (loaded)
+			return;
+		synchronized (this) {
+			if (loaded)
+				return;
+			if (f.length() == 0)
+				truncateLog();
+			int logSkip = 0;
+			List<Run> list = new ArrayList<>();
+			if (manifest.exists()) {
+				try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifest)))) {
+					nextRun = in.readInt();
+					logSkip = in.readInt();
+					int n = in.readInt();
+					for (int i = 0; i < n; i++) {
+						int number = in.readInt();
+						list.add(Run.open(runFile(number), number, in.readInt(), td.getFieldType(keyField)));
+					}
+				}
+			}
+			runs = list;
+			if (logSkip > 0) {
+				// a flush wrote the memtable out but did not get to empty the log
+				truncateLog();
+				writeManifest(list, 0);
+			} else {
+				for (int pg = 0; pg < numLogPages(); pg++) {
+					LsmPage page = (LsmPage) readPage(new LsmPageId(tableid, LsmPageId.LOG, pg));
+					for (int i = 0; i < page.getNumEntries(); i++)
+						add(memtable, page.getTuple(i), page.isDelete(i) ? -1 : 1);
+				}
+			}
+			loaded = true;
+		}
+	}
+
+	/**
+	 * Writes the list of runs, and the number of pages at the start of the log
+	 * that are in runs already, to a new manifest which replaces the old one.
+	 */
+	private void writeManifest(List<Run> list, int logSkip) throws IOException {
+		File tmp = new File(manifest.getPath() + ".tmp");
+		try (FileOutputStream fos = new FileOutputStream(tmp)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+			synchronized (this) {
+				out.writeInt(nextRun);
+			}
+			out.writeInt(logSkip);
+			out.writeInt(list.size());
+			for (Run r : list) {
+				out.writeInt(r.number);
+				out.writeInt(r.level);
+			}
+			out.flush();
+			fos.getFD().sync();
+		}
+		Files.move(tmp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private synchronized int newRunNumber() {
+		return nextRun++;
+	}
+
+	/**
+	 * Empties the log: its pages are dropped from the BufferPool and the file
+	 * is cut back to one empty page.
+	 */
+	private void truncateLog() throws IOException {
+		for (int pg = 0; pg < numLogPages(); pg++)
+			Database.getBufferPool().discardPage(new LsmPageId(tableid, LsmPageId.LOG, pg));
+		try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+			raf.setLength(0);
+			raf.write(LsmPage.createEmptyPageData());
+		}
+		bytesWritten.addAndGet(BufferPool.getPageSize());
+	}
+
+	/**
+	 * Locks the table for a write and returns the last page of the log with
+	 * room for an entry, locked with READ_WRITE and marked dirty.
+	 */
+	private LsmPage logTail(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+		load();
+		BufferPool pool = Database.getBufferPool();
+		pool.getPage(tid, logLock(), Permissions.READ_WRITE);
+		LsmPageId tail = new LsmPageId(tableid, LsmPageId.LOG, numLogPages() - 1);
+		LsmPage page = (LsmPage) pool.getPage(tid, tail, Permissions.READ_WRITE);
+		if (page.isFull()) {
+			// write the empty page before locking it, so the BufferPool can read it;
+			// no other transaction writes to the log while this one holds the first page
+			tail = new LsmPageId(tableid, LsmPageId.LOG, tail.getPageNumber() + 1);
+			writePage(new LsmPage(tail, LsmPage.createEmptyPageData()));
+			pool.discardPage(tail);
+			page = (LsmPage) pool.getPage(tid, tail, Permissions.READ_WRITE);
+		}
+		page.markDirty(true, tid);
+		return page;
+	}
+
+	/**
+	 * Insert a tuple: append it to the log and add it to the changes of the
+	 * transaction.
+	 *
+	 * @return the log page that was dirtied by this operation
+	 */
+	public List<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		LsmPage page = logTail(tid);
+		t.setRecordId(page.addEntry(t, false));
+		add(pending.computeIfAbsent(tid, k -> new TreeMap<>(order)), t, 1);
+		return Collections.singletonList(page);
+	}
+
+	/**
+	 * Delete a tuple: append a tombstone for it to the log and to the changes
+	 * of the transaction, which removes one copy of an equal tuple from the
+	 * table. The RecordId of the tuple only has to name this table.
+	 *
+	 * @return the log page that was dirtied by this operation
+	 */
+	public List<Page> deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		if (rid == null || !(rid.getPageId() instanceof LsmPageId) || rid.getPageId().getTableId() != tableid)
+			throw new DbException("tried to delete tuple with invalid record id");
+		LsmPage page = logTail(tid);
+		page.addEntry(t, true);
+		add(pending.computeIfAbsent(tid, k -> new TreeMap<>(order)), t, -1);
+		t.setRecordId(null);
+		return Collections.singletonList(page);
+	}
+
+	/**
+	 * Moves the changes of a committed transaction into the memtable, and
+	 * writes the memtable out as a run once it is full; drops the changes of an
+	 * aborted one, whose log pages the BufferPool has rolled back.
+	 */
+	@Override
+	public void transactionComplete(TransactionId tid, boolean commit) throws IOException {
+		TreeMap<Tuple, Integer> changes = pending.remove(tid);
+		if (changes == null || !commit)
+			return;
+		for (Map.Entry<Tuple, Integer> e : changes.entrySet())
+			memtable.merge(e.getKey(), e.getValue(), (n1, n2) -> n1 + n2 == 0 ? null : n1 + n2);
+		if (memtable.size() >= memtableLimit)
+			flush();
+	}
+
+	/**
+	 * Writes the memtable out as a run of level 0, if it holds any tuples.
+	 *
+	 * @param tid - the transaction id, which locks the table with READ_WRITE
+	 */
+	public void flush(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+		load();
+		Database.getBufferPool().getPage(tid, logLock(), Permissions.READ_WRITE);
+		if (!memtable.isEmpty())
+			flush();
+	}
+
+	/**
+	 * Writes the memtable out as a run and empties the log. The first page of
+	 * the log must be locked with READ_WRITE. The manifest lists the new run
+	 * before the log is emptied, with the number of log pages it covers, so
+	 * the changes in the log are neither lost nor applied twice if the system
+	 * stops in between.
+	 */
+	private void flush() throws IOException {
+		RunWriter writer = new RunWriter(newRunNumber(), memtable.size());
+		for (Map.Entry<Tuple, Integer> e : memtable.entrySet())
+			writer.add(e.getKey(), e.getValue());
+		Run run = writer.finish(0);
+		List<Run> list = new ArrayList<>(runs);
+		if (run != null)
+			list.add(run);
+		writeManifest(list, numLogPages());
+		runs = list;
+		truncateLog();
+		writeManifest(list, 0);
+		memtable.clear();
+	}
+
+	/**
+	 * Merges the runs of every level that has {@link #RUNS_PER_LEVEL} of them
+	 * into a run of the next level, from level 0 up. The runs are read with
+	 * READ_ONLY locks, and the merged runs replace them once the transaction
+	 * holds the first page of the log with READ_WRITE, so no reader sees the
+	 * swap. The swap does not change the contents of the table and is not
+	 * undone if the transaction aborts. Returns at once if another compaction
+	 * is running.
+	 *
+	 * @param tid - the transaction id
+	 * @return the number of merges
+	 */
+	public int compact(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+		int merges = 0;
+		while (mergeLevel(tid))
+			merges++;
+		return merges;
+	}
+
+	/**
+	 * Merges the runs of the lowest level that has {@link #RUNS_PER_LEVEL} of
+	 * them into one run of the next level. Tombstones cancel the copies they
+	 * can in the merged runs; the others are kept for the older runs of higher
+	 * levels, or dropped if there are none.
+	 *
+	 * @return whether a level was merged
+	 */
+	private boolean mergeLevel(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+		load();
+		if (!compacting.compareAndSet(false, true))
+			return false;
+		try {
+			List<Integer> counts = getRunsPerLevel();
+			int level = 0;
+			while (level < counts.size() && counts.get(level) < RUNS_PER_LEVEL)
+				level++;
+			if (level == counts.size())
+				return false;
+
+			List<Run> merged = new ArrayList<>();
+			boolean older = false;
+			for (Run r : runs) {
+				if (r.level == level)
+					merged.add(r);
+				older |= r.level > level;
+			}
+			List<LsmCursor> cursors = new ArrayList<>();
+			int entries = 0;
+			for (Run r : merged) {
+				cursors.add(new RunCursor(this, tid, r, null, false));
+				entries += r.numPages * LsmPage.getMaxEntries(td);
+			}
+			LsmMerge merge = new LsmMerge(order, cursors);
+			RunWriter writer = new RunWriter(newRunNumber(), entries);
+			Run run;
+			try {
+				while (merge.next()) {
+					if (merge.count > 0 || older)
+						writer.add(merge.tuple, merge.count);
+				}
+				run = writer.finish(level + 1);
+				Database.getBufferPool().getPage(tid, logLock(), Permissions.READ_WRITE);
+			} catch (DbException | IOException | TransactionAbortedException | RuntimeException e) {
+				writer.abandon();
+				throw e;
+			}
+
+			List<Run> list = new ArrayList<>(runs);
+			list.removeAll(merged);
+			if (run != null)
+				list.add(run);
+			writeManifest(list, 0);
+			runs = list;
+			for (Run r : merged) {
+				for (int pg = 0; pg < r.numPages; pg++)
+					Database.getBufferPool().discardPage(new LsmPageId(tableid, r.number, pg));
+				runFile(r.number).delete();
+			}
+			return true;
+		} finally {
+			compacting.set(false);
+		}
+	}
+
+	/**
+	 * Starts a background thread which calls {@link #compact} every
+	 * periodMillis milliseconds, with a transaction of its own for each merge.
+	 * A merge which is aborted, e.g. to break a deadlock, is simply tried again
+	 * at the next period. Replaces any compactor started before.
+	 *
+	 * @param periodMillis the time between two passes
+	 */
+	public synchronized void startCompactor(long periodMillis) {
+		stopCompactor();
+		compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "lsm-compactor");
+			t.setDaemon(true);
+			return t;
+		});
+		compactor.scheduleWithFixedDelay(() -> {
+			boolean merged = true;
+			while (merged) {
+				TransactionId tid = new TransactionId();
+				boolean commit = false;
+				merged = false;
+				try {
+					merged = mergeLevel(tid);
+					commit = true;
+				} catch (TransactionAbortedException e) {
+					// tried again at the next period
+				} catch (DbException | IOException | RuntimeException e) {
+					e.printStackTrace();
+				}
+				Database.getBufferPool().transactionComplete(tid, commit);
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/** Stops the thread started by {@link #startCompactor}, if any. */
+	public synchronized void stopCompactor() {
+		if (compactor != null) {
+			compactor.shutdownNow();
+			compactor = null;
+		}
+	}
+
+	/**
+	 * Locks the table with READ_ONLY and merges the memtable, the changes of
+	 * the transaction and the runs, starting from the lower bound of a
+	 * predicate on the key. For an equality predicate the runs whose Bloom
+	 * filter does not hold the key are left out.
+	 *
+	 * @param tid - the transaction id
+	 * @param ipred - the predicate on the key, or null to read all tuples
+	 */
+	LsmMerge openMerge(TransactionId tid, IndexPredicate ipred) throws DbException, TransactionAbortedException {
+		Field from = ipred == null ? null : ipred.getLowerBound();
+		boolean lookup = ipred != null && ipred.getOp() == Op.EQUALS;
+		try {
+			load();
+		} catch (IOException e) {
+			throw new DbException(e.getMessage());
+		}
+		Database.getBufferPool().getPage(tid, logLock(), Permissions.READ_ONLY);
+		List<LsmCursor> cursors = new ArrayList<>();
+		cursors.add(new MapCursor(from == null ? memtable : memtable.tailMap(probe(from), true)));
+		TreeMap<Tuple, Integer> own = pending.get(tid);
+		if (own != null) {
+			// the transaction may change the table while it reads it
+			cursors.add(new MapCursor(new TreeMap<>(from == null ? own : own.tailMap(probe(from), true))));
+		}
+		for (Run r : runs) {
+			if (lookup && r.bloom != null) {
+				if (!r.bloom.mightContain(from)) {
+					bloomStats.negative();
+					continue;
+				}
+				cursors.add(new RunCursor(this, tid, r, from, true));
+			} else {
+				cursors.add(new RunCursor(this, tid, r, from, false));
+			}
+		}
+		return new LsmMerge(order, cursors);
+	}
+
+	/**
+	 * Get an iterator over the tuples matching a predicate on the key, in key
+	 * order. The runs are only read from the page of their sparse index where
+	 * the key range starts, and the iterator stops once it is past the range.
+	 *
+	 * @param tid - the transaction id
+	 * @param ipred - the index predicate value to filter on
+	 * @return an iterator for the filtered tuples
+	 */
+	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+		return new LsmFileIterator(this, tid, ipred);
+	}
+
+	/**
+	 * Get an iterator for all tuples in this file, in key order.
+	 */
+	public DbFileIterator iterator(TransactionId tid) {
+		return new LsmFileIterator(this, tid, null);
+	}
+
+	/**
+	 * An immutable sorted run: its data pages, followed by the first key of each
+	 * page, a byte which is 1 if a Bloom filter over the keys of the run
+	 * follows, the filter, and the number of pages.
+	 */
+	static class Run {
+		final int number;
+		final int level;
+		final int numPages;
+		private final Field[] firstKeys;
+		final BloomFilter bloom;
+
+		Run(int number, int level, Field[] firstKeys, BloomFilter bloom) {
+			this.number = number;
+			this.level = level;
+			this.numPages = firstKeys.length;
+			this.firstKeys = firstKeys;
+			this.bloom = bloom;
+		}
+
+		/** reads the sparse index and the Bloom filter of a run file */
+		static Run open(File file, int number, int level, Type keyType) throws IOException {
+			try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+				raf.seek(raf.length() - 4);
+				int numPages = raf.readInt();
+				long indexStart = (long) numPages * BufferPool.getPageSize();
+				byte[] index = new byte[(int) (raf.length() - 4 - indexStart)];
+				raf.seek(indexStart);
+				raf.readFully(index);
+				DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+				Field[] keys = new Field[numPages];
+				for (int i = 0; i < numPages; i++)
+					keys[i] = keyType.parse(in);
+				BloomFilter bloom = in.readByte() == 1 ? BloomFilter.read(in) : null;
+				return new Run(number, level, keys, bloom);
+			} catch (ParseException e) {
+				throw new IOException("parsing error in the index of run " + file, e);
+			}
+		}
+
+		/**
+		 * @return the page a search for key has to start from: the last page whose
+		 * first key is smaller than key, since the tuples with the key may start
+		 * on it, or the first page
+		 */
+		int firstPage(Field key) {
+			if (key == null)
+				return 0;
+			int lo = 0, hi = numPages - 1, page = 0;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if (firstKeys[mid].compare(Op.LESS_THAN, key)) {
+					page = mid;
+					lo = mid + 1;
+				} else {
+					hi = mid - 1;
+				}
+			}
+			return page;
+		}
+	}
+
+	/**
+	 * Writes the sorted entries of a new run to its file, a page at a time,
+	 * without going through the BufferPool.
+	 */
+	private class RunWriter {
+		private final int number;
+		private final File file;
+		private final FileOutputStream fos;
+		private final DataOutputStream out;
+		private final List<Field> firstKeys = new ArrayList<>();
+		private final BloomFilter bloom;
+		private LsmPage page;
+
+		/**
+		 * @param expectedKeys - about how many keys the run will hold, to size its Bloom filter
+		 */
+		RunWriter(int number, int expectedKeys) throws IOException {
+			this.number = number;
+			int bits = bloomBitsPerKey;
+			this.bloom = bits == 0 ? null : new BloomFilter(expectedKeys, bits);
+			this.file = runFile(number);
+			this.fos = new FileOutputStream(file);
+			this.out = new DataOutputStream(new BufferedOutputStream(fos));
+			this.page = newPage();
+		}
+
+		private LsmPage newPage() throws IOException {
+			return new LsmPage(new LsmPageId(tableid, number, firstKeys.size()), LsmPage.createEmptyPageData());
+		}
+
+		/** adds n copies of a tuple, or -n tombstones for it */
+		void add(Tuple t, int n) throws IOException {
+			if (bloom != null && n != 0)
+				bloom.add(t.getField(keyField));
+			try {
+				for (int i = 0; i < Math.abs(n); i++) {
+					if (page.isFull()) {
+						out.write(page.getPageData());
+						page = newPage();
+					}
+					if (page.getNumEntries() == 0)
+						firstKeys.add(t.getField(keyField));
+					page.addEntry(t, n < 0);
+				}
+			} catch (DbException e) {
+				throw new IOException(e);
+			}
+		}
+
+		/**
+		 * Writes the last page and the index, and syncs the file.
+		 * @return the run, or null if it has no entries and the file was deleted
+		 */
+		Run finish(int level) throws IOException {
+			if (firstKeys.isEmpty()) {
+				abandon();
+				return null;
+			}
+			if (page.getNumEntries() > 0)
+				out.write(page.getPageData());
+			for (Field key : firstKeys)
+				key.serialize(out);
+			out.writeByte(bloom == null ? 0 : 1);
+			if (bloom != null)
+				bloom.serialize(out);
+			out.writeInt(firstKeys.size());
+			out.flush();
+			fos.getFD().sync();
+			out.close();
+			bytesWritten.addAndGet(file.length());
+			return new Run(number, level, firstKeys.toArray(new Field[0]), bloom);
+		}
+
+		/** deletes the file of a run that is not used */
+		void abandon() {
+			try {
+				out.close();
+			} catch (IOException e) {
+				// the file is deleted anyway
+			}
+			file.delete();
+		}
+	}
+}
+
+/**
+ * A sorted source of the entries of an LsmFile: tuples with their number of
+ * copies, negative for tombstones.
+ */
+abstract class LsmCursor {
+	Tuple tuple;
+	int count;
+
+	/**
+	 * Moves to the next entry.
+	 * @return false at the end of the source
+	 */
+	abstract boolean advance() throws DbException, TransactionAbortedException;
+}
+
+/** The entries of a memtable or of the changes of a transaction */
+class MapCursor extends LsmCursor {
+	private final Iterator<Map.Entry<Tuple, Integer>> it;
+
+	MapCursor(SortedMap<Tuple, Integer> changes) {
+		this.it = changes.entrySet().iterator();
+	}
+
+	boolean advance() {
+		if (!it.hasNext())
+			return false;
+		Map.Entry<Tuple, Integer> e = it.next();
+		tuple = e.getKey();
+		count = e.getValue();
+		return true;
+	}
+}
+
+/** The entries of a run, read through the BufferPool with READ_ONLY locks */
+class RunCursor extends LsmCursor {
+	private final LsmFile f;
+	private final TransactionId tid;
+	private final LsmFile.Run run;
+	private final Field from;
+	private boolean lookup;
+	private int nextPage;
+	private LsmPage page = null;
+	private int slot = 0;
+
+	/**
+	 * @param from - the smallest key to read, or null to read the whole run
+	 * @param lookup - whether from is the key of a lookup the Bloom filter of the
+	 *                 run let through, to record whether the run holds it
+	 */
+	RunCursor(LsmFile f, TransactionId tid, LsmFile.Run run, Field from, boolean lookup) {
+		this.f = f;
+		this.tid = tid;
+		this.run = run;
+		this.from = from;
+		this.lookup = lookup;
+		this.nextPage = run.firstPage(from);
+	}
+
+	boolean advance() throws DbException, TransactionAbortedException {
+		boolean more = next();
+		if (lookup) {
+			f.getBloomStats().positive(more && tuple.getField(f.keyField()).equals(from));
+			lookup = false;
+		}
+		return more;
+	}
+
+	private boolean next() throws DbException, TransactionAbortedException {
+		while (true) {
+			if (page == null || slot == page.getNumEntries()) {
+				if (nextPage == run.numPages)
+					return false;
+				page = (LsmPage) Database.getBufferPool().getPage(tid,
+						new LsmPageId(f.getId(), run.number, nextPage++), Permissions.READ_ONLY);
+				slot = 0;
+				continue;
+			}
+			tuple = page.getTuple(slot);
+			count = page.isDelete(slot) ? -1 : 1;
+			slot++;
+			if (from == null || !tuple.getField(f.keyField()).compare(Op.LESS_THAN, from))
+				return true;
+		}
+	}
+}
+
+/**
+ * Merges sorted sources of entries of an LsmFile: each call of next moves to
+ * the next distinct tuple and adds up its copies in all sources.
+ */
+class LsmMerge {
+	private final Comparator<Tuple> order;
+	private final PriorityQueue<LsmCursor> heap;
+	Tuple tuple;
+	int count;
+
+	LsmMerge(Comparator<Tuple> order, List<LsmCursor> cursors) throws DbException, TransactionAbortedException {
+		this.order = order;
+		this.heap = new PriorityQueue<>(Math.max(1, cursors.size()), (c1, c2) -> order.compare(c1.tuple, c2.tuple));
+		for (LsmCursor c : cursors) {
+			if (c.advance())
+				heap.add(c);
+		}
+	}
+
+	/**
+	 * @return false once all sources are exhausted
+	 */
+	boolean next() throws DbException, TransactionAbortedException {
+		if (heap.isEmpty())
+			return false;
+		LsmCursor c = heap.poll();
+		tuple = c.tuple;
+		count = c.count;
+		if (c.advance())
+			heap.add(c);
+		while (!heap.isEmpty() && order.compare(heap.peek().tuple, tuple) == 0) {
+			c = heap.poll();
+			count += c.count;
+			if (c.advance())
+				heap.add(c);
+		}
+		return true;
+	}
+}
+
+/**
+ * Helper class that iterates over the tuples of an LsmFile in key order,
+ * optionally only over those whose key matches a predicate
+ */
+class LsmFileIterator extends AbstractDbFileIterator {
+
+	private final LsmFile f;
+	private final TransactionId tid;
+	private final IndexPredicate ipred;
+	private LsmMerge merge = null;
+	private Tuple current = null;
+	private int copies = 0;
+
+	public LsmFileIterator(LsmFile f, TransactionId tid, IndexPredicate ipred) {
+		this.f = f;
+		this.tid = tid;
+		this.ipred = ipred;
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		merge = f.openMerge(tid, ipred);
+		copies = 0;
+	}
+
+	@Override
+	protected Tuple readNext() throws DbException, TransactionAbortedException {
+		while (copies == 0) {
+			if (merge == null || !merge.next())
+				return null;
+			Field key = merge.tuple.getField(f.keyField());
+			if (ipred != null && ipred.isPast(key)) {
+				merge = null;
+				return null;
+			}
+			if (merge.count > 0 && (ipred == null || ipred.matches(key))) {
+				current = merge.tuple;
+				copies = merge.count;
+			}
+		}
+		copies--;
+		// each copy is a tuple of its own, since a delete clears its RecordId
+		Tuple t = new Tuple(current.getTupleDesc());
+		for (int j = 0; j < t.getTupleDesc().numFields(); j++)
+			t.setField(j, current.getField(j));
+		t.setRecordId(current.getRecordId());
+		return t;
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	public void close() {
+		super.close();
+		merge = null;
+		current = null;
+		copies = 0;
+	}
+}
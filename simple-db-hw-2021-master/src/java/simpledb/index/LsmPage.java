@@ -0,0 +1,209 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Page;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.text.ParseException;
+
+/**
+ * Each instance of LsmPage stores a sequence of entries of an LsmFile: a tuple
+ * inserted into the table, or a tombstone for a tuple deleted from it. Pages
+ * of the log of the file are appended to, in the order of the operations;
+ * pages of a sorted run are written once, in the order of the run, and never
+ * change. It implements the Page interface that is used by BufferPool.
+ *
+ * @see LsmFile
+ * @see BufferPool
+ */
+public class LsmPage implements Page {
+	private final static int COUNT_SIZE = 4;
+	private final static byte INSERT = 0;
+	private final static byte DELETE = 1;
+
+	private volatile boolean dirty = false;
+	private volatile TransactionId dirtier = null;
+
+	private final LsmPageId pid;
+	private final TupleDesc td;
+	private final int maxEntries;
+
+	private int numEntries;
+	private final Tuple[] tuples;
+	private final boolean[] deletes;
+
+	private byte[] oldData;
+
+	/**
+	 * Create an LsmPage from a set of bytes of data read from disk.
+	 * The format of an LsmPage is an integer for the number of entries,
+	 * followed by the entries, each of them a byte which is 1 for a tombstone
+	 * and 0 otherwise and the fields of the tuple. The number of entries is at
+	 * most
+	 * <p>
+	 *          floor((BufferPool.getPageSize() - 4) / (tuple size + 1))
+	 * <p>
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 */
+	public LsmPage(LsmPageId id, byte[] data) throws IOException {
+		this.pid = id;
+		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.maxEntries = getMaxEntries(td);
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+
+		numEntries = dis.readInt();
+		tuples = new Tuple[maxEntries];
+		deletes = new boolean[maxEntries];
+		try {
+			for (int i = 0; i < numEntries; i++) {
+				deletes[i] = dis.readByte() == DELETE;
+				Tuple t = new Tuple(td);
+				t.setRecordId(new RecordId(pid, i));
+				for (int j = 0; j < td.numFields(); j++) {
+					t.setField(j, td.getFieldType(j).parse(dis));
+				}
+				tuples[i] = t;
+			}
+		} catch (ParseException e) {
+			throw new IOException("parsing error in lsm page", e);
+		}
+		dis.close();
+
+		setBeforeImage();
+	}
+
+	/**
+	 * @return the number of entries a page of tuples described by td can hold
+	 */
+	public static int getMaxEntries(TupleDesc td) {
+		return (BufferPool.getPageSize() - COUNT_SIZE) / (td.getSize() + 1);
+	}
+
+	public void setBeforeImage() {
+		oldData = getPageData().clone();
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public LsmPageId getId() {
+		return pid;
+	}
+
+	public byte[] getPageData() {
+		int len = BufferPool.getPageSize();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeInt(numEntries);
+			for (int i = 0; i < numEntries; i++) {
+				dos.writeByte(deletes[i] ? DELETE : INSERT);
+				for (int j = 0; j < td.numFields(); j++) {
+					tuples[i].getField(j).serialize(dos);
+				}
+			}
+			dos.write(new byte[len - dos.size()]);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Static method to generate a byte array corresponding to an empty
+	 * LsmPage.
+	 *
+	 * @return The returned ByteArray.
+	 */
+	public static byte[] createEmptyPageData() {
+		return new byte[BufferPool.getPageSize()]; //all 0
+	}
+
+	public void markDirty(boolean dirty, TransactionId tid) {
+		this.dirty = dirty;
+		if (dirty) this.dirtier = tid;
+	}
+
+	public TransactionId isDirty() {
+		if (this.dirty)
+			return this.dirtier;
+		else
+			return null;
+	}
+
+	/** Return a view of this page before it was modified
+        -- used by recovery */
+	public LsmPage getBeforeImage() {
+		try {
+			return new LsmPage(pid, oldData);
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the number of entries on this page
+	 */
+	public int getNumEntries() {
+		return numEntries;
+	}
+
+	/**
+	 * @return whether no more entries fit on this page
+	 */
+	public boolean isFull() {
+		return numEntries == maxEntries;
+	}
+
+	/**
+	 * Appends an entry with a copy of a tuple to the page.
+	 *
+	 * @param t - the tuple inserted or deleted
+	 * @param delete - whether the entry is a tombstone
+	 * @return the RecordId of the entry
+	 * @throws DbException if the page is full or the tuple does not match the page
+	 */
+	public RecordId addEntry(Tuple t, boolean delete) throws DbException {
+		if (!t.getTupleDesc().equals(td))
+			throw new DbException("type mismatch, in addEntry");
+		if (isFull())
+			throw new DbException("called addEntry on page with no empty slots.");
+		Tuple copy = new Tuple(td);
+		for (int j = 0; j < td.numFields(); j++)
+			copy.setField(j, t.getField(j));
+		copy.setRecordId(new RecordId(pid, numEntries));
+		tuples[numEntries] = copy;
+		deletes[numEntries] = delete;
+		numEntries++;
+		return copy.getRecordId();
+	}
+
+	/**
+	 * @return the tuple of the i-th entry
+	 */
+	public Tuple getTuple(int i) {
+		if (i < 0 || i >= numEntries)
+			throw new IndexOutOfBoundsException("no entry " + i);
+		return tuples[i];
+	}
+
+	/**
+	 * @return whether the i-th entry is a tombstone
+	 */
+	public boolean isDelete(int i) {
+		if (i < 0 || i >= numEntries)
+			throw new IndexOutOfBoundsException("no entry " + i);
+		return deletes[i];
+	}
+}
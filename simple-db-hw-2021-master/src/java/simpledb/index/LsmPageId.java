@@ -0,0 +1,92 @@
+package simpledb.index;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.PageId;
+
+import java.util.Objects;
+
+/** Unique identifier for LsmPage objects: a page of the log of an LsmFile, or
+ * of one of its sorted runs.
+ */
+public class LsmPageId implements PageId {
+
+	/** the run number of the pages of the log */
+	public final static int LOG = 0;
+
+	private final int tableId;
+	private final int run;
+	private final int pgNo;
+
+	/**
+	 * Constructor. Create a page id structure for a specific page of a
+	 * specific table.
+	 *
+	 * @param tableId The table that is being referenced
+	 * @param run The run the page belongs to, or LOG
+	 * @param pgNo The page number in the run or the log.
+	 */
+	public LsmPageId(int tableId, int run, int pgNo) {
+		this.tableId = tableId;
+		this.run = run;
+		this.pgNo = pgNo;
+	}
+
+	/** @return the table associated with this PageId */
+	public int getTableId() {
+		return tableId;
+	}
+
+	/**
+	 * @return the page number in the run or the log associated with this
+	 *   PageId
+	 */
+	public int getPageNumber() {
+		return pgNo;
+	}
+
+	/**
+	 * @return the run number of this page, or LOG for a page of the log
+	 */
+	public int getRun() {
+		return run;
+	}
+
+	/**
+	 * @return a hash code for this page, represented by the combination of
+	 *   the table number, run and page number
+	 * @see BufferPool
+	 */
+	public int hashCode() {
+		return Objects.hash(tableId, run, pgNo);
+	}
+
+	/**
+	 * Compares one PageId to another.
+	 *
+	 * @param o The object to compare against (must be a PageId)
+	 * @return true if the objects are equal (e.g., table ids, runs and page
+	 *   numbers are the same)
+	 */
+	public boolean equals(Object o) {
+		if (!(o instanceof LsmPageId))
+			return false;
+		LsmPageId p = (LsmPageId) o;
+		return tableId == p.tableId && run == p.run && pgNo == p.pgNo;
+	}
+
+	public String toString() {
+		return "(tableId: " + tableId +
+				", run: " + (run == LOG ? "LOG" : String.valueOf(run)) +
+				", pgNo: " + pgNo +
+				")";
+	}
+
+	/**
+	 *  Return a representation of this object as an array of
+	 *  integers, for writing to disk.
+	 */
+	public int[] serialize() {
+		return new int[] { tableId, run, pgNo };
+	}
+
+}
@@ -0,0 +1,298 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ParallelBTreeScan is an operator which reads the tuples of a B+ tree
+ * matching a predicate with several threads. The keys that may match are split
+ * into disjoint ranges at keys of the upper internal levels of the tree (see
+ * {@link BTreeFile#partitionKeys}), and each range is scanned by its own
+ * thread as part of the same transaction.
+ * <p>
+ * The ranges are in key order, so an ordered scan returns the tuples of one
+ * range after the other, in the same order as a {@link BTreeScan}; the
+ * following ranges are read meanwhile. An unordered scan returns the tuples in
+ * whatever order the threads read them.
+ * <p>
+ * The first leaf of every range is looked up by the thread opening the scan:
+ * the threads only follow the right sibling pointers of the leaves, whose locks
+ * are kept until the transaction completes.
+ */
+public class ParallelBTreeScan implements OpIterator {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The number of leaves' worth of tuples a thread reads ahead of the consumer */
+	private static final int QUEUE_BATCHES = 16;
+
+	/** Marks the end of a range in a queue */
+	private static final List<Tuple> END = Collections.unmodifiableList(new ArrayList<>());
+
+	private final TransactionId tid;
+	private final BTreeFile f;
+	private final IndexPredicate ipred;
+	private final int partitions;
+	private final boolean ordered;
+	private final String tablename;
+	private final String alias;
+	private final TupleDesc myTd;
+
+	private transient ExecutorService workers;
+	private transient List<BlockingQueue<List<Tuple>>> queues;
+	private transient AtomicReference<Exception> failure;
+	private transient int queue;
+	private transient int running;
+	private transient Iterator<Tuple> batch;
+	private transient Tuple nextTuple;
+	private int numRanges = 0;
+	private boolean isOpen = false;
+
+	/**
+	 * Creates a parallel scan over the specified B+ tree as a part of the
+	 * specified transaction.
+	 *
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param tableid
+	 *            the table to scan, which must be a BTreeFile.
+	 * @param tableAlias
+	 *            the alias of this table; the returned tupleDesc has fields
+	 *            named tableAlias.fieldName
+	 * @param ipred
+	 *            The index predicate to match. If null, the scan returns all tuples
+	 * @param partitions
+	 *            the number of ranges, and of threads, to scan with
+	 * @param ordered
+	 *            whether the tuples must be returned in key order
+	 */
+	public ParallelBTreeScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred,
+			int partitions, boolean ordered) {
+		if (partitions < 1)
+			throw new IllegalArgumentException("a parallel scan needs at least one partition");
+		this.tid = tid;
+		this.f = (BTreeFile) Database.getCatalog().getDatabaseFile(tableid);
+		this.ipred = ipred;
+		this.partitions = partitions;
+		this.ordered = ordered;
+		this.tablename = Database.getCatalog().getTableName(tableid);
+		this.alias = tableAlias;
+
+		TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+		String[] newNames = new String[td.numFields()];
+		Type[] newTypes = new Type[td.numFields()];
+		for (int i = 0; i < td.numFields(); i++) {
+			newNames[i] = tableAlias + "." + td.getFieldName(i);
+			newTypes[i] = td.getFieldType(i);
+		}
+		myTd = new TupleDesc(newTypes, newNames);
+	}
+
+	/**
+	 * @return the actual name of the table the operator scans in the catalog
+	 */
+	public String getTableName() {
+		return tablename;
+	}
+
+	/**
+	 * @return the alias of the table this operator scans
+	 */
+	public String getAlias() {
+		return alias;
+	}
+
+	/**
+	 * @return the predicate on the key, or null if every tuple is scanned
+	 */
+	public IndexPredicate getIndexPredicate() {
+		return ipred;
+	}
+
+	/**
+	 * @return whether the tuples are returned in key order
+	 */
+	public boolean isOrdered() {
+		return ordered;
+	}
+
+	/**
+	 * @return the number of key ranges the last open split the scan into, which
+	 *         may be less than the number of partitions asked for if the tree is small
+	 */
+	public int getNumRanges() {
+		return numRanges;
+	}
+
+	public TupleDesc getTupleDesc() {
+		return myTd;
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		if (isOpen)
+			throw new DbException("double open on one OpIterator.");
+
+		List<Field> separators = f.partitionKeys(tid, ipred, partitions);
+		numRanges = separators.size() + 1;
+		failure = new AtomicReference<>();
+		queues = new ArrayList<>();
+		BlockingQueue<List<Tuple>> shared = ordered ? null : new ArrayBlockingQueue<>(QUEUE_BATCHES * numRanges);
+		workers = Executors.newFixedThreadPool(numRanges, r -> {
+			Thread t = new Thread(r, "btree-scan-worker");
+			t.setDaemon(true);
+			return t;
+		});
+		isOpen = true;
+
+		for (int i = 0; i < numRanges; i++) {
+			Field from = i == 0 ? (ipred == null ? null : ipred.getLowerBound()) : separators.get(i - 1);
+			Field to = i < separators.size() ? separators.get(i) : null;
+			boolean inclusive = i > 0 || ipred == null || ipred.getOp() != Op.GREATER_THAN;
+			BTreeLeafPage first = f.findLeafPage(tid, from);
+			BlockingQueue<List<Tuple>> out = ordered ? new ArrayBlockingQueue<>(QUEUE_BATCHES) : shared;
+			if (ordered || i == 0)
+				queues.add(out);
+			workers.execute(() -> scanRange(first, from, inclusive, to, out));
+		}
+		workers.shutdown();
+		queue = 0;
+		running = numRanges;
+		batch = null;
+		nextTuple = null;
+	}
+
+	/**
+	 * Reads the tuples of one key range into a queue, one leaf at a time, and
+	 * ends with END.
+	 *
+	 * @param page - the first leaf page of the range
+	 * @param from - the smallest key of the range, or null to start from the first tuple of page
+	 * @param inclusive - whether a tuple whose key equals from is in the range
+	 * @param to - the key the range stops before, or null
+	 * @param out - the queue to put the tuples in
+	 */
+	private void scanRange(BTreeLeafPage page, Field from, boolean inclusive, Field to,
+			BlockingQueue<List<Tuple>> out) {
+		try {
+			Iterator<Tuple> it = from == null ? page.iterator() : page.iterator(page.findSlot(from, inclusive));
+			boolean done = false;
+			while (!done) {
+				List<Tuple> tuples = new ArrayList<>();
+				while (it.hasNext()) {
+					Tuple t = it.next();
+					Field key = f.getKey(t);
+					if ((to != null && key.compare(Op.GREATER_THAN_OR_EQ, to))
+							|| (ipred != null && ipred.isPast(key))) {
+						done = true;
+						break;
+					}
+					if (ipred == null || ipred.matches(key))
+						tuples.add(t);
+				}
+				if (!tuples.isEmpty())
+					out.put(tuples);
+
+				BTreePageId nextp = page.getRightSiblingId();
+				if (done || nextp == null || Thread.currentThread().isInterrupted())
+					break;
+				page = (BTreeLeafPage) Database.getBufferPool().getPage(tid, nextp, Permissions.READ_ONLY);
+				it = page.iterator();
+			}
+		} catch (InterruptedException e) {
+			// the scan was closed
+			return;
+		} catch (Exception e) {
+			failure.compareAndSet(null, e);
+		}
+		try {
+			out.put(END);
+		} catch (InterruptedException e) {
+			// the scan was closed
+		}
+	}
+
+	private Tuple readNext() throws DbException, TransactionAbortedException {
+		while (batch == null || !batch.hasNext()) {
+			if (running == 0)
+				return null;
+			List<Tuple> tuples;
+			try {
+				tuples = queues.get(queue).take();
+			} catch (InterruptedException e) {
+				throw new DbException("interrupted while waiting for the scan threads");
+			}
+			if (tuples == END) {
+				running--;
+				Exception e = failure.get();
+				if (e instanceof TransactionAbortedException)
+					throw (TransactionAbortedException) e;
+				if (e != null)
+					throw new DbException("scan of " + tablename + " failed: " + e);
+				if (ordered)
+					queue++;
+				continue;
+			}
+			batch = tuples.iterator();
+		}
+		return batch.next();
+	}
+
+	public boolean hasNext() throws TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+		if (nextTuple == null)
+			nextTuple = readNext();
+		return nextTuple != null;
+	}
+
+	public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		Tuple t = nextTuple;
+		nextTuple = null;
+		return t;
+	}
+
+	/**
+	 * Stops the threads and waits for them, so that none of them takes locks
+	 * after the scan is closed.
+	 */
+	public void close() {
+		if (workers != null) {
+			workers.shutdownNow();
+			try {
+				workers.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			workers = null;
+		}
+		queues = null;
+		batch = null;
+		nextTuple = null;
+		isOpen = false;
+	}
+
+	public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+		close();
+		open();
+	}
+}
@@ -0,0 +1,487 @@
+package simpledb.index;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A compressed set of non-negative ints, organized like a Roaring bitmap: the
+ * values are split into containers of the values sharing their high 16 bits.
+ * A container of at most {@link #MAX_ARRAY} values stores their low 16 bits in
+ * a sorted array, and a fuller one stores a bitmap of all 2^16 low values
+ * (8KB). Sets are combined container by container, so that combining a sparse
+ * and a dense set costs about as much as the sparse one.
+ * <p>
+ * A RoaringBitmap is not safe for concurrent use.
+ */
+public class RoaringBitmap {
+
+	/** the largest number of values of an array container */
+	static final int MAX_ARRAY = 4096;
+
+	private char[] keys = new char[4];
+	private Container[] containers = new Container[4];
+	private int size = 0;
+
+	/** @return the index of the container of a key, or -(insertion point + 1) */
+	private int find(char key) {
+		int lo = 0, hi = size - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (keys[mid] < key)
+				lo = mid + 1;
+			else if (keys[mid] > key)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return -(lo + 1);
+	}
+
+	private void insertContainer(int i, char key, Container c) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			containers = Arrays.copyOf(containers, size * 2);
+		}
+		System.arraycopy(keys, i, keys, i + 1, size - i);
+		System.arraycopy(containers, i, containers, i + 1, size - i);
+		keys[i] = key;
+		containers[i] = c;
+		size++;
+	}
+
+	/**
+	 * Adds a value to the set.
+	 */
+	public void add(int x) {
+		char key = (char) (x >>> 16);
+		int i = find(key);
+		if (i < 0) {
+			i = -i - 1;
+			insertContainer(i, key, new ArrayContainer());
+		}
+		containers[i] = containers[i].add((char) x);
+	}
+
+	/**
+	 * Removes a value from the set, if it is in it.
+	 */
+	public void remove(int x) {
+		int i = find((char) (x >>> 16));
+		if (i < 0)
+			return;
+		Container c = containers[i].remove((char) x);
+		if (c.getCardinality() > 0) {
+			containers[i] = c;
+			return;
+		}
+		System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+		System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+		containers[--size] = null;
+	}
+
+	public boolean contains(int x) {
+		int i = find((char) (x >>> 16));
+		return i >= 0 && containers[i].contains((char) x);
+	}
+
+	/**
+	 * @return the number of values in the set
+	 */
+	public long getCardinality() {
+		long n = 0;
+		for (int i = 0; i < size; i++)
+			n += containers[i].getCardinality();
+		return n;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return a copy of this set, which can be changed independently of it
+	 */
+	public RoaringBitmap copy() {
+		RoaringBitmap r = new RoaringBitmap();
+		for (int i = 0; i < size; i++)
+			r.insertContainer(i, keys[i], containers[i].copy());
+		return r;
+	}
+
+	/**
+	 * @return a new set of the values which are in both a and b
+	 */
+	public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+		RoaringBitmap r = new RoaringBitmap();
+		int i = 0, j = 0;
+		while (i < a.size && j < b.size) {
+			if (a.keys[i] < b.keys[j]) {
+				i++;
+			} else if (a.keys[i] > b.keys[j]) {
+				j++;
+			} else {
+				Container c = a.containers[i].and(b.containers[j]);
+				if (c.getCardinality() > 0)
+					r.insertContainer(r.size, a.keys[i], c);
+				i++;
+				j++;
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * @return a new set of the values which are in a or in b
+	 */
+	public static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+		RoaringBitmap r = new RoaringBitmap();
+		int i = 0, j = 0;
+		while (i < a.size || j < b.size) {
+			if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+				r.insertContainer(r.size, a.keys[i], a.containers[i++].copy());
+			} else if (i == a.size || a.keys[i] > b.keys[j]) {
+				r.insertContainer(r.size, b.keys[j], b.containers[j++].copy());
+			} else {
+				r.insertContainer(r.size, a.keys[i], a.containers[i++].or(b.containers[j++]));
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * @return an iterator over the values of the set in ascending order, which
+	 * must not be used after the set is changed
+	 */
+	public PrimitiveIterator.OfInt iterator() {
+		return new PrimitiveIterator.OfInt() {
+			int i = 0;
+			PrimitiveIterator.OfInt it = size > 0 ? containers[0].iterator() : null;
+
+			public boolean hasNext() {
+				while (it != null && !it.hasNext())
+					it = ++i < size ? containers[i].iterator() : null;
+				return it != null;
+			}
+
+			public int nextInt() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return keys[i] << 16 | it.nextInt();
+			}
+		};
+	}
+
+	/**
+	 * Writes the set to a stream: the number of containers, and the key, the
+	 * kind, the number of values and the contents of each container.
+	 */
+	public void serialize(DataOutputStream out) throws IOException {
+		out.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			out.writeChar(keys[i]);
+			containers[i].serialize(out);
+		}
+	}
+
+	/**
+	 * Reads a set written by {@link #serialize}.
+	 */
+	public static RoaringBitmap read(DataInputStream in) throws IOException {
+		RoaringBitmap r = new RoaringBitmap();
+		int n = in.readInt();
+		for (int i = 0; i < n; i++) {
+			char key = in.readChar();
+			boolean bitmap = in.readBoolean();
+			int card = in.readInt();
+			Container c;
+			if (bitmap) {
+				long[] words = new long[BitmapContainer.WORDS];
+				for (int w = 0; w < words.length; w++)
+					words[w] = in.readLong();
+				c = new BitmapContainer(words, card);
+			} else {
+				char[] values = new char[Math.max(4, card)];
+				for (int v = 0; v < card; v++)
+					values[v] = in.readChar();
+				c = new ArrayContainer(values, card);
+			}
+			r.insertContainer(i, key, c);
+		}
+		return r;
+	}
+
+	/**
+	 * The values of a RoaringBitmap sharing their high 16 bits. The methods
+	 * that change a container return the container that holds the result,
+	 * which is this one or a new one of the other kind.
+	 */
+	abstract static class Container {
+		abstract int getCardinality();
+
+		abstract boolean contains(char x);
+
+		abstract Container add(char x);
+
+		abstract Container remove(char x);
+
+		abstract Container and(Container o);
+
+		abstract Container or(Container o);
+
+		abstract Container copy();
+
+		abstract PrimitiveIterator.OfInt iterator();
+
+		abstract void serialize(DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * A container of at most MAX_ARRAY values, stored in a sorted array.
+	 */
+	static final class ArrayContainer extends Container {
+		char[] values;
+		int card;
+
+		ArrayContainer() {
+			this(new char[4], 0);
+		}
+
+		ArrayContainer(char[] values, int card) {
+			this.values = values;
+			this.card = card;
+		}
+
+		int getCardinality() {
+			return card;
+		}
+
+		boolean contains(char x) {
+			return Arrays.binarySearch(values, 0, card, x) >= 0;
+		}
+
+		Container add(char x) {
+			int i = Arrays.binarySearch(values, 0, card, x);
+			if (i >= 0)
+				return this;
+			if (card == MAX_ARRAY)
+				return toBitmap().add(x);
+			i = -i - 1;
+			if (card == values.length)
+				values = Arrays.copyOf(values, Math.min(MAX_ARRAY, Math.max(4, card * 2)));
+			System.arraycopy(values, i, values, i + 1, card - i);
+			values[i] = x;
+			card++;
+			return this;
+		}
+
+		Container remove(char x) {
+			int i = Arrays.binarySearch(values, 0, card, x);
+			if (i >= 0) {
+				System.arraycopy(values, i + 1, values, i, card - i - 1);
+				card--;
+			}
+			return this;
+		}
+
+		BitmapContainer toBitmap() {
+			BitmapContainer b = new BitmapContainer();
+			for (int i = 0; i < card; i++)
+				b.add(values[i]);
+			return b;
+		}
+
+		Container and(Container o) {
+			char[] r = new char[Math.max(4, Math.min(card, o.getCardinality()))];
+			int n = 0;
+			if (o instanceof ArrayContainer) {
+				ArrayContainer a = (ArrayContainer) o;
+				for (int i = 0, j = 0; i < card && j < a.card; ) {
+					if (values[i] < a.values[j])
+						i++;
+					else if (values[i] > a.values[j])
+						j++;
+					else {
+						r[n++] = values[i];
+						i++;
+						j++;
+					}
+				}
+			} else {
+				for (int i = 0; i < card; i++)
+					if (o.contains(values[i]))
+						r[n++] = values[i];
+			}
+			return new ArrayContainer(r, n);
+		}
+
+		Container or(Container o) {
+			if (o instanceof BitmapContainer || card + o.getCardinality() > MAX_ARRAY)
+				return toBitmap().or(o);
+			ArrayContainer a = (ArrayContainer) o;
+			char[] r = new char[Math.max(4, card + a.card)];
+			int n = 0, i = 0, j = 0;
+			while (i < card || j < a.card) {
+				if (j == a.card || (i < card && values[i] < a.values[j]))
+					r[n++] = values[i++];
+				else if (i == card || values[i] > a.values[j])
+					r[n++] = a.values[j++];
+				else {
+					r[n++] = values[i++];
+					j++;
+				}
+			}
+			return new ArrayContainer(r, n);
+		}
+
+		Container copy() {
+			return new ArrayContainer(values.clone(), card);
+		}
+
+		PrimitiveIterator.OfInt iterator() {
+			return new PrimitiveIterator.OfInt() {
+				int i = 0;
+
+				public boolean hasNext() {
+					return i < card;
+				}
+
+				public int nextInt() {
+					if (i >= card)
+						throw new NoSuchElementException();
+					return values[i++];
+				}
+			};
+		}
+
+		void serialize(DataOutputStream out) throws IOException {
+			out.writeBoolean(false);
+			out.writeInt(card);
+			for (int i = 0; i < card; i++)
+				out.writeChar(values[i]);
+		}
+	}
+
+	/**
+	 * A container of more than MAX_ARRAY values, stored in a bitmap.
+	 */
+	static final class BitmapContainer extends Container {
+		static final int WORDS = (1 << 16) / 64;
+
+		final long[] words;
+		int card;
+
+		BitmapContainer() {
+			this(new long[WORDS], 0);
+		}
+
+		BitmapContainer(long[] words, int card) {
+			this.words = words;
+			this.card = card;
+		}
+
+		int getCardinality() {
+			return card;
+		}
+
+		boolean contains(char x) {
+			return (words[x >>> 6] & (1L << x)) != 0;
+		}
+
+		Container add(char x) {
+			long w = words[x >>> 6];
+			if ((w & (1L << x)) == 0) {
+				words[x >>> 6] = w | (1L << x);
+				card++;
+			}
+			return this;
+		}
+
+		Container remove(char x) {
+			long w = words[x >>> 6];
+			if ((w & (1L << x)) != 0) {
+				words[x >>> 6] = w & ~(1L << x);
+				card--;
+			}
+			return card <= MAX_ARRAY ? toArray() : this;
+		}
+
+		ArrayContainer toArray() {
+			char[] values = new char[Math.max(4, card)];
+			int n = 0;
+			for (int i = 0; i < WORDS; i++) {
+				for (long w = words[i]; w != 0; w &= w - 1)
+					values[n++] = (char) (i * 64 + Long.numberOfTrailingZeros(w));
+			}
+			return new ArrayContainer(values, n);
+		}
+
+		/** @return a container of the values of a bitmap, of the kind that suits their number */
+		private static Container of(long[] words) {
+			int card = 0;
+			for (long w : words)
+				card += Long.bitCount(w);
+			BitmapContainer b = new BitmapContainer(words, card);
+			return card <= MAX_ARRAY ? b.toArray() : b;
+		}
+
+		Container and(Container o) {
+			if (o instanceof ArrayContainer)
+				return o.and(this);
+			long[] r = new long[WORDS];
+			long[] other = ((BitmapContainer) o).words;
+			for (int i = 0; i < WORDS; i++)
+				r[i] = words[i] & other[i];
+			return of(r);
+		}
+
+		Container or(Container o) {
+			long[] r = words.clone();
+			if (o instanceof ArrayContainer) {
+				ArrayContainer a = (ArrayContainer) o;
+				for (int i = 0; i < a.card; i++)
+					r[a.values[i] >>> 6] |= 1L << a.values[i];
+			} else {
+				long[] other = ((BitmapContainer) o).words;
+				for (int i = 0; i < WORDS; i++)
+					r[i] |= other[i];
+			}
+			return of(r);
+		}
+
+		Container copy() {
+			return new BitmapContainer(words.clone(), card);
+		}
+
+		PrimitiveIterator.OfInt iterator() {
+			return new PrimitiveIterator.OfInt() {
+				int i = 0;
+				long w = words[0];
+
+				public boolean hasNext() {
+					while (w == 0 && i < WORDS - 1)
+						w = words[++i];
+					return w != 0;
+				}
+
+				public int nextInt() {
+					if (!hasNext())
+						throw new NoSuchElementException();
+					int x = i * 64 + Long.numberOfTrailingZeros(w);
+					w &= w - 1;
+					return x;
+				}
+			};
+		}
+
+		void serialize(DataOutputStream out) throws IOException {
+			out.writeBoolean(true);
+			out.writeInt(card);
+			for (long w : words)
+				out.writeLong(w);
+		}
+	}
+}
@@ -0,0 +1,281 @@
+package simpledb.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.ExternalSort;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate.Op;
+import simpledb.execution.SeqScan;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * SecondaryIndex is a B+ tree over one field of a table, whose leaves also
+ * store a copy of some other fields of the table (the included fields). A
+ * query that only references the key and the included fields can be answered
+ * from the index alone with an {@link IndexOnlyScan}, which reads far fewer
+ * pages than a scan of the table when the index is narrow.
+ * <p>
+ * The tuples of the index have the key as field 0, followed by the included
+ * fields in the order given, with the names and types of the table. If the
+ * table is a HeapFile, whose tuples never move, two more int fields hold the
+ * page number and slot of the tuple in the table, so that the rest of the
+ * tuple can be fetched with an {@link IndexFetchScan}. Indexes are registered
+ * with {@link simpledb.common.Catalog#addIndex}, and the BufferPool keeps them
+ * up to date as tuples are inserted into and deleted from the table.
+ */
+public class SecondaryIndex {
+	private final String name;
+	private final int tableid;
+	private final int[] columns;
+	private final boolean recordIds;
+	private final BTreeFile file;
+
+	/**
+	 * Creates an index over a table. The index is empty until {@link #build}
+	 * is called.
+	 *
+	 * @param name - the name of the index, which must not be the name of a table
+	 * @param tableid - the table to index
+	 * @param keyField - the field of the table to index on
+	 * @param includedFields - the other fields of the table to store in the index
+	 * @param f - the file to store the index in, which must be empty
+	 */
+	public SecondaryIndex(String name, int tableid, int keyField, int[] includedFields, File f) {
+		this.name = name;
+		this.tableid = tableid;
+		this.columns = new int[includedFields.length + 1];
+		this.columns[0] = keyField;
+		System.arraycopy(includedFields, 0, this.columns, 1, includedFields.length);
+
+		this.recordIds = Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile;
+
+		TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableid);
+		int n = columns.length + (recordIds ? 2 : 0);
+		Type[] types = new Type[n];
+		String[] names = new String[n];
+		for (int i = 0; i < columns.length; i++) {
+			types[i] = tableTd.getFieldType(columns[i]);
+			names[i] = tableTd.getFieldName(columns[i]);
+		}
+		if (recordIds) {
+			types[n - 2] = Type.INT_TYPE;
+			names[n - 2] = "rid_page";
+			types[n - 1] = Type.INT_TYPE;
+			names[n - 1] = "rid_slot";
+		}
+		this.file = new BTreeFile(f, 0, new TupleDesc(types, names));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the id of the indexed table
+	 */
+	public int getTableId() {
+		return tableid;
+	}
+
+	/**
+	 * @return the field of the table the index is keyed on
+	 */
+	public int getKeyField() {
+		return columns[0];
+	}
+
+	/**
+	 * @return the fields of the table stored in each index tuple, in order;
+	 * the key comes first
+	 */
+	public int[] getColumns() {
+		return columns.clone();
+	}
+
+	/**
+	 * @return true if the index tuples point to the tuples of the table
+	 */
+	public boolean hasRecordIds() {
+		return recordIds;
+	}
+
+	/**
+	 * @return the RecordId of the tuple of the table an index tuple was made from
+	 * @throws UnsupportedOperationException if the index does not store RecordIds
+	 */
+	public RecordId getRecordId(Tuple indexTuple) {
+		if (!recordIds)
+			throw new UnsupportedOperationException("index " + name + " does not store record ids");
+		int n = columns.length;
+		int page = ((IntField) indexTuple.getField(n)).getValue();
+		int slot = ((IntField) indexTuple.getField(n + 1)).getValue();
+		return new RecordId(new HeapPageId(tableid, page), slot);
+	}
+
+	/**
+	 * @return the BTreeFile holding the index tuples
+	 */
+	public BTreeFile getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the TupleDesc of the index tuples
+	 */
+	public TupleDesc getTupleDesc() {
+		return file.getTupleDesc();
+	}
+
+	/**
+	 * @return true if every field in fields (fields of the table) is stored in the index
+	 */
+	public boolean covers(Collection<Integer> fields) {
+		for (int field : fields) {
+			if (indexFieldOf(field) < 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the position in the index tuples of a field of the table, or -1 if it is not stored
+	 */
+	public int indexFieldOf(int tableField) {
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i] == tableField)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the index tuple for a tuple of the table, which must have its
+	 * RecordId set if the index stores them
+	 */
+	public Tuple toIndexTuple(Tuple t) {
+		Tuple it = new Tuple(getTupleDesc());
+		for (int i = 0; i < columns.length; i++) {
+			it.setField(i, t.getField(columns[i]));
+		}
+		if (recordIds) {
+			RecordId rid = t.getRecordId();
+			it.setField(columns.length, new IntField(rid.getPageId().getPageNumber()));
+			it.setField(columns.length + 1, new IntField(rid.getTupleNumber()));
+		}
+		return it;
+	}
+
+	/**
+	 * Fills the empty index with the current contents of the table, sorting
+	 * them with an external sort and loading the B+ tree bottom up.
+	 *
+	 * @param tid - the transaction reading the table
+	 * @param runSize - the number of tuples to sort in memory at once
+	 * @return the number of tuples indexed
+	 */
+	public int build(TransactionId tid, int runSize)
+			throws DbException, IOException, TransactionAbortedException {
+		OpIterator tuples = new IndexTuples(new SeqScan(tid, tableid));
+		return BTreeBulkLoader.load(file, new ExternalSort(0, true, tuples, runSize), 1.0);
+	}
+
+	/**
+	 * Adds the index tuple of a tuple that was inserted into the table.
+	 */
+	public void insert(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		Database.getBufferPool().insertTuple(tid, file.getId(), toIndexTuple(t));
+	}
+
+	/**
+	 * Removes the index tuple of a tuple that was deleted from the table. If
+	 * the index does not store RecordIds, index tuples with the same fields are
+	 * interchangeable, so any one of them is removed.
+	 *
+	 * @throws DbException if the index has no such tuple
+	 */
+	public void delete(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		Tuple target = toIndexTuple(t);
+		Tuple found = null;
+		DbFileIterator it = file.indexIterator(tid, new IndexPredicate(Op.EQUALS, target.getField(0)));
+		it.open();
+		try {
+			while (found == null && it.hasNext()) {
+				Tuple candidate = it.next();
+				if (sameFields(candidate, target))
+					found = candidate;
+			}
+		} finally {
+			it.close();
+		}
+		if (found == null)
+			throw new DbException("index " + name + " has no entry for " + t);
+		Database.getBufferPool().deleteTuple(tid, found);
+	}
+
+	private boolean sameFields(Tuple a, Tuple b) {
+		for (int i = 0; i < getTupleDesc().numFields(); i++) {
+			if (!a.getField(i).equals(b.getField(i)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Turns the tuples of a scan of the table into index tuples.
+	 */
+	private class IndexTuples extends Operator {
+		private static final long serialVersionUID = 1L;
+		private OpIterator child;
+
+		IndexTuples(OpIterator child) {
+			this.child = child;
+		}
+
+		public TupleDesc getTupleDesc() {
+			return SecondaryIndex.this.getTupleDesc();
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			child.open();
+			super.open();
+		}
+
+		public void close() {
+			super.close();
+			child.close();
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			child.rewind();
+		}
+
+		protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+			return child.hasNext() ? toIndexTuple(child.next()) : null;
+		}
+
+		public OpIterator[] getChildren() {
+			return new OpIterator[] { child };
+		}
+
+		public void setChildren(OpIterator[] children) {
+			child = children[0];
+		}
+	}
+}
@@ -0,0 +1,283 @@
+package simpledb.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordId;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * TrigramIndex is an inverted index of the trigrams (substrings of three
+ * characters) of a string field of a HeapFile table. A LIKE predicate matches
+ * the strings which contain its pattern, and a string can only contain the
+ * pattern if it has every trigram of the pattern, so the tuples with all of
+ * them are the candidates for the predicate; {@link TrigramIndexScan} reads
+ * just those, and a Filter on top checks the predicate itself.
+ * <p>
+ * The index is a B+ tree of tuples (gram, page, slot), keyed on gram, with one
+ * tuple for each distinct trigram of each tuple of the table. A trigram is
+ * stored as the hashCode of its string, so two trigrams may share a gram,
+ * which only adds candidates. Indexes are registered with
+ * {@link simpledb.common.Catalog#addTrigramIndex}, and the BufferPool keeps
+ * them up to date as tuples are inserted into and deleted from the table,
+ * within the same transaction.
+ */
+public class TrigramIndex {
+	/** the length of the substrings indexed */
+	public static final int N = 3;
+
+	private static final TupleDesc INDEX_TD = new TupleDesc(
+			new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE },
+			new String[] { "gram", "rid_page", "rid_slot" });
+
+	private final String name;
+	private final int tableid;
+	private final int field;
+	private final int slotsPerPage;
+	private final BTreeFile file;
+
+	/**
+	 * Creates an index over a table. The index is empty until {@link #build}
+	 * is called.
+	 *
+	 * @param name - the name of the index, which must not be the name of a table
+	 * @param tableid - the table to index, which must be a HeapFile
+	 * @param field - the string field of the table to index
+	 * @param f - the file to store the index in, which must be empty
+	 */
+	public TrigramIndex(String name, int tableid, int field, File f) {
+		if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile))
+			throw new IllegalArgumentException("a trigram index needs a table stored in a HeapFile");
+		TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+		if (td.getFieldType(field) != Type.STRING_TYPE)
+			throw new IllegalArgumentException("a trigram index needs a string field");
+		this.name = name;
+		this.tableid = tableid;
+		this.field = field;
+		this.slotsPerPage = HeapPage.numSlots(td);
+		this.file = new BTreeFile(f, 0, INDEX_TD);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the id of the indexed table
+	 */
+	public int getTableId() {
+		return tableid;
+	}
+
+	/**
+	 * @return the field of the table the index is on
+	 */
+	public int getField() {
+		return field;
+	}
+
+	/**
+	 * @return the BTreeFile holding the index tuples
+	 */
+	public BTreeFile getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the distinct grams of the trigrams of a string, in ascending
+	 * order; empty if the string is shorter than a trigram
+	 */
+	public static SortedSet<Integer> grams(String s) {
+		SortedSet<Integer> grams = new TreeSet<>();
+		for (int i = 0; i + N <= s.length(); i++)
+			grams.add(s.substring(i, i + N).hashCode());
+		return grams;
+	}
+
+	private int position(RecordId rid) {
+		return rid.getPageId().getPageNumber() * slotsPerPage + rid.getTupleNumber();
+	}
+
+	/**
+	 * @return the RecordId of the tuple of the table at a position of the
+	 * bitmaps returned by {@link #candidates}
+	 */
+	public RecordId recordId(int position) {
+		return new RecordId(new HeapPageId(tableid, position / slotsPerPage), position % slotsPerPage);
+	}
+
+	private static Tuple indexTuple(int gram, RecordId rid) {
+		Tuple it = new Tuple(INDEX_TD);
+		it.setField(0, new IntField(gram));
+		it.setField(1, new IntField(rid.getPageId().getPageNumber()));
+		it.setField(2, new IntField(rid.getTupleNumber()));
+		return it;
+	}
+
+	/**
+	 * Fills the empty index with the current contents of the table. The
+	 * positions of the tuples of each gram are collected in a RoaringBitmap,
+	 * and the B+ tree is then loaded bottom up from the grams in order.
+	 *
+	 * @param tid - the transaction reading the table
+	 * @return the number of tuples of the table indexed
+	 */
+	public int build(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+		SortedMap<Integer, RoaringBitmap> postings = new TreeMap<>();
+		int n = 0;
+		DbFileIterator it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+		it.open();
+		try {
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				int position = position(t.getRecordId());
+				for (int gram : grams(((StringField) t.getField(field)).getValue()))
+					postings.computeIfAbsent(gram, k -> new RoaringBitmap()).add(position);
+				n++;
+			}
+		} finally {
+			it.close();
+		}
+		BTreeBulkLoader.load(file, new PostingTuples(postings), 1.0);
+		return n;
+	}
+
+	/**
+	 * Returns the positions of the tuples which have every trigram of a
+	 * pattern, as the AND of the positions of the tuples of each of its grams.
+	 * This method acquires read locks on the index pages it reads.
+	 *
+	 * @param tid - the transaction reading the index
+	 * @param pattern - the pattern of a LIKE predicate
+	 * @return a bitmap of the positions of the candidate tuples, or null if the
+	 *         pattern is shorter than a trigram, so that every tuple is one
+	 */
+	public RoaringBitmap candidates(TransactionId tid, String pattern)
+			throws DbException, TransactionAbortedException {
+		SortedSet<Integer> grams = grams(pattern);
+		if (grams.isEmpty())
+			return null;
+		RoaringBitmap result = null;
+		for (int gram : grams) {
+			RoaringBitmap positions = new RoaringBitmap();
+			DbFileIterator it = file.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(gram)));
+			it.open();
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				positions.add(((IntField) t.getField(1)).getValue() * slotsPerPage
+						+ ((IntField) t.getField(2)).getValue());
+			}
+			it.close();
+			result = result == null ? positions : RoaringBitmap.and(result, positions);
+			if (result.isEmpty())
+				break;
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the index tuples of a tuple that was inserted into the table, which
+	 * must have its RecordId set.
+	 */
+	public void insert(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		List<Tuple> tuples = new ArrayList<>();
+		for (int gram : grams(((StringField) t.getField(field)).getValue()))
+			tuples.add(indexTuple(gram, t.getRecordId()));
+		if (!tuples.isEmpty())
+			Database.getBufferPool().insertTuples(tid, file.getId(), tuples);
+	}
+
+	/**
+	 * Removes the index tuples of a tuple that was deleted from the table. The
+	 * tuples of each gram are searched for the one pointing to the tuple.
+	 *
+	 * @throws DbException if the index has no such tuple
+	 */
+	public void delete(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		for (int gram : grams(((StringField) t.getField(field)).getValue())) {
+			Tuple target = indexTuple(gram, rid);
+			Tuple found = null;
+			DbFileIterator it = file.indexIterator(tid, new IndexPredicate(Op.EQUALS, target.getField(0)));
+			it.open();
+			try {
+				while (found == null && it.hasNext()) {
+					Tuple candidate = it.next();
+					if (candidate.getField(1).equals(target.getField(1)) && candidate.getField(2).equals(target.getField(2)))
+						found = candidate;
+				}
+			} finally {
+				it.close();
+			}
+			if (found == null)
+				throw new DbException("index " + name + " has no entry for " + t);
+			Database.getBufferPool().deleteTuple(tid, found);
+		}
+	}
+
+	/**
+	 * Turns the postings of the grams into index tuples, in key order.
+	 */
+	private class PostingTuples extends Operator {
+		private static final long serialVersionUID = 1L;
+		private final SortedMap<Integer, RoaringBitmap> postings;
+		private transient Iterator<Map.Entry<Integer, RoaringBitmap>> grams;
+		private transient int gram;
+		private transient PrimitiveIterator.OfInt positions;
+
+		PostingTuples(SortedMap<Integer, RoaringBitmap> postings) {
+			this.postings = postings;
+		}
+
+		public TupleDesc getTupleDesc() {
+			return INDEX_TD;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			rewind();
+			super.open();
+		}
+
+		public void rewind() {
+			grams = postings.entrySet().iterator();
+			positions = null;
+		}
+
+		protected Tuple fetchNext() {
+			while (positions == null || !positions.hasNext()) {
+				if (!grams.hasNext())
+					return null;
+				Map.Entry<Integer, RoaringBitmap> e = grams.next();
+				gram = e.getKey();
+				positions = e.getValue().iterator();
+			}
+			return indexTuple(gram, recordId(positions.nextInt()));
+		}
+
+		public OpIterator[] getChildren() {
+			return new OpIterator[0];
+		}
+
+		public void setChildren(OpIterator[] children) {
+		}
+	}
+}
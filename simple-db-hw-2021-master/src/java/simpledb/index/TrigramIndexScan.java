@@ -0,0 +1,158 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.OpIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+/**
+ * TrigramIndexScan is an operator which reads the candidate tuples of a
+ * HeapFile table for a LIKE predicate on a string field: the tuples which
+ * have every trigram of the pattern, according to a {@link TrigramIndex} of
+ * the field. The tuples are read in the order of their pages. A candidate
+ * need not contain the pattern itself, so the predicate has to be checked by
+ * a Filter on top of the scan. Tuples have all the fields of the table, named
+ * after the table alias like a scan of the table.
+ */
+public class TrigramIndexScan implements OpIterator {
+
+	private static final long serialVersionUID = 1L;
+
+	private boolean isOpen = false;
+	private final TransactionId tid;
+	private final TrigramIndex index;
+	private final String pattern;
+	private final HeapFile file;
+	private final TupleDesc myTd;
+	private final String alias;
+	private transient PrimitiveIterator.OfInt positions;
+	private transient HeapPage page;
+	private Tuple next = null;
+
+	/**
+	 * Creates a scan of a table through a trigram index as a part of the
+	 * specified transaction.
+	 *
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param index
+	 *            the index to search
+	 * @param tableAlias
+	 *            the alias of the indexed table; the returned tupleDesc
+	 *            has fields with name tableAlias.fieldName.
+	 * @param pattern
+	 *            the pattern of the LIKE predicate, which must be at least
+	 *            as long as a trigram
+	 */
+	public TrigramIndexScan(TransactionId tid, TrigramIndex index, String tableAlias, String pattern) {
+		if (pattern.length() < TrigramIndex.N)
+			throw new IllegalArgumentException("pattern " + pattern + " has no trigram");
+		this.tid = tid;
+		this.index = index;
+		this.alias = tableAlias;
+		this.pattern = pattern;
+		this.file = (HeapFile) Database.getCatalog().getDatabaseFile(index.getTableId());
+
+		TupleDesc td = file.getTupleDesc();
+		String[] newNames = new String[td.numFields()];
+		Type[] newTypes = new Type[td.numFields()];
+		for (int i = 0; i < td.numFields(); i++) {
+			newNames[i] = tableAlias + "." + td.getFieldName(i);
+			newTypes[i] = td.getFieldType(i);
+		}
+		myTd = new TupleDesc(newTypes, newNames);
+	}
+
+	/**
+	 * @return the name of the indexed table in the catalog
+	 */
+	public String getTableName() {
+		return Database.getCatalog().getTableName(index.getTableId());
+	}
+
+	/**
+	 * @return the alias of the indexed table
+	 */
+	public String getAlias() {
+		return alias;
+	}
+
+	public TrigramIndex getIndex() {
+		return index;
+	}
+
+	public String getPattern() {
+		return pattern;
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		if (isOpen)
+			throw new DbException("double open on one OpIterator.");
+		positions = index.candidates(tid, pattern).iterator();
+		page = null;
+		next = null;
+		isOpen = true;
+	}
+
+	public TupleDesc getTupleDesc() {
+		return myTd;
+	}
+
+	public boolean hasNext() throws TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+		if (next == null)
+			next = fetchNext();
+		return next != null;
+	}
+
+	public Tuple next() throws NoSuchElementException,
+	TransactionAbortedException, DbException {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		Tuple result = next;
+		next = null;
+		return result;
+	}
+
+	/**
+	 * Reads the tuple at the next candidate position.
+	 */
+	private Tuple fetchNext() throws TransactionAbortedException, DbException {
+		while (positions.hasNext()) {
+			RecordId rid = index.recordId(positions.nextInt());
+			int pgNo = rid.getPageId().getPageNumber();
+			if (page == null || page.getId().getPageNumber() != pgNo)
+				page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(file.getId(), pgNo),
+						Permissions.READ_ONLY);
+			Tuple t = page.getTuple(rid.getTupleNumber());
+			if (t != null)
+				return t;
+		}
+		return null;
+	}
+
+	public void close() {
+		positions = null;
+		page = null;
+		next = null;
+		isOpen = false;
+	}
+
+	public void rewind() throws DbException, NoSuchElementException,
+	TransactionAbortedException {
+		close();
+		open();
+	}
+}
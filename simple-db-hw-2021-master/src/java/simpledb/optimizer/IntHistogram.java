@@ -22,7 +22,7 @@ public class IntHistogram {
         public MyGram(double left,double right){
             this.left = left;
             this.right = right;
-            this.width = right-left;
+            this.width = right-left+1;
             this.count = 0;
         }
         public boolean isInRange(int tmp){
@@ -54,35 +54,30 @@ public class IntHistogram {
         this.max = max;
         this.min = min;
         this.grams = new MyGram[buckets];
-        this.avg = ((max-min)*1.0)/(buckets*1.0);
         this.nTuples= 0;
-        if(avg %1 !=0)
-            avg = (int) (avg+1)/1;
-        int l = min;
+        //每个桶覆盖整数区间[left,right]，桶宽取整，边界值只落在一个桶里
+        this.avg = Math.max(1, Math.ceil((max-min+1.0)/buckets));
+        double l = min;
         for(int i=0;i<buckets;i++){
-            grams[i] =new MyGram(l,l+avg);
+            grams[i] =new MyGram(l,l+avg-1);
             l+=avg;
         }
     }
 
     /**
-     * Add a value to the set of values that you are keeping a histogram of.
-     * @param v Value to add to the histogram
+     * @return the index of the bucket that holds v, or -1 if v is out of range
      */
     public int BinarySearch(int v){
-        int lo= 0;
-        int hi = buckets-1;
-       while(lo<=hi){
-           int mid=lo+(hi-lo)/2;
-           if(grams[mid].isInRange(v))
-               return mid;
-           else if(grams[mid].left>v)
-               hi =mid-1;
-           else
-               lo = mid+1;
-       }
-       return -1;
+        if(v<min || v>max)
+            return -1;
+        int location = (int) ((v-(double) min)/avg);
+        return Math.min(location, buckets-1);
     }
+
+    /**
+     * Add a value to the set of values that you are keeping a histogram of.
+     * @param v Value to add to the histogram
+     */
     public void addValue(int v) {
         // done
         int location = BinarySearch(v);
@@ -158,18 +153,18 @@ public class IntHistogram {
                 }
                 return res;
             }
-            else if(op == Predicate.Op.LESS_THAN_OR_EQ){
-                if(v>=max)
-                    return 1.0;
-                else if(v<min)
-                    return 0.0;
-                else if(cur != null){
-                    double res = ((cur.count*1.0)*(v- cur.left+1)/ cur.width)/nTuples;
-                    for(int i=0;i<location;i++)
-                        res+=(grams[i].count*1.0)/nTuples;
-                }
+        }
+        else if(op == Predicate.Op.LESS_THAN_OR_EQ){
+            if(v>=max)
+                return 1.0;
+            else if(v<min)
+                return 0.0;
+            else if(cur != null){
+                double res = ((cur.count*1.0)*(v- cur.left+1)/ cur.width)/nTuples;
+                for(int i=0;i<location;i++)
+                    res+=(grams[i].count*1.0)/nTuples;
+                return res;
             }
-
         }
         return 0.0;
     }
@@ -181,11 +176,23 @@ public class IntHistogram {
      *     This is not an indispensable method to implement the basic
      *     join optimization. It may be needed if you want to
      *     implement a more efficient optimization
+     *
+     *     It is the expected selectivity of an equality predicate whose
+     *     constant is the value of a random tuple, so its inverse estimates
+     *     the number of distinct values.
      * */
     public double avgSelectivity()
     {
         // done
-        return avg;
+        if (nTuples == 0)
+            return 1.0;
+        //随机取一个元组的值做等值查询，期望的选择率：落在每个桶的概率*桶内等值选择率
+        double res = 0;
+        for (MyGram g : grams) {
+            double p = (g.count * 1.0) / nTuples;
+            res += p * (g.count / Math.max(g.width, 1.0)) / nTuples;
+        }
+        return res;
     }
     
     /**
@@ -4,6 +4,20 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BitmapCondition;
+import simpledb.index.BitmapIndex;
+import simpledb.index.BitmapIndexScan;
+import simpledb.index.HashFile;
+import simpledb.index.HashIndexScan;
+import simpledb.index.IndexFetchScan;
+import simpledb.index.IndexOnlyScan;
+import simpledb.index.LsmFile;
+import simpledb.index.LsmScan;
+import simpledb.index.SecondaryIndex;
+import simpledb.index.TrigramIndex;
+import simpledb.index.TrigramIndexScan;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -292,18 +306,68 @@ public class LogicalPlan {
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
+        Set<String> seqScanned = new HashSet<>();
+        //表别名 -> 按顺序返回元组的键字段的全名，扫描按键有序时才有
+        Map<String,String> keyOrder = new HashMap<>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            OpIterator ss = null;
             try {
                  ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
+            String baseTableName = Database.getCatalog().getTableName(table.t);
+            HashIndexScan his = hashIndexScan(t, table);
+            LsmScan lss = his == null ? lsmScan(t, table) : null;
+            BTreeScan bts = his == null && lss == null ? bTreeScan(t, table, baseTableStats.get(baseTableName), explain) : null;
+            IndexOnlyScan ios = his == null && lss == null && bts == null ? indexOnlyScan(t, table) : null;
+            TrigramIndexScan tgs = his == null && lss == null && bts == null && ios == null
+                    ? trigramIndexScan(t, table) : null;
+            BitmapIndexScan bms = his == null && lss == null && bts == null && ios == null && tgs == null
+                    ? bitmapIndexScan(t, table, baseTableStats.get(baseTableName)) : null;
+            IndexFetchScan ifs = his == null && lss == null && bts == null && ios == null && tgs == null && bms == null
+                    ? indexFetchScan(t, table, baseTableStats.get(baseTableName)) : null;
+            if (his != null) {
+                ss = his;
+                if (explain)
+                    System.out.println("Hash lookup of " + table.alias + " with key = " + his.getIndexPredicate().getField());
+            } else if (lss != null) {
+                ss = lss;
+                if (explain)
+                    System.out.println("LSM range scan of " + table.alias + " with key "
+                            + lss.getIndexPredicate().getOp() + " " + lss.getIndexPredicate().getField());
+            } else if (bts != null) {
+                ss = bts;
+            } else if (ios != null) {
+                ss = ios;
+                if (explain)
+                    System.out.println("Index-only scan of " + table.alias + " using index " + ios.getIndex().getName()
+                            + (ios.getIndexPredicate() == null ? "" : " with key " + ios.getIndexPredicate().getOp()
+                            + " " + ios.getIndexPredicate().getField()));
+            } else if (tgs != null) {
+                ss = tgs;
+                if (explain)
+                    System.out.println("Trigram index scan of " + table.alias + " using index " + tgs.getIndex().getName()
+                            + " for LIKE " + tgs.getPattern());
+            } else if (bms != null) {
+                ss = bms;
+                if (explain)
+                    System.out.println("Bitmap index scan of " + table.alias + " with " + bms.getCondition());
+            } else if (ifs != null) {
+                ss = ifs;
+                if (explain)
+                    System.out.println("Index scan of " + table.alias + " using index " + ifs.getIndex().getName()
+                            + " with key " + ifs.getIndexPredicate().getOp() + " " + ifs.getIndexPredicate().getField());
+            } else {
+                seqScanned.add(table.alias);
+            }
+            String orderKey = scanKeyOrder(table, ss);
+            if (orderKey != null)
+                keyOrder.put(table.alias, table.alias + "." + orderKey);
             
             subplanMap.put(table.alias,ss);
-            String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
@@ -315,36 +379,27 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
             }
 
-            Field f;
-            Type ftyp;
-            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
-
-            try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
-                ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
-            }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c));
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
-
-            Predicate p = null;
-            try {
-                p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
-            }
+            Predicate p = filterPredicate(lf, subplan.getTupleDesc());
+            Field f = p.getOperand();
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            //the statistics are over the fields of the table, which an index-only scan may not all return
+            int tableField = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias)).fieldNameToIndex(lf.fieldPureName);
+            double sel = s.estimateSelectivity(tableField, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
+        //估计每个子计划的元组数，用来决定连接时要不要查索引
+        Map<String,Integer> cards = new HashMap<>();
+        for (Map.Entry<String,Double> e : filterSelectivities.entrySet()) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(e.getKey())));
+            cards.put(e.getKey(), s == null ? 0 : s.estimateTableCardinality(e.getValue()));
+        }
+
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
@@ -381,8 +436,32 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
 
             OpIterator j;
-            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            IndexOpIterator inner = null;
+            int card1 = cards.getOrDefault(t1name, 0);
+            if (!isSubqueryJoin && t2name.equals(lj.t2Alias) && seqScanned.contains(lj.t2Alias))
+                inner = indexJoinInner(t, lj, plan1, card1, statsMap);
+            if (inner != null) {
+                try {
+                    j = new IndexNestedLoopJoin(plan1, plan1.getTupleDesc().fieldNameToIndex(lj.f1QuantifiedName),
+                            inner, inner.getTupleDesc().fieldNameToIndex(lj.f2QuantifiedName));
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field " + lj.f1QuantifiedName);
+                }
+                //内表的过滤条件放到连接上面做
+                for (LogicalFilterNode lf : filters) {
+                    if (lf.tableAlias.equals(lj.t2Alias))
+                        j = new Filter(filterPredicate(lf, j.getTupleDesc()), j);
+                }
+                if (explain)
+                    System.out.println("Index nested-loop join of " + lj.t1Alias + " with " + lj.t2Alias
+                            + " on " + lj.f2QuantifiedName);
+            } else {
+                j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            }
             subplanMap.put(t1name, j);
+            if (!isSubqueryJoin)
+                cards.put(t1name, jo.estimateJoinCardinality(lj, card1, cards.getOrDefault(t2name, 0),
+                        isPkey(lj.t1Alias, lj.f1PureName), isPkey(lj.t2Alias, lj.f2PureName), statsMap));
 
             if (!isSubqueryJoin) {
                 subplanMap.remove(t2name);
@@ -472,12 +551,366 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            //只有一张表时，按键有序的扫描经过过滤后仍然有序，不用再排序
+            if (oByAsc && !hasAgg && joins.isEmpty() && keyOrder.containsValue(oByField)) {
+                if (explain)
+                    System.out.println("ORDER BY " + oByField + " uses the key order of the scan");
+            } else {
+                node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            }
         }
 
         return new Project(outFields, outTypes, node);
     }
 
+    /** Return the name of the field a scan of a table returns the tuples in ascending order of:
+     *  the first key field of a table organized as a B+ tree or the key of an LSM table, read
+     *  through a sequential or range scan; or null if the scan returns them in no particular order.
+     */
+    private String scanKeyOrder(LogicalScanNode table, OpIterator scan) {
+        DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+        if (file instanceof BTreeFile && (scan instanceof SeqScan || scan instanceof BTreeScan))
+            return file.getTupleDesc().getFieldName(((BTreeFile) file).keyFields()[0]);
+        if (file instanceof LsmFile && (scan instanceof SeqScan || scan instanceof LsmScan))
+            return file.getTupleDesc().getFieldName(((LsmFile) file).keyField());
+        return null;
+    }
+
+    /** Return the predicate of a filter over tuples described by td.
+     *  @throws ParsingException if the field of the filter is not in td
+     */
+    private Predicate filterPredicate(LogicalFilterNode lf, TupleDesc td) throws ParsingException {
+        int field;
+        try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
+            field = td.fieldNameToIndex(lf.fieldQuantifiedName);
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+        }
+        Field f;
+        if (td.getFieldType(field) == Type.INT_TYPE)
+            f = new IntField(new Integer(lf.c));
+        else
+            f = new StringField(lf.c, Type.STRING_LEN);
+        return new Predicate(field, lf.p, f);
+    }
+
+    /** Return true if the specified field is the primary key of the table with the specified alias. */
+    private boolean isPkey(String alias, String field) {
+        String pkey = Database.getCatalog().getPrimaryKey(this.getTableId(alias));
+        return pkey != null && pkey.equals(field);
+    }
+
+    /** Return the fields of the table with the specified alias that the query references,
+     *  or null if it references all of them (SELECT *).
+     */
+    private Set<Integer> referencedFields(String alias, TupleDesc td) {
+        Set<Integer> fields = new HashSet<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.aggOp == null && si.fname.equals("null.*"))
+                return null;
+            addField(fields, alias, si.fname, td);
+        }
+        for (LogicalFilterNode lf : filters)
+            addField(fields, alias, lf.fieldQuantifiedName, td);
+        for (LogicalJoinNode lj : joins) {
+            addField(fields, alias, lj.t1Alias + "." + lj.f1PureName, td);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                addField(fields, alias, lj.t2Alias + "." + lj.f2PureName, td);
+        }
+        if (hasAgg) {
+            addField(fields, alias, aggField, td);
+            if (groupByField != null)
+                addField(fields, alias, groupByField, td);
+        }
+        if (hasOrderBy)
+            addField(fields, alias, oByField, td);
+        return fields;
+    }
+
+    private static void addField(Set<Integer> fields, String alias, String qualifiedName, TupleDesc td) {
+        int dot = qualifiedName.indexOf('.');
+        if (dot < 0 || !qualifiedName.substring(0, dot).equals(alias))
+            return;
+        try {
+            fields.add(td.fieldNameToIndex(qualifiedName.substring(dot + 1)));
+        } catch (NoSuchElementException e) {
+            //reported when the plan is built
+        }
+    }
+
+    /** Return an index-only scan of a table if one of its secondary indexes stores every field
+     *  the query references, and either a filter of the query restricts the key of the index
+     *  or the index tuples are narrower than the tuples of the table (so the index has fewer
+     *  pages); otherwise null. Indexes with a usable filter are preferred over narrower ones. The filters are still applied on top of the scan.
+     */
+    private IndexOnlyScan indexOnlyScan(TransactionId t, LogicalScanNode table) {
+        List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(table.t);
+        if (indexes.isEmpty())
+            return null;
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        Set<Integer> fields = referencedFields(table.alias, td);
+        if (fields == null)
+            return null;
+
+        SecondaryIndex best = null;
+        IndexPredicate bestPred = null;
+        for (SecondaryIndex index : indexes) {
+            if (!index.covers(fields))
+                continue;
+            IndexPredicate pred = keyPredicate(table.alias, td, index.getKeyField(), false);
+            int width = index.getTupleDesc().getSize();
+            if (pred == null && width >= td.getSize())
+                continue;
+            if (best == null || (pred != null && bestPred == null)
+                    || ((pred == null) == (bestPred == null) && width < best.getTupleDesc().getSize())) {
+                best = index;
+                bestPred = pred;
+            }
+        }
+        return best == null ? null : new IndexOnlyScan(t, best, table.alias, bestPred);
+    }
+
+    /** Return a scan of a HeapFile table through a secondary index that stores RecordIds, if a
+     *  filter of the query restricts the key of the index so much that fetching the matching
+     *  tuples one by one is estimated to be cheaper than scanning the table; otherwise null.
+     *  The most selective such index is used. The filters are still applied on top of the scan.
+     */
+    private IndexFetchScan indexFetchScan(TransactionId t, LogicalScanNode table, TableStats stats) {
+        List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(table.t);
+        if (indexes.isEmpty() || stats == null)
+            return null;
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+
+        SecondaryIndex best = null;
+        IndexPredicate bestPred = null;
+        double bestCost = stats.estimateScanCost();
+        for (SecondaryIndex index : indexes) {
+            if (!index.hasRecordIds())
+                continue;
+            IndexPredicate pred = keyPredicate(table.alias, td, index.getKeyField(), false);
+            if (pred == null)
+                continue;
+            double sel = stats.estimateSelectivity(index.getKeyField(), pred.getOp(), pred.getField());
+            double cost = stats.estimateIndexCost(1, stats.estimateTableCardinality(sel));
+            if (cost < bestCost) {
+                best = index;
+                bestPred = pred;
+                bestCost = cost;
+            }
+        }
+        return best == null ? null : new IndexFetchScan(t, best, table.alias, bestPred);
+    }
+
+    /** Return a scan of the candidate tuples of a HeapFile table for a LIKE filter of the query
+     *  on a field with a trigram index, if the pattern has a trigram; otherwise null. The longest
+     *  such pattern is used, since it has the most trigrams to narrow the candidates down. There
+     *  is no estimate of the selectivity of LIKE, so the index is always preferred to a scan;
+     *  the filters are still applied on top of the scan and recheck the candidates.
+     */
+    private TrigramIndexScan trigramIndexScan(TransactionId t, LogicalScanNode table) {
+        List<TrigramIndex> indexes = Database.getCatalog().getTrigramIndexes(table.t);
+        if (indexes.isEmpty())
+            return null;
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+
+        TrigramIndex best = null;
+        String bestPattern = null;
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias) || lf.p != Predicate.Op.LIKE
+                    || lf.c.length() < TrigramIndex.N
+                    || (bestPattern != null && lf.c.length() <= bestPattern.length()))
+                continue;
+            for (TrigramIndex index : indexes) {
+                if (lf.fieldPureName.equals(td.getFieldName(index.getField()))) {
+                    best = index;
+                    bestPattern = lf.c;
+                    break;
+                }
+            }
+        }
+        return best == null ? null : new TrigramIndexScan(t, best, table.alias, bestPattern);
+    }
+
+    /** Return a scan of a HeapFile table through its bitmap indexes if filters of the query
+     *  compare indexed fields with constants, and reading the tuples in the AND of their bitmaps
+     *  is estimated to be cheaper than scanning the table; otherwise null. The bitmaps are in
+     *  memory, so only the pages of the matching tuples are read. The filters are still applied
+     *  on top of the scan.
+     */
+    private BitmapIndexScan bitmapIndexScan(TransactionId t, LogicalScanNode table, TableStats stats) {
+        List<BitmapIndex> indexes = Database.getCatalog().getBitmapIndexes(table.t);
+        if (indexes.isEmpty() || stats == null)
+            return null;
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+
+        List<BitmapCondition> conditions = new ArrayList<>();
+        double sel = 1.0;
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias))
+                continue;
+            for (BitmapIndex index : indexes) {
+                if (!lf.fieldPureName.equals(td.getFieldName(index.getField())))
+                    continue;
+                Field value;
+                try {
+                    value = td.getFieldType(index.getField()) == Type.INT_TYPE
+                            ? new IntField(Integer.parseInt(lf.c)) : new StringField(lf.c, Type.STRING_LEN);
+                } catch (NumberFormatException e) {
+                    break;//reported when the filter is built
+                }
+                conditions.add(BitmapCondition.of(index, lf.p, value));
+                //假设各谓词相互独立
+                sel *= stats.estimateSelectivity(index.getField(), lf.p, value);
+                break;
+            }
+        }
+        if (conditions.isEmpty()
+                || stats.estimateIndexCost(0, stats.estimateTableCardinality(sel)) >= stats.estimateScanCost())
+            return null;
+        return new BitmapIndexScan(t, BitmapCondition.and(conditions.toArray(new BitmapCondition[0])), table.alias);
+    }
+
+    /** Return an index access method for the inner table of an equality join, keyed on its join
+     *  field, if looking up each of the card1 outer tuples is estimated to be cheaper than scanning
+     *  the inner table; otherwise null. The inner table may be a {@link HashFile} keyed on the
+     *  join field, or have a secondary index on it that stores RecordIds.
+     */
+    private IndexOpIterator indexJoinInner(TransactionId t, LogicalJoinNode lj, OpIterator plan1, int card1,
+                                           Map<String,TableStats> statsMap) {
+        if (lj.p != Predicate.Op.EQUALS)
+            return null;
+        int tableid = this.getTableId(lj.t2Alias);
+        TableStats stats = statsMap.get(Database.getCatalog().getTableName(tableid));
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        int field, outerField;
+        try {
+            field = td.fieldNameToIndex(lj.f2PureName);
+            outerField = plan1.getTupleDesc().fieldNameToIndex(lj.f1QuantifiedName);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        if (stats == null || plan1.getTupleDesc().getFieldType(outerField) != td.getFieldType(field))
+            return null;
+
+        //每次查找平均匹配的元组数
+        double matches = stats.totalTuples() * stats.avgSelectivity(field, Predicate.Op.EQUALS);
+        double cost = stats.estimateIndexCost(card1, (int) Math.ceil(card1 * matches));
+        if (cost >= stats.estimateScanCost())
+            return null;
+
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (file instanceof HashFile && ((HashFile) file).keyField() == field)
+            return new HashIndexScan(t, tableid, lj.t2Alias, null);
+        //按主键组织的表：内表在B+树上按键查找，匹配的元组在相邻的叶子上
+        if (file instanceof BTreeFile && ((BTreeFile) file).keyFields()[0] == field)
+            return new BTreeScan(t, tableid, lj.t2Alias, null);
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableid)) {
+            if (index.hasRecordIds() && index.getKeyField() == field)
+                return new IndexFetchScan(t, index, lj.t2Alias, null);
+        }
+        return null;
+    }
+
+    /** Return a scan of the bucket of a table stored in a {@link HashFile} if a filter of
+     *  the query compares its key for equality; otherwise null. The filters are still
+     *  applied on top of the scan.
+     */
+    private HashIndexScan hashIndexScan(TransactionId t, LogicalScanNode table) {
+        DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+        if (!(file instanceof HashFile))
+            return null;
+        IndexPredicate pred = keyPredicate(table.alias, file.getTupleDesc(), ((HashFile) file).keyField(), true);
+        return pred == null ? null : new HashIndexScan(t, table.t, table.alias, pred);
+    }
+
+    /** Return a range scan of a table stored in an {@link LsmFile} if a filter of the query
+     *  compares its key; otherwise null. The scan reads the runs only from the key range on,
+     *  so it is never more expensive than a full merge of them. The filters are still applied
+     *  on top of the scan.
+     */
+    private LsmScan lsmScan(TransactionId t, LogicalScanNode table) {
+        DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+        if (!(file instanceof LsmFile))
+            return null;
+        IndexPredicate pred = keyPredicate(table.alias, file.getTupleDesc(), ((LsmFile) file).keyField(), false);
+        return pred == null ? null : new LsmScan(t, table.t, table.alias, pred);
+    }
+
+    /** Return a range scan of a table stored in a {@link BTreeFile} if filters of the query
+     *  restrict its key (or a prefix of its key fields) so much that reading only the matching leaf pages is estimated to be
+     *  cheaper than scanning all of them; otherwise null. With explain, prints which scan was
+     *  chosen and both costs. The filters are still applied on top of the scan.
+     */
+    private BTreeScan bTreeScan(TransactionId t, LogicalScanNode table, TableStats stats, boolean explain) {
+        DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+        if (!(file instanceof BTreeFile) || stats == null)
+            return null;
+        int[] keyFields = ((BTreeFile) file).keyFields();
+        IndexPredicate pred = bTreeKeyPredicate(table.alias, file.getTupleDesc(), keyFields);
+        if (pred == null)
+            return null;
+        //各键字段的选择率相乘，假设字段之间相互独立
+        Field[] values = CompositeField.fieldsOf(pred.getField());
+        double sel = 1.0;
+        for (int i = 0; i < values.length; i++)
+            sel *= stats.estimateSelectivity(keyFields[i],
+                    i == values.length - 1 ? pred.getOp() : Predicate.Op.EQUALS, values[i]);
+        double cost = stats.estimateRangeScanCost(sel);
+        double scanCost = stats.estimateScanCost();
+        boolean useIndex = cost < scanCost;
+        if (explain)
+            System.out.println("Scan of " + table.alias + ": "
+                    + (useIndex ? "B+ tree scan with key " + pred.getOp() + " " + pred.getField() : "sequential scan")
+                    + " (B+ tree cost " + cost + ", sequential cost " + scanCost + ")");
+        return useIndex ? new BTreeScan(t, table.t, table.alias, pred) : null;
+    }
+
+    /** Return an index predicate on a prefix of the key of a B+ tree: equality filters of the
+     *  query on the leading key fields, and then a filter on the next key field that the B+ tree
+     *  can search for, if there is one; or null if the first key field has no such filter.
+     */
+    private IndexPredicate bTreeKeyPredicate(String alias, TupleDesc td, int[] keyFields) {
+        List<Field> values = new ArrayList<>();
+        Predicate.Op op = Predicate.Op.EQUALS;
+        for (int keyField : keyFields) {
+            IndexPredicate pred = keyPredicate(alias, td, keyField, true);
+            if (pred == null) {
+                pred = keyPredicate(alias, td, keyField, false);
+                if (pred != null) {
+                    values.add(pred.getField());
+                    op = pred.getOp();
+                }
+                break;
+            }
+            values.add(pred.getField());
+        }
+        if (values.isEmpty())
+            return null;
+        if (values.size() == 1)
+            return new IndexPredicate(op, values.get(0));
+        return new IndexPredicate(op, new CompositeField(values.toArray(new Field[0])));
+    }
+
+    /** Return an index predicate for the first filter on the specified field of a table that a
+     *  B+ tree (or, with equalsOnly, a hash file) can search for, or null if there is none.
+     */
+    private IndexPredicate keyPredicate(String alias, TupleDesc td, int keyField, boolean equalsOnly) {
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(alias) || !lf.fieldPureName.equals(td.getFieldName(keyField))
+                    || lf.p == Predicate.Op.LIKE || lf.p == Predicate.Op.NOT_EQUALS
+                    || (equalsOnly && lf.p != Predicate.Op.EQUALS))
+                continue;
+            try {
+                if (td.getFieldType(keyField) == Type.INT_TYPE)
+                    return new IndexPredicate(lf.p, new IntField(Integer.parseInt(lf.c)));
+                return new IndexPredicate(lf.p, new StringField(lf.c, Type.STRING_LEN));
+            } catch (NumberFormatException e) {
+                //reported when the filter is built
+            }
+        }
+        return null;
+    }
+
     public static void main(String[] argv) {
         // construct a 3-column table schema
         Type[] types = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
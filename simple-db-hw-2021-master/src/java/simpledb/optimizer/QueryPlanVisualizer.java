@@ -3,8 +3,16 @@ package simpledb.optimizer;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.StringJoiner;
 
 import simpledb.execution.*;
+import simpledb.index.BTreeScan;
+import simpledb.index.BitmapIndex;
+import simpledb.index.BitmapIndexScan;
+import simpledb.index.HashIndexScan;
+import simpledb.index.IndexFetchScan;
+import simpledb.index.IndexOnlyScan;
+import simpledb.index.TrigramIndexScan;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleDesc.TDItem;
 
@@ -12,10 +20,17 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String INDEX_JOIN = "⨝(index)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String INDEX_ONLY_SCAN = "indexonlyscan";
+    static final String INDEX_SCAN = "indexscan";
+    static final String HASH_SCAN = "hashscan";
+    static final String BTREE_SCAN = "btreescan";
+    static final String BITMAP_SCAN = "bitmapscan";
+    static final String TRIGRAM_SCAN = "trigramscan";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
@@ -29,7 +44,7 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin || o instanceof IndexNestedLoopJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -67,24 +82,64 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof IndexOnlyScan
+                || queryPlan instanceof HashIndexScan || queryPlan instanceof IndexFetchScan
+                || queryPlan instanceof BTreeScan || queryPlan instanceof BitmapIndexScan
+                || queryPlan instanceof TrigramIndexScan) {
+            String tableName, alias, scan;
+            if (queryPlan instanceof SeqScan) {
+                SeqScan s = (SeqScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                scan = SCAN;
+            } else if (queryPlan instanceof HashIndexScan) {
+                HashIndexScan s = (HashIndexScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                scan = HASH_SCAN;
+            } else if (queryPlan instanceof BTreeScan) {
+                BTreeScan s = (BTreeScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                scan = BTREE_SCAN;
+            } else if (queryPlan instanceof BitmapIndexScan) {
+                BitmapIndexScan s = (BitmapIndexScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                StringJoiner names = new StringJoiner(",");
+                for (BitmapIndex index : s.getCondition().getIndexes())
+                    names.add(index.getName());
+                scan = BITMAP_SCAN + "[" + names + "]";
+            } else if (queryPlan instanceof TrigramIndexScan) {
+                TrigramIndexScan s = (TrigramIndexScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                scan = TRIGRAM_SCAN + "[" + s.getIndex().getName() + "]";
+            } else if (queryPlan instanceof IndexFetchScan) {
+                IndexFetchScan s = (IndexFetchScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                scan = INDEX_SCAN + "[" + s.getIndex().getName() + "]";
+            } else {
+                IndexOnlyScan s = (IndexOnlyScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                scan = INDEX_ONLY_SCAN + "[" + s.getIndex().getName() + "]";
+            }
 //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
             else
                 alias = "";
             thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
-            if (SCAN.length() / 2 < parentUpperBarStartShift) {
+                    .format("%1$s(%2$s)", scan, tableName + alias);
+            if (scan.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - SCAN.length() / 2;
+                        - scan.length() / 2;
             } else {
-                thisNode.upBarPosition = currentStartPosition + SCAN.length()
+                thisNode.upBarPosition = currentStartPosition + scan.length()
                         / 2;
                 thisNode.textStartPosition = currentStartPosition;
             }
@@ -167,6 +222,30 @@ public class QueryPlanVisualizer {
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
             }
+            else if (plan instanceof IndexNestedLoopJoin) {
+                IndexNestedLoopJoin j = (IndexNestedLoopJoin) plan;
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", INDEX_JOIN, j.getJoinField1Name()
+                        + "=" + j.getJoinField2Name(),j.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (INDEX_JOIN.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = INDEX_JOIN.length() / 2;
+                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
+                        currentDepth + 3 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
+                        currentDepth + 3 + adjustDepth, children[1],
+                        currentStartPosition + left.width + SPACE.length(), 0);
+                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - INDEX_JOIN.length() / 2;
+                thisNode.width = Math.max(
+                        left.width + right.width + SPACE.length(),
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = left;
+                thisNode.rightChild = right;
+                thisNode.height = currentDepth;
+            }
             else if (plan instanceof Aggregate) {
                 Aggregate a = (Aggregate) plan;
                 int upBarShift = parentUpperBarStartShift;
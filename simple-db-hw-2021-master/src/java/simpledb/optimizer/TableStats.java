@@ -13,8 +13,10 @@ import simpledb.transaction.TransactionId;
 
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -101,7 +103,7 @@ public class TableStats {
         // done
         this.tableId = tableid;
         this.ioCostperpage = ioCostPerPage;
-        HeapFile heapFile = (HeapFile) catalog.getDatabaseFile(tableid);
+        DbFile heapFile = catalog.getDatabaseFile(tableid);
         this.tupleDesc = heapFile.getTupleDesc();
         this.dbFileIterator = heapFile.iterator(new TransactionId());
         this.intHistogramMap = new ConcurrentHashMap<>();
@@ -115,16 +117,19 @@ public class TableStats {
 
 
         private void initHistogram(int tableId) throws TransactionAbortedException,DbException{
-        //第一次遍历，找最大最小值
+        //第一次遍历，找最大最小值，数元组和页
             int size = tupleDesc.numFields();
             TransactionId tid = new TransactionId();
             SeqScan seqScan = new SeqScan(tid,tableId);
             seqScan.open();
             Map<Integer,Integer> minMap = new HashMap<>();//Map<index i ， i对应的字段的；最小值>
             Map<Integer,Integer> maxMap = new HashMap<>();
+            Set<PageId> pages = new HashSet<>();
             while(seqScan.hasNext()){
                 Tuple tuple = seqScan.next();
                 total++;
+                if(tuple.getRecordId() != null)
+                    pages.add(tuple.getRecordId().getPageId());
                 //遍历当前元组的每个字段
                 for(int i=0;i<size;i++){
                     if(tupleDesc.getFieldType(i)==Type.INT_TYPE){
@@ -141,31 +146,33 @@ public class TableStats {
                         stringHistogramMap.put(i,histogram);
                     }
                 }
-                //根据min，max，给每一字段初始化一个直方图
-                for(int i=0;i<size;i++){
-                    if(minMap.get(i) != null){
-                        Integer min = minMap.get(i);
-                        Integer max = maxMap.get(i);
-                        intHistogramMap.put(i,new IntHistogram(NUM_HIST_BINS,min,max));
-                    }
+            }
+            //HeapFile的空页也要扫，其他文件按存了元组的页算
+            DbFile file = catalog.getDatabaseFile(tableId);
+            pageNum = file instanceof HeapFile ? ((HeapFile) file).numPages() : pages.size();
+            //根据min，max，给每一字段初始化一个直方图；空表的直方图范围随便给
+            for(int i=0;i<size;i++){
+                if(tupleDesc.getFieldType(i)==Type.INT_TYPE){
+                    int min = minMap.getOrDefault(i,0);
+                    int max = maxMap.getOrDefault(i,0);
+                    intHistogramMap.put(i,new IntHistogram(NUM_HIST_BINS,min,max));
                 }
-                //第二次遍历，给直方图addvalue
-                 seqScan.rewind();
-                while(seqScan.hasNext()){
-                    Tuple tuple1 = seqScan.next();
-                    for(int i=0;i<size;i++){
-                        if(tupleDesc.getFieldType(i).equals(Type.INT_TYPE)){
-                            IntField field = (IntField) tuple1.getField(i);
-                            IntHistogram intHistogram= intHistogramMap.get(i);
-                            if(intHistogram == null)
-                                throw new IllegalArgumentException();
-                            intHistogram.addValue(field.getValue());
-                            intHistogramMap.put(i,intHistogram);
-                        }
+                else
+                    stringHistogramMap.putIfAbsent(i,new StringHistogram(NUM_HIST_BINS));
+            }
+            //第二次遍历，给直方图addvalue
+            seqScan.rewind();
+            while(seqScan.hasNext()){
+                Tuple tuple1 = seqScan.next();
+                for(int i=0;i<size;i++){
+                    if(tupleDesc.getFieldType(i).equals(Type.INT_TYPE)){
+                        IntField field = (IntField) tuple1.getField(i);
+                        intHistogramMap.get(i).addValue(field.getValue());
                     }
                 }
-                seqScan.close();
             }
+            seqScan.close();
+            Database.getBufferPool().transactionComplete(tid);//释放扫描时拿的读锁
     }
     /**
      * Estimates the cost of sequentially scanning the file, given that the cost
@@ -181,7 +188,32 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // done
-        return this.pageNum*ioCostperpage*2;//扫了两遍
+        return this.pageNum*ioCostperpage;
+    }
+
+    /**
+     * Estimates the cost of reading tuples of the table through an index:
+     * one index page for each lookup, and one page of the table for each
+     * tuple read, but never more pages of the table than it has.
+     *
+     * @param lookups the number of searches of the index
+     * @param tuples the number of tuples of the table read
+     * @return The estimated cost of the lookups
+     */
+    public double estimateIndexCost(int lookups, int tuples) {
+        return ((double) lookups + Math.min(tuples, pageNum)) * ioCostperpage;
+    }
+
+    /**
+     * Estimates the cost of a range scan of a table clustered on its key,
+     * such as a B+ tree: one page to find the start of the range, then the
+     * pages holding the matching tuples, which are adjacent.
+     *
+     * @param selectivityFactor the selectivity of the predicate on the key
+     * @return The estimated cost of the range scan
+     */
+    public double estimateRangeScanCost(double selectivityFactor) {
+        return (1 + Math.ceil(selectivityFactor * pageNum)) * ioCostperpage;
     }
 
     /**
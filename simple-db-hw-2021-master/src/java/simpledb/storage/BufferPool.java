@@ -4,6 +4,10 @@ import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
 import simpledb.common.DeadlockException;
+import simpledb.index.BTreeFile;
+import simpledb.index.BitmapIndex;
+import simpledb.index.SecondaryIndex;
+import simpledb.index.TrigramIndex;
 import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.storage.LRUCache;
@@ -11,7 +15,14 @@ import simpledb.transaction.TransactionId;
 import java.util.*;
 import java.io.*;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -39,14 +50,35 @@ public class BufferPool {
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
-    private Integer numPages;
+    private volatile int numPages;
     private LRUCache<PageId,Page> buffer;
     private LockManager lockManager;
+    /** short-duration latches protecting the contents of the cached pages */
+    private final PageLatches latches;
+    /**
+     * key: table id
+     * value: maximum number of pages of that table allowed in the pool
+     */
+    private final Map<Integer,Integer> tableQuotas;
+    /** pages that are never evicted, such as the upper levels of B+ trees */
+    private final Set<PageId> pinned = ConcurrentHashMap.newKeySet();
+    /** second tier keeping evicted clean pages compressed off-heap, or null */
+    private volatile CompressedPageCache secondaryCache;
+    /** periodically writes the page list used for warm restarts, or null */
+    private ScheduledExecutorService pageListSaver;
+    /** threads reading pages ahead of scans, shared by all buffer pools */
+    private static final ExecutorService PREFETCHERS = Executors.newFixedThreadPool(4, r -> {
+        Thread t = new Thread(r, "page-prefetcher");
+        t.setDaemon(true);
+        return t;
+    });
     public BufferPool(int numPages) {
         // done
         this.numPages =numPages;
         buffer = new LRUCache<>(numPages);
         this.lockManager = new LockManager();
+        this.tableQuotas = new ConcurrentHashMap<>();
+        this.latches = new PageLatches();
     }
     
     public static int getPageSize() {
@@ -63,6 +95,349 @@ public class BufferPool {
         BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
 
+    /**
+     * @return the latches protecting the physical contents of cached pages;
+     *     DbFiles latch a page while reading or changing its contents, on top
+     *     of the transaction lock obtained through {@link #getPage}
+     */
+    public PageLatches getLatches() {
+        return latches;
+    }
+
+    /**
+     * @return the maximum number of pages this buffer pool currently caches
+     */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Resizes the buffer pool while it is in use. When shrinking, clean pages
+     * are evicted in LRU order until the pool fits in its new size; dirty pages
+     * are never evicted (NO STEAL), so the pool may stay above the new size
+     * until the transactions holding them complete.
+     *
+     * @param numPages the new maximum number of pages in this buffer pool
+     */
+    public synchronized void setNumPages(int numPages) {
+        if (numPages <= 0)
+            throw new IllegalArgumentException("buffer pool must hold at least one page");
+        this.numPages = numPages;
+        buffer.setCapacity(numPages);
+        while (buffer.getSize() > numPages && evictClean(null)) {
+            // keep evicting until the pool fits or only dirty pages are left
+        }
+    }
+
+    /**
+     * Limits the number of pages of the specified table that may be resident
+     * in the buffer pool at once. When the table is at its quota, reading one
+     * more of its pages evicts the least recently used clean page of the same
+     * table instead of a page of some other table, so a large scan of one
+     * table cannot push every other table out of the pool.
+     * <p>
+     * Lowering the quota of a table evicts its clean pages right away.
+     *
+     * @param tableId the id of the table to limit
+     * @param maxPages the maximum number of pages of this table in the pool
+     */
+    public synchronized void setTableQuota(int tableId, int maxPages) {
+        if (maxPages <= 0)
+            throw new IllegalArgumentException("table quota must be at least one page");
+        tableQuotas.put(tableId, maxPages);
+        while (getNumCachedPages(tableId) > maxPages && evictClean(tableId)) {
+            // keep evicting until the table fits or only dirty pages are left
+        }
+    }
+
+    /**
+     * Removes the quota of the specified table, so that its pages compete for
+     * the whole buffer pool again.
+     *
+     * @param tableId the id of the table
+     */
+    public synchronized void removeTableQuota(int tableId) {
+        tableQuotas.remove(tableId);
+    }
+
+    /**
+     * @param tableId the id of the table
+     * @return the quota of the specified table, or null if it has none
+     */
+    public Integer getTableQuota(int tableId) {
+        return tableQuotas.get(tableId);
+    }
+
+    /**
+     * @param tableId the id of the table
+     * @return the number of pages of the specified table currently in the pool
+     */
+    public int getNumCachedPages(int tableId) {
+        int count = 0;
+        for (PageId pid : buffer.getCache().keySet()) {
+            if (pid.getTableId() == tableId)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Enables the second cache tier: clean pages evicted from the pool are
+     * kept compressed off-heap, and a miss in the pool looks there before
+     * reading the disk. Replaces any previous second tier.
+     *
+     * @param maxBytes the memory for compressed pages, or 0 to disable the tier
+     */
+    public synchronized void setSecondaryCacheSize(long maxBytes) {
+        secondaryCache = maxBytes > 0 ? new CompressedPageCache(maxBytes) : null;
+    }
+
+    /**
+     * @return the second cache tier, or null if it is disabled
+     */
+    public CompressedPageCache getSecondaryCache() {
+        return secondaryCache;
+    }
+
+    /**
+     * Pins a page: once it is in the pool, it is never evicted, even when it
+     * is clean, until it is unpinned or discarded. Pinning neither reads nor
+     * locks the page. Pinned pages count towards the size of the pool, so
+     * only a few hot pages should be pinned.
+     *
+     * @param pid the id of the page to pin
+     */
+    public void pinPage(PageId pid) {
+        pinned.add(pid);
+    }
+
+    /**
+     * Unpins a page, so that it can be evicted again.
+     *
+     * @param pid the id of the page to unpin
+     */
+    public void unpinPage(PageId pid) {
+        pinned.remove(pid);
+    }
+
+    /**
+     * @return true if the specified page is pinned
+     */
+    public boolean isPinned(PageId pid) {
+        return pinned.contains(pid);
+    }
+
+    /**
+     * @return true if the specified page is in the pool; does not count as an access
+     */
+    public boolean isCached(PageId pid) {
+        return buffer.getCache().containsKey(pid);
+    }
+
+    /**
+     * Writes the ids of the pages currently in the buffer pool to the specified
+     * file, hottest first (i.e. in the order the replacement policy would keep
+     * them). The list can be passed to {@link #warmUp} after a restart.
+     * <p>
+     * The file is written next to its final location and then renamed, so a
+     * crash while saving never leaves a truncated list behind.
+     * <p>
+     * The format of the file is an integer count followed by, for every page,
+     * the class name of its PageId and the integers returned by
+     * {@link PageId#serialize}, in the same layout LogFile uses for page ids.
+     *
+     * @param f the file to write the page list to
+     */
+    public void savePageList(File f) throws IOException {
+        List<PageId> pids = buffer.keys();
+        File tmp = new File(f.getAbsolutePath() + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            dos.writeInt(pids.size());
+            for (PageId pid : pids) {
+                int[] pageInfo = pid.serialize();
+                dos.writeUTF(pid.getClass().getName());
+                dos.writeInt(pageInfo.length);
+                for (int j : pageInfo) {
+                    dos.writeInt(j);
+                }
+            }
+        }
+        if (!tmp.renameTo(f)) {
+            // renameTo does not replace an existing file on every platform
+            f.delete();
+            if (!tmp.renameTo(f))
+                throw new IOException("unable to replace page list " + f);
+        }
+    }
+
+    /**
+     * Reads a page list written by {@link #savePageList}.
+     * Entries of tables that are no longer in the catalog are skipped.
+     *
+     * @param f the file to read the page list from
+     * @return the page ids in the list, hottest first
+     */
+    public static List<PageId> readPageList(File f) throws IOException {
+        List<PageId> pids = new ArrayList<>();
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)))) {
+            int count = dis.readInt();
+            for (int i = 0; i < count; i++) {
+                String idClassName = dis.readUTF();
+                Object[] idArgs = new Object[dis.readInt()];
+                for (int j = 0; j < idArgs.length; j++) {
+                    idArgs[j] = dis.readInt();
+                }
+                PageId pid;
+                try {
+                    Constructor<?>[] idConsts = Class.forName(idClassName).getDeclaredConstructors();
+                    pid = (PageId) idConsts[0].newInstance(idArgs);
+                } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException
+                        | InstantiationException | IllegalArgumentException e) {
+                    throw new IOException("invalid page id in page list " + f, e);
+                }
+                try {
+                    Database.getCatalog().getDatabaseFile(pid.getTableId());
+                } catch (NoSuchElementException e) {
+                    continue;
+                }
+                pids.add(pid);
+            }
+        }
+        return pids;
+    }
+
+    /**
+     * Starts a background thread which calls {@link #savePageList} every
+     * periodMillis milliseconds. Replaces any saver started before.
+     *
+     * @param f the file to write the page list to
+     * @param periodMillis the time between two saves
+     */
+    public synchronized void startPageListSaver(final File f, long periodMillis) {
+        stopPageListSaver();
+        pageListSaver = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "page-list-saver");
+            t.setDaemon(true);
+            return t;
+        });
+        pageListSaver.scheduleWithFixedDelay(() -> {
+            try {
+                savePageList(f);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops the thread started by {@link #startPageListSaver}, if any. */
+    public synchronized void stopPageListSaver() {
+        if (pageListSaver != null) {
+            pageListSaver.shutdownNow();
+            pageListSaver = null;
+        }
+    }
+
+    /**
+     * Prefetches the pages of a page list written by {@link #savePageList} in
+     * the background, so the pool is warm soon after a restart. At most as many
+     * pages as fit in the pool are read; they are sorted into disk order (by
+     * table, then page number) and read by the given number of threads.
+     * <p>
+     * Prefetching never evicts anything and never takes locks: a prefetched
+     * page is clean, and it is only added if the page is not already cached,
+     * the pool is not full and the page's table is below its quota. Queries can
+     * therefore run while the pool is warming up.
+     *
+     * @param f the page list to read
+     * @param threads the number of threads reading pages
+     * @return a future completing with the number of pages added to the pool
+     */
+    public CompletableFuture<Integer> warmUp(File f, int threads) throws IOException {
+        List<PageId> pids = readPageList(f);
+        if (pids.size() > numPages)
+            pids = new ArrayList<>(pids.subList(0, numPages));
+        pids.sort(Comparator.comparingInt(PageId::getTableId).thenComparingInt(PageId::getPageNumber));
+
+        ExecutorService readers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "page-prefetcher");
+            t.setDaemon(true);
+            return t;
+        });
+        List<CompletableFuture<Boolean>> reads = new ArrayList<>();
+        for (PageId pid : pids) {
+            reads.add(CompletableFuture.supplyAsync(() -> prefetchPage(pid, false), readers));
+        }
+        return CompletableFuture.allOf(reads.toArray(new CompletableFuture[0])).handle((v, e) -> {
+            readers.shutdown();
+            int added = 0;
+            for (CompletableFuture<Boolean> read : reads) {
+                if (!read.isCompletedExceptionally() && read.join())
+                    added++;
+            }
+            return added;
+        });
+    }
+
+    /**
+     * Reads the specified pages into the pool in the background, one after the
+     * other in the given order, ahead of a scan that is about to read them.
+     * <p>
+     * Like {@link #warmUp}, prefetching never takes locks and never replaces a
+     * cached page, but it evicts clean pages to make room: a prefetched page
+     * enters the pool as the most recently used one, so that it is still there
+     * when the scan gets to it. Pages that cannot be read are skipped.
+     *
+     * @param pids the pages to read
+     * @return a future completing with the number of pages added to the pool
+     */
+    public CompletableFuture<Integer> prefetch(List<PageId> pids) {
+        List<PageId> toRead = new ArrayList<>(pids);
+        return CompletableFuture.supplyAsync(() -> {
+            int added = 0;
+            for (PageId pid : toRead) {
+                if (prefetchPage(pid, true))
+                    added++;
+            }
+            return added;
+        }, PREFETCHERS);
+    }
+
+    /**
+     * Reads the specified page into the pool without locking it. The page's
+     * latch is held meanwhile, so the page cannot be read by getPage or
+     * rewritten by its DbFile between the read and the insertion.
+     *
+     * @param evict whether clean pages may be evicted to make room for the page
+     * @return true if the page was added to the pool
+     */
+    private boolean prefetchPage(PageId pid, boolean evict) {
+        long stamp = latches.writeLock(pid);
+        try {
+            if (buffer.getCache().containsKey(pid))
+                return false;
+            Integer quota = tableQuotas.get(pid.getTableId());
+            if (!evict && (buffer.getSize() >= numPages
+                    || quota != null && getNumCachedPages(pid.getTableId()) >= quota))
+                return false;
+            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            Page page = readFromSecondaryCache(dbFile, pid);
+            if (page == null)
+                page = dbFile.readPage(pid);
+            if (page == null)
+                return false;
+            if (!evict)
+                return buffer.offer(pid, page);
+            return admit(pid, page);
+        } catch (DbException | RuntimeException e) {
+            // the page is gone, or every cached page is dirty; the scan reads it itself
+            return false;
+        } finally {
+            latches.unlockWrite(pid, stamp);
+        }
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -83,17 +458,49 @@ public class BufferPool {
         // done
         //找到就返回page，没找到要新增
        lockManager.grantLock(tid,pid,perm);
-        if (this.buffer.get(pid)==null) {
-            // find the right page in DBFiles
-            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page page = dbFile.readPage(pid);
-            if (buffer.getSize() >= numPages) {
-                evictPage();
+        Page page = this.buffer.get(pid);
+        if (page == null) {
+            //只锁住这一个frame：同一页的并发缺页只读一次盘，不同页的缺页互不阻塞
+            long stamp = latches.writeLock(pid);
+            try {
+                page = this.buffer.get(pid);
+                if (page == null) {
+                    // find the right page in DBFiles
+                    DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                    page = readFromSecondaryCache(dbFile, pid);
+                    if (page == null)
+                        page = dbFile.readPage(pid);
+                    if (!admit(pid, page)) {
+                        //插入刚把这一页放进池，用池里的版本
+                        Page cached = buffer.get(pid);
+                        if (cached != null)
+                            page = cached;
+                    }
+                }
+            } finally {
+                latches.unlockWrite(pid, stamp);
             }
-            buffer.put(pid, page);
-            return page;
         }
-        return this.buffer.get(pid);
+        return page;
+    }
+
+    /**
+     * Takes the specified page out of the second cache tier.
+     *
+     * @return the page, or null if it is not there
+     */
+    private Page readFromSecondaryCache(DbFile dbFile, PageId pid) {
+        CompressedPageCache cache = secondaryCache;
+        if (cache == null)
+            return null;
+        byte[] data = cache.take(pid);
+        if (data == null)
+            return null;
+        try {
+            return dbFile.pageFromData(pid, data);
+        } catch (IOException e) {
+            return null;
+        }
     }
 
     /**
@@ -146,6 +553,20 @@ public class BufferPool {
         else {
             rollback(tid);
             }
+        Set<Integer> tables = new HashSet<>();
+        for(LockManager.PageLock plk:locks){
+            if(tables.add(plk.pid.getTableId())){
+                try{
+                    Database.getCatalog().getDatabaseFile(plk.pid.getTableId()).transactionComplete(tid, commit);
+                    for (BitmapIndex index : Database.getCatalog().getBitmapIndexes(plk.pid.getTableId()))
+                        index.transactionComplete(tid, commit);
+                }catch (NoSuchElementException e){
+                    //页面属于不在目录中的文件，例如二级索引
+                }catch (IOException e){
+                    e.printStackTrace();
+                }
+            }
+        }
         for(LockManager.PageLock plk:locks){
             unsafeReleasePage(tid,plk.pid);
         }
@@ -162,6 +583,9 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
      *
+     * The secondary, bitmap and trigram indexes of the table in the catalog are updated as part
+     * of the same transaction.
+     *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
      * @param t the tuple to add
@@ -171,9 +595,51 @@ public class BufferPool {
        //done
         DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
         List<Page> pages = dbFile.insertTuple(tid,t);//@return An ArrayList contain the pages that were modified
+        markInserted(tid, pages);
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+            index.insert(tid, t);
+        for (BitmapIndex index : Database.getCatalog().getBitmapIndexes(tableId))
+            index.insert(tid, t);
+        for (TrigramIndex index : Database.getCatalog().getTrigramIndexes(tableId))
+            index.insert(tid, t);
+    }
+
+    /**
+     * Add several tuples to the specified table on behalf of transaction tid, as
+     * {@link #insertTuple} does for each of them. A BTreeFile inserts them as one
+     * sorted batch (see {@link BTreeFile#insertTuples}); other files one at a time.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples the tuples to add
+     */
+    public void insertTuples(TransactionId tid, int tableId, List<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(dbFile instanceof BTreeFile)) {
+            for (Tuple t : tuples)
+                insertTuple(tid, tableId, t);
+            return;
+        }
+        markInserted(tid, ((BTreeFile) dbFile).insertTuples(tid, tuples));
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+            for (Tuple t : tuples)
+                index.insert(tid, t);
+        for (BitmapIndex index : Database.getCatalog().getBitmapIndexes(tableId))
+            for (Tuple t : tuples)
+                index.insert(tid, t);
+    }
+
+    /** marks the pages an insert dirtied dirty and puts them in the pool */
+    private void markInserted(TransactionId tid, List<Page> pages) throws DbException {
+        CompressedPageCache cache = secondaryCache;
         for(Page page: pages){
+            if (cache != null)
+                cache.remove(page.getId());//新建的页直接写了磁盘，第二层里的旧镜像作废
             page.markDirty(true,tid);
-            buffer.put(page.getId(),page);
+            //不在池里的新页要先腾出空间；admit失败说明别的线程刚把它读进池，换成脏的版本
+            if (!buffer.put(page.getId(),page) && !admit(page.getId(), page))
+                buffer.put(page.getId(),page);
         }
     }
 
@@ -187,17 +653,27 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
      *
+     * The secondary, bitmap and trigram indexes of the table in the catalog are updated as part
+     * of the same transaction.
+     *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
      */
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
         // done
-        DbFile dbFile = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+        int tableId = t.getRecordId().getPageId().getTableId();
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
         List<Page> pages =dbFile.deleteTuple(tid,t);
         for(Page page: pages){
             page.markDirty(true , tid);
         }
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+            index.delete(tid, t);
+        for (BitmapIndex index : Database.getCatalog().getBitmapIndexes(tableId))
+            index.delete(tid, t);
+        for (TrigramIndex index : Database.getCatalog().getTrigramIndexes(tableId))
+            index.delete(tid, t);
     }
 
     /**
@@ -236,12 +712,17 @@ public class BufferPool {
     */
     public synchronized void discardPage(PageId pid) {
         // done
+        pinned.remove(pid);
+        CompressedPageCache cache = secondaryCache;
+        if (cache != null)
+            cache.remove(pid);
         LRUCache<PageId, Page>.DLinkedNode head = buffer.getHead();
         LRUCache<PageId, Page>.DLinkedNode tail = buffer.getTail();
         while(head!=tail){
             PageId key = head.key;
             if(key!=null && key.equals(pid)){
                 buffer.remove(head);
+                latches.remove(pid);
                 return;
             }
             head = head.next;
@@ -254,9 +735,11 @@ public class BufferPool {
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
         //done
-        Page page = buffer.get(pid);
-        if (page.isDirty() != null) {
+        Page page = buffer.peek(pid);//刷盘不算访问，不改变LRU顺序
+        if (page != null && page.isDirty() != null) {
             DbFile dbFile = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+            //写盘期间加读latch，保证写出去的是一致的页面
+            long stamp = latches.readLock(pid);
             try {
                 Database.getLogFile().logWrite(page.isDirty(), page.getBeforeImage(), page);
                 Database.getLogFile().force();
@@ -264,6 +747,8 @@ public class BufferPool {
                 dbFile.writePage(page);
             } catch (IOException e) {
                 e.printStackTrace();
+            } finally {
+                latches.unlockRead(pid, stamp);
             }
         }
     }
@@ -275,7 +760,7 @@ public class BufferPool {
         for(LockManager.PageLock lock:locks){
             if(     (lock.perm.equals(Permissions.READ_ONLY) && lock.holdNum==1)//1.有这一页。2.是写锁或就一个读锁
                     ||lock.perm.equals(Permissions.READ_WRITE)
-                    &&buffer.get(lock.pid)!=null)
+                    &&buffer.peek(lock.pid)!=null)
             {
                 flushPage(lock.pid);
             }
@@ -289,24 +774,62 @@ public class BufferPool {
      */
     private synchronized  void evictPage() throws DbException {
         // done
-         Page page = buffer.getTail().pre.value;//取出最近最少使用的page
-         if(page != null && page.isDirty()!=null)//是空的或者是脏的，不能去这一页
-         {findNotDirty();}
-         else
-         {buffer.discard();}//不是脏页不需要写磁盘,直接扔
-    }
-
-    private void findNotDirty() throws DbException {
-            LRUCache<PageId,Page>.DLinkedNode head = buffer.getHead();
-            LRUCache<PageId,Page>.DLinkedNode tail = buffer.getTail();
-            while(head!=tail){
-                Page page = tail.value;
-                if(page != null && page.isDirty() ==null){//当前tail对应的page不脏也不空，可以去除
-                    buffer.remove(tail);
-                    return ;
-                }
+        if (!evictClean(null))
+            throw new DbException("no clean pages to evict");
+    }
+
+    /**
+     * Makes room for one more page of the specified table, first by enforcing
+     * the table's quota and then by enforcing the size of the whole pool.
+     */
+    private synchronized void makeRoomFor(int tableId) throws DbException {
+        Integer quota = tableQuotas.get(tableId);
+        if (quota != null && getNumCachedPages(tableId) >= quota && !evictClean(tableId))
+            throw new DbException("no clean pages of table " + tableId + " to evict");
+        while (buffer.getSize() >= numPages) {
+            evictPage();
+        }
+    }
+
+    /**
+     * Adds a page that is not in the pool, making room for it first. Both happen
+     * under the pool's monitor, so concurrent misses cannot overfill the pool.
+     *
+     * @return false if the page was added meanwhile
+     */
+    private synchronized boolean admit(PageId pid, Page page) throws DbException {
+        if (buffer.getCache().containsKey(pid))
+            return false;
+        makeRoomFor(pid.getTableId());
+        buffer.put(pid, page);
+        return true;
+    }
+
+    /**
+     * Evicts the least recently used clean page that is not pinned, optionally
+     * restricted to one table.
+     *
+     * @param tableId the table whose page should be evicted, or null for any table
+     * @return true if a page was evicted
+     */
+    private synchronized boolean evictClean(Integer tableId) {
+        //从最近最少使用的一端开始找，跳过脏页
+        Page[] victim = new Page[1];
+        PageId evictedId = buffer.evict((pid, page) -> {
+            if ((tableId == null || pid.getTableId() == tableId) && !pinned.contains(pid)
+                    && (page == null || page.isDirty() == null)) {
+                victim[0] = page;//evict只会删掉第一个匹配的页
+                return true;
             }
-            throw new DbException("no dirty pages");
+            return false;
+        });
+        boolean evicted = evictedId != null;
+        if (evicted)
+            latches.remove(evictedId);//frame没了，latch也不再留着
+        CompressedPageCache cache = secondaryCache;
+        if (evicted && cache != null && victim[0] != null)
+            cache.put(victim[0].getId(), victim[0].getPageData());
+        return evicted;
     }
 
     private synchronized void rollback(TransactionId tid){
@@ -317,16 +840,12 @@ public class BufferPool {
             LRUCache<PageId, Page>.DLinkedNode next = head.next;
             if(page!=null && page.isDirty()!=null && page.isDirty().equals(tid)){//page不空，脏，且就是tid导致的
                 buffer.remove(head);//从bufferpool去除
-                Page page1 = null;
-                try {
-                    page1 = Database.getBufferPool().getPage(tid, page.getId(), Permissions.READ_ONLY);//读修改前(磁盘里)的page，实现干净的替换脏的
-                    page1.markDirty(false,null);
-                } catch (TransactionAbortedException e) {
-                    e.printStackTrace();
-                } catch (DbException e) {
-                    e.printStackTrace();
-                }
-
+                //直接读修改前(磁盘里)的page，实现干净的替换脏的。不能走getPage：
+                //这里持有池的监视器，而getPage要等页的latch，预读线程可能正持有latch等监视器
+                PageId pid = page.getId();
+                Page page1 = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                if (!buffer.put(pid, page1))//池缩小后仍超出容量时，干净的页就不再放回
+                    latches.remove(pid);
             }
             head = next;
         }
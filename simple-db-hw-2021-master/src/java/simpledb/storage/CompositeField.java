@@ -0,0 +1,154 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Instance of Field that stores the values of several fields, such as the key
+ * of a B+ tree keyed on more than one field. Composite fields are ordered
+ * lexicographically. Only as many fields as the shorter of the two compared
+ * values has are compared, so a composite field with fewer fields stands for
+ * every key that starts with its values.
+ */
+public class CompositeField implements Field {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Field[] fields;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param fields
+	 *            The values of this field, most significant first.
+	 */
+	public CompositeField(Field... fields) {
+		if (fields.length == 0)
+			throw new IllegalArgumentException("a composite field needs at least one field");
+		this.fields = fields.clone();
+	}
+
+	/**
+	 * @return the key of a tuple made of the specified fields: the field itself
+	 *         if there is only one, or else a CompositeField of them
+	 */
+	public static Field of(Tuple t, int[] fieldIndexes) {
+		if (fieldIndexes.length == 1)
+			return t.getField(fieldIndexes[0]);
+		Field[] fs = new Field[fieldIndexes.length];
+		for (int i = 0; i < fs.length; i++)
+			fs[i] = t.getField(fieldIndexes[i]);
+		return new CompositeField(fs);
+	}
+
+	/**
+	 * @return the values of f, which is a single value unless f is a CompositeField
+	 */
+	public static Field[] fieldsOf(Field f) {
+		if (f instanceof CompositeField)
+			return ((CompositeField) f).fields.clone();
+		return new Field[] { f };
+	}
+
+	/**
+	 * @return the number of values of this field
+	 */
+	public int numFields() {
+		return fields.length;
+	}
+
+	/**
+	 * @return the i-th value of this field
+	 */
+	public Field getField(int i) {
+		return fields[i];
+	}
+
+	/**
+	 * @return a composite field of the first n values of this field
+	 */
+	public CompositeField prefix(int n) {
+		return new CompositeField(Arrays.copyOf(fields, n));
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder("(");
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(fields[i]);
+		}
+		return sb.append(")").toString();
+	}
+
+	public int hashCode() {
+		return Arrays.hashCode(fields);
+	}
+
+	public boolean equals(Object field) {
+		if (!(field instanceof CompositeField)) return false;
+		return Arrays.equals(fields, ((CompositeField) field).fields);
+	}
+
+	/**
+	 * Write the values of this field to dos one after the other, without any
+	 * header: the types of the values are known from the fields they come from.
+	 *
+	 * @param dos
+	 *            Where the values are written
+	 */
+	public void serialize(DataOutputStream dos) throws IOException {
+		for (Field f : fields)
+			f.serialize(dos);
+	}
+
+	/**
+	 * Compare the specified field to the value of this Field lexicographically.
+	 * A field that is not a CompositeField compares like a composite field of
+	 * one value. Return semantics are as specified by Field.compare
+	 *
+	 * @see Field#compare
+	 */
+	public boolean compare(Predicate.Op op, Field val) {
+		Field[] other = fieldsOf(val);
+		int cmpVal = 0;
+		for (int i = 0; i < fields.length && i < other.length && cmpVal == 0; i++) {
+			if (!fields[i].compare(Predicate.Op.EQUALS, other[i]))
+				cmpVal = fields[i].compare(Predicate.Op.LESS_THAN, other[i]) ? -1 : 1;
+		}
+
+		switch (op) {
+		case EQUALS:
+		case LIKE:
+			return cmpVal == 0;
+
+		case NOT_EQUALS:
+			return cmpVal != 0;
+
+		case GREATER_THAN:
+			return cmpVal > 0;
+
+		case GREATER_THAN_OR_EQ:
+			return cmpVal >= 0;
+
+		case LESS_THAN:
+			return cmpVal < 0;
+
+		case LESS_THAN_OR_EQ:
+			return cmpVal <= 0;
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return the type of the first value, which decides the order of the
+	 *         composite field the most
+	 */
+	public Type getType() {
+		return fields[0].getType();
+	}
+}
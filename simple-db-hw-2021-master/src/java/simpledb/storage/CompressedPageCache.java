@@ -0,0 +1,174 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedPageCache is the optional second tier of the BufferPool. Clean
+ * pages evicted from the BufferPool are deflated into direct (off-heap)
+ * buffers, and a later miss on such a page inflates it instead of reading the
+ * disk. Since most pages compress well (empty slots are zero filled), the
+ * same amount of memory holds several times more pages than the BufferPool.
+ * <p>
+ * The cache only holds images of pages as they are on disk, and a page is
+ * never in both tiers: it is removed from here when it is taken back into
+ * the BufferPool or discarded from it. When the cache is over its size the
+ * least recently added pages are dropped.
+ *
+ * @Threadsafe
+ */
+public class CompressedPageCache {
+    private final long maxBytes;
+    private long usedBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * key: page id
+     * value: compressed page image, or the plain image if it did not compress
+     * Ordered from the oldest to the newest entry.
+     */
+    private final LinkedHashMap<PageId, Entry> pages = new LinkedHashMap<>();
+
+    private static class Entry {
+        final ByteBuffer data;
+        final int length;
+
+        Entry(ByteBuffer data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+
+        boolean isCompressed() {
+            return data.capacity() < length;
+        }
+    }
+
+    /**
+     * @param maxBytes the maximum number of compressed bytes kept off-heap
+     */
+    public CompressedPageCache(long maxBytes) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("cache size must be positive");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Adds the image of an evicted clean page, replacing any older image of it.
+     *
+     * @param pid the id of the page
+     * @param data the page image, as returned by {@link Page#getPageData}
+     */
+    public void put(PageId pid, byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        byte[] out = new byte[data.length];
+        int n;
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            n = deflater.deflate(out);
+            if (!deflater.finished() || n >= data.length)
+                n = -1;
+        } finally {
+            deflater.end();
+        }
+        ByteBuffer buf;
+        if (n < 0) {
+            //压缩后没变小就直接存原始页面
+            buf = ByteBuffer.allocateDirect(data.length);
+            buf.put(data);
+        } else {
+            buf = ByteBuffer.allocateDirect(n);
+            buf.put(out, 0, n);
+        }
+        if (buf.capacity() > maxBytes)
+            return;
+        synchronized (this) {
+            remove(pid);
+            pages.put(pid, new Entry(buf, data.length));
+            usedBytes += buf.capacity();
+            Iterator<Map.Entry<PageId, Entry>> it = pages.entrySet().iterator();
+            while (usedBytes > maxBytes && it.hasNext()) {
+                usedBytes -= it.next().getValue().data.capacity();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes the image of the specified page from the cache and returns it.
+     *
+     * @return the page image, or null if the page is not in the cache
+     */
+    public byte[] take(PageId pid) {
+        Entry e;
+        synchronized (this) {
+            e = pages.remove(pid);
+            if (e == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            usedBytes -= e.data.capacity();
+        }
+        ByteBuffer src = e.data.duplicate();
+        src.clear();
+        byte[] data = new byte[e.length];
+        if (!e.isCompressed()) {
+            src.get(data);
+            return data;
+        }
+        byte[] compressed = new byte[src.remaining()];
+        src.get(compressed);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            if (inflater.inflate(data) != data.length)
+                return null;
+        } catch (DataFormatException ex) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
+
+    /**
+     * Drops the image of the specified page, e.g. because the page changed on disk.
+     */
+    public synchronized void remove(PageId pid) {
+        Entry e = pages.remove(pid);
+        if (e != null)
+            usedBytes -= e.data.capacity();
+    }
+
+    /** @return the maximum number of bytes kept off-heap */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /** @return the number of bytes currently kept off-heap */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /** @return the number of pages currently in the cache */
+    public synchronized int getNumPages() {
+        return pages.size();
+    }
+
+    /** @return the number of lookups that found their page */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** @return the number of lookups that did not find their page */
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
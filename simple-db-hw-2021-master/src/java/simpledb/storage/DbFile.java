@@ -33,6 +33,18 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Constructs the specified page from an image of it, as returned by
+     * {@link Page#getPageData}, without reading the disk. Used by the
+     * BufferPool to restore pages kept in its secondary cache.
+     *
+     * @return the page, or null if this file cannot construct pages from
+     *     their images (the page is then read with {@link #readPage})
+     */
+    default Page pageFromData(PageId id, byte[] data) throws IOException {
+        return null;
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -93,4 +105,16 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     TupleDesc getTupleDesc();
+
+    /**
+     * Called by the BufferPool when a transaction which locked pages of this
+     * file commits or aborts, after its pages were flushed or rolled back and
+     * before its locks are released. Files which keep changes of transactions
+     * outside of their pages apply or drop them here.
+     *
+     * @param tid the transaction that completed
+     * @param commit whether it committed
+     */
+    default void transactionComplete(TransactionId tid, boolean commit) throws IOException {
+    }
 }
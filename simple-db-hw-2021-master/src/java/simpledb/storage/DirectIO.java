@@ -0,0 +1,229 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * DirectIO reads and writes pages of table files with O_DIRECT, bypassing the
+ * operating system's page cache, so that the BufferPool is the only cache
+ * holding table data.
+ * <p>
+ * Direct I/O is off by default. It is turned on with {@link #setEnabled} or by
+ * starting the JVM with -Dsimpledb.directio=true, and is only available on
+ * JDKs providing com.sun.nio.file.ExtendedOpenOption.DIRECT (JDK 10 and
+ * later, on Linux); elsewhere {@link #isEnabled} stays false and files are
+ * read and written through the page cache as before.
+ * <p>
+ * O_DIRECT requires buffers, offsets and lengths aligned to the block size of
+ * the file system. Pages that do not start on a block boundary (e.g. the pages
+ * of a BTreeFile, which follow its 9 byte root pointer) are read through the
+ * enclosing aligned blocks, and written by reading those blocks, patching the
+ * page in and writing them back. Writes to the same file are serialized so
+ * that two such read-modify-writes never overlap.
+ */
+public class DirectIO {
+    /** Used when the block size of a file system cannot be determined. */
+    private static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    /** com.sun.nio.file.ExtendedOpenOption.DIRECT, or null if the JDK lacks it */
+    private static final OpenOption DIRECT = lookupDirect();
+
+    private static volatile boolean enabled = DIRECT != null && Boolean.getBoolean("simpledb.directio");
+
+    /** key: absolute path of a file, value: monitor serializing its writes */
+    private static final ConcurrentHashMap<String, Object> writeLocks = new ConcurrentHashMap<>();
+
+    /** key: absolute path of a file, value: block size of its file system */
+    private static final ConcurrentHashMap<String, Integer> blockSizes = new ConcurrentHashMap<>();
+
+    /** key: directory whose file system does not support O_DIRECT */
+    private static final ConcurrentHashMap<String, Boolean> noDirect = new ConcurrentHashMap<>();
+
+    private static OpenOption lookupDirect() {
+        try {
+            Class<?> c = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            for (Object o : c.getEnumConstants()) {
+                if (((Enum<?>) o).name().equals("DIRECT"))
+                    return (OpenOption) o;
+            }
+        } catch (ClassNotFoundException e) {
+            // not available on this JDK
+        }
+        return null;
+    }
+
+    /**
+     * @return true if this JDK can open files with O_DIRECT
+     */
+    public static boolean isSupported() {
+        return DIRECT != null;
+    }
+
+    /**
+     * @return true if table files are currently read and written with O_DIRECT
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns direct I/O on or off for all table files. Pages already in the
+     * BufferPool are not affected.
+     *
+     * @return true if direct I/O is now in the requested state, false if it
+     *     was requested but is not supported by this JDK
+     */
+    public static boolean setEnabled(boolean on) {
+        enabled = on && DIRECT != null;
+        return enabled == on;
+    }
+
+    /**
+     * Reads dst.length bytes of the specified file starting at offset, or as
+     * many as there are before the end of the file.
+     *
+     * @return the number of bytes read, or -1 if offset is at or past the end
+     *     of the file
+     */
+    public static int read(File f, long offset, byte[] dst) throws IOException {
+        try (FileChannel ch = open(f, StandardOpenOption.READ)) {
+            int block = blockSize(f);
+            long start = alignDown(offset, block);
+            ByteBuffer buf = aligned(alignUp(offset + dst.length, block) - start, block);
+            int n = readFully(ch, buf, start, block);
+            int available = (int) Math.min(dst.length, n - (offset - start));
+            if (available <= 0)
+                return -1;
+            buf.position((int) (offset - start));
+            buf.get(dst, 0, available);
+            return available;
+        }
+    }
+
+    /**
+     * Writes src to the specified file starting at offset, extending the file
+     * if needed. The length of the file afterwards is the same as if the bytes
+     * had been written with a RandomAccessFile.
+     */
+    public static void write(File f, long offset, byte[] src) throws IOException {
+        Object lock = writeLocks.computeIfAbsent(f.getAbsolutePath(), k -> new Object());
+        synchronized (lock) {
+            try (FileChannel ch = open(f, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+                int block = blockSize(f);
+                long length = ch.size();
+                long start = alignDown(offset, block);
+                long end = alignUp(offset + src.length, block);
+                ByteBuffer buf = aligned(end - start, block);
+                if (start != offset || end != offset + src.length) {
+                    //不对齐：先把首尾两个块读出来，再把页面拼进去
+                    readFully(ch, buf, start, block);
+                }
+                buf.clear();
+                buf.position((int) (offset - start));
+                buf.put(src);
+                buf.clear();
+                while (buf.hasRemaining()) {
+                    ch.write(buf, start + buf.position());
+                }
+                // writing whole blocks may have gone past the real end of the file
+                long newLength = Math.max(length, offset + src.length);
+                if (ch.size() > newLength)
+                    ch.truncate(newLength);
+            }
+        }
+    }
+
+    /**
+     * Reads into buf from position, zero filling whatever lies past the end of
+     * the file.
+     *
+     * @return the number of bytes that were in the file
+     */
+    private static int readFully(FileChannel ch, ByteBuffer buf, long position, int block) throws IOException {
+        buf.clear();
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, position + buf.position());
+            // a short read that is not a whole number of blocks means end of file
+            if (n <= 0 || buf.position() % block != 0)
+                break;
+        }
+        int read = buf.position();
+        while (buf.hasRemaining()) {
+            buf.put((byte) 0);
+        }
+        buf.clear();
+        return read;
+    }
+
+    /**
+     * Opens f with O_DIRECT. File systems that refuse O_DIRECT (e.g. tmpfs)
+     * are remembered and their files opened normally from then on.
+     */
+    private static FileChannel open(File f, StandardOpenOption... options) throws IOException {
+        String dir = f.getAbsoluteFile().getParent();
+        if (!noDirect.containsKey(dir)) {
+            OpenOption[] direct = Arrays.copyOf(options, options.length + 1, OpenOption[].class);
+            direct[options.length] = DIRECT;
+            try {
+                return FileChannel.open(f.toPath(), direct);
+            } catch (FileSystemException e) {
+                if (!f.exists() && !Arrays.asList(options).contains(StandardOpenOption.CREATE))
+                    throw e;
+                noDirect.put(dir, Boolean.TRUE);
+            }
+        }
+        return FileChannel.open(f.toPath(), options);
+    }
+
+    private static long alignDown(long pos, int block) {
+        return pos - pos % block;
+    }
+
+    private static long alignUp(long pos, int block) {
+        return alignDown(pos + block - 1, block);
+    }
+
+    /**
+     * Allocates a direct buffer whose address is a multiple of block, using
+     * ByteBuffer.alignedSlice (JDK 9+), which is present whenever DIRECT is.
+     */
+    private static ByteBuffer aligned(long size, int block) throws IOException {
+        ByteBuffer raw = ByteBuffer.allocateDirect((int) size + block);
+        try {
+            Method alignedSlice = ByteBuffer.class.getMethod("alignedSlice", int.class);
+            ByteBuffer buf = (ByteBuffer) alignedSlice.invoke(raw, block);
+            buf.limit((int) size);
+            return buf.slice();
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("unable to allocate an aligned buffer", e);
+        }
+    }
+
+    /**
+     * @return the block size of the file system holding f, using
+     *     FileStore.getBlockSize (JDK 10+)
+     */
+    private static int blockSize(File f) {
+        return blockSizes.computeIfAbsent(f.getAbsolutePath(), k -> {
+            try {
+                File existing = f.exists() ? f : f.getAbsoluteFile().getParentFile();
+                FileStore store = Files.getFileStore(existing.toPath());
+                Method getBlockSize = FileStore.class.getMethod("getBlockSize");
+                return (int) (long) (Long) getBlockSize.invoke(store);
+            } catch (IOException | ReflectiveOperationException | RuntimeException e) {
+                return DEFAULT_BLOCK_SIZE;
+            }
+        });
+    }
+}
@@ -83,6 +83,11 @@ public class HeapFile implements DbFile {
         HeapPage heapPage = null ;
         int offset = pageNumber * pageSize;
         try {
+            if (DirectIO.isEnabled()) {
+                byte [] buf = new byte[pageSize];
+                DirectIO.read(file, offset, buf);
+                return pageFromData(pid, buf);
+            }
             RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
 //          "r"：是一个字符串参数，表示以只读（read-only）模式打开文件。
             byte [] buf = new byte[pageSize];
@@ -96,6 +101,11 @@ public class HeapFile implements DbFile {
         return heapPage;
     }
 
+    // see DbFile.java for javadocs
+    public Page pageFromData(PageId pid, byte[] data) throws IOException {
+        return new HeapPage((HeapPageId) pid, data);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // done
@@ -103,6 +113,10 @@ public class HeapFile implements DbFile {
         int size = BufferPool.getPageSize();
         int pageNumber = heapPageId.getPageNumber();
         byte[] pageData = page.getPageData();
+        if (DirectIO.isEnabled()) {
+            DirectIO.write(file, (long) pageNumber * size, pageData);
+            return;
+        }
         RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
         randomAccessFile.seek(pageNumber* size);
         randomAccessFile.write(pageData);
@@ -132,21 +146,29 @@ public class HeapFile implements DbFile {
                 Database.getBufferPool().unsafeReleasePage(tid,heapPageId);
                 continue;
             }
-            if(page.getNumEmptySlots()==0){
-                //没有空的slot，应该释放锁，避免占用page
-                Database.getBufferPool().unsafeReleasePage(tid,heapPageId);
-                continue;
+            PageLatches latches = Database.getBufferPool().getLatches();
+            long stamp = latches.writeLock(heapPageId);
+            try {
+                if(page.getNumEmptySlots()==0){
+                    //没有空的slot，应该释放锁，避免占用page；但本事务写满的页要留着锁，提交时才会刷盘
+                    if(!tid.equals(page.isDirty()))
+                        Database.getBufferPool().unsafeReleasePage(tid,heapPageId);
+                    continue;
+                }
+                page.insertTuple(t);
+            } finally {
+                latches.unlockWrite(heapPageId, stamp);
             }
-            page.insertTuple(t);
 //           不需要 page.markDirty(true,tid);因为bufferpool是最上层的管理者，在它那边，已经做了markDirty
             modified.add(page);
             return modified;
         }
         //每页都满，需要创建新的页
         HeapPageId heapPageId = new HeapPageId(getId(), numPages());
-        HeapPage heapPage = new HeapPage(heapPageId, HeapPage.createEmptyPageData());
+        writePage(new HeapPage(heapPageId, HeapPage.createEmptyPageData()));
+        //通过bufferpool拿新页并加写锁，提交时才会被刷盘
+        HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
         heapPage.insertTuple(t);
-        writePage(heapPage);
         modified.add(heapPage);
         return modified;
     }
@@ -161,7 +183,13 @@ public class HeapFile implements DbFile {
         if(page==null){
             throw  new DbException("null");
         }
-        page.deleteTuple(t);
+        PageLatches latches = Database.getBufferPool().getLatches();
+        long stamp = latches.writeLock(heapPageId);
+        try {
+            page.deleteTuple(t);
+        } finally {
+            latches.unlockWrite(heapPageId, stamp);
+        }
 //       不需要 page.markDirty(true,tid);，因为bufferpool是最上层的管理者，在它那边，已经做了markDirty
         modified.add(page);
         return modified;
@@ -185,24 +213,26 @@ public class HeapFile implements DbFile {
             HeapPageId heapPageId = new HeapPageId(getId(),pageNumber);
             HeapPage heapPage = (HeapPage) this.bufferPool.getPage(tid,heapPageId,permissions);
             if(heapPage == null ) throw new DbException("page null");
-            else iterator = heapPage.iterator();
+            else iterator = tuplesOf(heapPage);
         }
         public boolean hasNextPage() throws DbException , TransactionAbortedException{
             while(true){
                 pageNumber ++;
-                if(pageNumber>numPages())
+                if(pageNumber>=numPages())
                     return false;
                 HeapPageId heapPageId = new HeapPageId(getId(),pageNumber);
                 HeapPage heapPage = (HeapPage) this.bufferPool.getPage(tid,heapPageId,permissions);
                 if(heapPage == null ) continue;
-                iterator = heapPage.iterator();
+                iterator = tuplesOf(heapPage);
                 return true;
             }
         }
         public boolean hasNext() throws  DbException,TransactionAbortedException{
             if(iterator == null ) return false;
-            if(iterator.hasNext()) return true;
-            else return hasNextPage();
+            while(!iterator.hasNext()){//跳过空页
+                if(!hasNextPage()) return false;
+            }
+            return true;
         }
         public Tuple next()throws DbException , TransactionAbortedException , NoSuchElementException{
             if(iterator == null ) throw  new NoSuchElementException();
@@ -213,6 +243,14 @@ public class HeapFile implements DbFile {
             open();
         }
         public void close(){ iterator =null ;}
+
+        /**
+         * Snapshots the tuples of a page under an optimistic read latch, so
+         * concurrent scans of the same page do not block each other.
+         */
+        private Iterator<Tuple> tuplesOf(HeapPage heapPage){
+            return bufferPool.getLatches().read(heapPage.getId(), heapPage::iterator);
+        }
     }
 
 }
@@ -75,9 +75,16 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {
         //done
+        return numSlots(td);
+    }
+
+    /**
+     * Returns the number of tuple slots of a page of a HeapFile whose tuples are described by td.
+     */
+    public static int numSlots(TupleDesc td) {
         int pageSize = BufferPool.getPageSize();
         int sizeOfTuple = td.getSize();
-        return ((int)Math.floor(pageSize * 8 * 1.0 / sizeOfTuple * 8 +1));
+        return (int) Math.floor(pageSize * 8.0 / (sizeOfTuple * 8 + 1));
     }
 
     /**
@@ -350,6 +357,15 @@ public class HeapPage implements Page {
         return ((header[Index]>>offset & 1) == 1);//通过右移位操作，将待检查bit移动到最右
     }
 
+    /**
+     * Returns the tuple in the specified slot, or null if the slot is empty.
+     */
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= numSlots || !isSlotUsed(i))
+            return null;
+        return tuples[i];
+    }
+
     /**
      * Abstraction to fill or clear a slot on this page.
      */
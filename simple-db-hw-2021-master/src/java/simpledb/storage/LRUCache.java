@@ -1,7 +1,10 @@
 package simpledb.storage;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiPredicate;
 
 //        LRU是一种常见的缓存淘汰算法。基本思想是，当缓存空间已满时，优先淘汰最近最少被访问的数据。
 //        LRU 算法的实现方式通常是使用一个双向链表和一个哈希表结合的数据结构：
@@ -37,6 +40,12 @@ public class LRUCache<K,V> {
         tail.pre=head;
     }
     public int getSize(){return size;}
+    public int getCapacity(){return capacity;}
+    /**
+     * 修改容量。缩小容量时不会主动淘汰，由调用者(BufferPool)决定淘汰哪些页
+     * @param capacity 新的容量
+     */
+    public synchronized void setCapacity(int capacity){this.capacity = capacity;}
     public DLinkedNode getHead(){return head;}
     public DLinkedNode getTail(){return tail;}
     public Map<K,DLinkedNode> getCache(){return cache;}
@@ -51,7 +60,18 @@ public class LRUCache<K,V> {
         moveToHead(node);
         return node.value;
     }
-    public synchronized void  put(K key ,V val){
+    /**
+     * 根据key获取value，但不改变访问顺序
+     */
+    public V peek(K key){
+        DLinkedNode node = cache.get(key);
+        return node == null ? null : node.value;
+    }
+    /**
+     * 修改或新增。不会淘汰任何节点：缓存已满时拒绝新增，由调用者(BufferPool)先用evict腾出空间
+     * @return 是否修改或新增成功
+     */
+    public synchronized boolean put(K key ,V val){
          DLinkedNode node = cache.get(key);
          if(node != null){
              //修改
@@ -59,22 +79,43 @@ public class LRUCache<K,V> {
              moveToHead(node);
          }
          else {
+             if(size>=capacity) return false;//满了不淘汰，被淘汰的可能是脏页或被pin住的页
              //新增
              DLinkedNode newnode = new DLinkedNode(key,val);
              this.cache.put(key,newnode);
              addTohead(newnode);
              this.size++;
-             if(size>capacity){//删除最后一个
-                 DLinkedNode tmp = tail.pre;
-                 removeNode(tmp);
-                 this.cache.remove(key);
-                 size--;
-             }
          }
+         return true;
+    }
+    /**
+     * 仅当key不存在且缓存未满时插入，不会淘汰任何节点，新节点放在链表尾部(最先被淘汰)
+     * @return 是否插入成功
+     */
+    public synchronized boolean offer(K key, V val){
+        if(cache.containsKey(key) || size >= capacity) return false;
+        DLinkedNode newnode = new DLinkedNode(key,val);
+        this.cache.put(key,newnode);
+        newnode.pre = tail.pre;
+        newnode.next = tail;
+        tail.pre.next = newnode;
+        tail.pre = newnode;
+        this.size++;
+        return true;
+    }
+    /**
+     * @return 按访问顺序排列的所有key，最近访问的在前
+     */
+    public synchronized List<K> keys(){
+        List<K> keys = new ArrayList<>(size);
+        for(DLinkedNode node = head.next; node != tail; node = node.next){
+            keys.add(node.key);
+        }
+        return keys;
     }
     public void remove(DLinkedNode node){//从整个LRUCache删除，链表哈希表都删
         removeNode(node);
-        cache.remove(node);
+        cache.remove(node.key);
         size--;
     }
     private void moveToHead(DLinkedNode node){//链表操作
@@ -96,6 +137,22 @@ public class LRUCache<K,V> {
         cache.remove(tail.key);
         size--;
     }
+    /**
+     * 从链表尾部(最久未访问)向头部找第一个满足条件的节点并删除
+     * @param canEvict 判断节点能否被淘汰
+     * @return 被淘汰的key，没有可淘汰的节点时返回null
+     */
+    public synchronized K evict(BiPredicate<? super K, ? super V> canEvict){
+        DLinkedNode node = tail.pre;
+        while(node != head){
+            if(canEvict.test(node.key, node.value)){
+                remove(node);
+                return node.key;
+            }
+            node = node.pre;
+        }
+        return null;
+    }
     private DLinkedNode removeTail(){
         DLinkedNode res = tail.pre;
         remove(res);
@@ -0,0 +1,139 @@
+package simpledb.storage;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * PageLatches hands out short-duration reader/writer latches on the frames of
+ * the buffer pool. A latch protects the physical contents of a page (its
+ * header bits, tuple slots and byte image) while a single operation reads or
+ * modifies them, and is released as soon as that operation is done.
+ * <p>
+ * Latches are independent of the transaction locks kept by
+ * {@link simpledb.transaction.LockManager}: a transaction lock says which
+ * transaction may see or change a page until it commits, a latch only keeps
+ * two threads from looking at a half-written page. Latches are never held
+ * while waiting for a transaction lock.
+ * <p>
+ * A thread that read a missing page into the pool may wait for the monitor of
+ * the {@link BufferPool} while it holds the latch of that page, to make room
+ * for it. Code holding the monitor must therefore never wait for the latch of
+ * a page that is not in the pool, e.g. by calling
+ * {@link BufferPool#getPage}; it may latch the pages in the pool.
+ * <p>
+ * Readers should prefer {@link #read}, which first tries an optimistic read
+ * that takes no latch at all and falls back to a shared latch only if a
+ * writer got in the way; readers of a hot page then never block each other.
+ *
+ * @Threadsafe
+ */
+public class PageLatches {
+    /**
+     * key: page id
+     * value: latch of the frame holding that page
+     * An entry is removed when its frame leaves the pool and nobody holds the
+     * latch. A thread that got a latch just before its entry was removed finds
+     * out once it holds it, and takes the page's new latch instead.
+     */
+    private final ConcurrentHashMap<PageId, StampedLock> latches = new ConcurrentHashMap<>();
+
+    /**
+     * @return the latch of the specified page, creating it on first use
+     */
+    public StampedLock latchFor(PageId pid) {
+        return latches.computeIfAbsent(pid, k -> new StampedLock());
+    }
+
+    /**
+     * Forgets the latch of a page whose frame left the buffer pool, unless a
+     * thread holds it. Called by the BufferPool when it evicts or discards a page.
+     */
+    public void remove(PageId pid) {
+        latches.computeIfPresent(pid, (k, latch) -> latch.isReadLocked() || latch.isWriteLocked() ? latch : null);
+    }
+
+    /**
+     * @return whether the specified latch is still the latch of the page
+     */
+    private boolean isCurrent(PageId pid, StampedLock latch) {
+        return latches.get(pid) == latch;
+    }
+
+    /**
+     * Acquires the shared latch of the specified page, blocking while a
+     * writer holds it.
+     *
+     * @return the stamp to pass to {@link #unlockRead}
+     */
+    public long readLock(PageId pid) {
+        while (true) {
+            StampedLock latch = latchFor(pid);
+            long stamp = latch.readLock();
+            if (isCurrent(pid, latch))
+                return stamp;
+            latch.unlockRead(stamp);
+        }
+    }
+
+    /** Releases a shared latch acquired by {@link #readLock}. */
+    public void unlockRead(PageId pid, long stamp) {
+        latchFor(pid).unlockRead(stamp);
+    }
+
+    /**
+     * Acquires the exclusive latch of the specified page, blocking while any
+     * reader or writer holds it.
+     *
+     * @return the stamp to pass to {@link #unlockWrite}
+     */
+    public long writeLock(PageId pid) {
+        while (true) {
+            StampedLock latch = latchFor(pid);
+            long stamp = latch.writeLock();
+            if (isCurrent(pid, latch))
+                return stamp;
+            latch.unlockWrite(stamp);
+        }
+    }
+
+    /** Releases an exclusive latch acquired by {@link #writeLock}. */
+    public void unlockWrite(PageId pid, long stamp) {
+        latchFor(pid).unlockWrite(stamp);
+    }
+
+    /**
+     * Runs a read-only action on the specified page. The action is first run
+     * optimistically without latching; if a writer latched the page meanwhile
+     * its result is thrown away and it is run again under the shared latch.
+     * <p>
+     * The action may therefore run twice and must not have side effects, and
+     * it must tolerate seeing the page in an inconsistent state on the
+     * optimistic attempt (it only has to not throw).
+     *
+     * @param pid the page to read
+     * @param action the action reading the page
+     * @return the result of the action on a consistent page
+     */
+    public <T> T read(PageId pid, Supplier<T> action) {
+        StampedLock latch = latchFor(pid);
+        long stamp = latch.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = action.get();
+                if (latch.validate(stamp) && isCurrent(pid, latch))
+                    return result;
+            } catch (RuntimeException e) {
+                // 乐观读看到了写了一半的页，加读锁重试
+                if (latch.validate(stamp) && isCurrent(pid, latch))
+                    throw e;
+            }
+        }
+        stamp = readLock(pid);
+        try {
+            return action.get();
+        } finally {
+            unlockRead(pid, stamp);
+        }
+    }
+}
@@ -194,7 +194,7 @@ public class TupleDesc implements Serializable {
         // done
         if (!this.getClass().isInstance(o)) return false;
         TupleDesc td = (TupleDesc) o;
-        int size = td.getSize();
+        int size = td.numFields();
         if (size != this.tupleDescList.size()) return false;
         for (int i = 0; i < size; i++) {
             TDItem item1 = this.tupleDescList.get(i);
@@ -22,7 +22,7 @@ public class LockManager {
             if (!(o instanceof PageLock))
                 return false;
             if (this == o) return true;
-            return this.pid.equals((PageLock) ((PageLock) o).pid);
+            return this.pid.equals(((PageLock) o).pid);
         }
 
         public Permissions getPerm() {
@@ -109,169 +109,82 @@ public class LockManager {
 
     final ConcurrentHashMap<TransactionId, Set<PageLock>> txn2LocksMap;
     final ConcurrentHashMap<PageId, Set<TransactionId>> pageId2TxnsMap;
+    //每页一个PageLock，所有持有者共用，holdNum是持有者个数
+    final ConcurrentHashMap<PageId, PageLock> pageLocks;
     final Digraph graph;
-    volatile boolean hasWriter = false;
-    volatile PageId writerPage;
 
     public LockManager() {
         txn2LocksMap = new ConcurrentHashMap<>();
         pageId2TxnsMap = new ConcurrentHashMap<>();
+        pageLocks = new ConcurrentHashMap<>();
         graph = new Digraph();
     }
 
+    /**
+     * Grants tid a lock on pid, blocking while other transactions hold a conflicting
+     * lock. A transaction that is the only reader of a page can upgrade to a write lock.
+     *
+     * @throws TransactionAbortedException if waiting would deadlock
+     */
     public synchronized void grantLock(TransactionId tid, PageId pid, Permissions permType) throws TransactionAbortedException {
-        Set<TransactionId> txns = pageId2TxnsMap.get(pid);//当前page的事务集合
-        Set<PageLock> locks = txn2LocksMap.get(tid);//tid持有的锁                                                                                              前事务持有的锁集合
-        //页面还没有事务
-        if (txns == null) {
-            PageLock lock = new PageLock(pid, permType);
-            txns = new HashSet<>();
-            txns.add(tid);
-            pageId2TxnsMap.put(pid, txns);
-            if (locks == null) {//没有任何锁，生成一个新的锁集合
-                locks = new HashSet<>();
-                locks.add(lock);
-                txn2LocksMap.put(tid, locks);//事务得到的第一个锁
-            }
-            else {
-                locks.add(lock);
-                txn2LocksMap.put(tid, locks);
+        while (true) {
+            Set<TransactionId> txns = pageId2TxnsMap.get(pid);//当前page的事务集合
+            PageLock plk = pageLocks.get(pid);
+            if (txns == null || plk == null) {//页面还没有事务
+                plk = new PageLock(pid, permType);
+                pageLocks.put(pid, plk);
+                txns = new HashSet<>();
+                txns.add(tid);
+                pageId2TxnsMap.put(pid, txns);
+                txn2LocksMap.computeIfAbsent(tid, k -> new HashSet<>()).add(plk);
+                clearWaits(tid);
+                return;
             }
-        }
-        //除tid还有事务在当前页面
-        else {
-            if(permType.equals(Permissions.READ_ONLY)){
-                if(locks!=null && locks.contains(new PageLock(pid,Permissions.READ_ONLY))){
-                    //当前事务对此页本来就有读锁，无需再改变
+            boolean holds = txns.contains(tid);
+            if (permType.equals(Permissions.READ_ONLY)) {
+                if (holds) {//已有读锁或写锁
+                    clearWaits(tid);
                     return;
                 }
-                if(locks != null && hasWriter && writerPage.equals(pid)){
-                    //页面正在被写，不可申请读锁
-                    throw new TransactionAbortedException();
-                }
-                PageLock plk = null;
-                for(TransactionId txnId : txns){//遍历当前页面的事务
-                    Set<PageLock> currentLocks = txn2LocksMap.get(txnId);//每个事务得到锁集合
-                    if(currentLocks != null){
-                        for(PageLock p : currentLocks){
-                            if(p.pid == pid){//找到一个别的事务对此页的锁
-                                plk = p;
-                                break;
-                            }
-                        }
-                    }
-                    if(plk != null) {//循环是为了找到同一页的其他锁，找到就退出循环
-                        break;
-                    }
-                }
-                if(plk != null && plk.perm == Permissions.READ_WRITE){//别的事务在此页有写锁
-                    for(TransactionId txnId : txns){
-                        if(!txnId.equals(tid)){
-                            graph.addEdge(tid,txnId);//用等待图表达等待关系，addEdge实际上就是做到了等待
-                        }
-                    }
-                    if(graph.isCyclic()){//有圈，会死锁，去除刚加入的点、边，抛出异常
-                        for(TransactionId id:txns){
-                            graph.removeEdge(tid,id);
-                        }
-                        graph.removeVertex(tid);
-                        throw new TransactionAbortedException();
-                    }
-                    while(plk.holdNum!=0){
-                        try{
-                            this.wait();
-                        }catch(InterruptedException e){
-
-                        }
-                    }
+                if (plk.perm.equals(Permissions.READ_ONLY)) {//读锁共享
                     plk.holdNum++;
-                    plk.perm = Permissions.READ_ONLY;
-                    graph.removeVertex(tid);
-                    if(locks==null){
-                        locks=new HashSet<>();
-                        locks.add(plk);
-                        txn2LocksMap.put(tid,locks);
-                    }
-                    else {
-                        locks.add(plk);
-                    }
                     txns.add(tid);
+                    txn2LocksMap.computeIfAbsent(tid, k -> new HashSet<>()).add(plk);
+                    clearWaits(tid);
+                    return;
                 }
-
+            } else if (holds && txns.size() == 1) {//只有自己持有，直接升级
+                plk.perm = Permissions.READ_WRITE;
+                clearWaits(tid);
+                return;
             }
-
-            else {//申请的是写锁
-                boolean holds = false;//有没有拿住表的锁状态
-                PageLock plk = null;
-                for (TransactionId txnId : txns) {//老样子得到别的事务在此页的一个锁
-                    Set<PageLock> currentLocks = txn2LocksMap.get(txnId);
-                    if (currentLocks != null) {
-                        for (PageLock p : currentLocks) {
-                            if (p.equals(new PageLock(pid, permType))) {
-                                plk = p;
-                                break;
-                            }
-                        }
-                    }
-                    if (plk != null) {
-                        break;
-                    }
-                }
-                if (txns.contains(tid)) {
-                    if (txns.size() == 1) {
-                        if (plk != null && plk.perm.equals(Permissions.READ_ONLY)) {//就一个读锁，升级就行
-                            plk.perm = Permissions.READ_WRITE;
-                            plk.holdNum = 1;
-                        }
-                        //else do nothing
-                        return;
-                    } else {
-                        holds = true;
-                    }
-                }
-                for (TransactionId txnId : txns) {
-                    if (!txnId.equals(tid)) {
-                        graph.addEdge(tid, txnId);
-                    }
+            //冲突：等待其他持有者，用等待图检测死锁
+            clearWaits(tid);
+            for (TransactionId txnId : txns) {
+                if (!txnId.equals(tid)) {
+                    graph.addEdge(tid, txnId);
                 }
-                if (graph.isCyclic()) {
-                    for (TransactionId id : txns) {
-                        graph.removeEdge(tid, id);
-                    }
-                    graph.removeVertex(tid);
-                    throw new TransactionAbortedException();
-                }
-                //准备开始写
-                hasWriter = true;
-                writerPage = pid;
-                while (plk.holdNum != 0 && (plk.holdNum != 1 || !holds)) {//等待
-                    try {
-                        this.wait();
-                    } catch (InterruptedException e) {
-
-                    }
-                }
-                hasWriter = false;//写完了
-                writerPage = null;
-                graph.removeVertex(tid);
-                updateMap(plk, permType, tid, locks);
-                txns.add(tid);
+            }
+            if (graph.isCyclic()) {//有圈，会死锁，去除刚加入的边，抛出异常
+                clearWaits(tid);
+                throw new TransactionAbortedException();
+            }
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                clearWaits(tid);
+                throw new TransactionAbortedException();
             }
         }
     }
 
-    public synchronized  void updateMap(PageLock plk,Permissions perm, TransactionId tid,Set<PageLock> locks){
-        plk.holdNum++;
-        plk.perm = perm;
-        if(locks == null){
-            locks = new HashSet<>();
-            locks.add(plk);
-            txn2LocksMap.put(tid,locks);
-        }
-        else{
-            locks.add(plk);
-        }
+    /** Removes the edges from tid: it no longer waits for anyone. */
+    private void clearWaits(TransactionId tid) {
+        Set<TransactionId> s = graph.waitList.get(tid);
+        if (s != null)
+            s.clear();
     }
+
     public synchronized boolean holdLock(TransactionId tid,PageId pid){
         return pageId2TxnsMap.containsKey(pid) && pageId2TxnsMap.get(pid)!=null &&pageId2TxnsMap.get(pid).contains(tid);
     }
@@ -279,21 +192,20 @@ public class LockManager {
         if(holdLock(tid,pid)){
             Set<PageLock> lockSet = txn2LocksMap.get(tid);
             Set<TransactionId> txnSet = pageId2TxnsMap.get(pid);
-            PageLock lock = null;
-            PageLock targetLock = new PageLock(pid,Permissions.READ_WRITE);
-            for(PageLock l : lockSet){
-                if(l.equals(targetLock)){
-                    lock = l;
-                }
-            }
+            PageLock lock = pageLocks.get(pid);
             lock.holdNum--;
             txnSet.remove(tid);
             if(txnSet.size()==0){
                 pageId2TxnsMap.remove(pid);
+                pageLocks.remove(pid);
             }
-            lockSet.remove(lock);
-            if(lockSet.size()==0){
-                txn2LocksMap.remove(tid);
+            if (lockSet != null) {
+                lockSet.remove(lock);
+                if(lockSet.size()==0){
+                    txn2LocksMap.remove(tid);
+                    //不再持有任何锁，没有人需要等它
+                    graph.removeVertex(tid);
+                }
             }
             this.notifyAll();
         }
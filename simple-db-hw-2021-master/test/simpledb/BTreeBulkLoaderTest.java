@@ -0,0 +1,166 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.ExternalSort;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeBulkLoader;
+import simpledb.index.BTreeChecker;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class BTreeBulkLoaderTest extends SimpleDbTestBase {
+	private static final int ROWS = 30000;
+	private static final int KEYS = 5000;
+
+	private TransactionId tid;
+	private BTreeFile bf;
+	private List<Tuple> tuples;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		File f = File.createTempFile("bulk", "dat");
+		f.deleteOnExit();
+		bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+		tid = new TransactionId();
+
+		Random rand = new Random(6830);
+		tuples = new ArrayList<>();
+		for (int i = 0; i < ROWS; i++) {
+			tuples.add(BTreeUtility.getBTreeTuple(new int[] { rand.nextInt(KEYS), i }));
+		}
+	}
+
+	@After public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private List<Integer> sortedKeys() {
+		List<Integer> keys = new ArrayList<>();
+		for (Tuple t : tuples)
+			keys.add(((IntField) t.getField(0)).getValue());
+		Collections.sort(keys);
+		return keys;
+	}
+
+	private static List<Integer> keysOf(DbFileIterator it) throws Exception {
+		List<Integer> keys = new ArrayList<>();
+		it.open();
+		while (it.hasNext())
+			keys.add(((IntField) it.next().getField(0)).getValue());
+		it.close();
+		return keys;
+	}
+
+	/**
+	 * Unit test for ExternalSort with several runs
+	 */
+	@Test public void externalSort() throws Exception {
+		ExternalSort sort = new ExternalSort(0, true, new TupleIterator(Utility.getTupleDesc(2), tuples), 1000);
+		sort.open();
+		List<Integer> keys = new ArrayList<>();
+		while (sort.hasNext())
+			keys.add(((IntField) sort.next().getField(0)).getValue());
+		assertEquals(sortedKeys(), keys);
+
+		sort.rewind();
+		int count = 0;
+		while (sort.hasNext()) {
+			sort.next();
+			count++;
+		}
+		assertEquals(ROWS, count);
+		sort.close();
+	}
+
+	/**
+	 * Unit test for ExternalSort with more runs than it merges at once, opened twice
+	 */
+	@Test public void externalSortFanIn() throws Exception {
+		// 300 runs of 100 tuples, merged four at a time
+		ExternalSort sort = new ExternalSort(0, false, new TupleIterator(Utility.getTupleDesc(2), tuples), 100, 4);
+		sort.open();
+		int count = 0;
+		while (sort.hasNext() && count < 10) {
+			sort.next();
+			count++;
+		}
+		sort.open();
+		List<Integer> keys = new ArrayList<>();
+		while (sort.hasNext())
+			keys.add(((IntField) sort.next().getField(0)).getValue());
+		List<Integer> expected = sortedKeys();
+		Collections.reverse(expected);
+		assertEquals(expected, keys);
+		sort.close();
+	}
+
+	/**
+	 * Unit test for BTreeBulkLoader.load()
+	 */
+	@Test public void load() throws Exception {
+		ExternalSort sort = new ExternalSort(0, true, new TupleIterator(Utility.getTupleDesc(2), tuples), 4096);
+		assertEquals(ROWS, BTreeBulkLoader.load(bf, sort, 0.9));
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+
+		assertEquals(sortedKeys(), keysOf(bf.iterator(tid)));
+
+		int expected = Collections.frequency(sortedKeys(), 1234);
+		assertEquals(expected, keysOf(bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(1234)))).size());
+	}
+
+	/**
+	 * Unit test for BTreeBulkLoader with a single leaf
+	 */
+	@Test public void loadSmall() throws Exception {
+		List<Tuple> few = tuples.subList(0, 10);
+		ExternalSort sort = new ExternalSort(0, true, new TupleIterator(Utility.getTupleDesc(2), few), 4096);
+		assertEquals(10, BTreeBulkLoader.load(bf, sort, 1.0));
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertEquals(1, bf.numPages());
+		assertEquals(10, keysOf(bf.iterator(tid)).size());
+	}
+
+	/**
+	 * Unit test for BTreeBulkLoader.add() with unsorted input
+	 */
+	@Test(expected = DbException.class) public void unsortedInput() throws Exception {
+		BTreeBulkLoader loader = new BTreeBulkLoader(bf, 1.0);
+		loader.add(BTreeUtility.getBTreeTuple(new int[] { 2, 0 }));
+		loader.add(BTreeUtility.getBTreeTuple(new int[] { 1, 0 }));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeBulkLoaderTest.class);
+	}
+}
@@ -0,0 +1,253 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeBulkLoader;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreeScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.CompositeField;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class BTreeCompositeKeyTest extends SimpleDbTestBase {
+	private static final int TENANTS = 10;
+	private static final int PER_TENANT = 500;
+
+	private TransactionId tid;
+	private BTreeFile table;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		Database.resetBufferPool(500);
+		File f = File.createTempFile("composite", "dat");
+		f.deleteOnExit();
+		f.delete();
+		// (tenant_id, created_at, value), keyed on (tenant_id, created_at)
+		table = new BTreeFile(f, new int[] { 0, 1 }, Utility.getTupleDesc(3, "f"));
+		Database.getCatalog().addTable(table, "events");
+
+		List<Tuple> tuples = new ArrayList<>();
+		for (int i = 0; i < TENANTS; i++) {
+			for (int j = 0; j < PER_TENANT; j++)
+				tuples.add(event(i, j * 2, i * PER_TENANT + j));
+		}
+		Collections.shuffle(tuples, new Random(42));
+		tid = new TransactionId();
+		for (Tuple t : tuples)
+			Database.getBufferPool().insertTuple(tid, table.getId(), t);
+		Database.getBufferPool().transactionComplete(tid);
+
+		// read the pages back from disk
+		Database.resetBufferPool(500);
+		tid = new TransactionId();
+	}
+
+	@After public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private Tuple event(int tenant, int created, int value) {
+		Tuple t = new Tuple(table.getTupleDesc());
+		t.setField(0, new IntField(tenant));
+		t.setField(1, new IntField(created));
+		t.setField(2, new IntField(value));
+		return t;
+	}
+
+	private static CompositeField key(int... values) {
+		IntField[] fields = new IntField[values.length];
+		for (int i = 0; i < values.length; i++)
+			fields[i] = new IntField(values[i]);
+		return new CompositeField(fields);
+	}
+
+	/** @return the (tenant_id, created_at) pairs of the tuples the iterator returns */
+	private static List<List<Integer>> keys(DbFileIterator it) throws Exception {
+		List<List<Integer>> keys = new ArrayList<>();
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			keys.add(Arrays.asList(((IntField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue()));
+		}
+		it.close();
+		return keys;
+	}
+
+	private List<List<Integer>> search(IndexPredicate ipred) throws Exception {
+		return keys(table.indexIterator(tid, ipred));
+	}
+
+	private static List<List<Integer>> range(int tenant, int fromCreated, int toCreated) {
+		List<List<Integer>> keys = new ArrayList<>();
+		for (int c = fromCreated; c < toCreated; c += 2)
+			keys.add(Arrays.asList(tenant, c));
+		return keys;
+	}
+
+	/**
+	 * Unit test for CompositeField.compare
+	 */
+	@Test public void compare() {
+		assertTrue(key(1, 5).compare(Op.LESS_THAN, key(2, 0)));
+		assertTrue(key(1, 5).compare(Op.LESS_THAN, key(1, 6)));
+		assertTrue(key(1, 5).compare(Op.EQUALS, key(1, 5)));
+		// a shorter field stands for every key that starts with it
+		assertTrue(key(1, 5).compare(Op.EQUALS, key(1)));
+		assertTrue(key(1, 5).compare(Op.GREATER_THAN, new IntField(0)));
+		assertFalse(key(1, 5).compare(Op.GREATER_THAN, key(1)));
+	}
+
+	/**
+	 * Unit test for the order of the tuples of a B+ tree keyed on two fields
+	 */
+	@Test public void ordered() throws Exception {
+		List<List<Integer>> keys = keys(table.iterator(tid));
+		assertEquals(TENANTS * PER_TENANT, keys.size());
+		for (int i = 0; i < TENANTS; i++)
+			assertEquals(range(i, 0, PER_TENANT * 2), keys.subList(i * PER_TENANT, (i + 1) * PER_TENANT));
+		assertEquals(key(1, 2), table.getKey(event(1, 2, 3)));
+	}
+
+	/**
+	 * Unit test for looking up a prefix of the key
+	 */
+	@Test public void prefix() throws Exception {
+		assertEquals(range(3, 0, PER_TENANT * 2), search(new IndexPredicate(Op.EQUALS, key(3))));
+		assertEquals(range(3, 42, 43), search(new IndexPredicate(Op.EQUALS, key(3, 42))));
+		assertEquals(0, search(new IndexPredicate(Op.EQUALS, key(3, 43))).size());
+		assertEquals(0, search(new IndexPredicate(Op.EQUALS, key(TENANTS))).size());
+	}
+
+	/**
+	 * Unit test for looking up a range of the last field of a prefix of the key
+	 */
+	@Test public void rangeOnLastField() throws Exception {
+		assertEquals(range(3, 100, PER_TENANT * 2), search(new IndexPredicate(Op.GREATER_THAN_OR_EQ, key(3, 100))));
+		assertEquals(range(3, 102, PER_TENANT * 2), search(new IndexPredicate(Op.GREATER_THAN, key(3, 100))));
+		assertEquals(range(3, 0, 100), search(new IndexPredicate(Op.LESS_THAN, key(3, 100))));
+		assertEquals(range(3, 0, 101), search(new IndexPredicate(Op.LESS_THAN_OR_EQ, key(3, 100))));
+		assertEquals(range(TENANTS - 1, 0, PER_TENANT * 2),
+				search(new IndexPredicate(Op.LESS_THAN, key(TENANTS - 1, PER_TENANT * 2))));
+
+		// a range of the first field
+		List<List<Integer>> keys = search(new IndexPredicate(Op.GREATER_THAN, new IntField(TENANTS - 3)));
+		assertEquals(2 * PER_TENANT, keys.size());
+		assertEquals(Arrays.asList(TENANTS - 2, 0), keys.get(0));
+	}
+
+	/**
+	 * Unit test for the size of composite keys in internal pages
+	 */
+	@Test public void internalPageKeys() {
+		int pageSize = 4096;
+		int composite = BTreeInternalPage.getMaxEntries(new Type[] { Type.INT_TYPE, Type.INT_TYPE }, pageSize);
+		// two ints and a child pointer per entry, with no prefix area
+		assertEquals((pageSize * 8 - (2 * 4 * 8 + 8 + 1)) / ((4 + 4 + 4) * 8 + 1), composite);
+		assertEquals(BTreeInternalPage.getMaxEntries(Type.INT_TYPE, pageSize),
+				BTreeInternalPage.getMaxEntries(new Type[] { Type.INT_TYPE }, pageSize));
+	}
+
+	/**
+	 * Unit test for bulk loading a B+ tree keyed on two fields
+	 */
+	@Test public void bulkLoad() throws Exception {
+		File f = File.createTempFile("composite", "dat");
+		f.deleteOnExit();
+		f.delete();
+		BTreeFile loaded = new BTreeFile(f, new int[] { 0, 1 }, table.getTupleDesc());
+		Database.getCatalog().addTable(loaded, "loaded");
+		List<Tuple> tuples = new ArrayList<>();
+		for (int i = 0; i < TENANTS; i++) {
+			for (int j = 0; j < PER_TENANT; j++)
+				tuples.add(event(i, j * 2, i * PER_TENANT + j));
+		}
+		assertEquals(TENANTS * PER_TENANT,
+				BTreeBulkLoader.load(loaded, new TupleIterator(table.getTupleDesc(), tuples), 0.5));
+		Database.resetBufferPool(500);
+
+		assertEquals(keys(table.iterator(tid)), keys(loaded.iterator(tid)));
+		assertEquals(range(7, 234, 235), keys(loaded.indexIterator(tid, new IndexPredicate(Op.EQUALS, key(7, 234)))));
+		assertEquals(range(3, 0, PER_TENANT * 2), keys(loaded.indexIterator(tid, new IndexPredicate(Op.EQUALS, key(3)))));
+		assertEquals(range(3, 102, PER_TENANT * 2),
+				keys(loaded.indexIterator(tid, new IndexPredicate(Op.GREATER_THAN, key(3, 100)))));
+	}
+
+	private static <T> T find(OpIterator plan, Class<T> c) {
+		if (c.isInstance(plan))
+			return c.cast(plan);
+		if (plan instanceof Operator) {
+			for (OpIterator child : ((Operator) plan).getChildren()) {
+				T found = find(child, c);
+				if (found != null)
+					return found;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Unit test for planning a scan of a prefix of the key
+	 */
+	@Test public void planned() throws Exception {
+		TableStats.setTableStats("events", new TableStats(table.getId(), 1000));
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(table.getId(), "e");
+		lp.addProjectField("e.f2", null);
+		lp.addFilter("e.f1", Op.LESS_THAN, "50");
+		lp.addFilter("e.f0", Op.EQUALS, "4");
+		OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		BTreeScan scan = find(plan, BTreeScan.class);
+		assertNotNull(scan);
+		assertTrue(scan.getIndexPredicate().equals(new IndexPredicate(Op.LESS_THAN, key(4, 50))));
+
+		List<Integer> values = new ArrayList<>();
+		plan.open();
+		while (plan.hasNext())
+			values.add(((IntField) plan.next().getField(0)).getValue());
+		plan.close();
+		List<Integer> expected = new ArrayList<>();
+		for (int j = 0; j < 25; j++)
+			expected.add(4 * PER_TENANT + j);
+		assertEquals(expected, values);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeCompositeKeyTest.class);
+	}
+}
@@ -0,0 +1,164 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeHeaderPage;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class BTreeFreePageTest extends SimpleDbTestBase {
+	private static final int PAGES = 1000;
+
+	private File f;
+	private BTreeFile bf;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		// small pages, so that the slots of the empty pages span several header pages
+		BufferPool.setPageSize(64);
+		f = File.createTempFile("freepages", "dat");
+		f.deleteOnExit();
+		f.delete();
+		bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0, PAGES);
+	}
+
+	@After public void tearDown() {
+		BufferPool.resetPageSize();
+		Database.reset();
+	}
+
+	/** mark the pages the operation changed dirty, as BufferPool.insertTuple does */
+	private static void markDirty(TransactionId tid, Map<PageId, Page> dirtypages) {
+		for (Page p : dirtypages.values())
+			p.markDirty(true, tid);
+	}
+
+	private static void free(BTreeFile bf, TransactionId tid, int pageNo) throws Exception {
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		bf.setEmptyPage(tid, dirtypages, pageNo);
+		markDirty(tid, dirtypages);
+	}
+
+	private static int allocate(BTreeFile bf, TransactionId tid) throws Exception {
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		int pageNo = bf.getEmptyPageNo(tid, dirtypages);
+		markDirty(tid, dirtypages);
+		return pageNo;
+	}
+
+	/** @return the pages allocated until a page had to be appended to the file */
+	private static List<Integer> allocateAll(BTreeFile bf, TransactionId tid) throws Exception {
+		List<Integer> pages = new ArrayList<>();
+		int numPages = bf.numPages();
+		while (true) {
+			int pageNo = allocate(bf, tid);
+			if (bf.numPages() != numPages)
+				return pages;
+			pages.add(pageNo);
+		}
+	}
+
+	/** free every page but the first two, which span the slots of three header pages */
+	private Set<Integer> freeAll() throws Exception {
+		assertTrue(PAGES > 2 * BTreeHeaderPage.getNumSlots());
+		TransactionId tid = new TransactionId();
+		Set<Integer> freed = new HashSet<>();
+		for (int i = 3; i <= PAGES; i++) {
+			free(bf, tid, i);
+			freed.add(i);
+		}
+		Database.getBufferPool().transactionComplete(tid);
+		return freed;
+	}
+
+	/**
+	 * Unit test for reusing the empty pages of every header page
+	 */
+	@Test public void reuse() throws Exception {
+		Set<Integer> freed = freeAll();
+		// pages at the boundaries of the header pages
+		assertTrue(freed.contains(BTreeHeaderPage.getNumSlots()));
+		assertTrue(freed.contains(2 * BTreeHeaderPage.getNumSlots()));
+
+		TransactionId tid = new TransactionId();
+		List<Integer> pages = allocateAll(bf, tid);
+		Database.getBufferPool().transactionComplete(tid);
+		// every empty page is handed out once, except the ones that became header pages
+		assertEquals(pages.size(), new HashSet<>(pages).size());
+		assertTrue(freed.containsAll(pages));
+		assertTrue(pages.size() >= freed.size() - 2);
+		assertTrue(pages.contains(BTreeHeaderPage.getNumSlots()));
+		assertTrue(pages.contains(2 * BTreeHeaderPage.getNumSlots()));
+
+		// a BTreeFile that has not seen the header pages yet finds no empty page either
+		Database.reset();
+		BTreeFile reopened = BTreeUtility.openBTreeFile(2, f, 0);
+		tid = new TransactionId();
+		assertEquals(0, allocateAll(reopened, tid).size());
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Unit test for keeping the pages taken by an aborted transaction empty
+	 */
+	@Test public void abort() throws Exception {
+		freeAll();
+		TransactionId tid = new TransactionId();
+		List<Integer> taken = new ArrayList<>();
+		for (int i = 0; i < 600; i++)
+			taken.add(allocate(bf, tid));
+		Database.getBufferPool().transactionComplete(tid, false);
+
+		tid = new TransactionId();
+		for (int i = 0; i < 600; i++)
+			assertEquals((int) taken.get(i), allocate(bf, tid));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Unit test for appending several pages at once
+	 */
+	@Test public void extents() throws Exception {
+		bf.setExtentPages(8);
+		TransactionId tid = new TransactionId();
+		assertEquals(PAGES + 1, allocate(bf, tid));
+		assertEquals(PAGES + 8, bf.numPages());
+		for (int i = 2; i <= 8; i++)
+			assertEquals(PAGES + i, allocate(bf, tid));
+		assertEquals(PAGES + 8, bf.numPages());
+		assertEquals(PAGES + 9, allocate(bf, tid));
+		assertEquals(PAGES + 16, bf.numPages());
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeFreePageTest.class);
+	}
+}
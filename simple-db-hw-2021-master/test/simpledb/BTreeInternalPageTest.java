@@ -8,6 +8,7 @@ import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
 import simpledb.storage.BufferPool;
 import simpledb.storage.IntField;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -321,6 +322,44 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Linear search for the child findChildId() should return
+	 */
+	private static BTreePageId scanForChild(BTreeInternalPage page, IntField f) {
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry e = null;
+		while (it.hasNext()) {
+			e = it.next();
+			if (e.getKey().compare(Predicate.Op.GREATER_THAN_OR_EQ, f))
+				return e.getLeftChild();
+		}
+		return e.getRightChild();
+	}
+
+	/**
+	 * Unit test for BTreeInternalPage.findChildId()
+	 */
+	@Test public void findChildId() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		assertEquals(page.iterator().next().getLeftChild(), page.findChildId(null));
+		for (int[] entry : EXAMPLE_VALUES) {
+			for (int k = entry[1] - 1; k <= entry[1] + 1; k++) {
+				assertEquals(scanForChild(page, new IntField(k)), page.findChildId(new IntField(k)));
+			}
+		}
+
+		// leave holes between the entries
+		Iterator<BTreeEntry> it = page.iterator();
+		List<BTreeEntry> entries = new ArrayList<>();
+		while (it.hasNext())
+			entries.add(it.next());
+		for (int i = 1; i < entries.size(); i += 3)
+			page.deleteKeyAndRightChild(entries.get(i));
+		for (int k = 0; k <= 70000; k += 997) {
+			assertEquals(scanForChild(page, new IntField(k)), page.findChildId(new IntField(k)));
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -0,0 +1,162 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.index.BTreeChecker;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class BTreeLazyDeleteTest extends SimpleDbTestBase {
+	// 502 tuples of two ints fit on a leaf, so there are 10 leaves under the root
+	private static final int ROWS = 502 * 10;
+
+	private BTreeFile bf;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		// f0 = i + 1
+		bf = BTreeUtility.createBTreeFile(2, ROWS, null, null, 0);
+		Database.resetBufferPool(500);
+	}
+
+	@After public void tearDown() {
+		bf.stopCompactor();
+	}
+
+	/** @return the number of leaves of the two level tree */
+	private int numLeaves() throws Exception {
+		TransactionId tid = new TransactionId();
+		BTreePageId rootId = ((BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY)).getRootId();
+		int leaves = 1;
+		if (rootId.pgcateg() == BTreePageId.INTERNAL)
+			leaves = ((BTreeInternalPage) Database.getBufferPool().getPage(tid, rootId,
+					Permissions.READ_ONLY)).getNumEntries() + 1;
+		Database.getBufferPool().transactionComplete(tid);
+		return leaves;
+	}
+
+	/** delete the tuples whose key is not a multiple of keep, and commit */
+	private void deleteAllBut(int keep) throws Exception {
+		TransactionId tid = new TransactionId();
+		List<Tuple> doomed = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			if (((IntField) t.getField(0)).getValue() % keep != 0)
+				doomed.add(t);
+		}
+		it.close();
+		for (Tuple t : doomed)
+			Database.getBufferPool().deleteTuple(tid, t);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/** check that the tree holds the multiples of keep in order */
+	private void checkKeys(int keep) throws Exception {
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		int n = 0;
+		while (it.hasNext()) {
+			n++;
+			assertEquals(n * keep, ((IntField) it.next().getField(0)).getValue());
+		}
+		it.close();
+		assertEquals(ROWS / keep, n);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Unit test for leaving under-full leaves alone and compacting them later
+	 */
+	@Test public void compact() throws Exception {
+		bf.setMergeThreshold(0);
+		deleteAllBut(10);
+		assertEquals(10, numLeaves());
+		checkKeys(10);
+
+		TransactionId tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), false);
+		assertTrue(bf.compact(tid) > 0);
+		Database.getBufferPool().transactionComplete(tid);
+		assertTrue(numLeaves() < 10);
+		checkKeys(10);
+
+		tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertEquals(0, bf.compact(tid));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Unit test for rebalancing only the leaves below the merge threshold
+	 */
+	@Test public void threshold() throws Exception {
+		assertEquals(0.5, bf.getMergeThreshold(), 0);
+		bf.setMergeThreshold(0.25);
+		// each leaf keeps a third of its tuples
+		deleteAllBut(3);
+		assertEquals(10, numLeaves());
+		checkKeys(3);
+
+		bf.setMergeThreshold(0.5);
+		deleteAllBut(6);
+		assertTrue(numLeaves() < 10);
+		checkKeys(6);
+		TransactionId tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Unit test for compacting in the background
+	 */
+	@Test public void background() throws Exception {
+		bf.setMergeThreshold(0);
+		deleteAllBut(10);
+		bf.startCompactor(20);
+		for (int i = 0; i < 500 && numLeaves() == 10; i++)
+			Thread.sleep(10);
+		bf.stopCompactor();
+		assertTrue(numLeaves() < 10);
+		checkKeys(10);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void badThreshold() {
+		bf.setMergeThreshold(0.75);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeLazyDeleteTest.class);
+	}
+}
@@ -7,6 +7,7 @@ import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
 import simpledb.index.BTreeLeafPage;
 import simpledb.index.BTreePageId;
 import simpledb.index.BTreeUtility;
@@ -347,6 +348,38 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.findSlot()
+	 */
+	@Test public void findSlot() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+
+		// leave holes between the tuples
+		Iterator<Tuple> it = page.iterator();
+		List<Tuple> tuples = new ArrayList<>();
+		while (it.hasNext())
+			tuples.add(it.next());
+		for (int i = 1; i < tuples.size(); i += 3)
+			page.deleteTuple(tuples.get(i));
+
+		for (int k = 0; k <= 70000; k += 499) {
+			IntField f = new IntField(k);
+			for (boolean inclusive : new boolean[] { true, false }) {
+				Predicate.Op op = inclusive ? Predicate.Op.GREATER_THAN_OR_EQ : Predicate.Op.GREATER_THAN;
+				int expected = page.getMaxTuples();
+				it = page.iterator();
+				while (it.hasNext()) {
+					Tuple t = it.next();
+					if (t.getField(0).compare(op, f)) {
+						expected = t.getRecordId().getTupleNumber();
+						break;
+					}
+				}
+				assertEquals(expected, page.findSlot(f, inclusive));
+			}
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
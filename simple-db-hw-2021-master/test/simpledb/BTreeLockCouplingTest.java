@@ -0,0 +1,116 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeBulkLoader;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class BTreeLockCouplingTest extends SimpleDbTestBase {
+	private TransactionId tid;
+	private BTreeFile bf;
+	private BTreePageId rootPtrId;
+	private BTreePageId rootId;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		File f = File.createTempFile("coupling", "dat");
+		f.deleteOnExit();
+		bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+		BTreeBulkLoader loader = new BTreeBulkLoader(bf, 1.0);
+		for (int i = 0; i < 5000; i++) {
+			loader.add(BTreeUtility.getBTreeTuple(new int[] { i, i }));
+		}
+		loader.finish();
+
+		rootPtrId = BTreeRootPtrPage.getId(bf.getId());
+		TransactionId t = new TransactionId();
+		rootId = ((BTreeRootPtrPage) Database.getBufferPool().getPage(t, rootPtrId, Permissions.READ_ONLY)).getRootId();
+		Database.getBufferPool().transactionComplete(t);
+		assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+		tid = new TransactionId();
+	}
+
+	@After public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+		BTreeFile.setLockCoupling(true);
+	}
+
+	private int lookup(int key) throws Exception {
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+		it.open();
+		int count = 0;
+		while (it.hasNext()) {
+			it.next();
+			count++;
+		}
+		it.close();
+		return count;
+	}
+
+	/**
+	 * Unit test for searches with lock coupling: only the leaf stays locked
+	 */
+	@Test public void releasesInternalPages() throws Exception {
+		assertEquals(1, lookup(1234));
+		assertFalse(Database.getBufferPool().holdsLock(tid, rootPtrId));
+		assertFalse(Database.getBufferPool().holdsLock(tid, rootId));
+
+		// another transaction can now split its way up to the root
+		TransactionId writer = new TransactionId();
+		for (int i = 0; i < 2000; i++) {
+			Database.getBufferPool().insertTuple(writer, bf.getId(), BTreeUtility.getBTreeTuple(new int[] { 4000, i }));
+		}
+		Database.getBufferPool().transactionComplete(writer);
+	}
+
+	/**
+	 * Unit test for searches with lock coupling on pages the transaction already locked
+	 */
+	@Test public void keepsPagesHeldBefore() throws Exception {
+		Database.getBufferPool().getPage(tid, rootId, Permissions.READ_ONLY);
+		assertEquals(1, lookup(1234));
+		assertTrue(Database.getBufferPool().holdsLock(tid, rootId));
+		assertFalse(Database.getBufferPool().holdsLock(tid, rootPtrId));
+	}
+
+	/**
+	 * Unit test for searches without lock coupling
+	 */
+	@Test public void strictWithoutCoupling() throws Exception {
+		BTreeFile.setLockCoupling(false);
+		assertEquals(1, lookup(1234));
+		assertTrue(Database.getBufferPool().holdsLock(tid, rootPtrId));
+		assertTrue(Database.getBufferPool().holdsLock(tid, rootId));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeLockCouplingTest.class);
+	}
+}
@@ -0,0 +1,135 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Insert;
+import simpledb.execution.OpIterator;
+import simpledb.index.BTreeChecker;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class BTreeMultiInsertTest extends SimpleDbTestBase {
+	private BTreeFile bf;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		File f = File.createTempFile("multiinsert", "dat");
+		f.deleteOnExit();
+		f.delete();
+		bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+		Database.resetBufferPool(500);
+	}
+
+	/** @return the tuples of the tree in key order, as lists of ints */
+	private List<List<Integer>> contents() throws Exception {
+		TransactionId tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		List<List<Integer>> rows = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext())
+			rows.add(BTreeUtility.tupleToList(it.next()));
+		it.close();
+		Database.getBufferPool().transactionComplete(tid);
+		return rows;
+	}
+
+	private static List<Tuple> toTuples(List<List<Integer>> rows) {
+		List<Tuple> tuples = new ArrayList<>();
+		for (List<Integer> row : rows)
+			tuples.add(BTreeUtility.getBTreeTuple(row));
+		return tuples;
+	}
+
+	private static void sort(List<List<Integer>> rows) {
+		rows.sort((a, b) -> a.get(0).equals(b.get(0)) ? a.get(1).compareTo(b.get(1)) : a.get(0).compareTo(b.get(0)));
+	}
+
+	/** the key order of the tree does not order equal keys by the second field */
+	private static void sortBoth(List<List<Integer>> expected, List<List<Integer>> actual) {
+		sort(expected);
+		sort(actual);
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * Unit test for inserting unsorted batches into an empty and a filled tree
+	 */
+	@Test public void unsortedBatches() throws Exception {
+		List<List<Integer>> expected = new ArrayList<>();
+		for (int batch = 0; batch < 3; batch++) {
+			List<List<Integer>> rows = new ArrayList<>();
+			BTreeUtility.generateRandomTuples(2, 3000, 1000, new HashMap<>(), rows);
+			TransactionId tid = new TransactionId();
+			Database.getBufferPool().insertTuples(tid, bf.getId(), toTuples(rows));
+			Database.getBufferPool().transactionComplete(tid);
+			expected.addAll(rows);
+			List<List<Integer>> actual = contents();
+			assertEquals(expected.size(), actual.size());
+			for (int i = 1; i < actual.size(); i++)
+				assertTrue(actual.get(i - 1).get(0) <= actual.get(i).get(0));
+			sortBoth(new ArrayList<>(expected), actual);
+		}
+	}
+
+	/**
+	 * Unit test for a batch with two keys, each of which fills several leaves
+	 */
+	@Test public void duplicateKeys() throws Exception {
+		List<Tuple> tuples = new ArrayList<>();
+		List<List<Integer>> expected = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			tuples.add(BTreeUtility.getBTreeTuple(new int[] { i % 2 == 0 ? 7 : 3, i }));
+			expected.add(BTreeUtility.tupleToList(tuples.get(i)));
+		}
+		TransactionId tid = new TransactionId();
+		Database.getBufferPool().insertTuples(tid, bf.getId(), tuples);
+		Database.getBufferPool().transactionComplete(tid);
+		sortBoth(expected, contents());
+	}
+
+	/**
+	 * Unit test for the Insert operator batching the tuples of its child
+	 */
+	@Test public void insertOperator() throws Exception {
+		List<List<Integer>> rows = new ArrayList<>();
+		// more tuples than one batch of the Insert operator
+		BTreeUtility.generateRandomTuples(2, 5000, 10000, new HashMap<>(), rows);
+		TransactionId tid = new TransactionId();
+		OpIterator child = new TupleIterator(bf.getTupleDesc(), toTuples(rows));
+		Insert insert = new Insert(tid, child, bf.getId());
+		insert.open();
+		assertEquals(5000, ((IntField) insert.next().getField(0)).getValue());
+		insert.close();
+		Database.getBufferPool().transactionComplete(tid);
+		sortBoth(rows, contents());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeMultiInsertTest.class);
+	}
+}
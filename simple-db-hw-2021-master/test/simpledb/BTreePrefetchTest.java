@@ -0,0 +1,200 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeEntry;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.PageId;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class BTreePrefetchTest extends SimpleDbTestBase {
+	// 502 tuples of two ints fit on a leaf, so there are 20 leaves under the root
+	private static final int ROWS = 502 * 20;
+
+	private TransactionId tid;
+	private BTreeFile bf;
+	private List<BTreePageId> leaves;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		// f0 = i + 1
+		bf = BTreeUtility.createBTreeFile(2, ROWS, null, null, 0);
+
+		TransactionId t = new TransactionId();
+		BTreePageId rootId = ((BTreeRootPtrPage) Database.getBufferPool().getPage(t,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY)).getRootId();
+		BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(t, rootId, Permissions.READ_ONLY);
+		leaves = new ArrayList<>();
+		Iterator<BTreeEntry> it = root.iterator();
+		BTreeEntry e = it.next();
+		leaves.add(e.getLeftChild());
+		leaves.add(e.getRightChild());
+		while (it.hasNext())
+			leaves.add(it.next().getRightChild());
+		Database.getBufferPool().transactionComplete(t);
+		assertEquals(20, leaves.size());
+
+		// start from an empty pool
+		Database.resetBufferPool(50);
+		tid = new TransactionId();
+	}
+
+	@After public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/** wait until the prefetched pages are in the pool */
+	private static void awaitCached(PageId pid) throws InterruptedException {
+		for (int i = 0; i < 500 && !Database.getBufferPool().isCached(pid); i++)
+			Thread.sleep(10);
+	}
+
+	/**
+	 * Unit test for reading the leaves after the first one ahead of a scan
+	 */
+	@Test public void readAhead() throws Exception {
+		bf.setPrefetchLeaves(8);
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		assertTrue(it.hasNext());
+		awaitCached(leaves.get(8));
+		for (int i = 1; i <= 8; i++)
+			assertTrue(Database.getBufferPool().isCached(leaves.get(i)));
+		assertFalse(Database.getBufferPool().isCached(leaves.get(9)));
+
+		// the window moves on once half of it has been visited
+		for (int i = 0; i < 502 * 5; i++)
+			it.next();
+		awaitCached(leaves.get(12));
+		for (int i = 9; i <= 12; i++)
+			assertTrue(Database.getBufferPool().isCached(leaves.get(i)));
+		assertFalse(Database.getBufferPool().isCached(leaves.get(13)));
+		it.close();
+	}
+
+	/**
+	 * Unit test for not reading leaves past the end of a range
+	 */
+	@Test public void rangeEnd() throws Exception {
+		bf.setPrefetchLeaves(8);
+		// the upper bound is on the third leaf
+		IndexPredicate ipred = new IndexPredicate(Op.LESS_THAN, new IntField(502 * 2 + 100));
+		DbFileIterator it = bf.indexIterator(tid, ipred);
+		it.open();
+		assertTrue(it.hasNext());
+		awaitCached(leaves.get(2));
+		Thread.sleep(100);
+		for (int i = 3; i < leaves.size(); i++)
+			assertFalse(Database.getBufferPool().isCached(leaves.get(i)));
+
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		it.close();
+		assertEquals(502 * 2 + 99, n);
+	}
+
+	/**
+	 * Unit test for scanning a tree much larger than the buffer pool with read ahead
+	 */
+	@Test public void smallPool() throws Exception {
+		Database.resetBufferPool(6);
+		bf.setPrefetchLeaves(4);
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		int n = 0;
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			n++;
+			assertEquals(n, ((IntField) t.getField(0)).getValue());
+		}
+		it.close();
+		assertEquals(ROWS, n);
+	}
+
+	/**
+	 * Unit test for aborting a transaction while a page it dirtied is latched by a
+	 * thread which read it and is about to make room for it in the pool
+	 */
+	@Test public void abortWhileLatched() throws Exception {
+		BufferPool pool = Database.getBufferPool();
+		BTreePageId leaf = leaves.get(0);
+		pool.getPage(tid, leaf, Permissions.READ_WRITE).markDirty(true, tid);
+
+		// the reader waits for the pool while the abort holds it, like a prefetch
+		CountDownLatch latched = new CountDownLatch(1);
+		Thread reader = new Thread(() -> {
+			long stamp = pool.getLatches().writeLock(leaf);
+			latched.countDown();
+			try {
+				Thread.sleep(200);
+				synchronized (pool) {
+					pool.isCached(leaf);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				pool.getLatches().unlockWrite(leaf, stamp);
+			}
+		});
+		Thread aborter = new Thread(() -> {
+			try {
+				latched.await();
+				pool.transactionComplete(tid, false);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		reader.setDaemon(true);
+		aborter.setDaemon(true);
+		reader.start();
+		aborter.start();
+		aborter.join(10000);
+		reader.join(10000);
+		assertFalse(aborter.isAlive() || reader.isAlive());
+
+		// the page was read back as it is on disk
+		TransactionId t = new TransactionId();
+		assertEquals(null, pool.getPage(t, leaf, Permissions.READ_ONLY).isDirty());
+		pool.transactionComplete(t);
+		tid = new TransactionId();
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreePrefetchTest.class);
+	}
+}
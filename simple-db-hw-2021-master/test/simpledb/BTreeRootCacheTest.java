@@ -0,0 +1,146 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class BTreeRootCacheTest extends SimpleDbTestBase {
+
+	@After public void tearDown() {
+		BufferPool.resetPageSize();
+		Database.reset();
+	}
+
+	private static BTreePageId rootId(BTreeFile bf) throws Exception {
+		TransactionId tid = new TransactionId();
+		BTreePageId rootId = ((BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY)).getRootId();
+		Database.getBufferPool().transactionComplete(tid);
+		return rootId;
+	}
+
+	private static int count(BTreeFile bf, int key) throws Exception {
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+		int n = 0;
+		it.open();
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		it.close();
+		Database.getBufferPool().transactionComplete(tid);
+		return n;
+	}
+
+	private static void insert(BTreeFile bf, int from, int to) throws Exception {
+		TransactionId tid = new TransactionId();
+		for (int i = from; i < to; i++)
+			Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(i, 2));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Unit test for caching the root page id and forgetting it when the root splits
+	 */
+	@Test public void cachedRoot() throws Exception {
+		File f = File.createTempFile("rootcache", "dat");
+		f.deleteOnExit();
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+		insert(bf, 0, 10);
+		// the first insert wrote the root pointer
+		assertNull(bf.getCachedRootId());
+
+		assertEquals(1, count(bf, 5));
+		BTreePageId rootId = rootId(bf);
+		assertEquals(BTreePageId.LEAF, rootId.pgcateg());
+		assertEquals(rootId, bf.getCachedRootId());
+
+		// split the root leaf
+		insert(bf, 10, 1000);
+		assertEquals(1, count(bf, 5));
+		assertEquals(1, count(bf, 999));
+		BTreePageId newRootId = rootId(bf);
+		assertEquals(BTreePageId.INTERNAL, newRootId.pgcateg());
+		assertEquals(newRootId, bf.getCachedRootId());
+
+		// a root that is no longer the root after the transaction aborts
+		TransactionId tid = new TransactionId();
+		for (int i = 1000; i < 1500; i++)
+			Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(i, 2));
+		Database.getBufferPool().transactionComplete(tid, false);
+		assertEquals(0, count(bf, 1200));
+		assertEquals(newRootId, bf.getCachedRootId());
+	}
+
+	/**
+	 * Unit test for keeping the upper levels of a B+ tree in the buffer pool
+	 */
+	@Test public void pinnedLevels() throws Exception {
+		// three levels: the root, a second tier of internal pages and the leaves
+		BufferPool.setPageSize(1024);
+		BTreeFile bf = BTreeUtility.createBTreeFile(2, 31000, null, null, 0);
+		Database.resetBufferPool(20);
+		bf.setPinnedLevels(2);
+		assertEquals(2, bf.getPinnedLevels());
+
+		assertEquals(1, count(bf, 1));
+		BTreePageId rootId = rootId(bf);
+		TransactionId tid = new TransactionId();
+		BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(tid, rootId, Permissions.READ_ONLY);
+		BTreePageId secondId = root.iterator().next().getLeftChild();
+		Database.getBufferPool().transactionComplete(tid);
+		assertEquals(BTreePageId.INTERNAL, secondId.pgcateg());
+		assertTrue(Database.getBufferPool().isPinned(rootId));
+		assertTrue(Database.getBufferPool().isPinned(secondId));
+
+		// read every leaf through a buffer pool much smaller than the tree
+		tid = new TransactionId();
+		DbFileIterator it = bf.iterator(tid);
+		int n = 0;
+		it.open();
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		it.close();
+		Database.getBufferPool().transactionComplete(tid);
+		assertEquals(31000, n);
+		assertTrue(Database.getBufferPool().isCached(rootId));
+		assertTrue(Database.getBufferPool().isCached(secondId));
+
+		bf.setPinnedLevels(0);
+		assertFalse(Database.getBufferPool().isPinned(rootId));
+		assertFalse(Database.getBufferPool().isPinned(secondId));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeRootCacheTest.class);
+	}
+}
@@ -0,0 +1,134 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate.Op;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class BTreeScanPlanTest extends SimpleDbTestBase {
+	private static final int ROWS = 20000;
+
+	private TransactionId tid;
+	private BTreeFile table;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		// f0 = i + 1, f1 = 2 * (i + 1), keyed on f0
+		BTreeFile f = BTreeUtility.createBTreeFile(2, ROWS, null, null, 0);
+		table = new BTreeFile(f.getFile(), 0, Utility.getTupleDesc(2, "f"));
+		Database.getCatalog().addTable(table, "bt");
+		TableStats.setTableStats("bt", new TableStats(table.getId(), 1000));
+		tid = new TransactionId();
+	}
+
+	@After public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private static int count(OpIterator it) throws Exception {
+		int n = 0;
+		it.open();
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		it.close();
+		return n;
+	}
+
+	private static <T> T find(OpIterator plan, Class<T> c) {
+		if (c.isInstance(plan))
+			return c.cast(plan);
+		if (plan instanceof Operator) {
+			for (OpIterator child : ((Operator) plan).getChildren()) {
+				T found = find(child, c);
+				if (found != null)
+					return found;
+			}
+		}
+		return null;
+	}
+
+	private OpIterator plan(String field, Op op, String constant) throws Exception {
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(table.getId(), "t");
+		lp.addProjectField("*", null);
+		lp.addFilter(field, op, constant);
+		return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+	}
+
+	/**
+	 * Unit test for the cost of a range scan of a B+ tree
+	 */
+	@Test public void rangeScanCost() {
+		TableStats stats = TableStats.getTableStats("bt");
+		assertEquals(1000.0, stats.estimateRangeScanCost(0.0), 0.0);
+		assertEquals(stats.estimateScanCost() + 1000.0, stats.estimateRangeScanCost(1.0), 0.0);
+	}
+
+	/**
+	 * Unit test for choosing a B+ tree scan for a selective filter on the key
+	 */
+	@Test public void selective() throws Exception {
+		OpIterator plan = plan("t.f0", Op.LESS_THAN_OR_EQ, "100");
+		BTreeScan scan = find(plan, BTreeScan.class);
+		assertNotNull(scan);
+		IndexPredicate ipred = scan.getIndexPredicate();
+		assertEquals(Op.LESS_THAN_OR_EQ, ipred.getOp());
+		assertEquals(new IntField(100), ipred.getField());
+		assertEquals(100, count(plan));
+
+		plan = plan("t.f0", Op.EQUALS, "777");
+		assertNotNull(find(plan, BTreeScan.class));
+		assertEquals(1, count(plan));
+	}
+
+	/**
+	 * Unit test for choosing a sequential scan when most of the table matches,
+	 * or when the filter is not on the key
+	 */
+	@Test public void notSelective() throws Exception {
+		OpIterator plan = plan("t.f0", Op.GREATER_THAN, "100");
+		assertNull(find(plan, BTreeScan.class));
+		assertNotNull(find(plan, SeqScan.class));
+		assertEquals(ROWS - 100, count(plan));
+
+		plan = plan("t.f1", Op.EQUALS, "200");
+		assertNull(find(plan, BTreeScan.class));
+		assertEquals(1, count(plan));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeScanPlanTest.class);
+	}
+}
@@ -0,0 +1,285 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeBulkLoader;
+import simpledb.index.BTreeChecker;
+import simpledb.index.BTreeEntry;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeFileEncoder;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class BTreeStringKeyTest extends SimpleDbTestBase {
+	private static final String PREFIX = "customer/account/region-emea/number-";
+
+	private TransactionId tid;
+	private BTreeFile bf;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		Database.resetBufferPool(1000);
+		File f = File.createTempFile("strkey", "dat");
+		f.deleteOnExit();
+		bf = new BTreeFile(f, 0, new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE }));
+		Database.getCatalog().addTable(bf);
+		tid = new TransactionId();
+	}
+
+	@After public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private static StringField key(int i) {
+		return new StringField(PREFIX + String.format("%08d", i) + "/a-suffix-that-never-matters-for-the-order", Type.STRING_LEN);
+	}
+
+	private static Tuple tuple(int i) {
+		Tuple t = new Tuple(new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE }));
+		t.setField(0, key(i));
+		t.setField(1, new IntField(i));
+		return t;
+	}
+
+	private static Tuple tuple(String k, int v) {
+		Tuple t = new Tuple(new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE }));
+		t.setField(0, new StringField(k, Type.STRING_LEN));
+		t.setField(1, new IntField(v));
+		return t;
+	}
+
+	private int count(StringField k) throws Exception {
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, k));
+		it.open();
+		int n = 0;
+		while (it.hasNext()) {
+			assertEquals(k, it.next().getField(0));
+			n++;
+		}
+		it.close();
+		return n;
+	}
+
+	private int depth() throws Exception {
+		BTreePageId pid = ((BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY)).getRootId();
+		int depth = 0;
+		while (pid.pgcateg() == BTreePageId.INTERNAL) {
+			BTreeInternalPage p = (BTreeInternalPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+			pid = p.iterator().next().getLeftChild();
+			depth++;
+		}
+		return depth;
+	}
+
+	/**
+	 * Unit test for BTreeInternalPage.separatorKey()
+	 */
+	@Test public void separatorKey() {
+		StringField sep = (StringField) BTreeInternalPage.separatorKey(
+				new StringField("apple pie", Type.STRING_LEN), new StringField("apricot jam", Type.STRING_LEN));
+		assertEquals("apr", sep.getValue());
+		assertEquals("applf", ((StringField) BTreeInternalPage.separatorKey(
+				new StringField("apple", Type.STRING_LEN), new StringField("applf", Type.STRING_LEN))).getValue());
+		assertEquals("apple!", ((StringField) BTreeInternalPage.separatorKey(
+				new StringField("apple", Type.STRING_LEN), new StringField("apple!x", Type.STRING_LEN))).getValue());
+		assertEquals(new IntField(7), BTreeInternalPage.separatorKey(new IntField(3), new IntField(7)));
+	}
+
+	/**
+	 * Unit test for reading back an internal page whose keys share a prefix and
+	 * are longer than a key slot
+	 */
+	@Test public void compressedPage() throws Exception {
+		assertTrue(BTreeInternalPage.getMaxEntries(Type.STRING_TYPE, 4096) >= 3 * 4096 / (Type.STRING_TYPE.getLen() + 4));
+
+		List<BTreeEntry> entries = new ArrayList<>();
+		for (int i = 1; i <= 50; i++) {
+			entries.add(new BTreeEntry(key(i * 10), new BTreePageId(bf.getId(), i, BTreePageId.LEAF),
+					new BTreePageId(bf.getId(), i + 1, BTreePageId.LEAF)));
+		}
+		byte[] data = BTreeFileEncoder.convertToInternalPage(entries, 4096, Type.STRING_TYPE, BTreePageId.LEAF);
+		BTreeInternalPage page = new BTreeInternalPage(new BTreePageId(bf.getId(), 1, BTreePageId.INTERNAL), data, 0);
+		assertEquals(50, page.getNumEntries());
+
+		// the keys are read back whole, and take more room than their slots
+		assertEquals(key(10), page.iterator().next().getKey());
+		assertEquals(key(500), page.reverseIterator().next().getKey());
+		assertTrue(page.getNumEmptySlots() < page.getMaxEntries() - 50);
+		assertEquals(new BTreePageId(bf.getId(), 1, BTreePageId.LEAF), page.findChildId(key(9)));
+		assertEquals(new BTreePageId(bf.getId(), 2, BTreePageId.LEAF), page.findChildId(key(15)));
+		assertEquals(new BTreePageId(bf.getId(), 51, BTreePageId.LEAF), page.findChildId(key(5000)));
+	}
+
+	/**
+	 * Unit test for bulk loading long string keys into a shallow tree
+	 */
+	@Test public void bulkLoad() throws Exception {
+		BTreeBulkLoader loader = new BTreeBulkLoader(bf, 1.0);
+		for (int i = 0; i < 3000; i++) {
+			loader.add(tuple(i));
+		}
+		loader.finish();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		// 100 leaves fit under one root, where full 132 byte keys would need two levels
+		assertEquals(1, depth());
+		for (int i = 0; i < 3000; i += 97) {
+			assertEquals(1, count(key(i)));
+		}
+		assertEquals(0, count(new StringField(PREFIX, Type.STRING_LEN)));
+	}
+
+	/**
+	 * Unit test for inserting long string keys one at a time
+	 */
+	@Test public void insert() throws Exception {
+		List<Integer> order = new ArrayList<>();
+		for (int i = 0; i < 3000; i++) {
+			order.add(i);
+		}
+		Collections.shuffle(order, new java.util.Random(6830));
+		for (int i : order) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(i));
+		}
+		// read the internal pages back from disk
+		Database.getBufferPool().transactionComplete(tid);
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), false);
+		for (int i = 0; i < 3000; i += 37) {
+			assertEquals(1, count(key(i)));
+		}
+	}
+
+	private void commitAndReset() {
+		Database.getBufferPool().transactionComplete(tid);
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+	}
+
+	/**
+	 * Unit test for inserting into internal pages read back from disk whose keys
+	 * share a prefix longer than a key slot, next to keys that do not share it
+	 */
+	@Test public void insertAfterReload() throws Exception {
+		String shared = "tenant-0042/customer/account/region-emea-";
+		List<String> keys = new ArrayList<>();
+		for (int i = 0; i < 400; i++) {
+			keys.add(shared + String.format("%05d", i * 2));
+		}
+		for (String k : keys) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(k, 0));
+		}
+		commitAndReset();
+
+		List<String> more = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			more.add(shared + String.format("%05d", i * 8 + 1));
+			more.add(String.format("a%04d", i));
+		}
+		for (String k : more) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(k, 1));
+		}
+		keys.addAll(more);
+		commitAndReset();
+
+		// the root now holds keys with and without the shared prefix
+		for (int i = 0; i < 200; i++) {
+			String k = shared + String.format("%05d", i * 4 + 3);
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(k, 2));
+			keys.add(k);
+		}
+		commitAndReset();
+
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), false);
+		for (String k : keys) {
+			assertEquals(k, 1, count(new StringField(k, Type.STRING_LEN)));
+		}
+		Collections.sort(keys);
+		List<String> scanned = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			scanned.add(((StringField) it.next().getField(0)).getValue());
+		}
+		it.close();
+		assertEquals(keys, scanned);
+	}
+
+	/**
+	 * Unit test for keys too long to share a page with as many other keys as
+	 * there are slots: the pages split early, and every key is kept whole
+	 */
+	@Test public void longKeysReload() throws Exception {
+		// the two keys of a pair differ only at the end, so a leaf boundary between
+		// them needs a separator of almost the whole key
+		StringBuilder filler = new StringBuilder();
+		while (filler.length() < 90) {
+			filler.append("-filler");
+		}
+		List<String> keys = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			keys.add(String.format("%04d", i / 2) + filler + (i % 2));
+		}
+		Collections.shuffle(keys, new java.util.Random(6830));
+		for (String k : keys.subList(0, 1000)) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(k, 0));
+		}
+		commitAndReset();
+
+		for (String k : keys.subList(1000, keys.size())) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(k, 1));
+		}
+		commitAndReset();
+
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), false);
+		for (int i = 0; i < keys.size(); i += 7) {
+			assertEquals(1, count(new StringField(keys.get(i), Type.STRING_LEN)));
+		}
+		Collections.sort(keys);
+		List<String> scanned = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			scanned.add(((StringField) it.next().getField(0)).getValue());
+		}
+		it.close();
+		assertEquals(keys, scanned);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeStringKeyTest.class);
+	}
+}
@@ -0,0 +1,291 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BitmapCondition;
+import simpledb.index.BitmapIndex;
+import simpledb.index.BitmapIndexScan;
+import simpledb.index.RoaringBitmap;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class BitmapIndexTest extends SimpleDbTestBase {
+	private static final int ROWS = 40000;
+
+	private HeapFile table;
+	private File statusFile;
+	private File regionFile;
+	private BitmapIndex status;
+	private BitmapIndex region;
+
+	/**
+	 * Set up initial resources for each unit test: a table of (id, id % 4,
+	 * id % 100) with bitmap indexes on its last two fields.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		List<List<Integer>> rows = new ArrayList<>();
+		for (int i = 0; i < ROWS; i++)
+			rows.add(Arrays.asList(i, i % 4, i % 100));
+		File f = File.createTempFile("orders", "dat");
+		f.deleteOnExit();
+		HeapFileEncoder.convert(rows, f, BufferPool.getPageSize(), 3);
+		Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
+		table = new HeapFile(f, new TupleDesc(types, new String[] { "id", "status", "region" }));
+		Database.getCatalog().addTable(table, "orders");
+
+		statusFile = File.createTempFile("orders_status", "bmp");
+		regionFile = File.createTempFile("orders_region", "bmp");
+		status = new BitmapIndex("orders_status", table.getId(), 1, statusFile);
+		region = new BitmapIndex("orders_region", table.getId(), 2, regionFile);
+		TransactionId tid = new TransactionId();
+		assertEquals(ROWS, status.build(tid));
+		assertEquals(ROWS, region.build(tid));
+		Database.getBufferPool().transactionComplete(tid);
+		Database.getCatalog().addBitmapIndex(status);
+		Database.getCatalog().addBitmapIndex(region);
+	}
+
+	@After public void tearDown() {
+		statusFile.delete();
+		regionFile.delete();
+	}
+
+	/** @return the ids of the tuples a plan returns, in ascending order */
+	private static List<Integer> ids(OpIterator plan) throws Exception {
+		List<Integer> ids = new ArrayList<>();
+		plan.open();
+		while (plan.hasNext())
+			ids.add(((IntField) plan.next().getField(0)).getValue());
+		plan.close();
+		ids.sort(null);
+		return ids;
+	}
+
+	/** @return the ids of the tuples matching a condition, read by a new transaction */
+	private static List<Integer> ids(BitmapCondition condition) throws Exception {
+		TransactionId tid = new TransactionId();
+		List<Integer> ids = ids(new BitmapIndexScan(tid, condition, "o"));
+		Database.getBufferPool().transactionComplete(tid);
+		return ids;
+	}
+
+	/** @return the ids below ROWS which are congruent to r modulo m */
+	private static List<Integer> congruent(int r, int m) {
+		List<Integer> ids = new ArrayList<>();
+		for (int i = r; i < ROWS; i += m)
+			ids.add(i);
+		return ids;
+	}
+
+	private BitmapCondition eq(BitmapIndex index, int value) {
+		return BitmapCondition.of(index, Op.EQUALS, new IntField(value));
+	}
+
+	/**
+	 * Unit test for RoaringBitmap: array and bitmap containers, AND, OR and
+	 * writing a bitmap
+	 */
+	@Test public void roaringBitmap() throws Exception {
+		Random rand = new Random(6830);
+		RoaringBitmap a = new RoaringBitmap(), b = new RoaringBitmap();
+		TreeSet<Integer> sa = new TreeSet<>(), sb = new TreeSet<>();
+		// a is dense in its first container and sparse after it, b the other way round
+		for (int i = 0; i < 30000; i++) {
+			int x = rand.nextInt(1 << 16), y = rand.nextInt(1 << 22);
+			a.add(x);
+			sa.add(x);
+			b.add(y);
+			sb.add(y);
+		}
+		for (int i = 0; i < 3000; i++) {
+			int x = (1 << 16) + rand.nextInt(1 << 20);
+			a.add(x);
+			sa.add(x);
+		}
+		assertEquals(sa.size(), a.getCardinality());
+		assertEquals(sa, toSet(a));
+		assertEquals(sb, toSet(b));
+
+		TreeSet<Integer> and = new TreeSet<>(sa);
+		and.retainAll(sb);
+		assertEquals(and, toSet(RoaringBitmap.and(a, b)));
+		TreeSet<Integer> or = new TreeSet<>(sa);
+		or.addAll(sb);
+		assertEquals(or, toSet(RoaringBitmap.or(a, b)));
+
+		// removing values turns the dense container back into an array
+		for (int x = 0; x < (1 << 16); x++) {
+			if (x % 32 != 0) {
+				a.remove(x);
+				sa.remove(x);
+			}
+		}
+		assertEquals(sa, toSet(a));
+		assertFalse(a.contains(1));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		b.serialize(new DataOutputStream(bytes));
+		RoaringBitmap read = RoaringBitmap.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertEquals(sb, toSet(read));
+	}
+
+	private static TreeSet<Integer> toSet(RoaringBitmap bitmap) {
+		TreeSet<Integer> set = new TreeSet<>();
+		int last = -1;
+		for (PrimitiveIterator.OfInt it = bitmap.iterator(); it.hasNext(); ) {
+			int x = it.nextInt();
+			assertTrue(x > last);
+			set.add(x);
+			last = x;
+		}
+		return set;
+	}
+
+	/**
+	 * Unit test for combining the bitmaps of several indexes with AND and OR
+	 */
+	@Test public void combine() throws Exception {
+		assertEquals(4, status.numValues());
+		assertEquals(100, region.numValues());
+		assertEquals(ROWS / 4, status.lookup(Op.EQUALS, new IntField(3)).getCardinality());
+		assertEquals(ROWS / 2, status.lookup(Op.LESS_THAN, new IntField(2)).getCardinality());
+
+		assertEquals(congruent(21, 100), ids(BitmapCondition.and(eq(status, 1), eq(region, 21))));
+		assertEquals(List.of(), ids(BitmapCondition.and(eq(status, 2), eq(region, 21))));
+		List<Integer> expected = new ArrayList<>(congruent(7, 100));
+		expected.addAll(congruent(8, 100));
+		expected.sort(null);
+		assertEquals(expected, ids(BitmapCondition.or(eq(region, 7), eq(region, 8))));
+		assertEquals(expected, ids(BitmapCondition.and(
+				BitmapCondition.or(eq(region, 7), eq(region, 8)),
+				BitmapCondition.of(status, Op.GREATER_THAN, new IntField(-1)))));
+	}
+
+	/**
+	 * Unit test for keeping the bitmaps up to date on inserts, deletes and
+	 * aborts, and for reading them again from their files
+	 */
+	@Test public void maintain() throws Exception {
+		BitmapCondition match = BitmapCondition.and(eq(status, 1), eq(region, 21));
+		List<Integer> expected = new ArrayList<>(congruent(21, 100));
+
+		// an aborted insert leaves no bit behind
+		TransactionId tid = new TransactionId();
+		Database.getBufferPool().insertTuple(tid, table.getId(), tuple(ROWS, 1, 21));
+		Database.getBufferPool().transactionComplete(tid, false);
+		assertEquals(expected, ids(match));
+
+		// delete the tuples with id below 1000, and insert one into a slot freed by the same transaction
+		tid = new TransactionId();
+		List<Tuple> doomed = new ArrayList<>();
+		OpIterator scan = new BitmapIndexScan(tid, match, "o");
+		scan.open();
+		while (scan.hasNext()) {
+			Tuple t = scan.next();
+			if (((IntField) t.getField(0)).getValue() < 1000)
+				doomed.add(t);
+		}
+		scan.close();
+		for (Tuple t : doomed)
+			Database.getBufferPool().deleteTuple(tid, t);
+		Database.getBufferPool().insertTuple(tid, table.getId(), tuple(ROWS + 1, 1, 21));
+		Database.getBufferPool().transactionComplete(tid);
+		expected.removeIf(id -> id < 1000);
+		expected.add(ROWS + 1);
+		assertEquals(expected, ids(match));
+		assertEquals(List.of(), ids(eq(status, 5)));
+
+		// the indexes were saved by the last commit
+		BitmapIndex reread = new BitmapIndex("orders_status", table.getId(), 1, statusFile);
+		assertTrue(reread.load());
+		assertEquals(ROWS / 4 - 10 + 1, reread.lookup(Op.EQUALS, new IntField(1)).getCardinality());
+	}
+
+	private Tuple tuple(int id, int s, int r) {
+		Tuple t = new Tuple(table.getTupleDesc());
+		t.setField(0, new IntField(id));
+		t.setField(1, new IntField(s));
+		t.setField(2, new IntField(r));
+		return t;
+	}
+
+	/**
+	 * Unit test for a query whose filters are answered by the AND of two bitmaps
+	 */
+	@Test public void plan() throws Exception {
+		TableStats.setTableStats("orders", new TableStats(table.getId(), 1000));
+		TransactionId tid = new TransactionId();
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(table.getId(), "o");
+		lp.addProjectField("o.id", null);
+		lp.addFilter("o.status", Op.EQUALS, "1");
+		lp.addFilter("o.region", Op.EQUALS, "21");
+		OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		assertNotNull(find(plan));
+		assertEquals(congruent(21, 100), ids(plan));
+
+		// a filter matching most tuples is cheaper to answer with a scan
+		lp = new LogicalPlan();
+		lp.addScan(table.getId(), "o");
+		lp.addProjectField("o.id", null);
+		lp.addFilter("o.status", Op.GREATER_THAN, "0");
+		plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		assertEquals(null, find(plan));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private static BitmapIndexScan find(OpIterator plan) {
+		if (plan instanceof BitmapIndexScan)
+			return (BitmapIndexScan) plan;
+		if (plan instanceof Operator) {
+			for (OpIterator child : ((Operator) plan).getChildren()) {
+				BitmapIndexScan found = find(child);
+				if (found != null)
+					return found;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BitmapIndexTest.class);
+	}
+}
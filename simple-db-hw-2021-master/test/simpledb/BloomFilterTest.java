@@ -0,0 +1,185 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.index.BloomFilter;
+import simpledb.index.LsmFile;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class BloomFilterTest extends SimpleDbTestBase {
+	private File f;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		f = File.createTempFile("bloom", "dat");
+		f.deleteOnExit();
+	}
+
+	@After public void tearDown() {
+		File[] files = f.getParentFile().listFiles((dir, name) -> name.startsWith(f.getName()));
+		if (files != null)
+			for (File r : files)
+				r.delete();
+	}
+
+	/** insert the tuples (key, key) for every key from from below to in steps of step, and commit */
+	private static void insert(DbFile file, int from, int to, int step) throws Exception {
+		TransactionId tid = new TransactionId();
+		for (int i = from; i < to; i += step)
+			Database.getBufferPool().insertTuple(tid, file.getId(), BTreeUtility.getBTreeTuple(new int[] { i, i }));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/** @return the number of tuples with the given key, read by a new transaction */
+	private static int lookup(DbFile file, int key) throws Exception {
+		TransactionId tid = new TransactionId();
+		IndexPredicate ipred = new IndexPredicate(Op.EQUALS, new IntField(key));
+		DbFileIterator it = file instanceof LsmFile ? ((LsmFile) file).indexIterator(tid, ipred)
+				: ((BTreeFile) file).indexIterator(tid, ipred);
+		it.open();
+		int n = 0;
+		while (it.hasNext()) {
+			assertEquals(key, ((IntField) it.next().getField(0)).getValue());
+			n++;
+		}
+		it.close();
+		Database.getBufferPool().transactionComplete(tid);
+		return n;
+	}
+
+	/**
+	 * Unit test for adding keys, the false positive rate and writing a filter
+	 */
+	@Test public void filter() throws Exception {
+		BloomFilter bf = new BloomFilter(10000, 10);
+		for (int i = 0; i < 10000; i++)
+			bf.add(new IntField(2 * i));
+		int fp = 0;
+		for (int i = 0; i < 10000; i++) {
+			assertTrue(bf.mightContain(new IntField(2 * i)));
+			if (bf.mightContain(new IntField(2 * i + 1)))
+				fp++;
+		}
+		assertTrue("false positives: " + fp, fp < 300);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bf.serialize(new DataOutputStream(bytes));
+		BloomFilter read = BloomFilter.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		for (int i = 0; i < 20000; i++)
+			assertEquals(bf.mightContain(new IntField(i)), read.mightContain(new IntField(i)));
+	}
+
+	/**
+	 * Unit test for equality searches which skip the runs of an LsmFile whose
+	 * filters do not contain the key, also after the file is opened again
+	 */
+	@Test public void lsmRuns() throws Exception {
+		LsmFile lf = new LsmFile(f, 0, Utility.getTupleDesc(2));
+		Database.getCatalog().addTable(lf, "bloom");
+		lf.setMemtableLimit(100);
+		for (int i = 0; i < 1000; i += 200)
+			insert(lf, i, i + 200, 2);
+		assertEquals(List.of(5), lf.getRunsPerLevel());
+		for (int i = 0; i < 1000; i++)
+			assertEquals((i + 1) % 2, lookup(lf, i));
+		BloomFilter.Stats stats = lf.getBloomStats();
+		// each key is in one run, and every other run rejects it
+		assertTrue(stats.getNegatives() > 500);
+		assertEquals(500, stats.getTruePositives());
+		assertTrue(stats.toString(), stats.getFalsePositiveRate() < 0.1);
+
+		lf = new LsmFile(f, 0, Utility.getTupleDesc(2));
+		Database.getCatalog().addTable(lf, "bloom");
+		assertEquals(0, lookup(lf, 501));
+		assertEquals(1, lookup(lf, 500));
+		assertTrue(lf.getBloomStats().getNegatives() > 0);
+
+		// runs written without a filter are read through
+		lf.setBloomBitsPerKey(0);
+		lf.setMemtableLimit(10);
+		insert(lf, 0, 20, 1);
+		lf.getBloomStats().reset();
+		assertEquals(2, lookup(lf, 10));
+		assertEquals(1, lookup(lf, 15));
+	}
+
+	/**
+	 * Unit test for equality searches on a BTreeFile with a filter, which is
+	 * kept up to date by inserts and read again when the file is opened again
+	 */
+	@Test public void btree() throws Exception {
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+		insert(bf, 0, 2000, 2);
+		assertFalse(bf.hasBloomFilter());
+		TransactionId tid = new TransactionId();
+		bf.enableBloomFilter(tid, 10);
+		Database.getBufferPool().transactionComplete(tid);
+		assertTrue(bf.hasBloomFilter());
+		insert(bf, 0, 2000, 3);
+
+		List<Integer> found = new ArrayList<>();
+		for (int i = 0; i < 2000; i++)
+			if (lookup(bf, i) > 0)
+				found.add(i);
+		int expected = 0;
+		for (int i = 0; i < 2000; i++)
+			if (i % 2 == 0 || i % 3 == 0)
+				assertEquals(i, (int) found.get(expected++));
+		assertEquals(expected, found.size());
+		BloomFilter.Stats stats = bf.getBloomStats();
+		assertEquals(expected, stats.getTruePositives());
+		assertEquals(2000 - expected, stats.getNegatives() + stats.getFalsePositives());
+		assertTrue(stats.toString(), stats.getFalsePositiveRate() < 0.1);
+
+		// the filter saved by the last commit is read again, with the keys inserted after it was built
+		assertTrue(new File(f.getPath() + ".bloom").exists());
+		bf = BTreeUtility.openBTreeFile(2, f, 0);
+		tid = new TransactionId();
+		bf.enableBloomFilter(tid, 10);
+		Database.getBufferPool().transactionComplete(tid);
+		assertEquals(1, lookup(bf, 1995));
+		assertEquals(0, lookup(bf, 1997));
+		assertEquals(2, lookup(bf, 1998));
+
+		bf.disableBloomFilter();
+		assertFalse(new File(f.getPath() + ".bloom").exists());
+		assertEquals(0, lookup(bf, 1997));
+		assertEquals(2, bf.getBloomStats().getTruePositives());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BloomFilterTest.class);
+	}
+}
@@ -0,0 +1,152 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Page;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class BufferPoolResizeTest extends SimpleDbTestBase {
+	private static final int PAGES = 10;
+
+	private TransactionId tid;
+	private BTreeFile big;
+	private BTreeFile small;
+	private BufferPool bp;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		File bigFile = File.createTempFile("big", "dat");
+		bigFile.deleteOnExit();
+		bigFile.delete();
+		File smallFile = File.createTempFile("small", "dat");
+		smallFile.deleteOnExit();
+		smallFile.delete();
+		big = BTreeUtility.createEmptyBTreeFile(bigFile.getAbsolutePath(), 2, 0, PAGES);
+		small = BTreeUtility.createEmptyBTreeFile(smallFile.getAbsolutePath(), 2, 0, PAGES);
+		bp = Database.resetBufferPool(PAGES);
+		tid = new TransactionId();
+	}
+
+	@After public void tearDown() {
+		bp.transactionComplete(tid);
+	}
+
+	private void readPages(BTreeFile f, int n) throws Exception {
+		for (int i = 1; i <= n; i++) {
+			bp.getPage(tid, new BTreePageId(f.getId(), i, BTreePageId.LEAF), Permissions.READ_ONLY);
+		}
+	}
+
+	/**
+	 * Unit test for BufferPool.setNumPages()
+	 */
+	@Test public void shrinkAndGrow() throws Exception {
+		readPages(big, PAGES);
+		assertEquals(PAGES, bp.getNumCachedPages(big.getId()));
+
+		bp.setNumPages(4);
+		assertEquals(4, bp.getNumPages());
+		assertEquals(4, bp.getNumCachedPages(big.getId()));
+
+		readPages(small, PAGES);
+		assertEquals(0, bp.getNumCachedPages(big.getId()));
+		assertEquals(4, bp.getNumCachedPages(small.getId()));
+
+		bp.setNumPages(PAGES * 2);
+		readPages(big, PAGES);
+		assertEquals(PAGES, bp.getNumCachedPages(big.getId()));
+		assertEquals(4, bp.getNumCachedPages(small.getId()));
+	}
+
+	/**
+	 * Unit test for BufferPool.setTableQuota()
+	 */
+	@Test public void tableQuota() throws Exception {
+		readPages(small, 3);
+		bp.setTableQuota(big.getId(), 2);
+		assertEquals(Integer.valueOf(2), bp.getTableQuota(big.getId()));
+
+		// a scan of the big table only ever recycles its own pages
+		readPages(big, PAGES);
+		assertEquals(2, bp.getNumCachedPages(big.getId()));
+		assertEquals(3, bp.getNumCachedPages(small.getId()));
+
+		// lowering the quota evicts right away
+		bp.setTableQuota(big.getId(), 1);
+		assertEquals(1, bp.getNumCachedPages(big.getId()));
+
+		bp.removeTableQuota(big.getId());
+		assertNull(bp.getTableQuota(big.getId()));
+		readPages(big, PAGES);
+		assertEquals(PAGES, bp.getNumCachedPages(big.getId()));
+		assertEquals(0, bp.getNumCachedPages(small.getId()));
+	}
+
+	/**
+	 * Unit test for concurrent misses on a full pool: they never overfill it,
+	 * and never push out a dirty page
+	 */
+	@Test public void concurrentMisses() throws Exception {
+		bp.setNumPages(4);
+		Page dirty = bp.getPage(tid, new BTreePageId(small.getId(), 1, BTreePageId.LEAF), Permissions.READ_WRITE);
+		dirty.markDirty(true, tid);
+
+		List<Thread> threads = new ArrayList<>();
+		List<Throwable> errors = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			final int offset = t;
+			threads.add(new Thread(() -> {
+				TransactionId reader = new TransactionId();
+				try {
+					for (int i = 0; i < 50; i++) {
+						int pgNo = (offset + i) % PAGES + 1;
+						bp.getPage(reader, new BTreePageId(big.getId(), pgNo, BTreePageId.LEAF), Permissions.READ_ONLY);
+					}
+				} catch (Throwable e) {
+					synchronized (errors) {
+						errors.add(e);
+					}
+				} finally {
+					bp.transactionComplete(reader);
+				}
+			}));
+		}
+		for (Thread t : threads)
+			t.start();
+		for (Thread t : threads)
+			t.join();
+
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertEquals(1, bp.getNumCachedPages(small.getId()));
+		assertTrue(bp.getNumCachedPages(big.getId()) <= 3);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BufferPoolResizeTest.class);
+	}
+}
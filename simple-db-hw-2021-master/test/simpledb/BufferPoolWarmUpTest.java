@@ -0,0 +1,94 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class BufferPoolWarmUpTest extends SimpleDbTestBase {
+	private static final int PAGES = 8;
+
+	private BTreeFile bf;
+	private File pageList;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		File f = File.createTempFile("warm", "dat");
+		f.deleteOnExit();
+		f.delete();
+		bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0, PAGES);
+		pageList = File.createTempFile("pagelist", "dat");
+		pageList.deleteOnExit();
+	}
+
+	/**
+	 * Unit test for BufferPool.savePageList() and BufferPool.readPageList()
+	 */
+	@Test public void pageListOrder() throws Exception {
+		BufferPool bp = Database.resetBufferPool(PAGES);
+		TransactionId tid = new TransactionId();
+		int[] order = new int[] { 3, 1, 5 };
+		for (int pgNo : order) {
+			bp.getPage(tid, new BTreePageId(bf.getId(), pgNo, BTreePageId.LEAF), Permissions.READ_ONLY);
+		}
+		bp.transactionComplete(tid);
+		bp.savePageList(pageList);
+
+		// hottest (most recently used) page first
+		List<PageId> pids = BufferPool.readPageList(pageList);
+		assertEquals(order.length, pids.size());
+		for (int i = 0; i < order.length; i++) {
+			assertEquals(new BTreePageId(bf.getId(), order[order.length - 1 - i], BTreePageId.LEAF), pids.get(i));
+		}
+	}
+
+	/**
+	 * Unit test for BufferPool.warmUp()
+	 */
+	@Test public void warmUp() throws Exception {
+		BufferPool bp = Database.resetBufferPool(PAGES);
+		TransactionId tid = new TransactionId();
+		for (int pgNo = 1; pgNo <= PAGES; pgNo++) {
+			bp.getPage(tid, new BTreePageId(bf.getId(), pgNo, BTreePageId.LEAF), Permissions.READ_ONLY);
+		}
+		bp.transactionComplete(tid);
+		bp.savePageList(pageList);
+
+		// a smaller pool only prefetches as many pages as it can hold
+		bp = Database.resetBufferPool(PAGES / 2);
+		assertEquals(0, bp.getNumCachedPages(bf.getId()));
+		int added = bp.warmUp(pageList, 2).get();
+		assertEquals(PAGES / 2, added);
+		assertEquals(PAGES / 2, bp.getNumCachedPages(bf.getId()));
+
+		// prefetching never evicts, so a second warm up adds nothing
+		assertEquals(0, (int) bp.warmUp(pageList, 2).get());
+		assertTrue(bp.getNumCachedPages(bf.getId()) <= PAGES / 2);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BufferPoolWarmUpTest.class);
+	}
+}
@@ -0,0 +1,111 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.CompressedPageCache;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class CompressedPageCacheTest extends SimpleDbTestBase {
+	private TransactionId tid;
+	private BTreeFile bf;
+	private BufferPool bp;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		File f = File.createTempFile("tier", "dat");
+		f.deleteOnExit();
+		f.delete();
+		bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0, 4);
+		bp = Database.resetBufferPool(2);
+		bp.setSecondaryCacheSize(1 << 20);
+		tid = new TransactionId();
+	}
+
+	@After public void tearDown() {
+		bp.transactionComplete(tid);
+	}
+
+	private Page read(int pageNo) throws Exception {
+		return bp.getPage(tid, new BTreePageId(bf.getId(), pageNo, BTreePageId.LEAF), Permissions.READ_ONLY);
+	}
+
+	/**
+	 * Unit test for CompressedPageCache.put() and take()
+	 */
+	@Test public void putAndTake() {
+		CompressedPageCache cache = new CompressedPageCache(3 * 4096);
+		byte[] zeroes = new byte[4096];
+		byte[] noise = new byte[4096];
+		new Random(6830).nextBytes(noise);
+		PageId p0 = new HeapPageId(1, 0);
+		PageId p1 = new HeapPageId(1, 1);
+
+		cache.put(p0, zeroes);
+		cache.put(p1, noise);
+		assertTrue(cache.getUsedBytes() < zeroes.length + noise.length);
+		assertArrayEquals(noise, cache.take(p1));
+		assertArrayEquals(zeroes, cache.take(p0));
+		assertNull(cache.take(p0));
+		assertEquals(0, cache.getUsedBytes());
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		// the oldest entries make room for new ones
+		for (int i = 0; i < 4; i++) {
+			cache.put(new HeapPageId(2, i), noise);
+		}
+		assertEquals(3, cache.getNumPages());
+		assertNull(cache.take(new HeapPageId(2, 0)));
+	}
+
+	/**
+	 * Unit test for BufferPool.getPage() with a second cache tier
+	 */
+	@Test public void evictedPagesComeBack() throws Exception {
+		byte[] image = read(1).getPageData();
+		read(2);
+		read(3);
+		CompressedPageCache cache = bp.getSecondaryCache();
+		assertEquals(1, cache.getNumPages());
+
+		assertArrayEquals(image, read(1).getPageData());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getNumPages());
+
+		// a discarded page is forgotten by both tiers
+		bp.discardPage(new BTreePageId(bf.getId(), 2, BTreePageId.LEAF));
+		assertEquals(0, cache.getNumPages());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(CompressedPageCacheTest.class);
+	}
+}
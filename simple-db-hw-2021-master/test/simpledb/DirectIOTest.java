@@ -0,0 +1,108 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DirectIO;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class DirectIOTest extends SimpleDbTestBase {
+	private File f;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		assumeTrue(DirectIO.isSupported());
+		f = File.createTempFile("direct", "dat");
+		f.deleteOnExit();
+		DirectIO.setEnabled(true);
+	}
+
+	@After public void tearDown() {
+		DirectIO.setEnabled(false);
+	}
+
+	private static byte[] filled(int len, int value) {
+		byte[] b = new byte[len];
+		Arrays.fill(b, (byte) value);
+		return b;
+	}
+
+	/**
+	 * Unit test for DirectIO.write() and DirectIO.read() at unaligned offsets
+	 */
+	@Test public void unalignedReadWrite() throws Exception {
+		DirectIO.write(f, 0, filled(9, 1));
+		assertEquals(9, f.length());
+		DirectIO.write(f, 9, filled(4096, 2));
+		DirectIO.write(f, 9 + 4096, filled(4096, 3));
+		assertEquals(9 + 2 * 4096, f.length());
+
+		// overwriting the middle page leaves its neighbours alone
+		DirectIO.write(f, 9, filled(4096, 4));
+		byte[] buf = new byte[4096];
+		assertEquals(4096, DirectIO.read(f, 9, buf));
+		assertArrayEquals(filled(4096, 4), buf);
+		assertEquals(4096, DirectIO.read(f, 9 + 4096, buf));
+		assertArrayEquals(filled(4096, 3), buf);
+		byte[] head = new byte[9];
+		assertEquals(9, DirectIO.read(f, 0, head));
+		assertArrayEquals(filled(9, 1), head);
+
+		// the bytes are where RandomAccessFile expects them
+		try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+			raf.seek(9 + 4095);
+			assertEquals(4, raf.read());
+			assertEquals(3, raf.read());
+		}
+
+		assertEquals(-1, DirectIO.read(f, 9 + 2 * 4096, buf));
+	}
+
+	/**
+	 * Unit test for BTreeFile.readPage() and writePage() with direct I/O
+	 */
+	@Test public void bTreePages() throws Exception {
+		f.delete();
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0, 3);
+		BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		TransactionId tid = new TransactionId();
+		BTreePageId pid = new BTreePageId(bf.getId(), 2, BTreePageId.LEAF);
+		BTreeLeafPage page = (BTreeLeafPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+		page.setRightSiblingId(new BTreePageId(bf.getId(), 3, BTreePageId.LEAF));
+		bf.writePage(page);
+		bp.transactionComplete(tid);
+
+		BTreeLeafPage reread = (BTreeLeafPage) bf.readPage(pid);
+		assertEquals(3, reread.getRightSiblingId().getPageNumber());
+		assertEquals(3, bf.numPages());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(DirectIOTest.class);
+	}
+}
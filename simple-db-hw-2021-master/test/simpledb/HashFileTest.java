@@ -0,0 +1,191 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.HashFile;
+import simpledb.index.HashIndexScan;
+import simpledb.index.HashMetaPage;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class HashFileTest extends SimpleDbTestBase {
+	private static final int ROWS = 20000;
+	private static final int KEYS = 5000;
+
+	private TransactionId tid;
+	private HashFile hf;
+	private Map<Integer, Integer> counts;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		// inserts are spread over every bucket, so each batch dirties most of the file
+		Database.resetBufferPool(500);
+		File f = File.createTempFile("hash", "dat");
+		f.deleteOnExit();
+		f.delete();
+		hf = new HashFile(f, 0, Utility.getTupleDesc(2, "f"));
+		Database.getCatalog().addTable(hf, "hashed");
+
+		tid = new TransactionId();
+		counts = new HashMap<>();
+		Random rand = new Random(6830);
+		for (int i = 0; i < ROWS; i++) {
+			int key = rand.nextInt(KEYS);
+			counts.merge(key, 1, Integer::sum);
+			Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(key, i));
+			if (i % 1000 == 999) {
+				Database.getBufferPool().transactionComplete(tid);
+				tid = new TransactionId();
+			}
+		}
+	}
+
+	@After public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private static Tuple tuple(int key, int value) {
+		Tuple t = new Tuple(Utility.getTupleDesc(2, "f"));
+		t.setField(0, new IntField(key));
+		t.setField(1, new IntField(value));
+		return t;
+	}
+
+	private int count(int key) throws Exception {
+		DbFileIterator it = hf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+		it.open();
+		int n = 0;
+		while (it.hasNext()) {
+			assertEquals(new IntField(key), it.next().getField(0));
+			n++;
+		}
+		it.close();
+		return n;
+	}
+
+	/**
+	 * Unit test for equality lookups after many inserts and bucket splits
+	 */
+	@Test public void lookup() throws Exception {
+		HashMetaPage meta = (HashMetaPage) Database.getBufferPool().getPage(tid,
+				HashMetaPage.getId(hf.getId()), Permissions.READ_ONLY);
+		int buckets = meta.getNumBuckets(HashFile.INITIAL_BUCKETS);
+		// about one page per bucket
+		assertTrue(buckets > ROWS / 600);
+		assertTrue(hf.numPages() < 2 * buckets + 1);
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+
+		for (int key = 0; key < KEYS; key += 7) {
+			assertEquals((int) counts.getOrDefault(key, 0), count(key));
+		}
+		assertEquals(0, count(KEYS + 1));
+		// the meta page is only locked while the bucket is found
+		assertFalse(Database.getBufferPool().holdsLock(tid, HashMetaPage.getId(hf.getId())));
+
+		int total = 0;
+		DbFileIterator it = hf.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			it.next();
+			total++;
+		}
+		it.close();
+		assertEquals(ROWS, total);
+	}
+
+	/**
+	 * Unit test for deletes, and for reading the file back from disk
+	 */
+	@Test public void deleteAndReload() throws Exception {
+		int key = counts.keySet().iterator().next();
+		DbFileIterator it = hf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+		it.open();
+		Tuple t = it.next();
+		it.close();
+		Database.getBufferPool().deleteTuple(tid, t);
+		assertEquals(counts.get(key) - 1, count(key));
+		Database.getBufferPool().transactionComplete(tid);
+
+		Database.resetBufferPool(500);
+		tid = new TransactionId();
+		assertEquals(counts.get(key) - 1, count(key));
+		assertEquals((int) counts.getOrDefault(KEYS / 2, 0), count(KEYS / 2));
+	}
+
+	/**
+	 * Unit test for aborting inserts that split buckets
+	 */
+	@Test public void abort() throws Exception {
+		TransactionId t = new TransactionId();
+		for (int i = 0; i < 1000; i++) {
+			Database.getBufferPool().insertTuple(t, hf.getId(), tuple(KEYS + i % 10, i));
+		}
+		Database.getBufferPool().transactionComplete(t, false);
+		assertEquals(0, count(KEYS + 3));
+		for (int key = 0; key < KEYS; key += 101) {
+			assertEquals((int) counts.getOrDefault(key, 0), count(key));
+		}
+	}
+
+	/**
+	 * Unit test for choosing a hash lookup in LogicalPlan.physicalPlan
+	 */
+	@Test public void planned() throws Exception {
+		TableStats.setTableStats("hashed", new TableStats(hf.getId(), 1000));
+		int key = counts.keySet().iterator().next();
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(hf.getId(), "h");
+		lp.addProjectField("h.f1", null);
+		lp.addFilter("h.f0", Op.EQUALS, Integer.toString(key));
+		OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		OpIterator scan = plan;
+		while (scan instanceof Operator)
+			scan = ((Operator) scan).getChildren()[0];
+		assertTrue(scan instanceof HashIndexScan);
+
+		int n = 0;
+		plan.open();
+		while (plan.hasNext()) {
+			plan.next();
+			n++;
+		}
+		plan.close();
+		assertEquals((int) counts.get(key), n);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(HashFileTest.class);
+	}
+}
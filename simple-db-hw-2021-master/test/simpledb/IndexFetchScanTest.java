@@ -0,0 +1,226 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate.Op;
+import simpledb.execution.SeqScan;
+import simpledb.index.IndexFetchScan;
+import simpledb.index.SecondaryIndex;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class IndexFetchScanTest extends SimpleDbTestBase {
+	private static final int ROWS = 20000;
+	private static final int PROBES = 10;
+
+	private TransactionId tid;
+	private HeapFile table;
+	private HeapFile probe;
+	private SecondaryIndex index;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		List<List<Integer>> rows = new ArrayList<>();
+		for (int i = 0; i < ROWS; i++)
+			rows.add(Arrays.asList(i, i * 2, (i * 7) % ROWS));
+		table = heapFile("big", new String[] { "id", "a", "b" }, rows);
+		List<List<Integer>> keys = new ArrayList<>();
+		for (int i = 0; i < PROBES; i++)
+			keys.add(Arrays.asList(i * 100));
+		probe = heapFile("probe", new String[] { "k" }, keys);
+
+		// index on b, pointing to the tuples of big
+		File idx = File.createTempFile("big_b", "dat");
+		idx.deleteOnExit();
+		idx.delete();
+		index = new SecondaryIndex("big_b", table.getId(), 2, new int[0], idx);
+		tid = new TransactionId();
+		assertEquals(ROWS, index.build(tid, 1000));
+		Database.getBufferPool().transactionComplete(tid);
+		Database.getCatalog().addIndex(index);
+		TableStats.setTableStats("big", new TableStats(table.getId(), 1000));
+		TableStats.setTableStats("probe", new TableStats(probe.getId(), 1000));
+		tid = new TransactionId();
+	}
+
+	@After public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private static HeapFile heapFile(String name, String[] fields, List<List<Integer>> rows) throws Exception {
+		File f = File.createTempFile(name, "dat");
+		f.deleteOnExit();
+		HeapFileEncoder.convert(rows, f, BufferPool.getPageSize(), fields.length);
+		Type[] types = new Type[fields.length];
+		Arrays.fill(types, Type.INT_TYPE);
+		HeapFile hf = new HeapFile(f, new TupleDesc(types, fields));
+		Database.getCatalog().addTable(hf, name);
+		return hf;
+	}
+
+	private Tuple row(int i) {
+		Tuple t = new Tuple(table.getTupleDesc());
+		t.setField(0, new IntField(i));
+		t.setField(1, new IntField(i * 2));
+		t.setField(2, new IntField((i * 7) % ROWS));
+		return t;
+	}
+
+	private static List<List<Integer>> rows(OpIterator it) throws Exception {
+		List<List<Integer>> rows = new ArrayList<>();
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			List<Integer> row = new ArrayList<>();
+			for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+				row.add(((IntField) t.getField(i)).getValue());
+			rows.add(row);
+		}
+		it.close();
+		return rows;
+	}
+
+	private static <T> T find(OpIterator plan, Class<T> c) {
+		if (c.isInstance(plan))
+			return c.cast(plan);
+		if (plan instanceof Operator) {
+			for (OpIterator child : ((Operator) plan).getChildren()) {
+				T found = find(child, c);
+				if (found != null)
+					return found;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Unit test for IndexFetchScan
+	 */
+	@Test public void fetch() throws Exception {
+		IndexFetchScan scan = new IndexFetchScan(tid, index, "x",
+				new IndexPredicate(Op.EQUALS, new IntField(70)));
+		assertEquals("x.id", scan.getTupleDesc().getFieldName(0));
+		assertEquals(3, scan.getTupleDesc().numFields());
+		assertEquals(Arrays.asList(Arrays.asList(10, 20, 70)), rows(scan));
+
+		List<List<Integer>> rows = rows(new IndexFetchScan(tid, index, "x",
+				new IndexPredicate(Op.GREATER_THAN, new IntField(ROWS - 10))));
+		assertEquals(9, rows.size());
+		for (int i = 0; i < rows.size(); i++)
+			assertEquals(ROWS - 9 + i, (int) rows.get(i).get(2));
+	}
+
+	/**
+	 * Unit test for keeping the record ids of the index up to date
+	 */
+	@Test public void maintained() throws Exception {
+		IndexPredicate seven = new IndexPredicate(Op.EQUALS, new IntField(7));
+		Tuple t = row(ROWS);
+		t.setField(2, new IntField(7));
+		Database.getBufferPool().insertTuple(tid, table.getId(), t);
+		assertEquals(2, rows(new IndexFetchScan(tid, index, "x", seven)).size());
+
+		// delete the original tuple; the entry of the new one stays
+		IndexFetchScan scan = new IndexFetchScan(tid, index, "x", seven);
+		scan.open();
+		Tuple old = null;
+		while (scan.hasNext()) {
+			Tuple next = scan.next();
+			if (((IntField) next.getField(0)).getValue() == 1)
+				old = next;
+		}
+		scan.close();
+		Database.getBufferPool().deleteTuple(tid, old);
+		assertEquals(Arrays.asList(Arrays.asList(ROWS, ROWS * 2, 7)),
+				rows(new IndexFetchScan(tid, index, "x", seven)));
+	}
+
+	/**
+	 * Unit test for choosing an index scan for a selective filter
+	 */
+	@Test public void planned() throws Exception {
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(table.getId(), "t");
+		lp.addProjectField("*", null);
+		lp.addFilter("t.b", Op.EQUALS, "70");
+		OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		assertNotNull(find(plan, IndexFetchScan.class));
+		assertEquals(Arrays.asList(Arrays.asList(10, 20, 70)), rows(plan));
+
+		// most of the table matches
+		lp = new LogicalPlan();
+		lp.addScan(table.getId(), "t");
+		lp.addProjectField("*", null);
+		lp.addFilter("t.b", Op.GREATER_THAN, "100");
+		plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		assertNull(find(plan, IndexFetchScan.class));
+		assertNotNull(find(plan, SeqScan.class));
+		assertEquals(ROWS - 101, rows(plan).size());
+	}
+
+	/**
+	 * Unit test for choosing an index nested-loop join
+	 */
+	@Test public void joined() throws Exception {
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(probe.getId(), "p");
+		lp.addScan(table.getId(), "t");
+		lp.addProjectField("t.id", null);
+		lp.addJoin("p.k", "t.b", Op.EQUALS);
+		lp.addFilter("t.a", Op.LESS_THAN, "10000");
+		OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		IndexNestedLoopJoin join = find(plan, IndexNestedLoopJoin.class);
+		assertNotNull(join);
+		assertEquals("t.b", join.getJoinField2Name());
+
+		// b = 7 * id mod ROWS, and a = 2 * id
+		int expected = 0;
+		for (int i = 0; i < ROWS; i++) {
+			int b = (i * 7) % ROWS;
+			if (b % 100 == 0 && b < PROBES * 100 && i * 2 < 10000)
+				expected++;
+		}
+		List<List<Integer>> rows = rows(plan);
+		assertEquals(expected, rows.size());
+		for (List<Integer> row : rows)
+			assertTrue(row.get(0) * 2 < 10000);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(IndexFetchScanTest.class);
+	}
+}
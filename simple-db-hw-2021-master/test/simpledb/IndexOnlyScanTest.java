@@ -0,0 +1,177 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Filter;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate.Op;
+import simpledb.execution.SeqScan;
+import simpledb.index.IndexOnlyScan;
+import simpledb.index.SecondaryIndex;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class IndexOnlyScanTest extends SimpleDbTestBase {
+	private static final int ROWS = 500;
+
+	private TransactionId tid;
+	private HeapFile table;
+	private SecondaryIndex index;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		File f = File.createTempFile("covered", "dat");
+		f.deleteOnExit();
+		TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE },
+				new String[] { "id", "a", "b", "c" });
+		table = new HeapFile(f, td);
+		Database.getCatalog().addTable(table, "covered");
+
+		tid = new TransactionId();
+		for (int i = 0; i < ROWS; i++) {
+			Database.getBufferPool().insertTuple(tid, table.getId(), row(i));
+		}
+		Database.getBufferPool().transactionComplete(tid);
+
+		// index on b, including a
+		File idx = File.createTempFile("covered_b", "dat");
+		idx.deleteOnExit();
+		idx.delete();
+		index = new SecondaryIndex("covered_b", table.getId(), 2, new int[] { 1 }, idx);
+		tid = new TransactionId();
+		assertEquals(ROWS, index.build(tid, 100));
+		Database.getCatalog().addIndex(index);
+		TableStats.setTableStats("covered", new TableStats(table.getId(), 1000));
+	}
+
+	@After public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private static Tuple row(int i) {
+		Tuple t = new Tuple(Database.getCatalog().getTupleDesc(Database.getCatalog().getTableId("covered")));
+		t.setField(0, new IntField(i));
+		t.setField(1, new IntField(i * 2));
+		t.setField(2, new IntField((i * 7) % ROWS));
+		t.setField(3, new IntField(-i));
+		return t;
+	}
+
+	private static List<List<Integer>> rows(OpIterator it) throws Exception {
+		List<List<Integer>> rows = new ArrayList<>();
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			List<Integer> row = new ArrayList<>();
+			for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+				row.add(((IntField) t.getField(i)).getValue());
+			rows.add(row);
+		}
+		it.close();
+		return rows;
+	}
+
+	private static OpIterator scanOf(OpIterator plan) {
+		while (plan instanceof Operator)
+			plan = ((Operator) plan).getChildren()[0];
+		return plan;
+	}
+
+	/**
+	 * Unit test for IndexOnlyScan over a built index
+	 */
+	@Test public void scan() throws Exception {
+		IndexOnlyScan scan = new IndexOnlyScan(tid, index, "x", null);
+		assertEquals("x.b", scan.getTupleDesc().getFieldName(0));
+		assertEquals("x.a", scan.getTupleDesc().getFieldName(1));
+		List<List<Integer>> rows = rows(scan);
+		assertEquals(ROWS, rows.size());
+		for (int i = 0; i < ROWS; i++) {
+			assertEquals(i, (int) rows.get(i).get(0));
+			assertEquals(0, rows.get(i).get(1) % 2);
+		}
+
+		rows = rows(new IndexOnlyScan(tid, index, "x", new IndexPredicate(Op.EQUALS, new IntField(7))));
+		assertEquals(Collections.singletonList(java.util.Arrays.asList(7, 2)), rows);
+	}
+
+	/**
+	 * Unit test for keeping the index up to date in BufferPool.insertTuple and deleteTuple
+	 */
+	@Test public void maintained() throws Exception {
+		Tuple t = row(ROWS);
+		t.setField(2, new IntField(7));
+		Database.getBufferPool().insertTuple(tid, table.getId(), t);
+		IndexPredicate seven = new IndexPredicate(Op.EQUALS, new IntField(7));
+		assertEquals(2, rows(new IndexOnlyScan(tid, index, "x", seven)).size());
+
+		Database.getBufferPool().deleteTuple(tid, t);
+		List<List<Integer>> rows = rows(new IndexOnlyScan(tid, index, "x", seven));
+		assertEquals(1, rows.size());
+		assertEquals(2, (int) rows.get(0).get(1));
+	}
+
+	/**
+	 * Unit test for choosing an index-only scan in LogicalPlan.physicalPlan
+	 */
+	@Test public void planned() throws Exception {
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(table.getId(), "c");
+		lp.addProjectField("c.a", null);
+		lp.addFilter("c.b", Op.LESS_THAN, "10");
+		OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		assertTrue(scanOf(plan) instanceof IndexOnlyScan);
+		List<List<Integer>> rows = rows(plan);
+		assertEquals(10, rows.size());
+
+		// c is not in the index
+		lp = new LogicalPlan();
+		lp.addScan(table.getId(), "c");
+		lp.addProjectField("c.a", null);
+		lp.addFilter("c.c", Op.LESS_THAN, "-10");
+		plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		assertTrue(scanOf(plan) instanceof SeqScan);
+		assertFalse(rows(plan).isEmpty());
+
+		lp = new LogicalPlan();
+		lp.addScan(table.getId(), "c");
+		lp.addProjectField("*", null);
+		lp.addFilter("c.b", Op.EQUALS, "3");
+		plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		assertTrue(scanOf(plan) instanceof SeqScan);
+		assertTrue(((Operator) plan).getChildren()[0] instanceof Filter);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(IndexOnlyScanTest.class);
+	}
+}
@@ -0,0 +1,200 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class IndexOrganizedTableTest extends SimpleDbTestBase {
+	private static final int ROWS = 20000;
+
+	private File dir;
+	private TransactionId tid;
+	private int emp;
+	private int probe;
+
+	/**
+	 * Set up initial resources for each unit test: a table organized as a B+
+	 * tree on its primary key, filled through the parser, and a heap table.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		// the B+ tree is loaded in one transaction
+		Database.resetBufferPool(500);
+		dir = Files.createTempDirectory("iot").toFile();
+		File catalog = new File(dir, "catalog.txt");
+		try (FileWriter w = new FileWriter(catalog)) {
+			w.write("emp (id int pk, salary int) btree\n");
+			w.write("probe (k int, v int)\n");
+		}
+		// a heap file has to exist to be written to; the B+ tree creates its file
+		new File(dir, "probe.dat").createNewFile();
+		Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+		emp = Database.getCatalog().getTableId("emp");
+		probe = Database.getCatalog().getTableId("probe");
+
+		// keys in a scrambled order, a few of them inserted through the parser
+		Parser p = new Parser();
+		List<Tuple> tuples = new ArrayList<>();
+		for (int i = 0; i < ROWS; i++) {
+			int id = (i * 7919) % ROWS;
+			if (id < 10) {
+				p.processNextStatement("insert into emp values (" + id + ", " + (id * 10) + ");");
+				continue;
+			}
+			Tuple t = new Tuple(Database.getCatalog().getTupleDesc(emp));
+			t.setField(0, new IntField(id));
+			t.setField(1, new IntField(id * 10));
+			tuples.add(t);
+		}
+		TransactionId loader = new TransactionId();
+		Database.getBufferPool().insertTuples(loader, emp, tuples);
+		Database.getBufferPool().transactionComplete(loader);
+		for (int i = 0; i < 5; i++)
+			p.processNextStatement("insert into probe values (" + (i * 100) + ", " + i + ");");
+		TableStats.setTableStats("emp", new TableStats(emp, 1000));
+		TableStats.setTableStats("probe", new TableStats(probe, 1000));
+		tid = new TransactionId();
+	}
+
+	@After public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	private static <T> T find(OpIterator plan, Class<T> c) {
+		if (c.isInstance(plan))
+			return c.cast(plan);
+		if (plan instanceof Operator) {
+			for (OpIterator child : ((Operator) plan).getChildren()) {
+				T found = find(child, c);
+				if (found != null)
+					return found;
+			}
+		}
+		return null;
+	}
+
+	/** @return the values of a field of every tuple of a plan */
+	private static List<Integer> values(OpIterator plan, int field) throws Exception {
+		List<Integer> values = new ArrayList<>();
+		plan.open();
+		while (plan.hasNext())
+			values.add(((IntField) plan.next().getField(field)).getValue());
+		plan.close();
+		return values;
+	}
+
+	/**
+	 * Unit test for the storage keyword of catalog entries
+	 */
+	@Test public void catalog() {
+		BTreeFile bf = (BTreeFile) Database.getCatalog().getDatabaseFile(emp);
+		assertEquals(0, bf.keyField());
+		assertEquals("id", Database.getCatalog().getPrimaryKey(emp));
+		assertTrue(Database.getCatalog().getDatabaseFile(probe) instanceof HeapFile);
+	}
+
+	/**
+	 * Unit test for ORDER BY on the key, which needs no sort, and for deletes
+	 * through the parser
+	 */
+	@Test public void orderByKey() throws Exception {
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(emp, "e");
+		lp.addProjectField("e.id", null);
+		lp.addFilter("e.salary", Op.GREATER_THAN_OR_EQ, "1000");
+		lp.addOrderBy("e.id", true);
+		OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		assertNull(find(plan, OrderBy.class));
+		List<Integer> ids = values(plan, 0);
+		assertEquals(ROWS - 100, ids.size());
+		for (int i = 0; i < ids.size(); i++)
+			assertEquals(100 + i, (int) ids.get(i));
+
+		lp = new LogicalPlan();
+		lp.addScan(emp, "e");
+		lp.addProjectField("e.id", null);
+		lp.addOrderBy("e.salary", true);
+		assertNotNull(find(lp.physicalPlan(tid, TableStats.getStatsMap(), false), OrderBy.class));
+		Database.getBufferPool().transactionComplete(tid);
+
+		new Parser().processNextStatement("delete from emp where emp.id < 12000;");
+		tid = new TransactionId();
+		lp = new LogicalPlan();
+		lp.addScan(emp, "e");
+		lp.addProjectField("e.id", null);
+		lp.addOrderBy("e.id", true);
+		ids = values(lp.physicalPlan(tid, TableStats.getStatsMap(), false), 0);
+		assertEquals(ROWS - 12000, ids.size());
+		assertEquals(12000, (int) ids.get(0));
+	}
+
+	/**
+	 * Unit test for a range filter on the key, read by a B+ tree scan
+	 */
+	@Test public void range() throws Exception {
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(emp, "e");
+		lp.addProjectField("e.salary", null);
+		lp.addFilter("e.id", Op.LESS_THAN, "50");
+		OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		assertNotNull(find(plan, BTreeScan.class));
+		assertEquals(50, values(plan, 0).size());
+	}
+
+	/**
+	 * Unit test for an index nested-loop join which looks up the key of the
+	 * B+ tree
+	 */
+	@Test public void joinOnKey() throws Exception {
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(probe, "p");
+		lp.addScan(emp, "e");
+		lp.addProjectField("e.salary", null);
+		lp.addJoin("p.k", "e.id", Op.EQUALS);
+		OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		assertNotNull(find(plan, IndexNestedLoopJoin.class));
+		assertNotNull(find(plan, BTreeScan.class));
+		List<Integer> salaries = values(plan, 0);
+		salaries.sort(null);
+		assertEquals(List.of(0, 1000, 2000, 3000, 4000), salaries);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(IndexOrganizedTableTest.class);
+	}
+}
@@ -0,0 +1,250 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeUtility;
+import simpledb.index.LsmFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class LsmFileTest extends SimpleDbTestBase {
+	private File f;
+	private LsmFile lf;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		f = File.createTempFile("lsm", "dat");
+		f.deleteOnExit();
+		lf = open();
+		lf.setMemtableLimit(100);
+	}
+
+	@After public void tearDown() {
+		lf.stopCompactor();
+		File[] files = f.getParentFile().listFiles((dir, name) -> name.startsWith(f.getName() + "."));
+		if (files != null)
+			for (File r : files)
+				r.delete();
+	}
+
+	private LsmFile open() {
+		LsmFile file = new LsmFile(f, 0, Utility.getTupleDesc(2));
+		Database.getCatalog().addTable(file, "lsm");
+		return file;
+	}
+
+	/** insert the tuples (key, value) and commit */
+	private void insert(int[][] rows) throws Exception {
+		TransactionId tid = new TransactionId();
+		for (int[] row : rows)
+			Database.getBufferPool().insertTuple(tid, lf.getId(), BTreeUtility.getBTreeTuple(row));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/** @return n tuples (i, i) for i from 0, in random order */
+	private static int[][] shuffled(int n) {
+		List<int[]> rows = new ArrayList<>();
+		for (int i = 0; i < n; i++)
+			rows.add(new int[] { i, i });
+		Collections.shuffle(rows, new Random(n));
+		return rows.toArray(new int[0][]);
+	}
+
+	/** @return the keys read by an iterator of a new transaction */
+	private List<Integer> keys(IndexPredicate ipred) throws Exception {
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = ipred == null ? lf.iterator(tid) : lf.indexIterator(tid, ipred);
+		it.open();
+		List<Integer> keys = new ArrayList<>();
+		while (it.hasNext())
+			keys.add(((IntField) it.next().getField(0)).getValue());
+		it.close();
+		Database.getBufferPool().transactionComplete(tid);
+		return keys;
+	}
+
+	private static List<Integer> range(int from, int to, int step) {
+		List<Integer> keys = new ArrayList<>();
+		for (int i = from; i < to; i += step)
+			keys.add(i);
+		return keys;
+	}
+
+	/** delete the tuples whose key is not a multiple of keep, and commit */
+	private void deleteAllBut(int keep) throws Exception {
+		TransactionId tid = new TransactionId();
+		List<Tuple> doomed = new ArrayList<>();
+		DbFileIterator it = lf.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			if (((IntField) t.getField(0)).getValue() % keep != 0)
+				doomed.add(t);
+		}
+		it.close();
+		for (Tuple t : doomed)
+			Database.getBufferPool().deleteTuple(tid, t);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Unit test for reading inserted tuples in key order, from the memtable and
+	 * from runs
+	 */
+	@Test public void insertScan() throws Exception {
+		insert(shuffled(50));
+		assertEquals(range(0, 50, 1), keys(null));
+		assertEquals(0, lf.getRunsPerLevel().size());
+		insert(shuffled(250));
+		assertEquals(1, (int) lf.getRunsPerLevel().get(0));
+		List<Integer> expected = new ArrayList<>();
+		for (int i = 0; i < 250; i++) {
+			expected.add(i);
+			if (i < 50)
+				expected.add(i);
+		}
+		assertEquals(expected, keys(null));
+	}
+
+	/**
+	 * Unit test for deleting tuples from the memtable and from runs
+	 */
+	@Test public void delete() throws Exception {
+		insert(shuffled(300));
+		insert(shuffled(20));
+		deleteAllBut(2);
+		List<Integer> expected = new ArrayList<>();
+		for (int i = 0; i < 300; i += 2) {
+			expected.add(i);
+			if (i < 20)
+				expected.add(i);
+		}
+		assertEquals(expected, keys(null));
+	}
+
+	/**
+	 * Unit test for a transaction which reads its own changes, and aborts
+	 */
+	@Test public void abort() throws Exception {
+		insert(shuffled(10));
+		TransactionId tid = new TransactionId();
+		for (int[] row : shuffled(200))
+			Database.getBufferPool().insertTuple(tid, lf.getId(), BTreeUtility.getBTreeTuple(new int[] { row[0] + 10, 0 }));
+		DbFileIterator it = lf.iterator(tid);
+		it.open();
+		int n = 0;
+		while (it.hasNext()) {
+			assertEquals(n++, ((IntField) it.next().getField(0)).getValue());
+		}
+		it.close();
+		assertEquals(210, n);
+		Database.getBufferPool().transactionComplete(tid, false);
+		assertEquals(range(0, 10, 1), keys(null));
+	}
+
+	/**
+	 * Unit test for range scans with index predicates
+	 */
+	@Test public void indexIterator() throws Exception {
+		insert(shuffled(1000));
+		insert(shuffled(30));
+		assertEquals(range(500, 1000, 1), keys(new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(500))));
+		assertEquals(range(998, 1000, 1), keys(new IndexPredicate(Op.GREATER_THAN, new IntField(997))));
+		assertEquals(List.of(700), keys(new IndexPredicate(Op.EQUALS, new IntField(700))));
+		assertEquals(List.of(20, 20), keys(new IndexPredicate(Op.EQUALS, new IntField(20))));
+		List<Integer> expected = new ArrayList<>();
+		for (int i = 0; i < 40; i++) {
+			expected.add(i);
+			if (i < 30)
+				expected.add(i);
+		}
+		assertEquals(expected, keys(new IndexPredicate(Op.LESS_THAN, new IntField(40))));
+	}
+
+	/**
+	 * Unit test for merging the runs of a level, which drops deleted tuples
+	 */
+	@Test public void compact() throws Exception {
+		for (int i = 0; i < LsmFile.RUNS_PER_LEVEL; i++)
+			insert(shuffled(100));
+		assertEquals(List.of(LsmFile.RUNS_PER_LEVEL), lf.getRunsPerLevel());
+		TransactionId tid = new TransactionId();
+		assertEquals(1, lf.compact(tid));
+		Database.getBufferPool().transactionComplete(tid);
+		assertEquals(List.of(0, 1), lf.getRunsPerLevel());
+		List<Integer> expected = new ArrayList<>();
+		for (int i = 0; i < 100; i++)
+			for (int j = 0; j < LsmFile.RUNS_PER_LEVEL; j++)
+				expected.add(i);
+		assertEquals(expected, keys(null));
+
+		deleteAllBut(5);
+		tid = new TransactionId();
+		lf.flush(tid);
+		Database.getBufferPool().transactionComplete(tid);
+		expected.removeIf(k -> k % 5 != 0);
+		assertEquals(expected, keys(null));
+		assertTrue(lf.getBytesWritten() > 0);
+	}
+
+	/**
+	 * Unit test for reading the runs and the log of a file again
+	 */
+	@Test public void reopen() throws Exception {
+		insert(shuffled(250));
+		insert(shuffled(10));
+		lf = open();
+		List<Integer> expected = new ArrayList<>();
+		for (int i = 0; i < 250; i++) {
+			expected.add(i);
+			if (i < 10)
+				expected.add(i);
+		}
+		assertEquals(expected, keys(null));
+		assertEquals(List.of(1), lf.getRunsPerLevel());
+	}
+
+	/**
+	 * Unit test for merging runs in the background
+	 */
+	@Test public void background() throws Exception {
+		for (int i = 0; i < LsmFile.RUNS_PER_LEVEL; i++)
+			insert(shuffled(100));
+		lf.startCompactor(20);
+		for (int i = 0; i < 500 && lf.getRunsPerLevel().get(0) > 0; i++)
+			Thread.sleep(10);
+		lf.stopCompactor();
+		assertEquals(List.of(0, 1), lf.getRunsPerLevel());
+		assertEquals(100 * LsmFile.RUNS_PER_LEVEL, keys(null).size());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(LsmFileTest.class);
+	}
+}
@@ -0,0 +1,156 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.storage.PageLatches;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageLatchesTest extends SimpleDbTestBase {
+	private PageLatches latches;
+	private PageId p0;
+	private PageId p1;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		latches = new PageLatches();
+		p0 = new HeapPageId(1, 0);
+		p1 = new HeapPageId(1, 1);
+	}
+
+	/**
+	 * Unit test for PageLatches.read() without a concurrent writer
+	 */
+	@Test public void optimisticRead() {
+		AtomicInteger runs = new AtomicInteger();
+		assertEquals(Integer.valueOf(7), latches.read(p0, () -> {
+			runs.incrementAndGet();
+			return 7;
+		}));
+		assertEquals(1, runs.get());
+		assertEquals(latches.latchFor(p0), latches.latchFor(new HeapPageId(1, 0)));
+	}
+
+	/**
+	 * Unit test for PageLatches.read() when a writer latches the page while
+	 * the optimistic read is running
+	 */
+	@Test public void optimisticReadRetries() {
+		AtomicInteger runs = new AtomicInteger();
+		int result = latches.read(p0, () -> {
+			if (runs.incrementAndGet() == 1) {
+				long stamp = latches.writeLock(p0);
+				latches.unlockWrite(p0, stamp);
+			}
+			return runs.get();
+		});
+		assertEquals(2, result);
+		assertEquals(2, runs.get());
+	}
+
+	/**
+	 * Unit test for PageLatches: a writer blocks readers of the same page only
+	 */
+	@Test public void writerBlocksSamePage() throws Exception {
+		long stamp = latches.writeLock(p0);
+		CountDownLatch readP0 = new CountDownLatch(1);
+		CountDownLatch readP1 = new CountDownLatch(1);
+		new Thread(() -> {
+			latches.read(p0, () -> true);
+			readP0.countDown();
+		}).start();
+		new Thread(() -> {
+			latches.read(p1, () -> true);
+			readP1.countDown();
+		}).start();
+
+		assertTrue(readP1.await(5, TimeUnit.SECONDS));
+		assertFalse(readP0.await(200, TimeUnit.MILLISECONDS));
+		latches.unlockWrite(p0, stamp);
+		assertTrue(readP0.await(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Unit test for PageLatches: shared latches do not exclude each other
+	 */
+	@Test public void sharedReaders() throws Exception {
+		long s1 = latches.readLock(p0);
+		CountDownLatch done = new CountDownLatch(1);
+		new Thread(() -> {
+			long s2 = latches.readLock(p0);
+			latches.unlockRead(p0, s2);
+			done.countDown();
+		}).start();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		latches.unlockRead(p0, s1);
+	}
+
+	/**
+	 * Unit test for PageLatches.remove(): the latch of a page that left the pool
+	 * is forgotten unless a thread holds it
+	 */
+	@Test public void removeLatch() {
+		StampedLock latch = latches.latchFor(p0);
+		long stamp = latches.writeLock(p0);
+		latches.remove(p0);
+		assertSame(latch, latches.latchFor(p0));
+		latches.unlockWrite(p0, stamp);
+
+		latches.remove(p0);
+		assertNotSame(latch, latches.latchFor(p0));
+		stamp = latches.readLock(p0);
+		latches.unlockRead(p0, stamp);
+	}
+
+	/**
+	 * Unit test for PageLatches: a writer waiting for a latch that is removed
+	 * meanwhile still excludes the threads that take the page's new latch
+	 */
+	@Test public void writerOutlivesRemovedLatch() throws Exception {
+		long stamp = latches.readLock(p0);
+		CountDownLatch written = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		new Thread(() -> {
+			long s = latches.writeLock(p0);
+			written.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			latches.unlockWrite(p0, s);
+		}).start();
+		// the writer waits for the old latch, which is forgotten once it is free
+		Thread.sleep(100);
+		latches.unlockRead(p0, stamp);
+		latches.remove(p0);
+		assertTrue(written.await(5, TimeUnit.SECONDS));
+		assertTrue(latches.latchFor(p0).isWriteLocked());
+		release.countDown();
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(PageLatchesTest.class);
+	}
+}
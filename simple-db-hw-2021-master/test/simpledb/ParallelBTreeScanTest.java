@@ -0,0 +1,149 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.index.ParallelBTreeScan;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class ParallelBTreeScanTest extends SimpleDbTestBase {
+	private static final int ROWS = 30000;
+
+	private TransactionId tid;
+	private BTreeFile bf;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		// about 60 leaves, with every key on about 300 tuples
+		bf = BTreeUtility.createRandomBTreeFile(2, ROWS, 100, null, null, 0);
+		Database.resetBufferPool(500);
+		tid = new TransactionId();
+	}
+
+	@After public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private static List<List<Integer>> rows(OpIterator it) throws Exception {
+		List<List<Integer>> rows = new ArrayList<>();
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			List<Integer> row = new ArrayList<>();
+			for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+				row.add(((IntField) t.getField(i)).getValue());
+			rows.add(row);
+		}
+		it.close();
+		return rows;
+	}
+
+	private static void sort(List<List<Integer>> rows) {
+		rows.sort((a, b) -> a.get(0).equals(b.get(0)) ? a.get(1).compareTo(b.get(1)) : a.get(0).compareTo(b.get(0)));
+	}
+
+	private IndexPredicate[] predicates() {
+		return new IndexPredicate[] {
+			null,
+			new IndexPredicate(Op.LESS_THAN, new IntField(60)),
+			new IndexPredicate(Op.GREATER_THAN, new IntField(20)),
+			new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(20)),
+			new IndexPredicate(Op.LESS_THAN_OR_EQ, new IntField(3)),
+			new IndexPredicate(Op.EQUALS, new IntField(42)),
+		};
+	}
+
+	/**
+	 * Unit test for BTreeFile.partitionKeys
+	 */
+	@Test public void partitionKeys() throws Exception {
+		List<Field> keys = bf.partitionKeys(tid, null, 4);
+		assertEquals(3, keys.size());
+		for (int i = 1; i < keys.size(); i++)
+			assertTrue(keys.get(i).compare(Op.GREATER_THAN, keys.get(i - 1)));
+
+		IndexPredicate ipred = new IndexPredicate(Op.GREATER_THAN, new IntField(50));
+		keys = bf.partitionKeys(tid, ipred, 8);
+		assertTrue(keys.size() > 1);
+		for (Field key : keys)
+			assertTrue(key.compare(Op.GREATER_THAN, new IntField(50)));
+
+		assertEquals(0, bf.partitionKeys(tid, null, 1).size());
+	}
+
+	/**
+	 * Unit test for a parallel scan returning the tuples in key order
+	 */
+	@Test public void ordered() throws Exception {
+		for (IndexPredicate ipred : predicates()) {
+			List<List<Integer>> expected = rows(new BTreeScan(tid, bf.getId(), "t", ipred));
+			ParallelBTreeScan scan = new ParallelBTreeScan(tid, bf.getId(), "t", ipred, 4, true);
+			assertEquals(expected, rows(scan));
+		}
+		ParallelBTreeScan scan = new ParallelBTreeScan(tid, bf.getId(), "t", null, 4, true);
+		rows(scan);
+		assertEquals(4, scan.getNumRanges());
+		assertEquals("t." + bf.getTupleDesc().getFieldName(0), scan.getTupleDesc().getFieldName(0));
+	}
+
+	/**
+	 * Unit test for a parallel scan returning the tuples in any order
+	 */
+	@Test public void unordered() throws Exception {
+		for (IndexPredicate ipred : predicates()) {
+			List<List<Integer>> expected = rows(new BTreeScan(tid, bf.getId(), "t", ipred));
+			List<List<Integer>> actual = rows(new ParallelBTreeScan(tid, bf.getId(), "t", ipred, 4, false));
+			sort(expected);
+			sort(actual);
+			assertEquals(expected, actual);
+		}
+	}
+
+	/**
+	 * Unit test for closing a parallel scan before reading all of it
+	 */
+	@Test public void closeEarly() throws Exception {
+		ParallelBTreeScan scan = new ParallelBTreeScan(tid, bf.getId(), "t", null, 4, true);
+		scan.open();
+		for (int i = 0; i < 10; i++)
+			scan.next();
+		scan.rewind();
+		int n = 0;
+		while (scan.hasNext()) {
+			scan.next();
+			n++;
+		}
+		scan.close();
+		assertEquals(ROWS, n);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(ParallelBTreeScanTest.class);
+	}
+}
@@ -0,0 +1,223 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.TrigramIndex;
+import simpledb.index.TrigramIndexScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class TrigramIndexTest extends SimpleDbTestBase {
+	private static final int ROWS = 2000;
+	private static final String[] FRUITS = { "apple", "banana", "cherry", "grape", "melon" };
+
+	private HeapFile table;
+	private TrigramIndex index;
+
+	/** @return the name of the tuple with an id */
+	private static String name(int id) {
+		return "item" + id + FRUITS[id % FRUITS.length];
+	}
+
+	/**
+	 * Set up initial resources for each unit test: a table of (id, name) with
+	 * a trigram index on the name.
+	 */
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		// deleting a fifth of the table dirties many index pages in one transaction
+		Database.resetBufferPool(500);
+		File text = File.createTempFile("items", "txt");
+		text.deleteOnExit();
+		try (FileWriter w = new FileWriter(text)) {
+			for (int i = 0; i < ROWS; i++)
+				w.write(i + "," + name(i) + "\n");
+		}
+		File f = File.createTempFile("items", "dat");
+		f.deleteOnExit();
+		Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+		HeapFileEncoder.convert(text, f, BufferPool.getPageSize(), 2, types);
+		table = new HeapFile(f, new TupleDesc(types, new String[] { "id", "name" }));
+		Database.getCatalog().addTable(table, "items");
+
+		File idx = File.createTempFile("items_name", "dat");
+		idx.deleteOnExit();
+		idx.delete();
+		index = new TrigramIndex("items_name", table.getId(), 1, idx);
+		TransactionId tid = new TransactionId();
+		assertEquals(ROWS, index.build(tid));
+		Database.getBufferPool().transactionComplete(tid);
+		Database.getCatalog().addTrigramIndex(index);
+		TableStats.setTableStats("items", new TableStats(table.getId(), 1000));
+	}
+
+	@After public void tearDown() {
+		index.getFile().getFile().delete();
+	}
+
+	/** @return the ids of the tuples a plan returns, in ascending order */
+	private static List<Integer> ids(OpIterator plan) throws Exception {
+		List<Integer> ids = new ArrayList<>();
+		plan.open();
+		while (plan.hasNext())
+			ids.add(((IntField) plan.next().getField(0)).getValue());
+		plan.close();
+		ids.sort(null);
+		return ids;
+	}
+
+	/** @return the ids of the tuples whose name contains a pattern, read through the index */
+	private List<Integer> like(String pattern) throws Exception {
+		TransactionId tid = new TransactionId();
+		OpIterator scan = new TrigramIndexScan(tid, index, "i", pattern);
+		List<Integer> ids = ids(new Filter(new Predicate(1, Op.LIKE, new StringField(pattern, Type.STRING_LEN)), scan));
+		Database.getBufferPool().transactionComplete(tid);
+		return ids;
+	}
+
+	/** @return the ids below n whose name contains a pattern */
+	private static List<Integer> expected(String pattern, int n) {
+		List<Integer> ids = new ArrayList<>();
+		for (int i = 0; i < n; i++)
+			if (name(i).contains(pattern))
+				ids.add(i);
+		return ids;
+	}
+
+	/**
+	 * Unit test for the trigrams of strings
+	 */
+	@Test public void grams() {
+		assertEquals(2, TrigramIndex.grams("abcd").size());
+		assertEquals(1, TrigramIndex.grams("aaaaa").size());
+		assertTrue(TrigramIndex.grams("ab").isEmpty());
+	}
+
+	/**
+	 * Unit test for the candidates of LIKE patterns, rechecked by a filter
+	 */
+	@Test public void candidates() throws Exception {
+		for (String pattern : new String[] { "cherry", "m12", "item1999", "42ban", "pear", "melon" })
+			assertEquals(pattern, expected(pattern, ROWS), like(pattern));
+
+		TransactionId tid = new TransactionId();
+		// every name containing the pattern is a candidate, and few others are
+		long candidates = index.candidates(tid, "m17").getCardinality();
+		assertTrue(candidates >= expected("m17", ROWS).size());
+		assertTrue(candidates < ROWS / 10);
+		assertNull(index.candidates(tid, "em"));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Unit test for keeping the index up to date on inserts, deletes and aborts
+	 */
+	@Test public void maintain() throws Exception {
+		TransactionId tid = new TransactionId();
+		Database.getBufferPool().insertTuple(tid, table.getId(), tuple(ROWS, "zebra"));
+		Database.getBufferPool().transactionComplete(tid, false);
+		assertEquals(List.of(), like("zebr"));
+
+		tid = new TransactionId();
+		Database.getBufferPool().insertTuple(tid, table.getId(), tuple(ROWS + 1, "zebra"));
+		List<Tuple> doomed = new ArrayList<>();
+		OpIterator scan = new TrigramIndexScan(tid, index, "i", "cherry");
+		scan.open();
+		while (scan.hasNext())
+			doomed.add(scan.next());
+		scan.close();
+		for (Tuple t : doomed)
+			Database.getBufferPool().deleteTuple(tid, t);
+		Database.getBufferPool().transactionComplete(tid);
+
+		assertEquals(List.of(ROWS + 1), like("zebr"));
+		assertEquals(List.of(), like("cherry"));
+		assertEquals(expected("apple", ROWS), like("apple"));
+	}
+
+	private Tuple tuple(int id, String name) {
+		Tuple t = new Tuple(table.getTupleDesc());
+		t.setField(0, new IntField(id));
+		t.setField(1, new StringField(name, Type.STRING_LEN));
+		return t;
+	}
+
+	/**
+	 * Unit test for a query with a LIKE filter, planned as a trigram index scan
+	 */
+	@Test public void plan() throws Exception {
+		TransactionId tid = new TransactionId();
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(table.getId(), "i");
+		lp.addProjectField("i.id", null);
+		lp.addFilter("i.name", Op.LIKE, "grape");
+		lp.addFilter("i.name", Op.LIKE, "m77");
+		OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		TrigramIndexScan scan = find(plan);
+		assertNotNull(scan);
+		assertEquals("grape", scan.getPattern());
+		List<Integer> ids = expected("grape", ROWS);
+		ids.retainAll(expected("m77", ROWS));
+		assertEquals(ids, ids(plan));
+
+		// a pattern shorter than a trigram needs a scan
+		lp = new LogicalPlan();
+		lp.addScan(table.getId(), "i");
+		lp.addProjectField("i.id", null);
+		lp.addFilter("i.name", Op.LIKE, "ap");
+		plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		assertNull(find(plan));
+		assertEquals(expected("ap", ROWS), ids(plan));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private static TrigramIndexScan find(OpIterator plan) {
+		if (plan instanceof TrigramIndexScan)
+			return (TrigramIndexScan) plan;
+		if (plan instanceof Operator) {
+			for (OpIterator child : ((Operator) plan).getChildren()) {
+				TrigramIndexScan found = find(child);
+				if (found != null)
+					return found;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(TrigramIndexTest.class);
+	}
+}